@@ -0,0 +1,179 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded cache, of parsed format strings or of translators.  A lookup
+ * takes no lock: the entries are in a ConcurrentHashMap, and each entry
+ * has a flag that a lookup sets.  When the cache is full, adding an entry removes entries
+ * in the order of a "clock" hand that goes round the map: an entry whose
+ * flag is set gets a second chance, with its flag cleared; an entry whose
+ * flag is not set, because it has not been used since the hand last
+ * passed, is removed.  This approximates the removal of the least
+ * recently used entries.
+ */
+final class BoundedCache<K,V> {
+
+  /**
+   * The key of a format string that is a translation from a catalog: the
+   * catalog, by identity, the locale, if the parsed format depends on it,
+   * and the format string.  In the keys stored in a cache, the catalog is
+   * only weakly referenced, so that the cache does not keep catalogs alive;
+   * keys whose catalog has been garbage collected no longer match and get
+   * evicted.  The keys that only serve for a lookup reference the catalog
+   * directly.
+   */
+  static final class Key {
+    /* The catalog, or a WeakReference to it, or null.  */
+    private final Object catalog;
+    /* The locale, or null.  */
+    private final Locale locale;
+    private final String format;
+    private final int hashCode;
+    Key (ResourceBundle catalog, Locale locale, String format) {
+      this.catalog = catalog;
+      this.locale = locale;
+      this.format = format;
+      this.hashCode =
+        (31 * System.identityHashCode(catalog)
+         + (locale != null ? locale.hashCode() : 0)) * 31
+        + format.hashCode();
+    }
+    private Key (Key key) {
+      this.catalog =
+        (key.catalog != null
+         ? new WeakReference<ResourceBundle>((ResourceBundle)key.catalog)
+         : null);
+      this.locale = key.locale;
+      this.format = key.format;
+      this.hashCode = key.hashCode;
+    }
+    /* Returns the key to store in a cache.  */
+    Key weakKey () {
+      return new Key(this);
+    }
+    private Object getCatalog () {
+      return (catalog instanceof WeakReference
+              ? ((WeakReference<?>)catalog).get()
+              : catalog);
+    }
+    public int hashCode () {
+      return hashCode;
+    }
+    public boolean equals (Object other) {
+      if (!(other instanceof Key))
+        return false;
+      Key key = (Key)other;
+      if (hashCode != key.hashCode)
+        return false;
+      if (catalog == null || key.catalog == null) {
+        if (catalog != key.catalog)
+          return false;
+      } else {
+        Object referent = getCatalog();
+        if (referent == null || referent != key.getCatalog())
+          return false;
+      }
+      return (locale != null ? locale.equals(key.locale) : key.locale == null)
+             && format.equals(key.format);
+    }
+  }
+
+  /**
+   * A value and its use flag.
+   */
+  private static final class Entry<V> {
+    final V value;
+    volatile boolean used;
+    Entry (V value) {
+      this.value = value;
+    }
+  }
+
+  /* The maximum number of entries.  */
+  private final int maxSize;
+
+  /* The entries.  */
+  private final ConcurrentHashMap<K,Entry<V>> map;
+
+  /* The number of entries, which is cheaper to read than map.size().  */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /* The clock hand.  Only evict uses it, with the lock of this cache; the
+     lookups take no lock.  */
+  private Iterator<Map.Entry<K,Entry<V>>> hand;
+
+  /**
+   * Creates an empty cache.
+   * @param maxSize the maximum number of entries
+   */
+  BoundedCache (int maxSize) {
+    this.maxSize = maxSize;
+    this.map = new ConcurrentHashMap<K,Entry<V>>();
+  }
+
+  /**
+   * Returns the value for <VAR>key</VAR>, or null if there is none.
+   */
+  V get (Object key) {
+    Entry<V> entry = map.get(key);
+    if (entry == null)
+      return null;
+    // Write the flag only when it changes, so that the threads that use
+    // the same entry don't keep invalidating each other's cache line.
+    if (!entry.used)
+      entry.used = true;
+    return entry.value;
+  }
+
+  /**
+   * Stores <VAR>value</VAR> for <VAR>key</VAR>, and removes other entries
+   * if the cache is full.
+   */
+  void put (K key, V value) {
+    if (map.put(key, new Entry<V>(value)) == null
+        && size.incrementAndGet() > maxSize)
+      evict();
+  }
+
+  /* Removes entries until there are at most maxSize.  After two rounds of
+     the hand, entries are removed even if they were used in between, so
+     that lookups cannot keep the hand going round forever.  */
+  private synchronized void evict () {
+    int secondChances = 2 * size.get();
+    while (size.get() > maxSize) {
+      if (hand == null || !hand.hasNext()) {
+        hand = map.entrySet().iterator();
+        if (!hand.hasNext())
+          break;
+      }
+      Map.Entry<K,Entry<V>> mapEntry = hand.next();
+      Entry<V> entry = mapEntry.getValue();
+      if (entry.used && secondChances > 0) {
+        entry.used = false;
+        secondChances--;
+      } else if (map.remove(mapEntry.getKey(), entry))
+        size.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of catalogs with a memory budget, for programs that use many
+ * catalogs but only some of them at a time, such as a server with many
+ * locales and text domains.
+ * <P>
+ * <CODE>ResourceBundle.getBundle</CODE> keeps the classes of a catalog
+ * loaded as long as the class loader that loaded them exists, which for
+ * the class loader of the program is forever.  This cache loads the
+ * classes of each catalog with a class loader of its own, or maps a GNU MO
+ * file, and estimates the memory that a catalog uses from the sizes of its
+ * files.  When the sum of these sizes exceeds the budget, the catalogs
+ * that have not been used for the longest time are removed from the cache,
+ * so that the garbage collector can release them once they are no longer
+ * in use.
+ * <P>
+ * Getting a catalog that is in the cache takes a hash table lookup and
+ * does not lock.  Lookups in the catalog itself are not affected by the
+ * cache.  The least recently used catalogs are determined approximately:
+ * the catalogs that have been used since the last time a catalog was
+ * loaded count as equally recent.
+ * <P>
+ * An instance can be shared among threads.
+ */
+public final class CatalogCache {
+
+  private final long maxBytes;
+
+  /**
+   * An entry of the cache.
+   */
+  private static final class Entry {
+    /* The catalog, or null while it is being loaded.  */
+    volatile ResourceBundle catalog;
+    /* The estimated size in bytes.  */
+    long bytes;
+    /* The value of clock when the catalog was last used.  */
+    volatile long lastUsed;
+    /* The class loader of the catalog, or null.  */
+    ClassLoader classLoader;
+  }
+
+  /* The entries, by key.  */
+  private final ConcurrentHashMap<String,Entry> entries =
+    new ConcurrentHashMap<String,Entry>();
+
+  /* A counter that is incremented each time a catalog is loaded.  */
+  private volatile long clock;
+
+  /* The statistics.  Guarded by the lock of this object.  */
+  private long residentBytes;
+  private long loadCount;
+  private long evictionCount;
+
+  /**
+   * Creates an empty cache.
+   * @param maxBytes the budget: the maximum sum of the estimated sizes of
+   *        the catalogs in the cache.  The most recently loaded catalog is
+   *        kept even if it alone exceeds the budget.
+   */
+  public CatalogCache (long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the catalog of GNU MO files for a text domain and a locale, as
+   * found by {@link MoResourceBundle#getBundle}.  The estimated size of the
+   * catalog is the size of its files.
+   * @param localeDirectory the base directory
+   * @param domain the text domain
+   * @param locale the locale
+   * @throws MissingResourceException if no file was found
+   * @throws IOException if a file cannot be read or is not a GNU MO file
+   */
+  public ResourceBundle getMoCatalog (final File localeDirectory, final String domain, final Locale locale) throws IOException {
+    String key = "mo\u0000" + localeDirectory + '\u0000' + domain + '\u0000' + locale;
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      ResourceBundle catalog = entry.catalog;
+      if (catalog != null) {
+        touch(entry);
+        return catalog;
+      }
+    }
+    return load(key, localeDirectory, domain, locale, true);
+  }
+
+  /**
+   * Returns the catalog of ResourceBundle classes for a resource and a
+   * locale, as created by <CODE>msgfmt --java</CODE> or
+   * <CODE>msgfmt --java2</CODE>.  Each catalog is loaded by a class loader
+   * of its own, which gives precedence to the files in
+   * <VAR>directory</VAR> over the classes of the same name that the class
+   * loader of this class can see.  The estimated size of the catalog is
+   * the size of its class files and <CODE>.strings</CODE> files.
+   * @param directory the base directory of the class files
+   * @param baseName the resource name, a fully qualified class name
+   * @param locale the locale
+   * @throws MissingResourceException if no catalog was found
+   * @throws IOException if a file cannot be read
+   */
+  public ResourceBundle getClassCatalog (File directory, String baseName, Locale locale) throws IOException {
+    String key = "class\u0000" + directory + '\u0000' + baseName + '\u0000' + locale;
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      ResourceBundle catalog = entry.catalog;
+      if (catalog != null) {
+        touch(entry);
+        return catalog;
+      }
+    }
+    return load(key, directory, baseName, locale, false);
+  }
+
+  /* Marks an entry as recently used.  Writes to shared memory only once
+     per entry between two loads.  */
+  private void touch (Entry entry) {
+    long now = clock;
+    if (entry.lastUsed != now)
+      entry.lastUsed = now;
+  }
+
+  private ResourceBundle load (String key, File directory, String name, Locale locale, boolean mo) throws IOException {
+    for (;;) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        Entry newEntry = new Entry();
+        entry = entries.putIfAbsent(key, newEntry);
+        if (entry == null)
+          entry = newEntry;
+      }
+      ResourceBundle catalog = load(key, entry, directory, name, locale, mo);
+      if (catalog != null)
+        return catalog;
+    }
+  }
+
+  /* Loads the catalog into entry, unless another thread has done it.
+     Returns null if entry is no longer in the cache, because the thread
+     that held it before failed to load the catalog; the caller must then
+     retry with a new entry, since the size of a catalog loaded into a
+     removed entry would never be subtracted from residentBytes.  */
+  private ResourceBundle load (String key, Entry entry, File directory, String name, Locale locale, boolean mo) throws IOException {
+    // Only one thread loads a given catalog; the others wait for it.
+    synchronized (entry) {
+      ResourceBundle catalog = entry.catalog;
+      if (catalog != null) {
+        touch(entry);
+        return catalog;
+      }
+      if (entries.get(key) != entry)
+        return null;
+      try {
+        long bytes = 0;
+        if (mo) {
+          catalog = MoResourceBundle.getBundle(directory, name, locale);
+          File[] files = MoResourceBundle.getFiles(directory, name, locale);
+          for (int i = 0; i < files.length; i++)
+            bytes += files[i].length();
+        } else {
+          ClassLoader classLoader =
+            new ReloadableResourceBundle.CatalogClassLoader(directory, CatalogCache.class.getClassLoader());
+          catalog = ResourceBundle.getBundle(name, locale, classLoader);
+          entry.classLoader = classLoader;
+          File[] files = ReloadableResourceBundle.getClassBundleFiles(directory, name, locale);
+          for (int i = 0; i < files.length; i++) {
+            bytes += files[i].length();
+            // The nested classes, such as the shards of msgfmt --java-shard-size.
+            if (files[i].getName().endsWith(".class") && files[i].isFile()) {
+              final String prefix = files[i].getName().replace(".class", "$");
+              File[] nested =
+                files[i].getParentFile().listFiles(
+                  new FilenameFilter() {
+                    public boolean accept (File dir, String fileName) {
+                      return fileName.startsWith(prefix);
+                    }
+                  });
+              if (nested != null)
+                for (int j = 0; j < nested.length; j++)
+                  bytes += nested[j].length();
+            }
+          }
+        }
+        entry.bytes = bytes;
+      } catch (IOException e) {
+        entries.remove(key, entry);
+        throw e;
+      } catch (RuntimeException e) {
+        // Such as MissingResourceException.
+        entries.remove(key, entry);
+        throw e;
+      }
+      synchronized (this) {
+        clock++;
+        entry.lastUsed = clock;
+        entry.catalog = catalog;
+        loadCount++;
+        residentBytes += entry.bytes;
+        evict(entry);
+      }
+      return catalog;
+    }
+  }
+
+  /* Removes the least recently used catalogs, other than keep, until the
+     budget is respected.  */
+  private synchronized void evict (Entry keep) {
+    while (residentBytes > maxBytes) {
+      String oldestKey = null;
+      Entry oldest = null;
+      for (Map.Entry<String,Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        if (entry != keep && entry.catalog != null
+            && (oldest == null || entry.lastUsed < oldest.lastUsed)) {
+          oldestKey = e.getKey();
+          oldest = entry;
+        }
+      }
+      if (oldest == null)
+        break;
+      remove(oldestKey, oldest);
+      evictionCount++;
+    }
+  }
+
+  private synchronized void remove (String key, Entry entry) {
+    if (entries.remove(key, entry)) {
+      residentBytes -= entry.bytes;
+      // Let the class loader and its classes be garbage collected.
+      if (entry.classLoader != null)
+        ResourceBundle.clearCache(entry.classLoader);
+    }
+  }
+
+  /**
+   * Removes all catalogs from the cache.
+   */
+  public synchronized void clear () {
+    for (Map.Entry<String,Entry> e : entries.entrySet())
+      if (e.getValue().catalog != null)
+        remove(e.getKey(), e.getValue());
+  }
+
+  /**
+   * Returns the budget, in bytes.
+   */
+  public long getMaxBytes () {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the sum of the estimated sizes of the catalogs in the cache,
+   * in bytes.
+   */
+  public synchronized long getResidentBytes () {
+    return residentBytes;
+  }
+
+  /**
+   * Returns the number of catalogs in the cache.
+   */
+  public int getCatalogCount () {
+    int count = 0;
+    for (Entry entry : entries.values())
+      if (entry.catalog != null)
+        count++;
+    return count;
+  }
+
+  /**
+   * Returns the number of times a catalog has been loaded.
+   */
+  public synchronized long getLoadCount () {
+    return loadCount;
+  }
+
+  /**
+   * Returns the number of times a catalog has been removed from the cache
+   * because of the budget.
+   */
+  public synchronized long getEvictionCount () {
+    return evictionCount;
+  }
+}
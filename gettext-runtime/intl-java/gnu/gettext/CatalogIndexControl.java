@@ -0,0 +1,148 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A <CODE>ResourceBundle.Control</CODE> for the classes created by
+ * <CODE>msgfmt --java</CODE> or <CODE>msgfmt --java2</CODE> with the option
+ * <CODE>--java-catalog-index</CODE>.
+ * <P>
+ * For each locale, <CODE>ResourceBundle.getBundle</CODE> asks the class
+ * loader for several candidate classes and <CODE>.properties</CODE> files,
+ * most of which don't exist.  With a large class path, each failed search
+ * takes a long time.  This control reads the list of existing classes that
+ * msgfmt wrote next to the classes, in a file with the suffix
+ * <CODE>.catalogs</CODE>, and loads only the classes in this list.  If the
+ * list does not exist, it behaves like the default control, except that it
+ * does not search for <CODE>.properties</CODE> files.
+ * <P>
+ * Example:
+ * <PRE>
+ *   ResourceBundle catalog =
+ *     ResourceBundle.getBundle("Messages", locale, CatalogIndexControl.getControl());
+ * </PRE>
+ */
+public class CatalogIndexControl extends ResourceBundle.Control {
+
+  private static final CatalogIndexControl CONTROL = new CatalogIndexControl(true);
+  private static final CatalogIndexControl NO_FALLBACK_CONTROL = new CatalogIndexControl(false);
+
+  private final boolean fallback;
+
+  /* The lists of classes, by class loader and resource name.  A resource
+     without list maps to NO_INDEX.  */
+  private static final Map<ClassLoader,Map<String,Set<String>>> indexes =
+    new WeakHashMap<ClassLoader,Map<String,Set<String>>>();
+  private static final Set<String> NO_INDEX = Collections.emptySet();
+
+  /**
+   * Creates a control.
+   * @param fallback whether <CODE>ResourceBundle.getBundle</CODE> should
+   *        fall back to the default locale when no catalog is found for the
+   *        requested locale, like with the default control
+   */
+  protected CatalogIndexControl (boolean fallback) {
+    this.fallback = fallback;
+  }
+
+  /**
+   * Returns a control that falls back to the default locale, like the
+   * default control.
+   */
+  public static CatalogIndexControl getControl () {
+    return CONTROL;
+  }
+
+  /**
+   * Returns a control that does not fall back to the default locale.
+   */
+  public static CatalogIndexControl getNoFallbackControl () {
+    return NO_FALLBACK_CONTROL;
+  }
+
+  public List<String> getFormats (String baseName) {
+    if (baseName == null)
+      throw new NullPointerException();
+    return FORMAT_CLASS;
+  }
+
+  public Locale getFallbackLocale (String baseName, Locale locale) {
+    if (baseName == null)
+      throw new NullPointerException();
+    return (fallback ? super.getFallbackLocale(baseName, locale) : null);
+  }
+
+  public ResourceBundle newBundle (String baseName, Locale locale, String format,
+                                   ClassLoader loader, boolean reload)
+         throws IllegalAccessException, InstantiationException, IOException {
+    Set<String> index = getIndex(baseName, loader);
+    if (index != NO_INDEX && !index.contains(toBundleName(baseName, locale)))
+      // Known not to exist.
+      return null;
+    return super.newBundle(baseName, locale, format, loader, reload);
+  }
+
+  /**
+   * Returns the list of classes of a resource, or NO_INDEX.
+   */
+  private static Set<String> getIndex (String baseName, ClassLoader loader) {
+    synchronized (indexes) {
+      Map<String,Set<String>> loaderIndexes = indexes.get(loader);
+      if (loaderIndexes == null) {
+        loaderIndexes = new HashMap<String,Set<String>>();
+        indexes.put(loader, loaderIndexes);
+      }
+      Set<String> index = loaderIndexes.get(baseName);
+      if (index == null) {
+        index = readIndex(baseName, loader);
+        loaderIndexes.put(baseName, index);
+      }
+      return index;
+    }
+  }
+
+  private static Set<String> readIndex (String baseName, ClassLoader loader) {
+    String resourceName = baseName.replace('.', '/') + ".catalogs";
+    InputStream stream =
+      (loader != null
+       ? loader.getResourceAsStream(resourceName)
+       : ClassLoader.getSystemResourceAsStream(resourceName));
+    if (stream == null)
+      return NO_INDEX;
+    Set<String> index = new HashSet<String>();
+    try {
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.length() > 0 && line.charAt(0) != '#')
+            index.add(line);
+        }
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      return NO_INDEX;
+    }
+    return index;
+  }
+}
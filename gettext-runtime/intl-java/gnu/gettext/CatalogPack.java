@@ -0,0 +1,294 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.util.*;
+
+/**
+ * The translations of a text domain into several languages, as created by
+ * <CODE>msgfmt --java-pack</CODE>.
+ * <P>
+ * A pack contains a single hash table of the keys (msgid, or msgctxt and
+ * msgid), and for each locale a column of values, in the same order as the
+ * keys.  A key is therefore stored and hashed only once, however many
+ * locales the pack contains, and a single lookup gives the position of the
+ * translations in all locales.  This is useful for programs that render
+ * the same message in several languages, such as a server that sends a
+ * notification to users with different languages:
+ * <PRE>
+ *   CatalogPack pack = (CatalogPack) Class.forName("MessagesPack").newInstance();
+ *   String[] subjects = pack.gettextAll("Your order has shipped");
+ * </PRE>
+ * The column of a locale is loaded when it is first used.  A pack can be
+ * shared among threads.
+ * <P>
+ * {@link #getCatalog} returns a ResourceBundle view of a column, which the
+ * functions of {@link GettextResource} and {@link Translator} accept like
+ * any other catalog.
+ */
+public abstract class CatalogPack {
+
+  /* The ResourceBundle views of the columns, created on demand.  */
+  private volatile ResourceBundle[] catalogs;
+
+  protected CatalogPack () {
+  }
+
+  /**
+   * Returns the names of the locales, with underscore separators, in the
+   * order of the columns.  The array must not be modified.
+   */
+  protected abstract String[] getLocaleNameTable ();
+
+  /**
+   * Returns the names of the locales, with underscore separators, in the
+   * order of the columns.
+   */
+  public String[] getLocaleNames () {
+    return getLocaleNameTable().clone();
+  }
+
+  /**
+   * Returns the position of the key <VAR>msgid</VAR> in the table, or -1
+   * if the pack does not contain it.
+   */
+  public abstract int indexOf (String msgid);
+
+  /**
+   * Returns the position of the key consisting of <VAR>msgctxt</VAR> and
+   * <VAR>msgid</VAR> in the table, or -1 if the pack does not contain it.
+   */
+  public abstract int indexOf (String msgctxt, String msgid);
+
+  /**
+   * Returns the keys, indexed by position.  A key with context is the
+   * msgctxt, a U+0004 character, and the msgid.  The array must not be
+   * modified.
+   */
+  protected abstract String[] getKeyTable ();
+
+  /**
+   * Returns the values of a column, indexed by position.  A value is a
+   * String, a String[] with the plural forms, or <CODE>null</CODE> if the
+   * message is not translated in this locale.  The array must not be
+   * modified.
+   */
+  protected abstract Object[] getValueTable (int column);
+
+  /**
+   * Returns the index of the plural form to use for the number <VAR>n</VAR>
+   * in the locale of a column.
+   */
+  protected abstract long pluralIndex (int column, long n);
+
+  /**
+   * Returns the column of a locale: the column whose name is the same as
+   * the name of <VAR>locale</VAR>, otherwise the column whose name is the
+   * language of <VAR>locale</VAR>, otherwise -1.
+   */
+  public int getColumn (Locale locale) {
+    String[] names = getLocaleNameTable();
+    String name = locale.toString();
+    for (int i = 0; i < names.length; i++)
+      if (names[i].equals(name))
+        return i;
+    String language = locale.getLanguage();
+    for (int i = 0; i < names.length; i++)
+      if (names[i].equals(language))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Returns the translation at a position in a column, or
+   * <CODE>null</CODE>.
+   */
+  private String translate (int column, int index, long n, boolean plural) {
+    if (index < 0)
+      return null;
+    Object value = getValueTable(column)[index];
+    if (value == null || value instanceof String)
+      return (String)value;
+    String[] pluralforms = (String[])value;
+    long i = 0;
+    if (plural) {
+      try {
+        i = pluralIndex(column, n);
+      } catch (ArithmeticException e) {
+        // Division by zero.
+        i = 0;
+      }
+      if (!(i >= 0 && i < pluralforms.length))
+        i = 0;
+    }
+    return pluralforms[(int)i];
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the locale of a column.
+   * @param column a column, as returned by {@link #getColumn}
+   * @return the translation of <VAR>msgid</VAR>, or <VAR>msgid</VAR> if
+   *         none is found
+   */
+  public String gettext (int column, String msgid) {
+    String result = translate(column, indexOf(msgid), 0, false);
+    return (result != null ? result : msgid);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the locale of a column.
+   * @param column a column, as returned by {@link #getColumn}
+   * @return the translation of <VAR>msgid</VAR> depending on <VAR>n</VAR>,
+   *         or <VAR>msgid</VAR> or <VAR>msgid_plural</VAR> if none is found
+   */
+  public String ngettext (int column, String msgid, String msgid_plural, long n) {
+    String result = translate(column, indexOf(msgid), n, true);
+    return (result != null ? result : n != 1 ? msgid_plural : msgid);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context of
+   * <VAR>msgctxt</VAR>, in the locale of a column.
+   * @param column a column, as returned by {@link #getColumn}
+   * @return the translation of <VAR>msgid</VAR>, or <VAR>msgid</VAR> if
+   *         none is found
+   */
+  public String pgettext (int column, String msgctxt, String msgid) {
+    String result = translate(column, indexOf(msgctxt, msgid), 0, false);
+    return (result != null ? result : msgid);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the context of <VAR>msgctxt</VAR>, in the locale of
+   * a column.
+   * @param column a column, as returned by {@link #getColumn}
+   * @return the translation of <VAR>msgid</VAR> depending on <VAR>n</VAR>,
+   *         or <VAR>msgid</VAR> or <VAR>msgid_plural</VAR> if none is found
+   */
+  public String npgettext (int column, String msgctxt, String msgid, String msgid_plural, long n) {
+    String result = translate(column, indexOf(msgctxt, msgid), n, true);
+    return (result != null ? result : n != 1 ? msgid_plural : msgid);
+  }
+
+  /**
+   * Returns the translations of <VAR>msgid</VAR> in all locales, in the
+   * order of the columns, with a single lookup.
+   * @return the translations, with <VAR>msgid</VAR> for the locales in
+   *         which it is not translated
+   */
+  public String[] gettextAll (String msgid) {
+    int index = indexOf(msgid);
+    String[] result = new String[getLocaleNameTable().length];
+    for (int column = 0; column < result.length; column++) {
+      String value = translate(column, index, 0, false);
+      result[column] = (value != null ? value : msgid);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the plural forms for <VAR>n</VAR> of the translations of
+   * <VAR>msgid</VAR> in all locales, in the order of the columns, with a
+   * single lookup.
+   * @return the translations, with <VAR>msgid</VAR> or
+   *         <VAR>msgid_plural</VAR> for the locales in which it is not
+   *         translated
+   */
+  public String[] ngettextAll (String msgid, String msgid_plural, long n) {
+    int index = indexOf(msgid);
+    String[] result = new String[getLocaleNameTable().length];
+    for (int column = 0; column < result.length; column++) {
+      String value = translate(column, index, n, true);
+      result[column] = (value != null ? value : n != 1 ? msgid_plural : msgid);
+    }
+    return result;
+  }
+
+  /**
+   * Returns a ResourceBundle view of a column.  It has no parent catalog.
+   * @param column a column, as returned by {@link #getColumn}
+   */
+  public ResourceBundle getCatalog (int column) {
+    ResourceBundle[] array = catalogs;
+    if (array == null) {
+      array = new ResourceBundle[getLocaleNameTable().length];
+      catalogs = array;
+    }
+    ResourceBundle catalog = array[column];
+    if (catalog == null) {
+      // Two threads may create a view at the same time; either is fine.
+      catalog = new Column(column);
+      array[column] = catalog;
+    }
+    return catalog;
+  }
+
+  /**
+   * The ResourceBundle view of a column.
+   */
+  private final class Column extends ResourceBundle implements GettextCatalog {
+    private final int column;
+    private final Locale locale;
+
+    Column (int column) {
+      this.column = column;
+      String[] parts = getLocaleNameTable()[column].split("_", 3);
+      this.locale =
+        new Locale(parts[0], parts.length > 1 ? parts[1] : "", parts.length > 2 ? parts[2] : "");
+    }
+
+    public Locale getLocale () {
+      return locale;
+    }
+
+    public Object lookup (String msgid) {
+      int index = indexOf(msgid);
+      return (index >= 0 ? getValueTable(column)[index] : null);
+    }
+
+    public Object lookup (String msgctxt, String msgid) {
+      int index = indexOf(msgctxt, msgid);
+      return (index >= 0 ? getValueTable(column)[index] : null);
+    }
+
+    public long pluralIndex (long n) {
+      return CatalogPack.this.pluralIndex(column, n);
+    }
+
+    public ResourceBundle getParent () {
+      return null;
+    }
+
+    protected Object handleGetObject (String key) {
+      Object value = lookup(key);
+      return (value instanceof String[] ? ((String[])value)[0] : value);
+    }
+
+    public Enumeration<String> getKeys () {
+      String[] keys = getKeyTable();
+      Object[] values = getValueTable(column);
+      Vector<String> result = new Vector<String>();
+      for (int i = 0; i < keys.length; i++)
+        if (keys[i] != null && values[i] != null)
+          result.addElement(keys[i]);
+      return result.elements();
+    }
+  }
+}
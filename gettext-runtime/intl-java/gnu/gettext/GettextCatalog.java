@@ -0,0 +1,63 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.util.ResourceBundle;
+
+/**
+ * This interface is implemented by the ResourceBundle classes that
+ * <CODE>msgfmt --java-interface</CODE> creates, and by
+ * <CODE>MoResourceBundle</CODE>.
+ * <P>
+ * By default, the classes created by <CODE>msgfmt</CODE> are standalone:
+ * they don't depend on <CODE>libintl.jar</CODE>, and
+ * <CODE>GettextResource</CODE> accesses their lookup and plural handling
+ * through reflection.  Classes that implement this interface can be
+ * accessed through ordinary method calls, which is faster.  But they can
+ * only be loaded when <CODE>libintl.jar</CODE> is in the class path.
+ */
+public interface GettextCatalog {
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in this catalog, without
+   * looking at the parent catalogs.  The result is a String, a String[]
+   * with the plural forms, or <CODE>null</CODE> if <VAR>msgid</VAR> is not
+   * contained in this catalog.
+   */
+  Object lookup (String msgid);
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context
+   * <VAR>msgctxt</VAR> in this catalog, without looking at the parent
+   * catalogs.  The result is a String, a String[] with the plural forms,
+   * or <CODE>null</CODE>.
+   */
+  Object lookup (String msgctxt, String msgid);
+
+  /**
+   * Returns the index of the plural form to use for the number <VAR>n</VAR>.
+   * The result is not necessarily a valid index into the arrays returned by
+   * <CODE>lookup</CODE>; the caller has to check it.
+   */
+  long pluralIndex (long n);
+
+  /**
+   * Returns the parent catalog, or <CODE>null</CODE>.
+   */
+  ResourceBundle getParent ();
+}
@@ -1,5 +1,5 @@
 /* GNU gettext for Java
- * Copyright (C) 2001, 2007 Free Software Foundation, Inc.
+ * Copyright (C) 2001, 2007, 2021 Free Software Foundation, Inc.
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Lesser General Public License as published by
@@ -17,8 +17,11 @@
 
 package gnu.gettext;
 
+import java.lang.ref.*;
 import java.lang.reflect.*;
+import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implements the main GNU libintl functions in Java.
@@ -63,16 +66,114 @@ public abstract class GettextResource extends ResourceBundle {
 
   public static boolean verbose = false;
 
+  /* The recorder of missing translations, or null.  */
+  private static volatile MissingTranslationRecorder missingTranslationRecorder;
+
   /**
-   * Like gettext(catalog,msgid), except that it returns <CODE>null</CODE>
-   * when no translation was found.
+   * Sets the recorder to which gettext, ngettext, pgettext and npgettext
+   * report the messages for which they find no translation.
+   * @param recorder a recorder, or <CODE>null</CODE> to stop recording
    */
-  private static String gettextnull (ResourceBundle catalog, String msgid) {
-    try {
-      return (String)catalog.getObject(msgid);
-    } catch (MissingResourceException e) {
-      return null;
+  public static void setMissingTranslationRecorder (MissingTranslationRecorder recorder) {
+    missingTranslationRecorder = recorder;
+  }
+
+  /**
+   * Returns the recorder of missing translations, or <CODE>null</CODE>.
+   */
+  public static MissingTranslationRecorder getMissingTranslationRecorder () {
+    return missingTranslationRecorder;
+  }
+
+  /**
+   * Like pgettext(catalog,msgctxt,msgid), except that it returns
+   * <CODE>null</CODE> when no translation was found.  <VAR>msgctxt</VAR>
+   * may be <CODE>null</CODE>, for a lookup without context.
+   */
+  private static String gettextnull (ResourceBundle catalog, String msgctxt, String msgid) {
+    if (catalog instanceof ReloadableResourceBundle)
+      catalog = ((ReloadableResourceBundle)catalog).getCatalog();
+    GettextStatistics.Counters counters = GettextStatistics.getCounters(catalog);
+    if (counters == null)
+      return gettextnull(catalog, msgctxt, msgid, null);
+    if (!counters.sample()) {
+      String result = gettextnull(catalog, msgctxt, msgid, counters);
+      counters.lookup(result != null, -1);
+      return result;
+    }
+    long start = System.nanoTime();
+    String result = gettextnull(catalog, msgctxt, msgid, counters);
+    counters.lookup(result != null, System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Like gettextnull(catalog,msgctxt,msgid), and counts the steps to parent
+   * catalogs and the reflective lookups in <VAR>counters</VAR>, unless it is
+   * <CODE>null</CODE>.
+   */
+  private static String gettextnull (ResourceBundle catalog, String msgctxt, String msgid,
+                                     GettextStatistics.Counters counters) {
+    // We don't use catalog.getObject(msgid) here, because when no translation
+    // is found, it throws a MissingResourceException, and filling in its
+    // stack trace takes much longer than the lookup itself.  Instead, walk
+    // the chain of GNU gettext created ResourceBundles ourselves.
+    if (catalog instanceof FlatCatalog)
+      // A snapshot created by flatten.  A single lookup suffices.
+      return ((FlatCatalog)catalog).gettext(msgctxt, msgid);
+    String key = (msgctxt == null ? msgid : null);
+    do {
+      if (catalog instanceof MoResourceBundle) {
+        // A GNU MO file.  Only the first plural form needs to be decoded.
+        MoResourceBundle moCatalog = (MoResourceBundle)catalog;
+        String localValue = moCatalog.gettext(msgctxt, msgid);
+        if (localValue != null)
+          return localValue;
+        catalog = moCatalog.getParent();
+        if (counters != null && catalog != null)
+          counters.increment(GettextStatistics.FALLBACKS);
+        continue;
+      }
+      if (catalog instanceof GettextCatalog) {
+        // A class created by msgfmt --java-interface.  No reflection needed.
+        GettextCatalog gettextCatalog = (GettextCatalog)catalog;
+        Object localValue =
+          (msgctxt == null
+           ? gettextCatalog.lookup(msgid)
+           : gettextCatalog.lookup(msgctxt, msgid));
+        if (localValue != null)
+          return (localValue instanceof String[] ? ((String[])localValue)[0] : (String)localValue);
+        catalog = gettextCatalog.getParent();
+        if (counters != null && catalog != null)
+          counters.increment(GettextStatistics.FALLBACKS);
+        continue;
+      }
+      CatalogClass catalogClass = getCatalogClass(catalog);
+      if (catalogClass.handleGetObjectMethod == null)
+        // Not a GNU gettext created class.
+        break;
+      if (key == null && catalogClass.lookupContextMethod == null)
+        key = msgctxt + CONTEXT_GLUE + msgid;
+      if (counters != null)
+        counters.increment(GettextStatistics.REFLECTIVE_LOOKUPS);
+      Object localValue = catalogClass.lookup(catalog, msgctxt, msgid, key);
+      if (localValue != null)
+        return (localValue instanceof String[] ? ((String[])localValue)[0] : (String)localValue);
+      ResourceBundle parentCatalog = getParentCatalog(catalog, catalogClass);
+      if (parentCatalog != catalog)
+        catalog = parentCatalog;
+      else
+        break;
+      if (counters != null && catalog != null)
+        counters.increment(GettextStatistics.FALLBACKS);
+    } while (catalog != null);
+    // The end of chain of GNU gettext ResourceBundles is reached.
+    if (catalog != null) {
+      if (key == null)
+        key = msgctxt + CONTEXT_GLUE + msgid;
+      return (String)getObjectOrNull(catalog, key);
     }
+    return null;
   }
 
   /**
@@ -83,126 +184,689 @@ public abstract class GettextResource extends ResourceBundle {
    *         none is found
    */
   public static String gettext (ResourceBundle catalog, String msgid) {
-    String result = gettextnull(catalog,msgid);
+    String result = gettextnull(catalog,null,msgid);
     if (result != null)
       return result;
+    MissingTranslationRecorder recorder = missingTranslationRecorder;
+    if (recorder != null)
+      recorder.record(catalog, null, msgid, null);
     return msgid;
   }
 
   /**
-   * Like ngettext(catalog,msgid,msgid_plural,n), except that it returns
-   * <CODE>null</CODE> when no translation was found.
+   * Reflective information about a ResourceBundle class.
    */
-  private static String ngettextnull (ResourceBundle catalog, String msgid, long n) {
-    // The reason why we use so many reflective API calls instead of letting
-    // the GNU gettext generated ResourceBundles implement some interface,
-    // is that we want the generated ResourceBundles to be completely
-    // standalone, so that migration from the Sun approach to the GNU gettext
-    // approach (without use of plurals) is as straightforward as possible.
-    ResourceBundle origCatalog = catalog;
-    do {
-      // Try catalog itself.
-      if (verbose)
-        System.out.println("ngettext on "+catalog);
+  private static final class CatalogClass {
+    /* The methods of a GNU gettext created class, or null.  */
+    final Method handleGetObjectMethod;
+    final Method getParentMethod;
+    final Method lookupMethod;
+    final Method lookupContextMethod;
+    final Method pluralEvalMethod;
+    /* The plural expression of a GNU gettext created class with plural
+       handling, or null if it could not be determined.  */
+    final PluralExpression plural;
+    CatalogClass (Class<?> clazz, ResourceBundle catalog) {
       Method handleGetObjectMethod = null;
       Method getParentMethod = null;
       try {
-        handleGetObjectMethod = catalog.getClass().getMethod("handleGetObject", new Class[] { java.lang.String.class });
-        getParentMethod = catalog.getClass().getMethod("getParent", new Class[0]);
+        handleGetObjectMethod = clazz.getMethod("handleGetObject", new Class[] { java.lang.String.class });
+        getParentMethod = clazz.getMethod("getParent", new Class[0]);
       } catch (NoSuchMethodException e) {
       } catch (SecurityException e) {
       }
       if (verbose)
         System.out.println("handleGetObject = "+(handleGetObjectMethod!=null)+", getParent = "+(getParentMethod!=null));
+      Method lookupMethod = null;
+      Method lookupContextMethod = null;
+      Method pluralEvalMethod = null;
       if (handleGetObjectMethod != null
           && Modifier.isPublic(handleGetObjectMethod.getModifiers())
           && getParentMethod != null) {
         // A GNU gettext created class.
-        Method lookupMethod = null;
-        Method pluralEvalMethod = null;
         try {
-          lookupMethod = catalog.getClass().getMethod("lookup", new Class[] { java.lang.String.class });
-          pluralEvalMethod = catalog.getClass().getMethod("pluralEval", new Class[] { Long.TYPE });
+          lookupMethod = clazz.getMethod("lookup", new Class[] { java.lang.String.class });
+          pluralEvalMethod = clazz.getMethod("pluralEval", new Class[] { Long.TYPE });
         } catch (NoSuchMethodException e) {
         } catch (SecurityException e) {
         }
         if (verbose)
           System.out.println("lookup = "+(lookupMethod!=null)+", pluralEval = "+(pluralEvalMethod!=null));
-        if (lookupMethod != null && pluralEvalMethod != null) {
-          // A GNU gettext created class with plural handling.
-          Object localValue = null;
-          try {
-            localValue = lookupMethod.invoke(catalog, new Object[] { msgid });
-          } catch (IllegalAccessException e) {
-            e.printStackTrace();
-          } catch (InvocationTargetException e) {
-            e.getTargetException().printStackTrace();
-          }
-          if (localValue != null) {
-            if (verbose)
-              System.out.println("localValue = "+localValue);
-            if (localValue instanceof String)
-              // Found the value. It doesn't depend on n in this case.
-              return (String)localValue;
-            else {
-              String[] pluralforms = (String[])localValue;
-              long i = 0;
-              try {
-                i = ((Long) pluralEvalMethod.invoke(catalog, new Object[] { new Long(n) })).longValue();
-                if (!(i >= 0 && i < pluralforms.length))
-                  i = 0;
-              } catch (IllegalAccessException e) {
-                e.printStackTrace();
-              } catch (InvocationTargetException e) {
-                e.getTargetException().printStackTrace();
-              }
-              return pluralforms[(int)i];
-            }
-          }
-        } else {
+        if (lookupMethod == null || pluralEvalMethod == null) {
           // A GNU gettext created class without plural handling.
-          Object localValue = null;
-          try {
-            localValue = handleGetObjectMethod.invoke(catalog, new Object[] { msgid });
-          } catch (IllegalAccessException e) {
-            e.printStackTrace();
-          } catch (InvocationTargetException e) {
-            e.getTargetException().printStackTrace();
+          lookupMethod = null;
+          pluralEvalMethod = null;
+        }
+        // msgfmt versions > 0.21.1 create a lookup method that takes the
+        // context and the msgid as separate arguments.
+        try {
+          lookupContextMethod = clazz.getMethod("lookup", new Class[] { java.lang.String.class, java.lang.String.class });
+        } catch (NoSuchMethodException e) {
+        } catch (SecurityException e) {
+        }
+      } else {
+        // Not a GNU gettext created class.
+        handleGetObjectMethod = null;
+        getParentMethod = null;
+      }
+      this.handleGetObjectMethod = handleGetObjectMethod;
+      this.getParentMethod = getParentMethod;
+      this.lookupMethod = lookupMethod;
+      this.lookupContextMethod = lookupContextMethod;
+      this.pluralEvalMethod = pluralEvalMethod;
+      // The class's pluralEval method evaluates the plural expression from
+      // the header entry.  Evaluating it ourselves avoids the boxing and the
+      // argument array of a reflective call.
+      PluralExpression plural = null;
+      if (lookupMethod != null) {
+        Object header = invoke(lookupMethod, catalog, "");
+        if (header instanceof String)
+          plural = PluralExpression.parse((String)header);
+        if (verbose)
+          System.out.println("plural = "+(plural!=null));
+      }
+      this.plural = plural;
+    }
+    /**
+     * Returns the local value for a key in a GNU gettext created catalog,
+     * without looking at the parent catalogs.  The result is a String, a
+     * String[] (for a message with plural forms), or <CODE>null</CODE>.
+     * If <VAR>key</VAR> is <CODE>null</CODE>, the key consists of
+     * <VAR>msgctxt</VAR> and <VAR>msgid</VAR>, and lookupContextMethod must
+     * be non-null.
+     */
+    Object lookup (ResourceBundle catalog, String msgctxt, String msgid, String key) {
+      if (key == null)
+        return invoke(lookupContextMethod, catalog, msgctxt, msgid);
+      else if (lookupMethod != null)
+        return invoke(lookupMethod, catalog, key);
+      else
+        return invoke(handleGetObjectMethod, catalog, key);
+    }
+    /**
+     * Returns the index of the plural form for <VAR>n</VAR>, for a GNU
+     * gettext created class with plural handling.
+     */
+    long pluralEval (ResourceBundle catalog, long n) {
+      if (plural != null) {
+        try {
+          return plural.eval(n);
+        } catch (ArithmeticException e) {
+          // Division by zero.
+          return 0;
+        }
+      }
+      // Long.valueOf does not allocate for small values of n.
+      Object i = invoke(pluralEvalMethod, catalog, Long.valueOf(n));
+      return (i instanceof Long ? ((Long)i).longValue() : 0);
+    }
+  }
+
+  /**
+   * A plural expression, as found in the "Plural-Forms" line of the header
+   * entry.  It is evaluated with the same semantics as the pluralEval method
+   * generated by GNU msgfmt, and without allocating memory.
+   */
+  static final class PluralExpression {
+    private static final int VAR = 0;
+    private static final int NUM = 1;
+    private static final int LNOT = 2;
+    private static final int MULT = 3;
+    private static final int DIVIDE = 4;
+    private static final int MODULE = 5;
+    private static final int PLUS = 6;
+    private static final int MINUS = 7;
+    private static final int LESS_THAN = 8;
+    private static final int GREATER_THAN = 9;
+    private static final int LESS_OR_EQUAL = 10;
+    private static final int GREATER_OR_EQUAL = 11;
+    private static final int EQUAL = 12;
+    private static final int NOT_EQUAL = 13;
+    private static final int LAND = 14;
+    private static final int LOR = 15;
+    private static final int QMOP = 16;
+
+    private final int operation;
+    private final long num;
+    private final PluralExpression arg0;
+    private final PluralExpression arg1;
+    private final PluralExpression arg2;
+
+    private PluralExpression (int operation, long num,
+                              PluralExpression arg0, PluralExpression arg1,
+                              PluralExpression arg2) {
+      this.operation = operation;
+      this.num = num;
+      this.arg0 = arg0;
+      this.arg1 = arg1;
+      this.arg2 = arg2;
+    }
+
+    /**
+     * Evaluates the expression for <VAR>n</VAR>.
+     * @throws ArithmeticException in case of a division by zero
+     */
+    long eval (long n) {
+      switch (operation) {
+        case VAR: return n;
+        case NUM: return num;
+        case LNOT: return (arg0.eval(n) == 0 ? 1 : 0);
+        case MULT: return arg0.eval(n) * arg1.eval(n);
+        case DIVIDE: return arg0.eval(n) / arg1.eval(n);
+        case MODULE: return arg0.eval(n) % arg1.eval(n);
+        case PLUS: return arg0.eval(n) + arg1.eval(n);
+        case MINUS: return arg0.eval(n) - arg1.eval(n);
+        case LESS_THAN: return (arg0.eval(n) < arg1.eval(n) ? 1 : 0);
+        case GREATER_THAN: return (arg0.eval(n) > arg1.eval(n) ? 1 : 0);
+        case LESS_OR_EQUAL: return (arg0.eval(n) <= arg1.eval(n) ? 1 : 0);
+        case GREATER_OR_EQUAL: return (arg0.eval(n) >= arg1.eval(n) ? 1 : 0);
+        case EQUAL: return (arg0.eval(n) == arg1.eval(n) ? 1 : 0);
+        case NOT_EQUAL: return (arg0.eval(n) != arg1.eval(n) ? 1 : 0);
+        case LAND: return (arg0.eval(n) != 0 && arg1.eval(n) != 0 ? 1 : 0);
+        case LOR: return (arg0.eval(n) != 0 || arg1.eval(n) != 0 ? 1 : 0);
+        case QMOP: return (arg0.eval(n) != 0 ? arg1.eval(n) : arg2.eval(n));
+        default: throw new InternalError();
+      }
+    }
+
+    /**
+     * Extracts the plural expression from a header entry.  Returns
+     * <CODE>null</CODE> if the header entry contains no valid plural
+     * expression.
+     */
+    static PluralExpression parse (String header) {
+      // Look only at the "Plural-Forms" line, so that "plural=" in another
+      // field of the header entry is not mistaken for the expression.
+      int line;
+      if (header.startsWith("Plural-Forms:"))
+        line = 0;
+      else {
+        line = header.indexOf("\nPlural-Forms:");
+        if (line < 0)
+          return null;
+        line++;
+      }
+      int lineEnd = header.indexOf('\n', line);
+      if (lineEnd < 0)
+        lineEnd = header.length();
+      String pluralForms = header.substring(line + 13, lineEnd);
+      // Same syntax as in gettext-runtime/intl/plural.y.
+      int plural = pluralForms.indexOf("plural=");
+      if (plural < 0 || pluralForms.indexOf("nplurals=") < 0)
+        return null;
+      Parser parser = new Parser(pluralForms, plural + 7);
+      try {
+        PluralExpression result = parser.parseConditional();
+        char c = parser.peek();
+        if (c == ';' || c == '\n' || c == '\0')
+          return result;
+      } catch (IllegalArgumentException e) {
+      }
+      return null;
+    }
+
+    private static final class Parser {
+      private final String string;
+      private int pos;
+      Parser (String string, int pos) {
+        this.string = string;
+        this.pos = pos;
+      }
+      /* Returns the next non-blank character, or '\0' at the end.  */
+      char peek () {
+        while (pos < string.length()
+               && (string.charAt(pos) == ' ' || string.charAt(pos) == '\t'))
+          pos++;
+        return (pos < string.length() ? string.charAt(pos) : '\0');
+      }
+      private boolean accept (String token) {
+        peek();
+        if (string.startsWith(token, pos)) {
+          pos += token.length();
+          return true;
+        }
+        return false;
+      }
+      private void expect (String token) {
+        if (!accept(token))
+          throw new IllegalArgumentException();
+      }
+      /* exp ? exp : exp, right associative.  */
+      PluralExpression parseConditional () {
+        PluralExpression condition = parseBinary(0);
+        if (accept("?")) {
+          PluralExpression consequent = parseConditional();
+          expect(":");
+          PluralExpression alternative = parseConditional();
+          return new PluralExpression(QMOP, 0, condition, consequent, alternative);
+        }
+        return condition;
+      }
+      /* The binary operators, by increasing priority.  Within a level,
+         longer tokens come before their prefixes.  */
+      private static final String[][] TOKENS = {
+        { "||" },
+        { "&&" },
+        { "==", "!=" },
+        { "<=", ">=", "<", ">" },
+        { "+", "-" },
+        { "*", "/", "%" }
+      };
+      private static final int[][] OPERATIONS = {
+        { LOR },
+        { LAND },
+        { EQUAL, NOT_EQUAL },
+        { LESS_OR_EQUAL, GREATER_OR_EQUAL, LESS_THAN, GREATER_THAN },
+        { PLUS, MINUS },
+        { MULT, DIVIDE, MODULE }
+      };
+      /* Left associative binary operators.  */
+      private PluralExpression parseBinary (int level) {
+        if (level == TOKENS.length)
+          return parseUnary();
+        PluralExpression result = parseBinary(level + 1);
+        loop:
+        for (;;) {
+          for (int i = 0; i < TOKENS[level].length; i++)
+            if (accept(TOKENS[level][i])) {
+              PluralExpression right = parseBinary(level + 1);
+              result = new PluralExpression(OPERATIONS[level][i], 0, result, right, null);
+              continue loop;
+            }
+          return result;
+        }
+      }
+      private PluralExpression parseUnary () {
+        char c = peek();
+        if (c == '!' && !string.startsWith("!=", pos)) {
+          pos++;
+          return new PluralExpression(LNOT, 0, parseUnary(), null, null);
+        } else if (c == 'n') {
+          pos++;
+          return new PluralExpression(VAR, 0, null, null, null);
+        } else if (c >= '0' && c <= '9') {
+          long value = 0;
+          while (pos < string.length()
+                 && string.charAt(pos) >= '0' && string.charAt(pos) <= '9') {
+            value = 10 * value + (string.charAt(pos) - '0');
+            pos++;
           }
-          if (localValue != null) {
+          return new PluralExpression(NUM, value, null, null, null);
+        } else if (c == '(') {
+          pos++;
+          PluralExpression result = parseConditional();
+          expect(")");
+          return result;
+        } else
+          throw new IllegalArgumentException();
+      }
+    }
+  }
+
+  /**
+   * An entry of the CatalogClass cache.  It refers to the class only weakly.
+   * The CatalogClass is referenced only softly, because its Method objects
+   * refer back to the class.  The class and its class loader therefore stay
+   * alive until the garbage collector clears the soft reference, which it
+   * does only when memory gets short or the CatalogClass has not been used
+   * for a while, possibly minutes on a large heap.  Without ClassValue, which
+   * appeared in Java 7, there is no way to cache Method objects per class
+   * that does not keep the class alive; {@link #clearClassCache(ClassLoader)}
+   * removes the entries of a class loader at once.  The lookups in classes
+   * created with <CODE>msgfmt --java-interface</CODE> don't use the cache.
+   */
+  private static final class CatalogClassEntry extends WeakReference<Class<?>> {
+    final int hash;
+    final SoftReference<CatalogClass> info;
+    final CatalogClassEntry next;
+    CatalogClassEntry (Class<?> clazz, int hash, CatalogClass info, CatalogClassEntry next) {
+      super(clazz);
+      this.hash = hash;
+      this.info = new SoftReference<CatalogClass>(info);
+      this.next = next;
+    }
+  }
+
+  /* The CatalogClass cache.  A hash table indexed by identity hash code,
+     with immutable bucket chains.  It is replaced as a whole when an entry
+     is added; therefore reading it needs no locking.  */
+  private static volatile CatalogClassEntry[] catalogClasses = new CatalogClassEntry[16];
+
+  /**
+   * Returns the reflective information about the class of a catalog.
+   * Computed only once per class.
+   */
+  private static CatalogClass getCatalogClass (ResourceBundle catalog) {
+    Class<?> clazz = catalog.getClass();
+    int hash = System.identityHashCode(clazz);
+    CatalogClassEntry[] table = catalogClasses;
+    for (CatalogClassEntry e = table[hash & (table.length - 1)]; e != null; e = e.next)
+      if (e.get() == clazz) {
+        CatalogClass info = e.info.get();
+        if (info != null)
+          return info;
+        break;
+      }
+    return addCatalogClass(clazz, hash, catalog);
+  }
+
+  private static synchronized CatalogClass addCatalogClass (Class<?> clazz, int hash, ResourceBundle catalog) {
+    // Look again, now that we hold the lock.
+    CatalogClassEntry[] table = catalogClasses;
+    for (CatalogClassEntry e = table[hash & (table.length - 1)]; e != null; e = e.next)
+      if (e.get() == clazz) {
+        CatalogClass info = e.info.get();
+        if (info != null)
+          return info;
+        break;
+      }
+    CatalogClass info = new CatalogClass(clazz, catalog);
+    // Copy the table, dropping the entries whose class has been collected
+    // or whose information has been cleared, and growing it if needed.
+    int count = 1;
+    for (int i = 0; i < table.length; i++)
+      for (CatalogClassEntry e = table[i]; e != null; e = e.next)
+        count++;
+    int newLength = table.length;
+    while (newLength < 2 * count)
+      newLength = 2 * newLength;
+    CatalogClassEntry[] newTable = new CatalogClassEntry[newLength];
+    for (int i = 0; i < table.length; i++)
+      for (CatalogClassEntry e = table[i]; e != null; e = e.next) {
+        Class<?> c = e.get();
+        CatalogClass ci = e.info.get();
+        if (c != null && c != clazz && ci != null) {
+          int idx = e.hash & (newLength - 1);
+          newTable[idx] = new CatalogClassEntry(c, e.hash, ci, newTable[idx]);
+        }
+      }
+    int idx = hash & (newLength - 1);
+    newTable[idx] = new CatalogClassEntry(clazz, hash, info, newTable[idx]);
+    catalogClasses = newTable;
+    return info;
+  }
+
+  /**
+   * Forgets the reflective information about the catalog classes loaded by
+   * a class loader, so that the GettextResource functions don't keep them
+   * and the class loader alive.  An application server should call this
+   * method when it undeploys an application, together with
+   * <CODE>ResourceBundle.clearCache(<VAR>loader</VAR>)</CODE>.  The lookups
+   * in catalog classes created with <CODE>msgfmt --java-interface</CODE> don't
+   * keep this information in the first place.
+   * @param loader a class loader
+   */
+  public static synchronized void clearClassCache (ClassLoader loader) {
+    CatalogClassEntry[] table = catalogClasses;
+    CatalogClassEntry[] newTable = new CatalogClassEntry[table.length];
+    for (int i = 0; i < table.length; i++)
+      for (CatalogClassEntry e = table[i]; e != null; e = e.next) {
+        Class<?> c = e.get();
+        CatalogClass ci = e.info.get();
+        if (c != null && c.getClassLoader() != loader && ci != null)
+          newTable[i] = new CatalogClassEntry(c, e.hash, ci, newTable[i]);
+      }
+    catalogClasses = newTable;
+  }
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  /* Per-thread arrays for the arguments of a reflective call, indexed by
+     the number of arguments.  Reusing them avoids a memory allocation per
+     call: the JIT cannot optimize away the argument array when the
+     Method.invoke call site is megamorphic, i.e. when several catalog
+     classes are in use.  */
+  private static final ThreadLocal<Object[][]> reflectiveArguments =
+    new ThreadLocal<Object[][]>() {
+      protected Object[][] initialValue () {
+        return new Object[][] { NO_ARGUMENTS, new Object[1], new Object[2] };
+      }
+    };
+
+  /**
+   * Invokes a method of a GNU gettext created catalog, with one argument.
+   * Returns <CODE>null</CODE> if the invocation failed.
+   */
+  private static Object invoke (Method method, ResourceBundle catalog, Object argument) {
+    Object[] args = reflectiveArguments.get()[1];
+    args[0] = argument;
+    try {
+      return method.invoke(catalog, args);
+    } catch (IllegalAccessException e) {
+      e.printStackTrace();
+    } catch (InvocationTargetException e) {
+      e.getTargetException().printStackTrace();
+    } finally {
+      args[0] = null;
+    }
+    return null;
+  }
+
+  /**
+   * Invokes a method of a GNU gettext created catalog, with two arguments.
+   * Returns <CODE>null</CODE> if the invocation failed.
+   */
+  private static Object invoke (Method method, ResourceBundle catalog, Object argument1, Object argument2) {
+    Object[] args = reflectiveArguments.get()[2];
+    args[0] = argument1;
+    args[1] = argument2;
+    try {
+      return method.invoke(catalog, args);
+    } catch (IllegalAccessException e) {
+      e.printStackTrace();
+    } catch (InvocationTargetException e) {
+      e.getTargetException().printStackTrace();
+    } finally {
+      args[0] = null;
+      args[1] = null;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the parent of a GNU gettext created catalog.  Returns the catalog
+   * itself if the parent cannot be determined.
+   */
+  private static ResourceBundle getParentCatalog (ResourceBundle catalog, CatalogClass catalogClass) {
+    Object parentCatalog = catalog;
+    try {
+      parentCatalog = catalogClass.getParentMethod.invoke(catalog, NO_ARGUMENTS);
+    } catch (IllegalAccessException e) {
+      e.printStackTrace();
+    } catch (InvocationTargetException e) {
+      e.getTargetException().printStackTrace();
+    }
+    return (ResourceBundle)parentCatalog;
+  }
+
+  /**
+   * Looks up <VAR>msgid</VAR> in a catalog and all its parent catalogs.
+   * This is used for non-GNU ResourceBundles, for which we cannot access
+   * 'parent' and 'handleGetObject'.  Returns <CODE>null</CODE> when no
+   * value was found.
+   */
+  private static Object getObjectOrNull (ResourceBundle catalog, String msgid) {
+    // Look at the set of keys first, to avoid a MissingResourceException
+    // in the frequent case that there is no translation.
+    if (!catalog.containsKey(msgid))
+      return null;
+    try {
+      return catalog.getObject(msgid);
+    } catch (MissingResourceException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Looks up <VAR>key</VAR> in a catalog and all its parent catalogs, like
+   * <CODE>catalog.getObject(key)</CODE>, but without throwing a
+   * MissingResourceException.  Returns <CODE>null</CODE> when no value was
+   * found.
+   */
+  static Object getObjectNull (ResourceBundle catalog, String key) {
+    while (catalog != null) {
+      if (catalog instanceof ReloadableResourceBundle)
+        catalog = ((ReloadableResourceBundle)catalog).getCatalog();
+      if (catalog instanceof GettextCatalog) {
+        // A class created by msgfmt --java-interface, or a GNU MO file.
+        GettextCatalog gettextCatalog = (GettextCatalog)catalog;
+        Object localValue = gettextCatalog.lookup(key);
+        if (localValue != null)
+          return (localValue instanceof String[] ? ((String[])localValue)[0] : localValue);
+        catalog = gettextCatalog.getParent();
+        continue;
+      }
+      CatalogClass catalogClass = getCatalogClass(catalog);
+      if (catalogClass.handleGetObjectMethod == null)
+        // Not a GNU gettext created class.
+        break;
+      Object localValue = invoke(catalogClass.handleGetObjectMethod, catalog, key);
+      if (localValue != null)
+        return localValue;
+      ResourceBundle parentCatalog = getParentCatalog(catalog, catalogClass);
+      if (parentCatalog != catalog)
+        catalog = parentCatalog;
+      else
+        break;
+    }
+    return (catalog != null ? getObjectOrNull(catalog, key) : null);
+  }
+
+  /**
+   * Like npgettext(catalog,msgctxt,msgid,msgid_plural,n), except that it
+   * returns <CODE>null</CODE> when no translation was found.
+   * <VAR>msgctxt</VAR> may be <CODE>null</CODE>, for a lookup without
+   * context.
+   */
+  private static String ngettextnull (ResourceBundle catalog, String msgctxt, String msgid, long n) {
+    if (catalog instanceof ReloadableResourceBundle)
+      catalog = ((ReloadableResourceBundle)catalog).getCatalog();
+    GettextStatistics.Counters counters = GettextStatistics.getCounters(catalog);
+    if (counters == null)
+      return ngettextnull(catalog, msgctxt, msgid, n, null);
+    if (!counters.sample()) {
+      String result = ngettextnull(catalog, msgctxt, msgid, n, counters);
+      counters.lookup(result != null, -1);
+      return result;
+    }
+    long start = System.nanoTime();
+    String result = ngettextnull(catalog, msgctxt, msgid, n, counters);
+    counters.lookup(result != null, System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Like ngettextnull(catalog,msgctxt,msgid,n), and counts the steps to
+   * parent catalogs, the reflective lookups and the evaluations of plural
+   * expressions in <VAR>counters</VAR>, unless it is <CODE>null</CODE>.
+   */
+  private static String ngettextnull (ResourceBundle catalog, String msgctxt, String msgid, long n,
+                                      GettextStatistics.Counters counters) {
+    // The reason why we use so many reflective API calls instead of letting
+    // the GNU gettext generated ResourceBundles implement some interface,
+    // is that we want the generated ResourceBundles to be completely
+    // standalone, so that migration from the Sun approach to the GNU gettext
+    // approach (without use of plurals) is as straightforward as possible.
+    // The Method objects are looked up only once per class; see
+    // getCatalogClass.  Classes created by msgfmt --java-interface do
+    // implement the interface GettextCatalog, and are accessed directly, as
+    // are GNU MO files opened through MoResourceBundle.
+    // The key msgctxt + CONTEXT_GLUE + msgid is built only if a catalog
+    // cannot look up msgctxt and msgid as separate arguments.
+    if (catalog instanceof FlatCatalog)
+      // A snapshot created by flatten.  A single lookup suffices.
+      return ((FlatCatalog)catalog).ngettext(msgctxt, msgid, n, counters);
+    String key = (msgctxt == null ? msgid : null);
+    do {
+      // Try catalog itself.
+      if (verbose)
+        System.out.println("ngettext on "+catalog);
+      if (catalog instanceof MoResourceBundle) {
+        // A GNU MO file.  Only the needed plural form is decoded.
+        MoResourceBundle moCatalog = (MoResourceBundle)catalog;
+        String localValue = moCatalog.ngettext(msgctxt, msgid, n, counters);
+        if (localValue != null)
+          return localValue;
+        catalog = moCatalog.getParent();
+        if (counters != null && catalog != null)
+          counters.increment(GettextStatistics.FALLBACKS);
+        continue;
+      }
+      if (catalog instanceof GettextCatalog) {
+        // A class created by msgfmt --java-interface.  No reflection needed.
+        GettextCatalog gettextCatalog = (GettextCatalog)catalog;
+        Object localValue =
+          (msgctxt == null
+           ? gettextCatalog.lookup(msgid)
+           : gettextCatalog.lookup(msgctxt, msgid));
+        if (localValue != null) {
+          if (verbose)
+            System.out.println("localValue = "+localValue);
+          if (localValue instanceof String)
             // Found the value. It doesn't depend on n in this case.
-            if (verbose)
-              System.out.println("localValue = "+localValue);
             return (String)localValue;
+          else {
+            String[] pluralforms = (String[])localValue;
+            if (counters != null)
+              counters.increment(GettextStatistics.PLURAL_EVALUATIONS);
+            long i;
+            try {
+              i = gettextCatalog.pluralIndex(n);
+            } catch (ArithmeticException e) {
+              // Division by zero.
+              i = 0;
+            }
+            if (!(i >= 0 && i < pluralforms.length))
+              i = 0;
+            return pluralforms[(int)i];
           }
         }
-        Object parentCatalog = catalog;
-        try {
-          parentCatalog = getParentMethod.invoke(catalog, new Object[0]);
-        } catch (IllegalAccessException e) {
-          e.printStackTrace();
-        } catch (InvocationTargetException e) {
-          e.getTargetException().printStackTrace();
+        catalog = gettextCatalog.getParent();
+        if (counters != null && catalog != null)
+          counters.increment(GettextStatistics.FALLBACKS);
+        continue;
+      }
+      CatalogClass catalogClass = getCatalogClass(catalog);
+      if (catalogClass.handleGetObjectMethod != null) {
+        // A GNU gettext created class.
+        if (key == null && catalogClass.lookupContextMethod == null)
+          key = msgctxt + CONTEXT_GLUE + msgid;
+        if (counters != null)
+          counters.increment(GettextStatistics.REFLECTIVE_LOOKUPS);
+        Object localValue = catalogClass.lookup(catalog, msgctxt, msgid, key);
+        if (localValue != null) {
+          if (verbose)
+            System.out.println("localValue = "+localValue);
+          if (localValue instanceof String)
+            // Found the value. It doesn't depend on n in this case.
+            return (String)localValue;
+          else {
+            // A GNU gettext created class with plural handling.
+            String[] pluralforms = (String[])localValue;
+            if (counters != null)
+              counters.increment(GettextStatistics.PLURAL_EVALUATIONS);
+            long i = catalogClass.pluralEval(catalog, n);
+            if (!(i >= 0 && i < pluralforms.length))
+              i = 0;
+            return pluralforms[(int)i];
+          }
         }
+        ResourceBundle parentCatalog = getParentCatalog(catalog, catalogClass);
         if (parentCatalog != catalog)
-          catalog = (ResourceBundle)parentCatalog;
+          catalog = parentCatalog;
         else
           break;
+        if (counters != null && catalog != null)
+          counters.increment(GettextStatistics.FALLBACKS);
       } else
         // Not a GNU gettext created class.
         break;
     } while (catalog != null);
     // The end of chain of GNU gettext ResourceBundles is reached.
     if (catalog != null) {
-      // For a non-GNU ResourceBundle we cannot access 'parent' and
-      // 'handleGetObject', so make a single call to catalog and all
-      // its parent catalogs at once.
-      Object value;
-      try {
-        value = catalog.getObject(msgid);
-      } catch (MissingResourceException e) {
-        value = null;
-      }
+      if (key == null)
+        key = msgctxt + CONTEXT_GLUE + msgid;
+      Object value = getObjectOrNull(catalog, key);
       if (value != null)
         // Found the value. It doesn't depend on n in this case.
         return (String)value;
@@ -221,9 +885,12 @@ public abstract class GettextResource extends ResourceBundle {
    *         or <VAR>msgid</VAR> or <VAR>msgid_plural</VAR> if none is found
    */
   public static String ngettext (ResourceBundle catalog, String msgid, String msgid_plural, long n) {
-    String result = ngettextnull(catalog,msgid,n);
+    String result = ngettextnull(catalog,null,msgid,n);
     if (result != null)
       return result;
+    MissingTranslationRecorder recorder = missingTranslationRecorder;
+    if (recorder != null)
+      recorder.record(catalog, null, msgid, msgid_plural);
     // Default: English strings and Germanic plural rule.
     return (n != 1 ? msgid_plural : msgid);
   }
@@ -241,9 +908,12 @@ public abstract class GettextResource extends ResourceBundle {
    *         none is found
    */
   public static String pgettext (ResourceBundle catalog, String msgctxt, String msgid) {
-    String result = gettextnull(catalog,msgctxt+CONTEXT_GLUE+msgid);
+    String result = gettextnull(catalog,msgctxt,msgid);
     if (result != null)
       return result;
+    MissingTranslationRecorder recorder = missingTranslationRecorder;
+    if (recorder != null)
+      recorder.record(catalog, msgctxt, msgid, null);
     return msgid;
   }
 
@@ -258,10 +928,355 @@ public abstract class GettextResource extends ResourceBundle {
    *         or <VAR>msgid</VAR> or <VAR>msgid_plural</VAR> if none is found
    */
   public static String npgettext (ResourceBundle catalog, String msgctxt, String msgid, String msgid_plural, long n) {
-    String result = ngettextnull(catalog,msgctxt+CONTEXT_GLUE+msgid,n);
+    String result = ngettextnull(catalog,msgctxt,msgid,n);
     if (result != null)
       return result;
+    MissingTranslationRecorder recorder = missingTranslationRecorder;
+    if (recorder != null)
+      recorder.record(catalog, msgctxt, msgid, msgid_plural);
     // Default: English strings and Germanic plural rule.
     return (n != 1 ? msgid_plural : msgid);
   }
+
+  /**
+   * A MessageFormat pattern, parsed once.  A MessageFormat is not thread
+   * safe; therefore each use takes the idle instance, or a clone of the
+   * prototype if another thread is using the idle instance.
+   */
+  private static final class CachedFormat {
+    private final MessageFormat prototype;
+    private final AtomicReference<MessageFormat> idle;
+    CachedFormat (String pattern, Locale locale) {
+      this.prototype = new MessageFormat(pattern, locale);
+      this.idle = new AtomicReference<MessageFormat>((MessageFormat)prototype.clone());
+    }
+    String format (Object[] arguments) {
+      MessageFormat format = idle.getAndSet(null);
+      if (format == null)
+        format = (MessageFormat)prototype.clone();
+      String result = format.format(arguments, new StringBuffer(), null).toString();
+      idle.set(format);
+      return result;
+    }
+  }
+
+  /* The maximum number of patterns in formatCache.  When it is reached,
+     patterns that have not been used recently are removed.  */
+  private static final int FORMAT_CACHE_SIZE = 1000;
+
+  /* The parsed MessageFormat patterns, by catalog, locale and pattern.  */
+  private static final BoundedCache<BoundedCache.Key,CachedFormat> formatCache =
+    new BoundedCache<BoundedCache.Key,CachedFormat>(FORMAT_CACHE_SIZE);
+
+  /**
+   * Formats <VAR>arguments</VAR> with the MessageFormat pattern
+   * <VAR>pattern</VAR>, a translation from <VAR>catalog</VAR>, for the
+   * locale <VAR>locale</VAR>.  The result is the same as that of
+   * <CODE>new MessageFormat(<VAR>pattern</VAR>, <VAR>locale</VAR>).format(<VAR>arguments</VAR>)</CODE>,
+   * but the parsed pattern is cached.
+   */
+  static String formatPattern (ResourceBundle catalog, Locale locale, String pattern, Object[] arguments) {
+    BoundedCache.Key key = new BoundedCache.Key(catalog, locale, pattern);
+    CachedFormat cachedFormat = formatCache.get(key);
+    if (cachedFormat == null) {
+      cachedFormat = new CachedFormat(pattern, locale);
+      formatCache.put(key.weakKey(), cachedFormat);
+    }
+    return cachedFormat.format(arguments);
+  }
+
+  /**
+   * Formats <VAR>arguments</VAR> with the MessageFormat pattern
+   * <VAR>pattern</VAR>, a translation from <VAR>catalog</VAR>.  The result
+   * is the same as that of
+   * <CODE>MessageFormat.format(<VAR>pattern</VAR>, <VAR>arguments</VAR>)</CODE>,
+   * but the parsed pattern is cached.
+   */
+  static String formatPattern (ResourceBundle catalog, String pattern, Object[] arguments) {
+    return formatPattern(catalog, PrintfFormat.getDefaultLocale(), pattern, arguments);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR>, formatted with
+   * <VAR>arguments</VAR> like
+   * <CODE>MessageFormat.format(gettext(<VAR>catalog</VAR>, <VAR>msgid</VAR>), <VAR>arguments</VAR>)</CODE>.
+   * The translation is parsed as a MessageFormat pattern only the first
+   * time; the parsed patterns are cached.
+   * @param catalog a ResourceBundle
+   * @param msgid the key string to be translated, an ASCII string
+   * @param arguments the arguments of the pattern
+   * @return the formatted translation of <VAR>msgid</VAR>, or the formatted
+   *         <VAR>msgid</VAR> if none is found
+   */
+  public static String format (ResourceBundle catalog, String msgid, Object... arguments) {
+    return formatPattern(catalog, gettext(catalog, msgid), arguments);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR>, formatted with <VAR>arguments</VAR> like
+   * <CODE>MessageFormat.format(ngettext(<VAR>catalog</VAR>, <VAR>msgid</VAR>, <VAR>msgid_plural</VAR>, <VAR>n</VAR>), <VAR>arguments</VAR>)</CODE>.
+   * @param catalog a ResourceBundle
+   * @param msgid the key string to be translated, an ASCII string
+   * @param msgid_plural its English plural form
+   * @param n the number that selects the plural form
+   * @param arguments the arguments of the pattern
+   * @return the formatted translation of <VAR>msgid</VAR> depending on
+   *         <VAR>n</VAR>, or the formatted <VAR>msgid</VAR> or
+   *         <VAR>msgid_plural</VAR> if none is found
+   */
+  public static String nformat (ResourceBundle catalog, String msgid, String msgid_plural, long n, Object... arguments) {
+    return formatPattern(catalog, ngettext(catalog, msgid, msgid_plural, n), arguments);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context of
+   * <VAR>msgctxt</VAR>, formatted with <VAR>arguments</VAR> like
+   * <CODE>MessageFormat.format(pgettext(<VAR>catalog</VAR>, <VAR>msgctxt</VAR>, <VAR>msgid</VAR>), <VAR>arguments</VAR>)</CODE>.
+   * @param catalog a ResourceBundle
+   * @param msgctxt the context for the key string, an ASCII string
+   * @param msgid the key string to be translated, an ASCII string
+   * @param arguments the arguments of the pattern
+   * @return the formatted translation of <VAR>msgid</VAR>, or the formatted
+   *         <VAR>msgid</VAR> if none is found
+   */
+  public static String pformat (ResourceBundle catalog, String msgctxt, String msgid, Object... arguments) {
+    return formatPattern(catalog, pgettext(catalog, msgctxt, msgid), arguments);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the context of <VAR>msgctxt</VAR>, formatted with
+   * <VAR>arguments</VAR> like
+   * <CODE>MessageFormat.format(npgettext(<VAR>catalog</VAR>, <VAR>msgctxt</VAR>, <VAR>msgid</VAR>, <VAR>msgid_plural</VAR>, <VAR>n</VAR>), <VAR>arguments</VAR>)</CODE>.
+   * @param catalog a ResourceBundle
+   * @param msgctxt the context for the key string, an ASCII string
+   * @param msgid the key string to be translated, an ASCII string
+   * @param msgid_plural its English plural form
+   * @param n the number that selects the plural form
+   * @param arguments the arguments of the pattern
+   * @return the formatted translation of <VAR>msgid</VAR> depending on
+   *         <VAR>n</VAR>, or the formatted <VAR>msgid</VAR> or
+   *         <VAR>msgid_plural</VAR> if none is found
+   */
+  public static String npformat (ResourceBundle catalog, String msgctxt, String msgid, String msgid_plural, long n, Object... arguments) {
+    return formatPattern(catalog, npgettext(catalog, msgctxt, msgid, msgid_plural, n), arguments);
+  }
+
+  /**
+   * Returns a snapshot of a catalog and all its parent catalogs, merged into
+   * a single catalog.  Translations in a catalog shadow the translations of
+   * the same message in its parent catalogs.
+   * <P>
+   * The functions of this class find a translation in the snapshot with a
+   * single hash table lookup, whereas with the original catalog they look
+   * at each catalog in the parent chain in turn.  This is worth it when a
+   * catalog is used many times and has a fallback chain, such as
+   * <CODE>Messages_de_AT</CODE>, <CODE>Messages_de</CODE>,
+   * <CODE>Messages</CODE>.
+   * <P>
+   * The snapshot is immutable and can be shared among threads.  Values that
+   * are not strings in ResourceBundles not created by GNU gettext are not
+   * included.  For a ReloadableResourceBundle, the snapshot is taken of its
+   * current catalog and does not change when it is reloaded.
+   * @param catalog a ResourceBundle
+   * @return a ResourceBundle without parent that contains the same
+   *         translations as <VAR>catalog</VAR>
+   */
+  public static ResourceBundle flatten (ResourceBundle catalog) {
+    if (catalog instanceof ReloadableResourceBundle)
+      catalog = ((ReloadableResourceBundle)catalog).getCatalog();
+    if (catalog instanceof FlatCatalog)
+      return catalog;
+    return new FlatCatalog(catalog);
+  }
+
+  /**
+   * A flattened snapshot of a chain of catalogs.
+   */
+  static final class FlatCatalog extends ResourceBundle {
+    /* The locale of the original catalog.  */
+    private final Locale locale;
+    /* The name of the original catalog, for GettextStatistics.  */
+    private final String name;
+    /* An open addressing hash table with linear probing.  Its size is a
+       power of 2.  keys[i] is null for empty slots.  values[i] is a String
+       or, for a message with plural forms, a String[].  levels[i] is the
+       index of the catalog in the chain that the value comes from.  */
+    private final String[] keys;
+    private final Object[] values;
+    private final int[] levels;
+    /* The catalogs of the chain, and their CatalogClass, for evaluating the
+       plural forms.  */
+    private final ResourceBundle[] levelCatalogs;
+    private final CatalogClass[] levelClasses;
+
+    FlatCatalog (ResourceBundle catalog) {
+      this.locale = (catalog != null ? catalog.getLocale() : null);
+      this.name =
+        (catalog instanceof MoResourceBundle
+         ? ((MoResourceBundle)catalog).getName()
+         : catalog != null ? catalog.getClass().getName() : "null")
+        + " (flattened)";
+      // Collect the entries, child catalogs first.
+      Map<String,Object> entries = new HashMap<String,Object>();
+      Map<String,Integer> entryLevels = new HashMap<String,Integer>();
+      List<ResourceBundle> catalogs = new ArrayList<ResourceBundle>();
+      List<CatalogClass> catalogClasses = new ArrayList<CatalogClass>();
+      while (catalog != null) {
+        Integer level = Integer.valueOf(catalogs.size());
+        CatalogClass catalogClass = getCatalogClass(catalog);
+        boolean gnu =
+          (catalog instanceof GettextCatalog
+           || catalogClass.handleGetObjectMethod != null);
+        catalogs.add(catalog);
+        catalogClasses.add(catalogClass);
+        for (Enumeration<String> e = catalog.getKeys(); e.hasMoreElements(); ) {
+          String key = e.nextElement();
+          if (key == null || entries.containsKey(key))
+            continue;
+          Object value;
+          if (catalog instanceof GettextCatalog)
+            value = ((GettextCatalog)catalog).lookup(key);
+          else if (gnu)
+            value = catalogClass.lookup(catalog, null, key, key);
+          else {
+            // The keys of a non-GNU catalog include the keys of its parents.
+            value = getObjectOrNull(catalog, key);
+            if (!(value instanceof String))
+              value = null;
+          }
+          if (value != null) {
+            entries.put(key, value);
+            entryLevels.put(key, level);
+          }
+        }
+        if (!gnu)
+          // The non-GNU tail of the chain has been handled completely.
+          break;
+        ResourceBundle parentCatalog =
+          (catalog instanceof GettextCatalog
+           ? ((GettextCatalog)catalog).getParent()
+           : getParentCatalog(catalog, catalogClass));
+        if (parentCatalog == catalog)
+          break;
+        catalog = parentCatalog;
+      }
+      // Build the hash table, with a load factor of at most 1/2.
+      int size = 2;
+      while (size < 2 * entries.size())
+        size <<= 1;
+      keys = new String[size];
+      values = new Object[size];
+      levels = new int[size];
+      for (Map.Entry<String,Object> entry : entries.entrySet()) {
+        String key = entry.getKey();
+        int idx = indexFor(key.hashCode());
+        while (keys[idx] != null)
+          idx = (idx + 1) & (size - 1);
+        keys[idx] = key;
+        values[idx] = entry.getValue();
+        levels[idx] = entryLevels.get(key).intValue();
+      }
+      levelCatalogs = catalogs.toArray(new ResourceBundle[catalogs.size()]);
+      levelClasses = catalogClasses.toArray(new CatalogClass[catalogClasses.size()]);
+    }
+
+    private int indexFor (int hash) {
+      return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * Returns the slot of the key <VAR>msgctxt</VAR> CONTEXT_GLUE
+     * <VAR>msgid</VAR> (or <VAR>msgid</VAR> if <VAR>msgctxt</VAR> is null),
+     * or -1 if it is not present.  The combined key is not built: its hash
+     * code is computed from the hash codes of the parts.
+     */
+    private int find (String msgctxt, String msgid) {
+      int mask = keys.length - 1;
+      if (msgctxt == null) {
+        for (int idx = indexFor(msgid.hashCode()); ; idx = (idx + 1) & mask) {
+          String key = keys[idx];
+          if (key == null)
+            return -1;
+          if (key.equals(msgid))
+            return idx;
+        }
+      } else {
+        int msgctxt_len = msgctxt.length();
+        int key_len = msgctxt_len + 1 + msgid.length();
+        int hash = 31 * msgctxt.hashCode() + 4;
+        int factor = 31;
+        for (int k = msgid.length(); k > 0; k >>= 1) {
+          if ((k & 1) != 0)
+            hash *= factor;
+          factor *= factor;
+        }
+        hash += msgid.hashCode();
+        for (int idx = indexFor(hash); ; idx = (idx + 1) & mask) {
+          String key = keys[idx];
+          if (key == null)
+            return -1;
+          if (key.length() == key_len && key.charAt(msgctxt_len) == '\u0004'
+              && key.startsWith(msgctxt) && key.endsWith(msgid))
+            return idx;
+        }
+      }
+    }
+
+    String gettext (String msgctxt, String msgid) {
+      int idx = find(msgctxt, msgid);
+      if (idx < 0)
+        return null;
+      Object value = values[idx];
+      return (value instanceof String[] ? ((String[])value)[0] : (String)value);
+    }
+
+    String ngettext (String msgctxt, String msgid, long n, GettextStatistics.Counters counters) {
+      int idx = find(msgctxt, msgid);
+      if (idx < 0)
+        return null;
+      Object value = values[idx];
+      if (value instanceof String)
+        // Found the value. It doesn't depend on n in this case.
+        return (String)value;
+      String[] pluralforms = (String[])value;
+      if (counters != null)
+        counters.increment(GettextStatistics.PLURAL_EVALUATIONS);
+      ResourceBundle catalog = levelCatalogs[levels[idx]];
+      long i;
+      if (catalog instanceof GettextCatalog) {
+        try {
+          i = ((GettextCatalog)catalog).pluralIndex(n);
+        } catch (ArithmeticException e) {
+          // Division by zero.
+          i = 0;
+        }
+      } else
+        i = levelClasses[levels[idx]].pluralEval(catalog, n);
+      if (!(i >= 0 && i < pluralforms.length))
+        i = 0;
+      return pluralforms[(int)i];
+    }
+
+    protected Object handleGetObject (String key) {
+      return gettext(null, key);
+    }
+
+    public Enumeration<String> getKeys () {
+      List<String> list = new ArrayList<String>();
+      for (int i = 0; i < keys.length; i++)
+        if (keys[i] != null)
+          list.add(keys[i]);
+      return Collections.enumeration(list);
+    }
+
+    public Locale getLocale () {
+      return locale;
+    }
+
+    String getName () {
+      return name;
+    }
+  }
 }
@@ -0,0 +1,317 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.*;
+
+/**
+ * Statistics about the lookups that the functions of
+ * <CODE>GettextResource</CODE> perform, per catalog.  For each catalog, it
+ * counts the lookups and the lookups that found no translation, the steps
+ * from a catalog to its parent catalog, the lookups in catalogs that are
+ * accessed through reflection, and the evaluations of plural expressions,
+ * and it estimates the time spent in the lookups.  A catalog is identified
+ * by its class name, or by its file name for a GNU MO file.
+ * <P>
+ * The statistics are disabled by default; then they cost a single read
+ * of a field per lookup.  They are enabled by {@link #enable}, or at
+ * startup by the system property <CODE>gnu.gettext.statistics=true</CODE>.
+ * While they are enabled, they are accessible through JMX, for example
+ * from <CODE>jconsole</CODE>.
+ * <P>
+ * The counters are striped by thread, so that threads that do lookups
+ * concurrently rarely write to the same cache line.
+ */
+public final class GettextStatistics implements GettextStatisticsMXBean {
+
+  /* The instance while the statistics are enabled, otherwise null.  */
+  private static volatile GettextStatistics active;
+
+  private static final String OBJECT_NAME = "gnu.gettext:type=GettextStatistics";
+
+  /* The counters of each catalog, by name.  */
+  private final ConcurrentHashMap<String,Counters> counters =
+    new ConcurrentHashMap<String,Counters>();
+
+  private GettextStatistics () {
+  }
+
+  /**
+   * Enables the statistics, and registers them in the platform MBean
+   * server.  If they are already enabled, the counters keep their values.
+   * @return the statistics
+   */
+  public static synchronized GettextStatistics enable () {
+    if (active == null) {
+      GettextStatistics statistics = new GettextStatistics();
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(statistics, new ObjectName(OBJECT_NAME));
+      } catch (JMException e) {
+        // Most likely, another copy of this class, in another class loader,
+        // has registered the name.  The statistics are nevertheless
+        // available through this class.
+      } catch (SecurityException e) {
+      }
+      active = statistics;
+    }
+    return active;
+  }
+
+  /**
+   * Disables the statistics, and unregisters them from the platform MBean
+   * server.  The counters are discarded.
+   */
+  public static synchronized void disable () {
+    if (active != null) {
+      try {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name))
+          server.unregisterMBean(name);
+      } catch (JMException e) {
+      } catch (SecurityException e) {
+      }
+      active = null;
+    }
+  }
+
+  /**
+   * Returns the statistics if they are enabled, or <CODE>null</CODE>.
+   */
+  public static GettextStatistics getStatistics () {
+    return active;
+  }
+
+  /* Indices of the counters.  */
+  static final int LOOKUPS = 0;
+  static final int MISSES = 1;
+  static final int FALLBACKS = 2;
+  static final int REFLECTIVE_LOOKUPS = 3;
+  static final int PLURAL_EVALUATIONS = 4;
+  static final int TIME = 5;
+  private static final int NCOUNTERS = 6;
+
+  /* The number of stripes, a power of 2, and the distance between the
+     stripes in the array, so that each stripe has its own cache line.  */
+  private static final int STRIPES;
+  private static final int STRIDE = 16;
+
+  /* One in SAMPLING lookups is timed.  A power of 2.  */
+  private static final int SAMPLING = 16;
+
+  static {
+    int n = 2 * Runtime.getRuntime().availableProcessors();
+    int stripes = 1;
+    while (stripes < n && stripes < 64)
+      stripes <<= 1;
+    STRIPES = stripes;
+  }
+
+  static {
+    boolean enabled = false;
+    try {
+      enabled = Boolean.getBoolean("gnu.gettext.statistics");
+    } catch (SecurityException e) {
+    }
+    if (enabled)
+      enable();
+  }
+
+  /**
+   * The counters of a catalog.
+   */
+  static final class Counters {
+    final String name;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+    Counters (String name) {
+      this.name = name;
+    }
+    void add (int counter, long delta) {
+      // Thread ids are allocated sequentially; therefore the threads that
+      // exist at the same time mostly use different stripes.
+      int stripe = (int)Thread.currentThread().getId() & (STRIPES - 1);
+      cells.addAndGet(stripe * STRIDE + counter, delta);
+    }
+    void increment (int counter) {
+      add(counter, 1);
+    }
+    /* Tells whether the time of the next lookup of this thread should be
+       measured.  Only every SAMPLING-th lookup is measured, because
+       System.nanoTime takes longer than a lookup.  */
+    boolean sample () {
+      int stripe = (int)Thread.currentThread().getId() & (STRIPES - 1);
+      return (cells.get(stripe * STRIDE + LOOKUPS) & (SAMPLING - 1)) == 0;
+    }
+    /* Records a lookup.  time is the time that it took in nanoseconds, or
+       -1 if it was not measured.  */
+    void lookup (boolean found, long time) {
+      int stripe = (int)Thread.currentThread().getId() & (STRIPES - 1);
+      cells.incrementAndGet(stripe * STRIDE + LOOKUPS);
+      if (!found)
+        cells.incrementAndGet(stripe * STRIDE + MISSES);
+      if (time >= 0)
+        cells.addAndGet(stripe * STRIDE + TIME, SAMPLING * time);
+    }
+    long get (int counter) {
+      long sum = 0;
+      for (int stripe = 0; stripe < STRIPES; stripe++)
+        sum += cells.get(stripe * STRIDE + counter);
+      return sum;
+    }
+  }
+
+  /**
+   * Returns the counters of a catalog, or <CODE>null</CODE> if the
+   * statistics are disabled.
+   */
+  static Counters getCounters (ResourceBundle catalog) {
+    GettextStatistics statistics = active;
+    if (statistics == null)
+      return null;
+    String name;
+    if (catalog instanceof MoResourceBundle)
+      name = ((MoResourceBundle)catalog).getName();
+    else if (catalog instanceof GettextResource.FlatCatalog)
+      name = ((GettextResource.FlatCatalog)catalog).getName();
+    else
+      name = (catalog != null ? catalog.getClass().getName() : "null");
+    Counters result = statistics.counters.get(name);
+    if (result == null) {
+      Counters newCounters = new Counters(name);
+      result = statistics.counters.putIfAbsent(name, newCounters);
+      if (result == null)
+        result = newCounters;
+    }
+    return result;
+  }
+
+  /**
+   * The statistics of a catalog.
+   */
+  public static final class CatalogStatistics {
+    private final String name;
+    private final long[] values = new long[NCOUNTERS];
+    CatalogStatistics (Counters counters) {
+      this.name = counters.name;
+      for (int i = 0; i < NCOUNTERS; i++)
+        values[i] = counters.get(i);
+    }
+    /**
+     * Returns the class name of the catalog, or the file name of a GNU MO
+     * file.
+     */
+    public String getName () {
+      return name;
+    }
+    /**
+     * Returns the number of lookups that started in this catalog.
+     */
+    public long getLookups () {
+      return values[LOOKUPS];
+    }
+    /**
+     * Returns the number of lookups that found no translation in this
+     * catalog and its parent catalogs.
+     */
+    public long getMisses () {
+      return values[MISSES];
+    }
+    /**
+     * Returns the number of times that a lookup continued in a parent
+     * catalog.
+     */
+    public long getFallbacks () {
+      return values[FALLBACKS];
+    }
+    /**
+     * Returns the number of lookups in this catalog and its parent catalogs
+     * that were made through reflection, because the catalog was created
+     * without <CODE>msgfmt --java-interface</CODE>.
+     */
+    public long getReflectiveLookups () {
+      return values[REFLECTIVE_LOOKUPS];
+    }
+    /**
+     * Returns the number of evaluations of a plural expression.
+     */
+    public long getPluralEvaluations () {
+      return values[PLURAL_EVALUATIONS];
+    }
+    /**
+     * Returns the time spent in the lookups, in nanoseconds.  It is
+     * estimated from the time of every 16th lookup.
+     */
+    public long getTime () {
+      return values[TIME];
+    }
+    public String toString () {
+      return name + ": lookups=" + getLookups() + ", misses=" + getMisses()
+             + ", fallbacks=" + getFallbacks()
+             + ", reflective lookups=" + getReflectiveLookups()
+             + ", plural evaluations=" + getPluralEvaluations()
+             + ", time=" + getTime() + " ns";
+    }
+  }
+
+  /**
+   * Returns the statistics of each catalog, the catalog with the largest
+   * time spent in lookups first.
+   */
+  public List<CatalogStatistics> getCatalogs () {
+    List<CatalogStatistics> result = new ArrayList<CatalogStatistics>();
+    for (Counters c : counters.values())
+      result.add(new CatalogStatistics(c));
+    Collections.sort(result,
+                     new Comparator<CatalogStatistics>() {
+                       public int compare (CatalogStatistics s1, CatalogStatistics s2) {
+                         long t1 = s1.getTime();
+                         long t2 = s2.getTime();
+                         return (t1 > t2 ? -1 : t1 < t2 ? 1 : s1.getName().compareTo(s2.getName()));
+                       }
+                     });
+    return result;
+  }
+
+  private long sum (int counter) {
+    long sum = 0;
+    for (Counters c : counters.values())
+      sum += c.get(counter);
+    return sum;
+  }
+
+  public long getLookups () {
+    return sum(LOOKUPS);
+  }
+
+  public long getMisses () {
+    return sum(MISSES);
+  }
+
+  public long getTime () {
+    return sum(TIME);
+  }
+
+  public void reset () {
+    counters.clear();
+  }
+}
@@ -0,0 +1,55 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.util.List;
+
+/**
+ * The management interface of {@link GettextStatistics}.  It is registered
+ * in the platform MBean server under the name
+ * <CODE>gnu.gettext:type=GettextStatistics</CODE>.
+ */
+public interface GettextStatisticsMXBean {
+
+  /**
+   * Returns the statistics of each catalog that has been used since the
+   * statistics were enabled or reset.
+   */
+  List<GettextStatistics.CatalogStatistics> getCatalogs ();
+
+  /**
+   * Returns the number of lookups in all catalogs.
+   */
+  long getLookups ();
+
+  /**
+   * Returns the number of lookups in all catalogs that found no translation.
+   */
+  long getMisses ();
+
+  /**
+   * Returns the time spent in lookups in all catalogs, in nanoseconds, as
+   * estimated from the time of every 16th lookup.
+   */
+  long getTime ();
+
+  /**
+   * Sets all counters to zero.
+   */
+  void reset ();
+}
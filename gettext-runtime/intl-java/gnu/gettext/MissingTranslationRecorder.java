@@ -0,0 +1,272 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the messages for which the functions of
+ * <CODE>GettextResource</CODE> found no translation, and writes them to a
+ * PO template file.  The file can be merged into the PO files of the
+ * translators with <CODE>msgmerge</CODE>; an extracted comment lists the
+ * locales in which each message was missing.
+ * <P>
+ * The recording is enabled by
+ * {@link GettextResource#setMissingTranslationRecorder}.  Recording a
+ * message that has already been recorded does not block and does not
+ * allocate memory other than a small key object.  The number of recorded
+ * messages is limited; when the limit is reached, further messages are
+ * ignored.
+ * <P>
+ * {@link #flush} writes all messages recorded so far to the file.
+ * {@link #start} calls it periodically in a background thread.  The file
+ * is replaced atomically, by renaming a temporary file.
+ */
+public final class MissingTranslationRecorder {
+
+  private final File file;
+  private final int maxMessages;
+
+  /* The recorded messages, used as a concurrent set.  */
+  private final ConcurrentHashMap<Message,Boolean> messages =
+    new ConcurrentHashMap<Message,Boolean>();
+  private final AtomicInteger count = new AtomicInteger();
+
+  /* The timer of start, or null.  */
+  private Timer timer;
+
+  /**
+   * A recorded message.
+   */
+  private static final class Message {
+    final String msgctxt;
+    final String msgid;
+    final String msgid_plural;
+    final Locale locale;
+    Message (String msgctxt, String msgid, String msgid_plural, Locale locale) {
+      this.msgctxt = msgctxt;
+      this.msgid = msgid;
+      this.msgid_plural = msgid_plural;
+      this.locale = locale;
+    }
+    private static boolean equal (Object o1, Object o2) {
+      return (o1 == null ? o2 == null : o1.equals(o2));
+    }
+    private static int hash (Object o) {
+      return (o != null ? o.hashCode() : 0);
+    }
+    public boolean equals (Object object) {
+      if (!(object instanceof Message))
+        return false;
+      Message other = (Message)object;
+      return msgid.equals(other.msgid)
+             && equal(msgctxt, other.msgctxt)
+             && equal(msgid_plural, other.msgid_plural)
+             && equal(locale, other.locale);
+    }
+    public int hashCode () {
+      return ((msgid.hashCode() * 31 + hash(msgctxt)) * 31 + hash(msgid_plural)) * 31 + hash(locale);
+    }
+  }
+
+  /**
+   * Creates a recorder.
+   * @param file the PO template file to write
+   * @param maxMessages the maximum number of messages to record; a message
+   *        that is missing in several locales counts once per locale
+   */
+  public MissingTranslationRecorder (File file, int maxMessages) {
+    this.file = file;
+    this.maxMessages = maxMessages;
+  }
+
+  /**
+   * Records a message without translation.
+   * @param catalog the catalog in which it was looked up
+   * @param msgctxt the context, or <CODE>null</CODE>
+   * @param msgid the key string
+   * @param msgid_plural the plural form of the key string, or
+   *        <CODE>null</CODE>
+   */
+  public void record (ResourceBundle catalog, String msgctxt, String msgid, String msgid_plural) {
+    Message message =
+      new Message(msgctxt, msgid, msgid_plural,
+                  (catalog != null ? catalog.getLocale() : null));
+    // Only read shared memory, unless the message is new.
+    if (messages.containsKey(message) || count.get() >= maxMessages)
+      return;
+    if (messages.putIfAbsent(message, Boolean.TRUE) == null
+        && count.incrementAndGet() > maxMessages) {
+      // Other threads have recorded messages at the same time.
+      messages.remove(message);
+      count.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of recorded messages.
+   */
+  public int getCount () {
+    return count.get();
+  }
+
+  /* Writes a string in PO syntax, with the same escapes as the
+     DumpResource program of msgunfmt.  */
+  private static void writeString (Writer out, String str) throws IOException {
+    int n = str.length();
+    out.write('"');
+    for (int i = 0; i < n; i++) {
+      char c = str.charAt(i);
+      if (c == 0x0008) {
+        out.write('\\'); out.write('b');
+      } else if (c == 0x000c) {
+        out.write('\\'); out.write('f');
+      } else if (c == 0x000a) {
+        out.write('\\'); out.write('n');
+      } else if (c == 0x000d) {
+        out.write('\\'); out.write('r');
+      } else if (c == 0x0009) {
+        out.write('\\'); out.write('t');
+      } else if (c == '\\' || c == '"') {
+        out.write('\\'); out.write(c);
+      } else
+        out.write(c);
+    }
+    out.write('"');
+  }
+
+  /**
+   * Writes the messages recorded so far to the file.  The messages are
+   * sorted by msgctxt and msgid, so that the file changes only when new
+   * messages have been recorded.
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void flush () throws IOException {
+    // Group the messages by msgctxt and msgid.
+    SortedMap<String,List<Message>> groups = new TreeMap<String,List<Message>>();
+    for (Message message : messages.keySet()) {
+      String key =
+        (message.msgctxt != null ? message.msgctxt + "\u0004" : "\u0000")
+        + message.msgid;
+      List<Message> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<Message>();
+        groups.put(key, group);
+      }
+      group.add(message);
+    }
+    File tmpFile = new File(file.getPath() + ".tmp");
+    Writer out =
+      new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+    try {
+      out.write("# Messages without translation.\n");
+      out.write("msgid \"\"\n");
+      out.write("msgstr \"\"\n");
+      out.write("\"Content-Type: text/plain; charset=UTF-8\\n\"\n");
+      out.write("\"Content-Transfer-Encoding: 8bit\\n\"\n");
+      for (List<Message> group : groups.values()) {
+        SortedSet<String> locales = new TreeSet<String>();
+        String msgid_plural = null;
+        for (Message message : group) {
+          if (message.locale != null && message.locale.toString().length() > 0)
+            locales.add(message.locale.toString());
+          if (message.msgid_plural != null
+              && (msgid_plural == null || message.msgid_plural.compareTo(msgid_plural) < 0))
+            msgid_plural = message.msgid_plural;
+        }
+        Message message = group.get(0);
+        out.write('\n');
+        if (!locales.isEmpty()) {
+          out.write("#. Missing in:");
+          for (String locale : locales) {
+            out.write(' ');
+            out.write(locale);
+          }
+          out.write('\n');
+        }
+        if (message.msgctxt != null) {
+          out.write("msgctxt "); writeString(out, message.msgctxt); out.write('\n');
+        }
+        out.write("msgid "); writeString(out, message.msgid); out.write('\n');
+        if (msgid_plural != null) {
+          out.write("msgid_plural "); writeString(out, msgid_plural); out.write('\n');
+          out.write("msgstr[0] \"\"\n");
+          out.write("msgstr[1] \"\"\n");
+        } else
+          out.write("msgstr \"\"\n");
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmpFile.renameTo(file)) {
+      // On some platforms, renameTo does not replace an existing file.
+      file.delete();
+      if (!tmpFile.renameTo(file))
+        throw new IOException("cannot rename " + tmpFile + " to " + file);
+    }
+  }
+
+  /**
+   * Calls {@link #flush} every <VAR>interval</VAR> milliseconds, in a
+   * daemon thread, until {@link #stop} is called.  Errors are reported on
+   * the standard error stream.
+   * @param interval the interval in milliseconds
+   */
+  public synchronized void start (long interval) {
+    stopTimer();
+    timer = new Timer("MissingTranslationRecorder", true);
+    timer.schedule(
+      new TimerTask() {
+        private int flushedCount = -1;
+        public void run () {
+          // Don't write the file if no message has been recorded since the
+          // last time.
+          int newCount = getCount();
+          if (newCount == flushedCount)
+            return;
+          try {
+            flush();
+            flushedCount = newCount;
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      },
+      interval, interval);
+  }
+
+  private void stopTimer () {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+  }
+
+  /**
+   * Stops the background thread of {@link #start}, and writes the file a
+   * last time.
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void stop () throws IOException {
+    stopTimer();
+    flush();
+  }
+}
@@ -0,0 +1,592 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * A ResourceBundle that reads a binary message catalog in GNU MO format, as
+ * created by <CODE>msgfmt</CODE> for C programs.
+ * <P>
+ * The file is mapped into memory, not read into the Java heap.  A lookup
+ * uses the hash table of the file and compares the key with the UTF-8
+ * encoded msgids in place; only a translation that is found is converted
+ * to a String.  This way, Java programs can use the same catalogs as C
+ * programs, without a separate <CODE>msgfmt --java</CODE> step, and several
+ * Java virtual machines on the same host share the catalog in the page
+ * cache of the operating system.
+ * <P>
+ * The msgids are assumed to be encoded in UTF-8.  The translations are
+ * decoded according to the charset of the header entry, and the plural
+ * form is chosen according to its Plural-Forms line.  System dependent
+ * strings, which only occur in catalogs of C programs that use the
+ * &lt;inttypes.h&gt; format string directives, are ignored.
+ * <P>
+ * The functions of <CODE>GettextResource</CODE> recognize instances of
+ * this class and decode only the plural form that they need.  An instance
+ * can be shared among threads.
+ */
+public class MoResourceBundle extends ResourceBundle implements GettextCatalog {
+
+  /* The contents of the file, in the byte order of the file.  */
+  private final ByteBuffer data;
+  /* The number of messages, and the offsets of the tables of original and
+     translated strings.  */
+  private final int nstrings;
+  private final int origTab;
+  private final int transTab;
+  /* The size and offset of the hash table.  hashSize is 0 if the file has
+     no usable hash table.  */
+  private final int hashSize;
+  private final int hashTab;
+  /* The encoding of the translations.  */
+  private final Charset charset;
+  /* The plural expression, or null for the Germanic plural rule.  */
+  private final GettextResource.PluralExpression plural;
+  private final Locale locale;
+  /* The file name.  */
+  private final String name;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Opens a GNU MO file.
+   * @param file the file
+   * @throws IOException if the file cannot be read or is not a GNU MO file
+   */
+  public MoResourceBundle (File file) throws IOException {
+    this(file, null, null);
+  }
+
+  /**
+   * Opens a GNU MO file.
+   * @param file the file
+   * @param locale the locale of the catalog, or <CODE>null</CODE>
+   * @param parent the catalog to which lookups fall back, or
+   *        <CODE>null</CODE>
+   * @throws IOException if the file cannot be read or is not a GNU MO file
+   */
+  public MoResourceBundle (File file, Locale locale, ResourceBundle parent) throws IOException {
+    ByteBuffer buffer;
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException(file + ": file too large");
+      // The mapping remains valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      stream.close();
+    }
+    if (buffer.limit() < 28)
+      throw new IOException(file + ": not a GNU MO file");
+    int magic = buffer.getInt(0);
+    if (magic == 0xde120495)
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+    else if (magic != 0x950412de)
+      throw new IOException(file + ": not a GNU MO file");
+    if ((buffer.getInt(4) >>> 16) > 1)
+      throw new IOException(file + ": unsupported revision of the GNU MO file format");
+    data = buffer;
+    nstrings = buffer.getInt(8);
+    origTab = buffer.getInt(12);
+    transTab = buffer.getInt(16);
+    int size = buffer.getInt(20);
+    hashTab = buffer.getInt(24);
+    long limit = buffer.limit();
+    if (nstrings < 0
+        || origTab < 0 || origTab + 8L * nstrings > limit
+        || transTab < 0 || transTab + 8L * nstrings > limit)
+      throw new IOException(file + ": corrupt GNU MO file");
+    // Like the C implementation, ignore a hash table of size <= 2.
+    if (size > 2 && (hashTab < 0 || hashTab + 4L * size > limit))
+      throw new IOException(file + ": corrupt GNU MO file");
+    hashSize = (size > 2 ? size : 0);
+    this.locale = locale;
+    this.name = file.getPath();
+    setParent(parent);
+    // Determine the charset and the plural expression from the header entry.
+    String header = null;
+    int index = find(null, "");
+    if (index >= 0)
+      header = decode(index >> 1, -1, Charset.forName("ISO-8859-1"));
+    Charset charset = null;
+    if (header != null) {
+      int start = header.indexOf("charset=");
+      if (start >= 0) {
+        start += 8;
+        int end = start;
+        while (end < header.length()
+               && " \t\n;".indexOf(header.charAt(end)) < 0)
+          end++;
+        try {
+          charset = Charset.forName(header.substring(start, end));
+        } catch (IllegalArgumentException e) {
+          // An illegal or unsupported charset, such as "CHARSET".
+        }
+      }
+    }
+    // Default: the same encoding as for the msgids.
+    this.charset = (charset != null ? charset : UTF8);
+    this.plural = (header != null ? GettextResource.PluralExpression.parse(header) : null);
+  }
+
+  /**
+   * Opens the GNU MO files for a domain and a locale, in the directory
+   * layout that the C function <CODE>bindtextdomain</CODE> uses:
+   * <VAR>localeDirectory</VAR>/<VAR>ll</VAR>_<VAR>CC</VAR>/LC_MESSAGES/<VAR>domain</VAR>.mo,
+   * falling back to
+   * <VAR>localeDirectory</VAR>/<VAR>ll</VAR>/LC_MESSAGES/<VAR>domain</VAR>.mo.
+   * Each call opens the files anew; the caller should keep the result.
+   * @param localeDirectory the base directory
+   * @param domain the text domain
+   * @param locale the locale
+   * @return the catalog of the most specific locale, whose parent is the
+   *         catalog of the more general locale, if both exist
+   * @throws MissingResourceException if no file was found
+   * @throws IOException if a file cannot be read or is not a GNU MO file
+   */
+  public static MoResourceBundle getBundle (File localeDirectory, String domain, Locale locale) throws IOException {
+    File[] files = getFiles(localeDirectory, domain, locale);
+    MoResourceBundle bundle = null;
+    for (int i = 0; i < files.length; i++)
+      if (files[i].isFile())
+        bundle =
+          new MoResourceBundle(files[i],
+                               (i == 0
+                                ? new Locale(locale.getLanguage())
+                                : new Locale(locale.getLanguage(), locale.getCountry())),
+                               bundle);
+    if (bundle == null)
+      throw new MissingResourceException("Can't find " + domain + ".mo for locale " + locale,
+                                         MoResourceBundle.class.getName(), domain);
+    return bundle;
+  }
+
+  /**
+   * Returns the GNU MO files that getBundle looks at, whether they exist or
+   * not, the file for the more general locale first.
+   */
+  static File[] getFiles (File localeDirectory, String domain, Locale locale) {
+    String[] names = getLocaleNames(locale);
+    File[] files = new File[names.length];
+    for (int i = 0; i < names.length; i++)
+      files[i] =
+        new File(new File(new File(localeDirectory, names[i]), "LC_MESSAGES"),
+                 domain + ".mo");
+    return files;
+  }
+
+  /**
+   * Returns the names ll and ll_CC of a locale, or only ll if the locale
+   * has no country.
+   */
+  static String[] getLocaleNames (Locale locale) {
+    String language = locale.getLanguage();
+    // Older Java versions return obsolete ISO 639 codes.
+    if (language.equals("iw"))
+      language = "he";
+    else if (language.equals("in"))
+      language = "id";
+    else if (language.equals("ji"))
+      language = "yi";
+    String country = locale.getCountry();
+    return
+      (country.length() > 0
+       ? new String[] { language, language + "_" + country }
+       : new String[] { language });
+  }
+
+  /* Returns the UTF-8 encoding of the code point c: its bytes are the
+     bytes of the int, from the most significant nonzero one.  */
+  private static int utf8 (int c) {
+    if (c < 0x80)
+      return c;
+    else if (c < 0x800)
+      return ((0xc0 | (c >> 6)) << 8) | (0x80 | (c & 0x3f));
+    else if (c < 0x10000)
+      return ((0xe0 | (c >> 12)) << 16) | ((0x80 | ((c >> 6) & 0x3f)) << 8)
+             | (0x80 | (c & 0x3f));
+    else
+      return ((0xf0 | (c >> 18)) << 24) | ((0x80 | ((c >> 12) & 0x3f)) << 16)
+             | ((0x80 | ((c >> 6) & 0x3f)) << 8) | (0x80 | (c & 0x3f));
+  }
+
+  /* Returns the shift count of the first byte of utf8(c).  */
+  private static int utf8Shift (int c) {
+    return (c < 0x80 ? 0 : c < 0x800 ? 8 : c < 0x10000 ? 16 : 24);
+  }
+
+  /* Returns the length of the UTF-8 encoding of s.  */
+  private static int utf8Length (String s) {
+    int length = s.length();
+    int result = length;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800)
+          result += 1;
+        else {
+          // Three bytes, or four bytes for a surrogate pair.
+          result += 2;
+          if (Character.isHighSurrogate(c) && i + 1 < length
+              && Character.isLowSurrogate(s.charAt(i + 1)))
+            i++;
+        }
+      }
+    }
+    return result;
+  }
+
+  /* Adds a byte to a hash value, like __hash_string in
+     gettext-runtime/intl/hash-string.c.  */
+  private static int hashByte (int hval, int b) {
+    hval = (hval << 4) + b;
+    int g = hval & 0xf0000000;
+    if (g != 0) {
+      hval ^= g >>> 24;
+      hval ^= g;
+    }
+    return hval;
+  }
+
+  /* Adds the UTF-8 encoding of s to a hash value.  */
+  private static int hash (int hval, String s) {
+    int length = s.length();
+    for (int i = 0; i < length; ) {
+      int c = s.charAt(i);
+      if (c < 0x80) {
+        hval = hashByte(hval, c);
+        i++;
+      } else {
+        c = s.codePointAt(i);
+        i += Character.charCount(c);
+        int bytes = utf8(c);
+        for (int shift = utf8Shift(c); shift >= 0; shift -= 8)
+          hval = hashByte(hval, (bytes >>> shift) & 0xff);
+      }
+    }
+    return hval;
+  }
+
+  /* Compares the UTF-8 encoding of s with the bytes at pos, like strcmp,
+     where the bytes end at end.  Returns the position after them if they
+     are equal, -1 if s is smaller, -2 if s is larger.  */
+  private int compare (String s, int pos, int end) {
+    int length = s.length();
+    for (int i = 0; i < length; ) {
+      int c = s.charAt(i);
+      if (c < 0x80) {
+        int f = (pos < end ? data.get(pos) & 0xff : 0);
+        if (c != f)
+          return (c < f ? -1 : -2);
+        pos++;
+        i++;
+      } else {
+        c = s.codePointAt(i);
+        i += Character.charCount(c);
+        int bytes = utf8(c);
+        for (int shift = utf8Shift(c); shift >= 0; shift -= 8) {
+          int b = (bytes >>> shift) & 0xff;
+          int f = (pos < end ? data.get(pos) & 0xff : 0);
+          if (b != f)
+            return (b < f ? -1 : -2);
+          pos++;
+        }
+      }
+    }
+    return pos;
+  }
+
+  /* Compares the key msgctxt CONTEXT_GLUE msgid (or msgid if msgctxt is
+     null) with the original string of message number nstr, like strcmp.
+     Returns -1 if the key is smaller, -2 if it is larger.  If they are
+     equal, returns 2 * nstr, plus 1 if the message has plural forms.  */
+  private int compare (int nstr, String msgctxt, String msgid) {
+    int length = data.getInt(origTab + 8 * nstr);
+    int offset = data.getInt(origTab + 8 * nstr + 4);
+    if (length < 0 || offset < 0 || offset > data.limit() - length)
+      return -1;
+    int end = offset + length;
+    int pos = offset;
+    if (msgctxt != null) {
+      pos = compare(msgctxt, pos, end);
+      if (pos < 0)
+        return pos;
+      int f = (pos < end ? data.get(pos) & 0xff : 0);
+      if (f != 0x04)
+        return (0x04 < f ? -1 : -2);
+      pos++;
+    }
+    pos = compare(msgid, pos, end);
+    if (pos < 0)
+      return pos;
+    // The original string of a message with plural forms is the msgid, a
+    // NUL byte, and the msgid_plural.
+    if (pos < end && data.get(pos) != 0)
+      return -1;
+    return 2 * nstr + (pos < end ? 1 : 0);
+  }
+
+  /* Tests whether the original string of message number nstr can be equal
+     to a key whose UTF-8 encoding has the given length and last byte.  */
+  private boolean mayMatch (int nstr, int keyLength, int lastByte) {
+    int length = data.getInt(origTab + 8 * nstr);
+    int offset = data.getInt(origTab + 8 * nstr + 4);
+    if (length < keyLength || offset < 0 || offset > data.limit() - length)
+      return false;
+    // A longer string must continue with the NUL byte before the
+    // msgid_plural.
+    if (length > keyLength && data.get(offset + keyLength) != 0)
+      return false;
+    return (keyLength == 0 || (data.get(offset + keyLength - 1) & 0xff) == lastByte);
+  }
+
+  /* Looks up the key msgctxt CONTEXT_GLUE msgid (or msgid if msgctxt is
+     null), like the C function dcigettext.  Returns -1 if it is not found,
+     otherwise the result of compare.  */
+  private int find (String msgctxt, String msgid) {
+    if (hashSize > 0) {
+      int hval = 0;
+      if (msgctxt != null)
+        hval = hashByte(hash(hval, msgctxt), 0x04);
+      // The top 4 bits of the hash value are always zero.
+      int hashVal = hash(hval, msgid);
+      // Similar msgids often have a long common prefix.  Most entries that
+      // do not match can be rejected by looking at the length and the last
+      // byte of the key, before comparing it from the start.
+      int keyLength = utf8Length(msgid);
+      if (msgctxt != null)
+        keyLength += utf8Length(msgctxt) + 1;
+      int lastByte =
+        (msgid.length() > 0
+         ? utf8(msgid.codePointBefore(msgid.length())) & 0xff
+         : 0x04);
+      int idx = hashVal % hashSize;
+      // The increment is needed only in case of a collision.
+      int incr = 0;
+      // In a corrupt file, the hash table might have no empty entry.
+      for (int count = hashSize; count > 0; count--) {
+        int nstr = data.getInt(hashTab + 4 * idx);
+        if (nstr == 0)
+          return -1;
+        nstr--;
+        if (nstr >= 0 && nstr < nstrings
+            && mayMatch(nstr, keyLength, lastByte)) {
+          int result = compare(nstr, msgctxt, msgid);
+          if (result >= 0)
+            return result;
+        }
+        if (incr == 0)
+          incr = 1 + hashVal % (hashSize - 2);
+        if (idx >= hashSize - incr)
+          idx -= hashSize - incr;
+        else
+          idx += incr;
+      }
+      return -1;
+    } else {
+      // Binary search in the sorted table of original strings.
+      int bottom = 0;
+      int top = nstrings;
+      while (bottom < top) {
+        int act = (bottom + top) >>> 1;
+        int result = compare(act, msgctxt, msgid);
+        if (result >= 0)
+          return result;
+        if (result == -1)
+          top = act;
+        else
+          bottom = act + 1;
+      }
+      return -1;
+    }
+  }
+
+  /* Returns the plural form number form of the translation of message
+     number nstr, or the first one if there are not that many, or the
+     entire translation if form < 0.  Returns null if the file is
+     corrupt.  */
+  private String decode (int nstr, int form, Charset charset) {
+    int length = data.getInt(transTab + 8 * nstr);
+    int offset = data.getInt(transTab + 8 * nstr + 4);
+    if (length < 0 || offset < 0 || offset > data.limit() - length)
+      return null;
+    int start = offset;
+    int end = offset + length;
+    if (form >= 0) {
+      // Find the plural form number form.  They are separated by NUL bytes.
+      int formStart = start;
+      int i = 0;
+      for (int pos = start; ; pos++)
+        if (pos == end || data.get(pos) == 0) {
+          if (i == form) {
+            start = formStart;
+            end = pos;
+            break;
+          }
+          if (pos == end)
+            // Not that many plural forms.  Take the first one.
+            return decode(nstr, 0, charset);
+          i++;
+          formStart = pos + 1;
+        }
+    }
+    return string(start, end, charset);
+  }
+
+  /* Converts the bytes from start to end to a String.  */
+  private String string (int start, int end, Charset charset) {
+    byte[] bytes = new byte[end - start];
+    // A bulk get is faster than a loop.  It needs a duplicate, because the
+    // position of data is shared among threads.
+    ByteBuffer buffer = data.duplicate();
+    buffer.position(start);
+    buffer.get(bytes);
+    return new String(bytes, 0, bytes.length, charset);
+  }
+
+  /* Returns the value for the result of find, like lookup.  */
+  private Object value (int index) {
+    if (index < 0)
+      return null;
+    String translation = decode(index >> 1, -1, charset);
+    if ((index & 1) == 0 || translation == null)
+      return translation;
+    // Split the plural forms.
+    List<String> forms = new ArrayList<String>();
+    int start = 0;
+    for (int i = 0; i <= translation.length(); i++)
+      if (i == translation.length() || translation.charAt(i) == '\0') {
+        forms.add(translation.substring(start, i));
+        start = i + 1;
+      }
+    return forms.toArray(new String[forms.size()]);
+  }
+
+  public Object lookup (String msgid) {
+    return value(find(null, msgid));
+  }
+
+  public Object lookup (String msgctxt, String msgid) {
+    return value(find(msgctxt, msgid));
+  }
+
+  public long pluralIndex (long n) {
+    if (plural != null)
+      return plural.eval(n);
+    // Default: Germanic plural rule.
+    return (n == 1 ? 0 : 1);
+  }
+
+  public ResourceBundle getParent () {
+    return parent;
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context
+   * <VAR>msgctxt</VAR> (or without context if <VAR>msgctxt</VAR> is
+   * <CODE>null</CODE>) in this catalog, or <CODE>null</CODE>.  For a
+   * message with plural forms, only the first one is decoded.
+   */
+  String gettext (String msgctxt, String msgid) {
+    int index = find(msgctxt, msgid);
+    if (index < 0)
+      return null;
+    return decode(index >> 1, (index & 1) != 0 ? 0 : -1, charset);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the context <VAR>msgctxt</VAR> (or without context
+   * if <VAR>msgctxt</VAR> is <CODE>null</CODE>) in this catalog, or
+   * <CODE>null</CODE>.  Only this plural form is decoded.  The evaluation
+   * of the plural expression is counted in <VAR>counters</VAR>, unless it
+   * is <CODE>null</CODE>.
+   */
+  String ngettext (String msgctxt, String msgid, long n, GettextStatistics.Counters counters) {
+    int index = find(msgctxt, msgid);
+    if (index < 0)
+      return null;
+    if ((index & 1) == 0)
+      // Found the value. It doesn't depend on n in this case.
+      return decode(index >> 1, -1, charset);
+    if (counters != null)
+      counters.increment(GettextStatistics.PLURAL_EVALUATIONS);
+    long i;
+    try {
+      i = pluralIndex(n);
+    } catch (ArithmeticException e) {
+      // Division by zero.
+      i = 0;
+    }
+    if (!(i >= 0 && i <= Integer.MAX_VALUE))
+      i = 0;
+    return decode(index >> 1, (int)i, charset);
+  }
+
+  protected Object handleGetObject (String key) {
+    Object value = lookup(key);
+    return (value instanceof String[] ? ((String[])value)[0] : value);
+  }
+
+  /**
+   * Returns the keys of this catalog, without those of the parent catalogs.
+   * The key of a message with context is the msgctxt, the character
+   * U+0004, and the msgid.
+   */
+  public Enumeration<String> getKeys () {
+    return
+      new Enumeration<String>() {
+        private int nstr = 0;
+        public boolean hasMoreElements () {
+          return (nstr < nstrings);
+        }
+        public String nextElement () {
+          if (nstr >= nstrings)
+            throw new NoSuchElementException();
+          int length = data.getInt(origTab + 8 * nstr);
+          int offset = data.getInt(origTab + 8 * nstr + 4);
+          nstr++;
+          if (length < 0 || offset < 0 || offset > data.limit() - length)
+            return null;
+          // For a message with plural forms, only the msgid.
+          int end = offset;
+          while (end < offset + length && data.get(end) != 0)
+            end++;
+          return string(offset, end, UTF8);
+        }
+      };
+  }
+
+  public Locale getLocale () {
+    return (locale != null ? locale : super.getLocale());
+  }
+
+  /**
+   * Returns the name of the file.
+   */
+  String getName () {
+    return name;
+  }
+}
@@ -0,0 +1,439 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.lang.reflect.Method;
+import java.text.DecimalFormatSymbols;
+import java.util.*;
+
+/**
+ * A format string in the syntax of <CODE>String.format</CODE>
+ * (<CODE>java-printf-format</CODE> in PO files), parsed once.
+ * <P>
+ * <CODE>String.format</CODE> parses its format string at each call.  An
+ * instance of this class splits the format string into literal text and
+ * directives when it is created.  At each call, it formats the directives
+ * <CODE>%s</CODE>, <CODE>%d</CODE>, <CODE>%x</CODE>, <CODE>%c</CODE> and
+ * <CODE>%b</CODE> without flags other than <CODE>-</CODE> and without
+ * precision, which are the most frequent ones, by itself, and passes the
+ * other directives one by one to a <CODE>java.util.Formatter</CODE>.  The
+ * result is the same as that of <CODE>String.format</CODE>, and so are the
+ * exceptions: when the arguments don't fit the format string, the whole
+ * format string is passed to <CODE>String.format</CODE>.
+ * <P>
+ * An instance can be shared among threads.
+ */
+public final class PrintfFormat {
+
+  /* The format string.  */
+  private final String format;
+  /* The literal texts, as Strings, and the directives, as Directives, in
+     order; or null if the format string is invalid.  */
+  private final Object[] segments;
+
+  /**
+   * A directive that takes an argument, or that is not handled as literal
+   * text.
+   */
+  private static final class Directive {
+    /* The directive without the argument specification, for example
+       "%-10s", for the Formatter.  */
+    final String spec;
+    /* The index of the argument, or -1 for a directive without argument.  */
+    final int index;
+    /* The conversion character, or 0 if the directive is not formatted by
+       this class.  */
+    final char conversion;
+    final boolean leftJustify;
+    /* The width, or -1.  */
+    final int width;
+    Directive (String spec, int index, char conversion, boolean leftJustify, int width) {
+      this.spec = spec;
+      this.index = index;
+      this.conversion = conversion;
+      this.leftJustify = leftJustify;
+      this.width = width;
+    }
+  }
+
+  /**
+   * Parses a format string.
+   * @param format a format string in the syntax of <CODE>String.format</CODE>
+   */
+  public PrintfFormat (String format) {
+    this.format = format;
+    this.segments = parse(format);
+  }
+
+  /* Returns the segments of a format string, or null if it is invalid.
+     This follows the syntax of java.util.Formatter:
+       % [index$] [flags] [width] [.precision] [t|T] conversion  */
+  private static Object[] parse (String format) {
+    List<Object> segments = new ArrayList<Object>();
+    StringBuilder literal = new StringBuilder();
+    String lineSeparator = System.getProperty("line.separator");
+    int length = format.length();
+    int ordinaryIndex = -1;
+    int lastIndex = -1;
+    int i = 0;
+    while (i < length) {
+      char c = format.charAt(i++);
+      if (c != '%') {
+        literal.append(c);
+        continue;
+      }
+      // The argument index.
+      int index = -1;
+      int j = i;
+      while (j < length && format.charAt(j) >= '0' && format.charAt(j) <= '9')
+        j++;
+      if (j > i && j < length && format.charAt(j) == '$') {
+        if (j - i > 9)
+          return null;
+        index = Integer.parseInt(format.substring(i, j)) - 1;
+        if (index < 0)
+          return null;
+        i = j + 1;
+      }
+      // The flags.
+      boolean previous = false;
+      boolean leftJustify = false;
+      boolean otherFlags = false;
+      StringBuilder flags = new StringBuilder();
+      for (; i < length; i++) {
+        c = format.charAt(i);
+        if (c == '<') {
+          if (previous)
+            return null;
+          previous = true;
+        } else if (c == '-') {
+          if (leftJustify)
+            otherFlags = true;
+          leftJustify = true;
+          flags.append(c);
+        } else if ("#+ 0,(".indexOf(c) >= 0) {
+          otherFlags = true;
+          flags.append(c);
+        } else
+          break;
+      }
+      // The width.
+      int widthStart = i;
+      while (i < length && format.charAt(i) >= '0' && format.charAt(i) <= '9')
+        i++;
+      int width = -1;
+      if (i > widthStart) {
+        if (i - widthStart > 9)
+          return null;
+        width = Integer.parseInt(format.substring(widthStart, i));
+      }
+      // The precision.
+      boolean precision = false;
+      if (i < length && format.charAt(i) == '.') {
+        int precisionStart = ++i;
+        while (i < length && format.charAt(i) >= '0' && format.charAt(i) <= '9')
+          i++;
+        if (i == precisionStart)
+          return null;
+        precision = true;
+      }
+      // The conversion.
+      boolean dateTime = false;
+      if (i + 1 < length && (format.charAt(i) == 't' || format.charAt(i) == 'T')) {
+        dateTime = true;
+        i++;
+      }
+      if (i == length)
+        return null;
+      c = format.charAt(i++);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '%'))
+        return null;
+      String spec = "%" + flags + format.substring(widthStart, i);
+      boolean takesArgument = true;
+      switch (dateTime ? 't' : c) {
+        case '%':
+          if (index < 0 && !previous && !leftJustify && !otherFlags
+              && width < 0 && !precision) {
+            literal.append('%');
+            continue;
+          }
+          takesArgument = false;
+          break;
+        case 'n':
+          if (index < 0 && !previous && flags.length() == 0
+              && width < 0 && !precision) {
+            literal.append(lineSeparator);
+            continue;
+          }
+          takesArgument = false;
+          break;
+        case 'b': case 'B': case 'h': case 'H': case 's': case 'S':
+        case 'c': case 'C': case 'd': case 'o': case 'x': case 'X':
+        case 'e': case 'E': case 'f': case 'g': case 'G': case 'a': case 'A':
+        case 't':
+          break;
+        default:
+          return null;
+      }
+      if (takesArgument) {
+        // Determine the argument, like java.util.Formatter.
+        if (previous) {
+          if (lastIndex < 0)
+            return null;
+          index = lastIndex;
+        } else if (index < 0)
+          index = ++ordinaryIndex;
+        lastIndex = index;
+      } else {
+        if (previous)
+          return null;
+        index = -1;
+      }
+      char conversion = 0;
+      if (!dateTime && !otherFlags && !precision && (width >= 0 || !leftJustify)
+          && (c == 's' || c == 'd' || c == 'x' || c == 'c' || c == 'b'))
+        conversion = c;
+      if (literal.length() > 0) {
+        segments.add(literal.toString());
+        literal.setLength(0);
+      }
+      segments.add(new Directive(spec, index, conversion, leftJustify, width));
+    }
+    if (literal.length() > 0)
+      segments.add(literal.toString());
+    return segments.toArray();
+  }
+
+  /* Locale.getDefault(Locale.Category.FORMAT) in Java 7 and newer, which
+     String.format and MessageFormat use.  */
+  private static final Method getDefaultMethod;
+  private static final Object formatCategory;
+
+  static {
+    Method method = null;
+    Object category = null;
+    try {
+      Class<?> categoryClass = Class.forName("java.util.Locale$Category");
+      method = Locale.class.getMethod("getDefault", new Class<?>[] { categoryClass });
+      category = categoryClass.getField("FORMAT").get(null);
+    } catch (Exception e) {
+      method = null;
+    }
+    getDefaultMethod = method;
+    formatCategory = category;
+  }
+
+  /**
+   * Returns the default locale for formatting: the one of the FORMAT
+   * category in Java 7 and newer, or else the default locale.
+   */
+  static Locale getDefaultLocale () {
+    if (getDefaultMethod != null) {
+      try {
+        return (Locale)getDefaultMethod.invoke(null, new Object[] { formatCategory });
+      } catch (Exception e) {
+      }
+    }
+    return Locale.getDefault();
+  }
+
+  /**
+   * A locale and its zero digit.
+   */
+  private static final class ZeroDigit {
+    final Locale locale;
+    final char zero;
+    ZeroDigit (Locale locale) {
+      this.locale = locale;
+      this.zero =
+        (locale != null ? DecimalFormatSymbols.getInstance(locale).getZeroDigit() : '0');
+    }
+  }
+
+  /* The zero digit of the most recently used locale.  */
+  private static volatile ZeroDigit zeroDigit = new ZeroDigit(null);
+
+  private static char getZeroDigit (Locale locale) {
+    ZeroDigit z = zeroDigit;
+    if (!(locale == null ? z.locale == null : locale.equals(z.locale))) {
+      z = new ZeroDigit(locale);
+      zeroDigit = z;
+    }
+    return z.zero;
+  }
+
+  /* Appends the result of the directive to sb, unless the directive or the
+     argument must be handled by java.util.Formatter.  Returns true if it
+     has been appended.  */
+  private static boolean append (StringBuilder sb, Directive directive, Object argument, Locale locale) {
+    String s;
+    switch (directive.conversion) {
+      case 's':
+        if (argument instanceof Formattable)
+          return false;
+        s = (argument != null ? argument.toString() : "null");
+        break;
+      case 'd':
+        if (argument instanceof Integer || argument instanceof Long
+            || argument instanceof Short || argument instanceof Byte) {
+          if (getZeroDigit(locale) != '0')
+            return false;
+          s = Long.toString(((Number)argument).longValue());
+        } else if (argument == null)
+          s = "null";
+        else
+          return false;
+        break;
+      case 'x':
+        if (argument instanceof Integer)
+          s = Integer.toHexString(((Integer)argument).intValue());
+        else if (argument instanceof Long)
+          s = Long.toHexString(((Long)argument).longValue());
+        else if (argument == null)
+          s = "null";
+        else
+          return false;
+        break;
+      case 'c':
+        if (argument instanceof Character)
+          s = argument.toString();
+        else if (argument == null)
+          s = "null";
+        else
+          return false;
+        break;
+      case 'b':
+        s = (argument == null ? "false"
+             : argument instanceof Boolean ? argument.toString()
+             : "true");
+        break;
+      default:
+        return false;
+    }
+    int padding = directive.width - s.length();
+    if (padding > 0 && !directive.leftJustify)
+      for (; padding > 0; padding--)
+        sb.append(' ');
+    sb.append(s);
+    for (; padding > 0; padding--)
+      sb.append(' ');
+    return true;
+  }
+
+  /**
+   * Formats the arguments, like
+   * <CODE>String.format(<VAR>locale</VAR>, <VAR>format</VAR>, <VAR>arguments</VAR>)</CODE>.
+   * @param locale the locale, or <CODE>null</CODE> for no localization
+   * @param arguments the arguments of the format string
+   * @return the formatted string
+   * @throws IllegalFormatException if the arguments don't fit the format
+   *         string
+   */
+  public String format (Locale locale, Object... arguments) {
+    Object[] segments = this.segments;
+    if (segments == null || arguments == null)
+      return String.format(locale, format, arguments);
+    StringBuilder sb = new StringBuilder(format.length() + 16 * arguments.length);
+    Formatter formatter = null;
+    for (int i = 0; i < segments.length; i++) {
+      Object segment = segments[i];
+      if (segment instanceof String) {
+        sb.append((String)segment);
+        continue;
+      }
+      Directive directive = (Directive)segment;
+      Object argument = null;
+      if (directive.index >= 0) {
+        if (directive.index >= arguments.length)
+          // Let String.format throw the exception.
+          return String.format(locale, format, arguments);
+        argument = arguments[directive.index];
+      }
+      if (!append(sb, directive, argument, locale)) {
+        if (formatter == null)
+          formatter = new Formatter(sb, locale);
+        try {
+          if (directive.index >= 0)
+            formatter.format(locale, directive.spec, argument);
+          else
+            formatter.format(locale, directive.spec);
+        } catch (IllegalFormatException e) {
+          // Let String.format throw the exception, with the message that
+          // refers to the original directive.
+          return String.format(locale, format, arguments);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Formats the arguments, like
+   * <CODE>String.format(<VAR>format</VAR>, <VAR>arguments</VAR>)</CODE>,
+   * in the default locale for formatting.
+   * @param arguments the arguments of the format string
+   * @return the formatted string
+   * @throws IllegalFormatException if the arguments don't fit the format
+   *         string
+   */
+  public String format (Object... arguments) {
+    return format(getDefaultLocale(), arguments);
+  }
+
+  /**
+   * Returns the format string.
+   */
+  public String toString () {
+    return format;
+  }
+
+  /* The maximum number of format strings in cache.  When it is reached,
+     format strings that have not been used recently are removed.  */
+  private static final int CACHE_SIZE = 1000;
+
+  /* The parsed format strings, by catalog and format string.  */
+  private static final BoundedCache<BoundedCache.Key,PrintfFormat> cache =
+    new BoundedCache<BoundedCache.Key,PrintfFormat>(CACHE_SIZE);
+
+  /**
+   * Returns a parsed format string, a translation from a catalog.  The
+   * format strings that were used recently are cached, per catalog;
+   * looking them up takes no lock.
+   * @param catalog the ResourceBundle from which <VAR>format</VAR> comes,
+   *                or null
+   * @param format a format string in the syntax of <CODE>String.format</CODE>
+   */
+  public static PrintfFormat getInstance (ResourceBundle catalog, String format) {
+    BoundedCache.Key key = new BoundedCache.Key(catalog, null, format);
+    PrintfFormat result = cache.get(key);
+    if (result == null) {
+      result = new PrintfFormat(format);
+      cache.put(key.weakKey(), result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns a parsed format string.  The format strings that were used
+   * recently are cached.
+   * @param format a format string in the syntax of <CODE>String.format</CODE>
+   */
+  public static PrintfFormat getInstance (String format) {
+    return getInstance(null, format);
+  }
+}
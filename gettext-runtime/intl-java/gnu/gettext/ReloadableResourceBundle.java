@@ -0,0 +1,363 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * A ResourceBundle whose translations can be replaced while the program is
+ * running, for example after a translation has been fixed.
+ * <P>
+ * It holds a catalog that a {@link Loader} has created from files on disk.
+ * {@link #reload} creates a new catalog from the current files and then
+ * replaces the old one with a single write to a volatile field.  Lookups are
+ * never blocked by a reload: they see either the old catalog or the new one,
+ * never a partially loaded one.  {@link #reloadIfModified} reloads only if
+ * the files have changed, and {@link #watch} calls it periodically in a
+ * background thread.
+ * <P>
+ * The functions of <CODE>GettextResource</CODE> look up translations in the
+ * current catalog directly.  A program that needs several lookups to see
+ * the same catalog can use {@link #getCatalog}.
+ * <P>
+ * New versions of the files should be installed by renaming them into
+ * place, not by overwriting them: a GNU MO file that is in use is mapped
+ * into memory, and a Java virtual machine may crash when such a file is
+ * truncated.
+ */
+public class ReloadableResourceBundle extends ResourceBundle {
+
+  /**
+   * Creates a catalog from files on disk.
+   */
+  public interface Loader {
+    /**
+     * Returns a newly created catalog, with the translations that the files
+     * contain now.
+     * @throws IOException if a file cannot be read
+     */
+    ResourceBundle load () throws IOException;
+  }
+
+  private final Loader loader;
+  /* The files whose modification causes reloadIfModified to reload.  */
+  private final File[] files;
+
+  /* The current catalog.  */
+  private volatile ResourceBundle catalog;
+
+  /* The modification times and lengths of the files, as seen before the
+     current catalog was loaded.  Guarded by the lock of this object, like
+     the statistics.  */
+  private long[] stamps;
+
+  private volatile long reloadCount;
+  private volatile long failedReloadCount;
+  private volatile long lastReloadTime;
+  private volatile long lastReloadDuration;
+  private volatile long maxReloadDuration;
+
+  /* The timer of watch, or null.  */
+  private Timer timer;
+
+  /**
+   * Creates a reloadable catalog and loads the catalog for the first time.
+   * @param loader the loader
+   * @param files the files from which the loader creates the catalog,
+   *        including files that do not exist yet but would be used if they
+   *        existed
+   * @throws IOException if the loader fails
+   */
+  public ReloadableResourceBundle (Loader loader, File[] files) throws IOException {
+    this.loader = loader;
+    this.files = files.clone();
+    this.stamps = getStamps();
+    this.catalog = loader.load();
+    this.lastReloadTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns a reloadable catalog of GNU MO files, as found by
+   * {@link MoResourceBundle#getBundle}.
+   * @param localeDirectory the base directory
+   * @param domain the text domain
+   * @param locale the locale
+   * @throws MissingResourceException if no file was found
+   * @throws IOException if a file cannot be read or is not a GNU MO file
+   */
+  public static ReloadableResourceBundle getMoBundle (final File localeDirectory, final String domain, final Locale locale) throws IOException {
+    return
+      new ReloadableResourceBundle(
+        new Loader() {
+          public ResourceBundle load () throws IOException {
+            return MoResourceBundle.getBundle(localeDirectory, domain, locale);
+          }
+        },
+        MoResourceBundle.getFiles(localeDirectory, domain, locale));
+  }
+
+  /**
+   * Returns a reloadable catalog of ResourceBundle classes, as created by
+   * <CODE>msgfmt --java</CODE> or <CODE>msgfmt --java2</CODE>, or of
+   * <CODE>.properties</CODE> files.  Each load uses a new class loader,
+   * which gives precedence to the files in <VAR>directory</VAR> over the
+   * classes of the same name that the class loader of this class can see.
+   * @param directory the base directory of the class files
+   * @param baseName the resource name, a fully qualified class name
+   * @param locale the locale
+   * @throws MissingResourceException if no catalog was found
+   * @throws IOException if <VAR>directory</VAR> cannot be used
+   */
+  public static ReloadableResourceBundle getClassBundle (final File directory, final String baseName, final Locale locale) throws IOException {
+    return
+      new ReloadableResourceBundle(
+        new Loader() {
+          public ResourceBundle load () throws IOException {
+            ClassLoader classLoader =
+              new CatalogClassLoader(directory, ReloadableResourceBundle.class.getClassLoader());
+            return ResourceBundle.getBundle(baseName, locale, classLoader);
+          }
+        },
+        getClassBundleFiles(directory, baseName, locale));
+  }
+
+  /**
+   * Returns the files of the catalogs <VAR>baseName</VAR>,
+   * <VAR>baseName</VAR>_ll and <VAR>baseName</VAR>_ll_CC.
+   */
+  static File[] getClassBundleFiles (File directory, String baseName, Locale locale) {
+    String path = baseName.replace('.', File.separatorChar);
+    String[] names = { "", "_" + locale.getLanguage(), "_" + locale.getLanguage() + "_" + locale.getCountry() };
+    String[] suffixes = { ".class", ".strings", ".properties" };
+    int count = (locale.getCountry().length() > 0 ? 3 : locale.getLanguage().length() > 0 ? 2 : 1);
+    File[] files = new File[count * suffixes.length];
+    for (int i = 0; i < count; i++)
+      for (int j = 0; j < suffixes.length; j++)
+        files[i * suffixes.length + j] = new File(directory, path + names[i] + suffixes[j]);
+    return files;
+  }
+
+  /**
+   * A class loader that looks for classes and resources in a directory
+   * first, and then asks its parent.
+   */
+  static final class CatalogClassLoader extends ClassLoader {
+    private final File directory;
+    CatalogClassLoader (File directory, ClassLoader parent) {
+      super(parent);
+      this.directory = directory;
+    }
+    private File getFile (String name) {
+      return new File(directory, name.replace('/', File.separatorChar));
+    }
+    protected synchronized Class<?> loadClass (String name, boolean resolve) throws ClassNotFoundException {
+      Class<?> clazz = findLoadedClass(name);
+      if (clazz == null) {
+        if (!getFile(name.replace('.', '/') + ".class").isFile())
+          return super.loadClass(name, resolve);
+        clazz = findClass(name);
+      }
+      if (resolve)
+        resolveClass(clazz);
+      return clazz;
+    }
+    protected Class<?> findClass (String name) throws ClassNotFoundException {
+      File file = getFile(name.replace('.', '/') + ".class");
+      try {
+        DataInputStream stream = new DataInputStream(new FileInputStream(file));
+        try {
+          byte[] bytes = new byte[(int)file.length()];
+          stream.readFully(bytes);
+          return defineClass(name, bytes, 0, bytes.length);
+        } finally {
+          stream.close();
+        }
+      } catch (IOException e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+    public URL getResource (String name) {
+      File file = getFile(name);
+      if (file.isFile()) {
+        try {
+          return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+        }
+      }
+      return super.getResource(name);
+    }
+  }
+
+  /**
+   * Returns the current catalog.
+   */
+  public ResourceBundle getCatalog () {
+    return catalog;
+  }
+
+  /* Returns the modification times and lengths of the files.  */
+  private long[] getStamps () {
+    long[] result = new long[2 * files.length];
+    for (int i = 0; i < files.length; i++) {
+      result[2 * i] = files[i].lastModified();
+      result[2 * i + 1] = files[i].length();
+    }
+    return result;
+  }
+
+  /**
+   * Loads the catalog anew and makes it the current catalog.  If the
+   * loader fails, the current catalog remains in use.
+   * @throws IOException if the loader fails
+   */
+  public void reload () throws IOException {
+    reload(getStamps());
+  }
+
+  private synchronized void reload (long[] newStamps) throws IOException {
+    long start = System.nanoTime();
+    ResourceBundle newCatalog;
+    try {
+      newCatalog = loader.load();
+    } catch (IOException e) {
+      failedReloadCount++;
+      throw e;
+    } catch (RuntimeException e) {
+      // Such as MissingResourceException.
+      failedReloadCount++;
+      throw e;
+    }
+    catalog = newCatalog;
+    long duration = System.nanoTime() - start;
+    stamps = newStamps;
+    reloadCount++;
+    lastReloadTime = System.currentTimeMillis();
+    lastReloadDuration = duration;
+    if (duration > maxReloadDuration)
+      maxReloadDuration = duration;
+  }
+
+  /**
+   * Reloads the catalog if one of the files has been created, modified or
+   * removed since the last load.
+   * @return <CODE>true</CODE> if the catalog has been reloaded
+   * @throws IOException if the loader fails
+   */
+  public synchronized boolean reloadIfModified () throws IOException {
+    // The files are examined before they are loaded, so that a modification
+    // during the load is noticed by the next call.
+    long[] newStamps = getStamps();
+    if (Arrays.equals(newStamps, stamps))
+      return false;
+    reload(newStamps);
+    return true;
+  }
+
+  /**
+   * Calls {@link #reloadIfModified} every <VAR>interval</VAR> milliseconds,
+   * in a daemon thread, until this method is called with an interval of 0.
+   * A failed reload is reported on the standard error stream, and is tried
+   * again after the next modification of the files.
+   * @param interval the interval in milliseconds, or 0
+   */
+  public synchronized void watch (long interval) {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+    if (interval > 0) {
+      timer = new Timer("ReloadableResourceBundle", true);
+      timer.schedule(
+        new TimerTask() {
+          public void run () {
+            try {
+              reloadIfModified();
+            } catch (IOException e) {
+              handleFailure(e);
+            } catch (RuntimeException e) {
+              handleFailure(e);
+            }
+          }
+        },
+        interval, interval);
+    }
+  }
+
+  private synchronized void handleFailure (Exception e) {
+    e.printStackTrace();
+    // Don't try again before the files have been modified again.
+    stamps = getStamps();
+  }
+
+  /**
+   * Returns the number of times the catalog has been reloaded, not counting
+   * the initial load.
+   */
+  public long getReloadCount () {
+    return reloadCount;
+  }
+
+  /**
+   * Returns the number of times that the loader has failed during a reload.
+   */
+  public long getFailedReloadCount () {
+    return failedReloadCount;
+  }
+
+  /**
+   * Returns the time when the current catalog was loaded, in milliseconds
+   * since the epoch.
+   */
+  public long getLastReloadTime () {
+    return lastReloadTime;
+  }
+
+  /**
+   * Returns the time that the last successful reload took, in nanoseconds.
+   */
+  public long getLastReloadDuration () {
+    return lastReloadDuration;
+  }
+
+  /**
+   * Returns the longest time that a successful reload took, in nanoseconds.
+   */
+  public long getMaxReloadDuration () {
+    return maxReloadDuration;
+  }
+
+  protected Object handleGetObject (String key) {
+    // Not catalog.getObject(key), which throws a MissingResourceException
+    // when there is no value, so that a miss through getObject would fill in
+    // the stack traces of two exceptions.
+    return GettextResource.getObjectNull(catalog, key);
+  }
+
+  /**
+   * Returns the keys of the current catalog.
+   */
+  public Enumeration<String> getKeys () {
+    return catalog.getKeys();
+  }
+
+  public Locale getLocale () {
+    return catalog.getLocale();
+  }
+}
@@ -0,0 +1,151 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * A catalog together with the functions of <CODE>GettextResource</CODE>.
+ * <CODE>translator.gettext(msgid)</CODE> is the same as
+ * <CODE>GettextResource.gettext(translator.getCatalog(), msgid)</CODE>.
+ * The format functions, however, format numbers and dates for the locale
+ * of the translator, not for the default locale.
+ * <P>
+ * Translators are usually obtained from a {@link TranslatorRegistry}.  A
+ * translator is immutable and can be shared among threads.
+ */
+public final class Translator {
+
+  /* The catalog, or null if no catalog was found.  */
+  private final ResourceBundle catalog;
+  private final Locale locale;
+
+  /**
+   * Creates a translator.
+   * @param catalog a ResourceBundle, or <CODE>null</CODE> for a translator
+   *        that returns the untranslated messages
+   * @param locale the locale of the messages; if <CODE>null</CODE>, the
+   *        locale of <VAR>catalog</VAR>
+   */
+  public Translator (ResourceBundle catalog, Locale locale) {
+    this.catalog = catalog;
+    this.locale =
+      (locale != null ? locale : catalog != null ? catalog.getLocale() : Locale.ROOT);
+  }
+
+  /**
+   * Returns the catalog, or <CODE>null</CODE>.
+   */
+  public ResourceBundle getCatalog () {
+    return catalog;
+  }
+
+  /**
+   * Returns the locale of the messages.
+   */
+  public Locale getLocale () {
+    return locale;
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR>.
+   * @see GettextResource#gettext
+   */
+  public String gettext (String msgid) {
+    if (catalog == null)
+      return msgid;
+    return GettextResource.gettext(catalog, msgid);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR>.
+   * @see GettextResource#ngettext
+   */
+  public String ngettext (String msgid, String msgid_plural, long n) {
+    if (catalog == null)
+      return (n != 1 ? msgid_plural : msgid);
+    return GettextResource.ngettext(catalog, msgid, msgid_plural, n);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context of
+   * <VAR>msgctxt</VAR>.
+   * @see GettextResource#pgettext
+   */
+  public String pgettext (String msgctxt, String msgid) {
+    if (catalog == null)
+      return msgid;
+    return GettextResource.pgettext(catalog, msgctxt, msgid);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the context of <VAR>msgctxt</VAR>.
+   * @see GettextResource#npgettext
+   */
+  public String npgettext (String msgctxt, String msgid, String msgid_plural, long n) {
+    if (catalog == null)
+      return (n != 1 ? msgid_plural : msgid);
+    return GettextResource.npgettext(catalog, msgctxt, msgid, msgid_plural, n);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR>, formatted with
+   * <VAR>arguments</VAR> as a MessageFormat pattern.
+   * @see GettextResource#format
+   */
+  public String format (String msgid, Object... arguments) {
+    return GettextResource.formatPattern(catalog, locale, gettext(msgid), arguments);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR>, formatted with <VAR>arguments</VAR> as a
+   * MessageFormat pattern.
+   * @see GettextResource#nformat
+   */
+  public String nformat (String msgid, String msgid_plural, long n, Object... arguments) {
+    return GettextResource.formatPattern(catalog, locale, ngettext(msgid, msgid_plural, n), arguments);
+  }
+
+  /**
+   * Returns the translation of <VAR>msgid</VAR> in the context of
+   * <VAR>msgctxt</VAR>, formatted with <VAR>arguments</VAR> as a
+   * MessageFormat pattern.
+   * @see GettextResource#pformat
+   */
+  public String pformat (String msgctxt, String msgid, Object... arguments) {
+    return GettextResource.formatPattern(catalog, locale, pgettext(msgctxt, msgid), arguments);
+  }
+
+  /**
+   * Returns the plural form for <VAR>n</VAR> of the translation of
+   * <VAR>msgid</VAR> in the context of <VAR>msgctxt</VAR>, formatted with
+   * <VAR>arguments</VAR> as a MessageFormat pattern.
+   * @see GettextResource#npformat
+   */
+  public String npformat (String msgctxt, String msgid, String msgid_plural, long n, Object... arguments) {
+    return GettextResource.formatPattern(catalog, locale, npgettext(msgctxt, msgid, msgid_plural, n), arguments);
+  }
+
+  public String toString () {
+    return "Translator[" + locale + "]";
+  }
+}
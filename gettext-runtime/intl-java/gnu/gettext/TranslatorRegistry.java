@@ -0,0 +1,247 @@
+/* GNU gettext for Java
+ * Copyright (C) 2021 Free Software Foundation, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package gnu.gettext;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps a base name and a list of preferred languages, such as the value of
+ * an HTTP <CODE>Accept-Language</CODE> header, to a {@link Translator}.
+ * <P>
+ * <CODE>ResourceBundle.getBundle</CODE> builds the list of candidate
+ * locales and consults its cache at each call.  A registry does this only
+ * the first time it sees a base name with a given list of languages, and
+ * afterwards returns the same translator with two hash table lookups,
+ * without locking.  The lists of languages are parsed and normalized
+ * first, so that lists that differ only in spaces, case, repeated
+ * languages, or quality values that give the same order are the same
+ * list.  The
+ * number of remembered lists per base name is limited; when the limit is
+ * reached, the lists that have not been used recently are forgotten.
+ * <P>
+ * The negotiation picks the first language in the list for which a catalog
+ * exists, for example <CODE>Messages_de</CODE> for the list
+ * <CODE>de-AT, fr;q=0.5</CODE>.  If there is none, the translator uses the
+ * catalog for the root locale, <CODE>Messages</CODE>, if it exists, or no
+ * catalog at all.  Unlike <CODE>ResourceBundle.getBundle</CODE>, it does
+ * not fall back to the default locale of the Java virtual machine.
+ * <P>
+ * A registry can be shared among threads.  Since a translator keeps its
+ * catalog, {@link #clear} must be called for new catalogs to take effect,
+ * unless they are ReloadableResourceBundles.
+ */
+public final class TranslatorRegistry {
+
+  private final ClassLoader loader;
+  private final int maxEntries;
+
+  /* The translators, by base name and then by list of locales.  */
+  private final ConcurrentHashMap<String,BoundedCache<List<Locale>,Translator>> translators =
+    new ConcurrentHashMap<String,BoundedCache<List<Locale>,Translator>>();
+  /* The translators, by base name and negotiated locale, so that the lists
+     of languages that lead to the same catalog share a translator.  */
+  private volatile BoundedCache<String,Translator> negotiated;
+
+  /* The control of ResourceBundle.getBundle, without fallback to the
+     default locale.  */
+  private static final ResourceBundle.Control NO_FALLBACK =
+    ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_DEFAULT);
+
+  /**
+   * Creates a registry that loads the catalogs with the context class
+   * loader of the current thread, and remembers up to 1000 lists of
+   * languages per base name.
+   */
+  public TranslatorRegistry () {
+    this(null, 1000);
+  }
+
+  /**
+   * Creates a registry.
+   * @param loader the class loader of the catalogs, or <CODE>null</CODE>
+   *        for the context class loader of the current thread
+   * @param maxEntries the maximum number of lists of languages to remember
+   *        per base name
+   */
+  public TranslatorRegistry (ClassLoader loader, int maxEntries) {
+    if (loader == null)
+      loader = Thread.currentThread().getContextClassLoader();
+    if (loader == null)
+      loader = ClassLoader.getSystemClassLoader();
+    this.loader = loader;
+    this.maxEntries = maxEntries;
+    this.negotiated = new BoundedCache<String,Translator>(maxEntries);
+  }
+
+  /**
+   * Returns the translator for a list of preferred languages.
+   * @param baseName the base name of the catalogs, for example
+   *        <CODE>"Messages"</CODE>
+   * @param languages a list of language tags, separated by commas, each
+   *        optionally followed by a quality value, in the syntax of the HTTP
+   *        <CODE>Accept-Language</CODE> header; or <CODE>null</CODE>
+   */
+  public Translator getTranslator (String baseName, String languages) {
+    return getTranslator(baseName, parseLanguages(languages), false);
+  }
+
+  /**
+   * Returns the translator for a list of preferred locales.
+   * @param baseName the base name of the catalogs, for example
+   *        <CODE>"Messages"</CODE>
+   * @param locales the locales, the most preferred first
+   */
+  public Translator getTranslator (String baseName, Locale... locales) {
+    return getTranslator(baseName, Arrays.asList(locales), true);
+  }
+
+  /**
+   * Forgets all translators.
+   */
+  public void clear () {
+    translators.clear();
+    negotiated = new BoundedCache<String,Translator>(maxEntries);
+  }
+
+  /* Returns the translator for a list of locales.  If copy is true, the
+     list must be copied before it is stored.  */
+  private Translator getTranslator (String baseName, List<Locale> locales, boolean copy) {
+    BoundedCache<List<Locale>,Translator> cache = getTranslators(baseName);
+    Translator result = cache.get(locales);
+    if (result == null) {
+      result = negotiate(baseName, locales);
+      cache.put(copy ? new ArrayList<Locale>(locales) : locales, result);
+    }
+    return result;
+  }
+
+  private BoundedCache<List<Locale>,Translator> getTranslators (String baseName) {
+    BoundedCache<List<Locale>,Translator> result = translators.get(baseName);
+    if (result == null) {
+      BoundedCache<List<Locale>,Translator> newCache =
+        new BoundedCache<List<Locale>,Translator>(maxEntries);
+      result = translators.putIfAbsent(baseName, newCache);
+      if (result == null)
+        result = newCache;
+    }
+    return result;
+  }
+
+  /* Returns the translator for the first locale for which a catalog
+     exists.  */
+  private Translator negotiate (String baseName, List<Locale> locales) {
+    ResourceBundle catalog = null;
+    Locale locale = Locale.ROOT;
+    for (Locale preferred : locales) {
+      ResourceBundle bundle = getBundle(baseName, preferred);
+      if (bundle != null && bundle.getLocale().getLanguage().length() > 0) {
+        catalog = bundle;
+        locale = preferred;
+        break;
+      }
+    }
+    if (catalog == null)
+      catalog = getBundle(baseName, Locale.ROOT);
+    String key =
+      baseName + '\u0000' + locale
+      + '\u0000' + (catalog != null ? catalog.getLocale().toString() : "-");
+    BoundedCache<String,Translator> cache = negotiated;
+    Translator result = cache.get(key);
+    if (result == null || result.getCatalog() != catalog) {
+      result = new Translator(catalog, locale);
+      cache.put(key, result);
+    }
+    return result;
+  }
+
+  private ResourceBundle getBundle (String baseName, Locale locale) {
+    try {
+      return ResourceBundle.getBundle(baseName, locale, loader, NO_FALLBACK);
+    } catch (MissingResourceException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parses a list of language tags with optional quality values, in the
+   * syntax of the HTTP <CODE>Accept-Language</CODE> header, such as
+   * <CODE>de-AT, de;q=0.9, en;q=0.5</CODE>.  Tags with a quality value of 0
+   * and the wildcard <CODE>*</CODE> are ignored.  Scripts, variants and
+   * extensions in the tags are ignored.  A locale that occurs several
+   * times is returned only once, at its first position.
+   * @param languages the list, or <CODE>null</CODE>
+   * @return the locales, the most preferred first
+   */
+  public static List<Locale> parseLanguages (String languages) {
+    final List<Locale> locales = new ArrayList<Locale>();
+    final List<Float> qualities = new ArrayList<Float>();
+    if (languages != null) {
+      for (String item : languages.split(",")) {
+        String[] parts = item.split(";");
+        String tag = parts[0].trim();
+        float quality = 1.0f;
+        for (int i = 1; i < parts.length; i++) {
+          String parameter = parts[i].trim();
+          if (parameter.startsWith("q=")) {
+            try {
+              quality = Float.parseFloat(parameter.substring(2).trim());
+            } catch (NumberFormatException e) {
+              quality = 0.0f;
+            }
+          }
+        }
+        if (tag.length() == 0 || tag.equals("*") || !(quality > 0.0f))
+          continue;
+        String[] subtags = tag.split("[-_]");
+        String language = subtags[0].toLowerCase(Locale.ENGLISH);
+        String country = "";
+        for (int i = 1; i < subtags.length; i++) {
+          String subtag = subtags[i];
+          if (subtag.length() == 2
+              || (subtag.length() == 3 && Character.isDigit(subtag.charAt(0)))) {
+            country = subtag.toUpperCase(Locale.ENGLISH);
+            break;
+          }
+          if (subtag.length() != 4)
+            // Not a script subtag.
+            break;
+        }
+        locales.add(new Locale(language, country));
+        qualities.add(Float.valueOf(quality));
+      }
+    }
+    // Sort by decreasing quality.  The sort is stable.
+    Integer[] order = new Integer[locales.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = Integer.valueOf(i);
+    Arrays.sort(order,
+                new Comparator<Integer>() {
+                  public int compare (Integer i1, Integer i2) {
+                    return qualities.get(i2.intValue()).compareTo(qualities.get(i1.intValue()));
+                  }
+                });
+    List<Locale> result = new ArrayList<Locale>(order.length);
+    for (Integer i : order) {
+      Locale locale = locales.get(i.intValue());
+      if (!result.contains(locale))
+        result.add(locale);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,920 @@
+/* Writing Java class files.
+   Copyright (C) 2021 Free Software Foundation, Inc.
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>.  */
+
+#ifdef HAVE_CONFIG_H
+# include <config.h>
+#endif
+
+/* Specification.  */
+#include "java-classfile.h"
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "mem-hash-map.h"
+#include "unistr.h"
+#include "xalloc.h"
+#include "gettext.h"
+
+#define _(str) gettext (str)
+
+
+/* A growable byte buffer.  */
+struct buffer
+{
+  unsigned char *data;
+  size_t length;
+  size_t allocated;
+};
+
+static void
+buffer_init (struct buffer *bp)
+{
+  bp->data = NULL;
+  bp->length = 0;
+  bp->allocated = 0;
+}
+
+static void
+buffer_append (struct buffer *bp, const void *data, size_t n)
+{
+  if (bp->length + n > bp->allocated)
+    {
+      bp->allocated = 2 * bp->allocated + n + 64;
+      bp->data = (unsigned char *) xrealloc (bp->data, bp->allocated);
+    }
+  memcpy (bp->data + bp->length, data, n);
+  bp->length += n;
+}
+
+static void
+buffer_u1 (struct buffer *bp, unsigned int value)
+{
+  unsigned char c = value & 0xff;
+  buffer_append (bp, &c, 1);
+}
+
+static void
+buffer_u2 (struct buffer *bp, unsigned int value)
+{
+  unsigned char c[2];
+  c[0] = (value >> 8) & 0xff;
+  c[1] = value & 0xff;
+  buffer_append (bp, c, 2);
+}
+
+static void
+buffer_u4 (struct buffer *bp, uint32_t value)
+{
+  unsigned char c[4];
+  c[0] = (value >> 24) & 0xff;
+  c[1] = (value >> 16) & 0xff;
+  c[2] = (value >> 8) & 0xff;
+  c[3] = value & 0xff;
+  buffer_append (bp, c, 4);
+}
+
+static void
+buffer_destroy (struct buffer *bp)
+{
+  free (bp->data);
+}
+
+
+/* Constant pool tags.  */
+enum
+{
+  CONSTANT_Utf8 = 1,
+  CONSTANT_Integer = 3,
+  CONSTANT_Long = 5,
+  CONSTANT_Class = 7,
+  CONSTANT_String = 8,
+  CONSTANT_Fieldref = 9,
+  CONSTANT_Methodref = 10,
+  CONSTANT_NameAndType = 12
+};
+
+/* A field or method.  */
+struct member
+{
+  unsigned int access_flags;
+  unsigned int name_index;
+  unsigned int descriptor_index;
+  /* For a method: the Code attribute, without its name index.  */
+  struct buffer code_attribute;
+};
+
+struct classfile
+{
+  /* The constant pool: the entries, their number + 1, and a map from the
+     bytes of each entry to its index.  */
+  struct buffer pool;
+  unsigned int pool_count;
+  hash_table pool_map;
+  unsigned int this_index;
+  unsigned int super_index;
+  unsigned int code_index;
+  unsigned int *interfaces;
+  size_t ninterfaces;
+  struct member *fields;
+  size_t nfields;
+  struct member *methods;
+  size_t nmethods;
+  /* The first limit of the class file format that was exceeded, or
+     NULL.  */
+  const char *error;
+};
+
+/* A jump whose offset is not known yet.  */
+struct fixup
+{
+  size_t pc;
+  classfile_label_ty label;
+};
+
+/* A label.  */
+struct label
+{
+  /* The position, or (size_t)(-1) if not placed yet.  */
+  size_t position;
+  /* The stack depth at the label, or -1 if not known yet.  */
+  int depth;
+};
+
+struct classfile_code
+{
+  classfile_ty *cf;
+  struct buffer bytes;
+  unsigned int max_locals;
+  /* The current stack depth, and its maximum.  */
+  int depth;
+  int max_depth;
+  /* Whether the current position can be reached from the previous
+     instruction.  */
+  bool reachable;
+  struct label *labels;
+  size_t nlabels;
+  size_t labels_allocated;
+  struct fixup *fixups;
+  size_t nfixups;
+  size_t fixups_allocated;
+};
+
+
+/* Return the index of a constant pool entry with the given bytes, adding it
+   if needed.  SLOTS is 2 for a CONSTANT_Long, otherwise 1.  */
+static unsigned int
+pool_entry (classfile_ty *cf, const unsigned char *entry, size_t length,
+            unsigned int slots)
+{
+  void *found;
+  unsigned int index;
+
+  if (hash_find_entry (&cf->pool_map, entry, length, &found) == 0)
+    return (uintptr_t) found;
+
+  index = cf->pool_count;
+  if (index + slots > 0xffff)
+    {
+      if (cf->error == NULL)
+        cf->error = _("too many constants");
+      return 0;
+    }
+  buffer_append (&cf->pool, entry, length);
+  cf->pool_count += slots;
+  hash_insert_entry (&cf->pool_map, entry, length, (void *) (uintptr_t) index);
+  return index;
+}
+
+/* Return the index of a CONSTANT_Utf8 entry for the LENGTH bytes in
+   modified UTF-8 at STR.  */
+static unsigned int
+pool_utf8_bytes (classfile_ty *cf, const char *str, size_t length)
+{
+  unsigned char *entry;
+  unsigned int index;
+
+  if (length > 0xffff)
+    {
+      if (cf->error == NULL)
+        cf->error = _("a string is longer than 65535 bytes");
+      return 0;
+    }
+  entry = XNMALLOC (3 + length, unsigned char);
+  entry[0] = CONSTANT_Utf8;
+  entry[1] = (length >> 8) & 0xff;
+  entry[2] = length & 0xff;
+  memcpy (entry + 3, str, length);
+  index = pool_entry (cf, entry, 3 + length, 1);
+  free (entry);
+  return index;
+}
+
+/* Return the index of a CONSTANT_Utf8 entry for the ASCII string STR.  */
+static unsigned int
+pool_utf8 (classfile_ty *cf, const char *str)
+{
+  return pool_utf8_bytes (cf, str, strlen (str));
+}
+
+/* Return the index of a CONSTANT_Utf8 entry for the UTF-8 string STR.
+   The class file format uses a modified UTF-8, in which a character
+   outside the BMP is encoded as two surrogates of three bytes each.  It
+   also encodes U+0000 as two bytes, but STR, being NUL-terminated, does not
+   contain U+0000.  */
+static unsigned int
+pool_utf8_string (classfile_ty *cf, const char *str)
+{
+  size_t str_len = strlen (str);
+  const char *str_limit = str + str_len;
+  struct buffer modified;
+  unsigned int index;
+
+  buffer_init (&modified);
+  while (str < str_limit)
+    {
+      ucs4_t uc;
+      int n = u8_mbtouc (&uc, (const unsigned char *) str, str_limit - str);
+
+      if (uc >= 0x10000)
+        {
+          /* UTF-16 surrogates.  */
+          unsigned int uc1 = 0xd800 + ((uc - 0x10000) >> 10);
+          unsigned int uc2 = 0xdc00 + ((uc - 0x10000) & 0x3ff);
+
+          buffer_u1 (&modified, 0xe0 | (uc1 >> 12));
+          buffer_u1 (&modified, 0x80 | ((uc1 >> 6) & 0x3f));
+          buffer_u1 (&modified, 0x80 | (uc1 & 0x3f));
+          buffer_u1 (&modified, 0xe0 | (uc2 >> 12));
+          buffer_u1 (&modified, 0x80 | ((uc2 >> 6) & 0x3f));
+          buffer_u1 (&modified, 0x80 | (uc2 & 0x3f));
+        }
+      else
+        buffer_append (&modified, str, n);
+      str += n;
+    }
+  index = pool_utf8_bytes (cf, (const char *) modified.data, modified.length);
+  buffer_destroy (&modified);
+  return index;
+}
+
+/* Return the index of an entry with a tag and one or two indices.  */
+static unsigned int
+pool_ref (classfile_ty *cf, unsigned int tag,
+          unsigned int index1, unsigned int index2, bool two)
+{
+  unsigned char entry[5];
+
+  entry[0] = tag;
+  entry[1] = (index1 >> 8) & 0xff;
+  entry[2] = index1 & 0xff;
+  entry[3] = (index2 >> 8) & 0xff;
+  entry[4] = index2 & 0xff;
+  return pool_entry (cf, entry, two ? 5 : 3, 1);
+}
+
+static unsigned int
+pool_class (classfile_ty *cf, const char *class_name)
+{
+  return pool_ref (cf, CONSTANT_Class, pool_utf8 (cf, class_name), 0, false);
+}
+
+static unsigned int
+pool_member_ref (classfile_ty *cf, unsigned int tag, const char *class_name,
+                 const char *name, const char *descriptor)
+{
+  unsigned int class_index = pool_class (cf, class_name);
+  unsigned int name_and_type_index =
+    pool_ref (cf, CONSTANT_NameAndType,
+              pool_utf8 (cf, name), pool_utf8 (cf, descriptor), true);
+
+  return pool_ref (cf, tag, class_index, name_and_type_index, true);
+}
+
+
+classfile_ty *
+classfile_create (const char *class_name, const char *super_name)
+{
+  classfile_ty *cf = XMALLOC (classfile_ty);
+
+  buffer_init (&cf->pool);
+  cf->pool_count = 1;
+  hash_init (&cf->pool_map, 100);
+  cf->interfaces = NULL;
+  cf->ninterfaces = 0;
+  cf->fields = NULL;
+  cf->nfields = 0;
+  cf->methods = NULL;
+  cf->nmethods = 0;
+  cf->error = NULL;
+  cf->this_index = pool_class (cf, class_name);
+  cf->super_index = pool_class (cf, super_name);
+  cf->code_index = pool_utf8 (cf, "Code");
+  return cf;
+}
+
+void
+classfile_free (classfile_ty *cf)
+{
+  size_t i;
+
+  for (i = 0; i < cf->nmethods; i++)
+    buffer_destroy (&cf->methods[i].code_attribute);
+  free (cf->methods);
+  free (cf->fields);
+  free (cf->interfaces);
+  hash_destroy (&cf->pool_map);
+  buffer_destroy (&cf->pool);
+  free (cf);
+}
+
+void
+classfile_add_interface (classfile_ty *cf, const char *interface_name)
+{
+  cf->interfaces =
+    (unsigned int *)
+    xrealloc (cf->interfaces, (cf->ninterfaces + 1) * sizeof (unsigned int));
+  cf->interfaces[cf->ninterfaces++] = pool_class (cf, interface_name);
+}
+
+void
+classfile_add_field (classfile_ty *cf, unsigned int access_flags,
+                     const char *name, const char *descriptor)
+{
+  struct member *fp;
+
+  cf->fields =
+    (struct member *)
+    xrealloc (cf->fields, (cf->nfields + 1) * sizeof (struct member));
+  fp = &cf->fields[cf->nfields++];
+  fp->access_flags = access_flags;
+  fp->name_index = pool_utf8 (cf, name);
+  fp->descriptor_index = pool_utf8 (cf, descriptor);
+  buffer_init (&fp->code_attribute);
+}
+
+
+classfile_code_ty *
+classfile_code_create (classfile_ty *cf, unsigned int max_locals)
+{
+  classfile_code_ty *code = XMALLOC (classfile_code_ty);
+
+  code->cf = cf;
+  buffer_init (&code->bytes);
+  code->max_locals = max_locals;
+  code->depth = 0;
+  code->max_depth = 0;
+  code->reachable = true;
+  code->labels = NULL;
+  code->nlabels = 0;
+  code->labels_allocated = 0;
+  code->fixups = NULL;
+  code->nfixups = 0;
+  code->fixups_allocated = 0;
+  return code;
+}
+
+static void
+classfile_code_free (classfile_code_ty *code)
+{
+  free (code->fixups);
+  free (code->labels);
+  buffer_destroy (&code->bytes);
+  free (code);
+}
+
+size_t
+classfile_code_length (const classfile_code_ty *code)
+{
+  return code->bytes.length;
+}
+
+/* Adjust the stack depth by DELTA.  */
+static void
+adjust_depth (classfile_code_ty *code, int delta)
+{
+  code->depth += delta;
+  if (code->depth < 0)
+    abort ();
+  if (code->depth > code->max_depth)
+    code->max_depth = code->depth;
+}
+
+void
+classfile_add_method (classfile_ty *cf, unsigned int access_flags,
+                      const char *name, const char *descriptor,
+                      classfile_code_ty *code)
+{
+  struct member *mp;
+  size_t i;
+
+  /* Resolve the jumps.  */
+  for (i = 0; i < code->nfixups; i++)
+    {
+      size_t pc = code->fixups[i].pc;
+      size_t target = code->labels[code->fixups[i].label].position;
+      long offset = (long) target - (long) pc;
+
+      if (target == (size_t)(-1))
+        abort ();
+      if (offset < -0x8000 || offset > 0x7fff)
+        {
+          if (cf->error == NULL)
+            cf->error = _("a method is larger than 32 KB");
+          offset = 0;
+        }
+      code->bytes.data[pc + 1] = (offset >> 8) & 0xff;
+      code->bytes.data[pc + 2] = offset & 0xff;
+    }
+  if (code->bytes.length > 0xffff && cf->error == NULL)
+    cf->error = _("a method is larger than 64 KB");
+
+  cf->methods =
+    (struct member *)
+    xrealloc (cf->methods, (cf->nmethods + 1) * sizeof (struct member));
+  mp = &cf->methods[cf->nmethods++];
+  mp->access_flags = access_flags;
+  mp->name_index = pool_utf8 (cf, name);
+  mp->descriptor_index = pool_utf8 (cf, descriptor);
+  buffer_init (&mp->code_attribute);
+  buffer_u4 (&mp->code_attribute, 12 + code->bytes.length);
+  buffer_u2 (&mp->code_attribute, code->max_depth);
+  buffer_u2 (&mp->code_attribute, code->max_locals);
+  buffer_u4 (&mp->code_attribute, code->bytes.length);
+  buffer_append (&mp->code_attribute, code->bytes.data, code->bytes.length);
+  /* No exception table, no attributes.  */
+  buffer_u2 (&mp->code_attribute, 0);
+  buffer_u2 (&mp->code_attribute, 0);
+
+  classfile_code_free (code);
+}
+
+const char *
+classfile_error (const classfile_ty *cf)
+{
+  return cf->error;
+}
+
+/* Write the fields or methods.  */
+static void
+write_members (struct buffer *bp, const classfile_ty *cf,
+               const struct member *members, size_t n, bool methods)
+{
+  size_t i;
+
+  buffer_u2 (bp, n);
+  for (i = 0; i < n; i++)
+    {
+      buffer_u2 (bp, members[i].access_flags);
+      buffer_u2 (bp, members[i].name_index);
+      buffer_u2 (bp, members[i].descriptor_index);
+      if (methods)
+        {
+          buffer_u2 (bp, 1);
+          buffer_u2 (bp, cf->code_index);
+          buffer_append (bp, members[i].code_attribute.data,
+                         members[i].code_attribute.length);
+        }
+      else
+        buffer_u2 (bp, 0);
+    }
+}
+
+char *
+classfile_contents (const classfile_ty *cf, size_t *lengthp)
+{
+  struct buffer b;
+  size_t i;
+
+  buffer_init (&b);
+  buffer_u4 (&b, 0xcafebabe);
+  /* Version 49.0.  */
+  buffer_u2 (&b, 0);
+  buffer_u2 (&b, 49);
+  buffer_u2 (&b, cf->pool_count);
+  buffer_append (&b, cf->pool.data, cf->pool.length);
+  buffer_u2 (&b, ACC_PUBLIC | ACC_SUPER);
+  buffer_u2 (&b, cf->this_index);
+  buffer_u2 (&b, cf->super_index);
+  buffer_u2 (&b, cf->ninterfaces);
+  for (i = 0; i < cf->ninterfaces; i++)
+    buffer_u2 (&b, cf->interfaces[i]);
+  write_members (&b, cf, cf->fields, cf->nfields, false);
+  write_members (&b, cf, cf->methods, cf->nmethods, true);
+  /* No attributes.  */
+  buffer_u2 (&b, 0);
+  *lengthp = b.length;
+  return (char *) b.data;
+}
+
+void
+classfile_write (const classfile_ty *cf, FILE *stream)
+{
+  size_t length;
+  char *contents = classfile_contents (cf, &length);
+
+  fwrite (contents, 1, length, stream);
+  free (contents);
+}
+
+
+void
+classfile_op (classfile_code_ty *code, int opcode)
+{
+  int delta;
+  bool ends = false;
+
+  switch (opcode)
+    {
+    case OP_ACONST_NULL:
+    case OP_DUP:
+      delta = 1;
+      break;
+    case OP_LCONST_0:
+    case OP_LCONST_1:
+      delta = 2;
+      break;
+    case OP_IALOAD:
+    case OP_AALOAD:
+    case OP_IADD:
+    case OP_ISUB:
+    case OP_IMUL:
+    case OP_IREM:
+    case OP_ISHR:
+    case OP_IAND:
+      delta = -1;
+      break;
+    case OP_LADD:
+    case OP_LSUB:
+    case OP_LMUL:
+    case OP_LDIV:
+    case OP_LREM:
+      delta = -2;
+      break;
+    case OP_IASTORE:
+    case OP_AASTORE:
+    case OP_LCMP:
+      delta = -3;
+      break;
+    case OP_LRETURN:
+      delta = -2;
+      ends = true;
+      break;
+    case OP_ARETURN:
+      delta = -1;
+      ends = true;
+      break;
+    case OP_RETURN:
+      delta = 0;
+      ends = true;
+      break;
+    default:
+      abort ();
+    }
+  buffer_u1 (&code->bytes, opcode);
+  adjust_depth (code, delta);
+  if (ends)
+    code->reachable = false;
+}
+
+/* Emit an ldc, ldc_w or ldc2_w of the constant pool entry INDEX.  */
+static void
+emit_ldc (classfile_code_ty *code, unsigned int index, bool wide)
+{
+  if (wide)
+    {
+      buffer_u1 (&code->bytes, 0x14); /* ldc2_w */
+      buffer_u2 (&code->bytes, index);
+      adjust_depth (code, 2);
+    }
+  else
+    {
+      if (index < 0x100)
+        {
+          buffer_u1 (&code->bytes, 0x12); /* ldc */
+          buffer_u1 (&code->bytes, index);
+        }
+      else
+        {
+          buffer_u1 (&code->bytes, 0x13); /* ldc_w */
+          buffer_u2 (&code->bytes, index);
+        }
+      adjust_depth (code, 1);
+    }
+}
+
+void
+classfile_push_int (classfile_code_ty *code, int value)
+{
+  if (value >= -1 && value <= 5)
+    {
+      buffer_u1 (&code->bytes, 0x03 + value); /* iconst_<n> */
+      adjust_depth (code, 1);
+    }
+  else if (value >= -0x80 && value < 0x80)
+    {
+      buffer_u1 (&code->bytes, 0x10); /* bipush */
+      buffer_u1 (&code->bytes, value);
+      adjust_depth (code, 1);
+    }
+  else if (value >= -0x8000 && value < 0x8000)
+    {
+      buffer_u1 (&code->bytes, 0x11); /* sipush */
+      buffer_u2 (&code->bytes, value);
+      adjust_depth (code, 1);
+    }
+  else
+    {
+      unsigned char entry[5];
+      uint32_t u = value;
+
+      entry[0] = CONSTANT_Integer;
+      entry[1] = (u >> 24) & 0xff;
+      entry[2] = (u >> 16) & 0xff;
+      entry[3] = (u >> 8) & 0xff;
+      entry[4] = u & 0xff;
+      emit_ldc (code, pool_entry (code->cf, entry, 5, 1), false);
+    }
+}
+
+void
+classfile_push_long (classfile_code_ty *code, long long value)
+{
+  if (value == 0 || value == 1)
+    classfile_op (code, value == 0 ? OP_LCONST_0 : OP_LCONST_1);
+  else
+    {
+      unsigned char entry[9];
+      unsigned long long u = value;
+      int i;
+
+      entry[0] = CONSTANT_Long;
+      for (i = 0; i < 8; i++)
+        entry[1 + i] = (u >> (56 - 8 * i)) & 0xff;
+      emit_ldc (code, pool_entry (code->cf, entry, 9, 2), true);
+    }
+}
+
+void
+classfile_push_string (classfile_code_ty *code, const char *str)
+{
+  unsigned int utf8_index = pool_utf8_string (code->cf, str);
+
+  emit_ldc (code,
+            pool_ref (code->cf, CONSTANT_String, utf8_index, 0, false),
+            false);
+}
+
+void
+classfile_local (classfile_code_ty *code, int opcode, unsigned int index)
+{
+  /* The opcode of <op>_0, and the stack effect.  */
+  int short_opcode;
+  int delta;
+  unsigned int slots = 1;
+
+  switch (opcode)
+    {
+    case OP_ILOAD:
+      short_opcode = 0x1a;
+      delta = 1;
+      break;
+    case OP_LLOAD:
+      short_opcode = 0x1e;
+      delta = 2;
+      slots = 2;
+      break;
+    case OP_ALOAD:
+      short_opcode = 0x2a;
+      delta = 1;
+      break;
+    case OP_ISTORE:
+      short_opcode = 0x3b;
+      delta = -1;
+      break;
+    case OP_ASTORE:
+      short_opcode = 0x4b;
+      delta = -1;
+      break;
+    default:
+      abort ();
+    }
+  if (index > 0xff)
+    abort ();
+  if (index <= 3)
+    buffer_u1 (&code->bytes, short_opcode + index);
+  else
+    {
+      buffer_u1 (&code->bytes, opcode);
+      buffer_u1 (&code->bytes, index);
+    }
+  adjust_depth (code, delta);
+  if (index + slots > code->max_locals)
+    code->max_locals = index + slots;
+}
+
+void
+classfile_iinc (classfile_code_ty *code, unsigned int index, int delta)
+{
+  if (index > 0xff || delta < -0x80 || delta >= 0x80)
+    abort ();
+  buffer_u1 (&code->bytes, 0x84); /* iinc */
+  buffer_u1 (&code->bytes, index);
+  buffer_u1 (&code->bytes, delta);
+}
+
+/* Return the number of stack slots that a value of the type described by
+   the field descriptor at *P takes, and advance *P past it.  */
+static int
+descriptor_slots (const char **p)
+{
+  const char *q = *p;
+
+  switch (*q)
+    {
+    case 'J':
+    case 'D':
+      *p = q + 1;
+      return 2;
+    case 'V':
+      *p = q + 1;
+      return 0;
+    case '[':
+      while (*q == '[')
+        q++;
+      if (*q == 'L')
+        q = strchr (q, ';');
+      *p = q + 1;
+      return 1;
+    case 'L':
+      *p = strchr (q, ';') + 1;
+      return 1;
+    default:
+      *p = q + 1;
+      return 1;
+    }
+}
+
+void
+classfile_field (classfile_code_ty *code, int opcode,
+                 const char *class_name, const char *name,
+                 const char *descriptor)
+{
+  const char *p = descriptor;
+  int slots = descriptor_slots (&p);
+
+  buffer_u1 (&code->bytes, opcode);
+  buffer_u2 (&code->bytes,
+             pool_member_ref (code->cf, CONSTANT_Fieldref, class_name, name,
+                              descriptor));
+  switch (opcode)
+    {
+    case OP_GETSTATIC:
+      adjust_depth (code, slots);
+      break;
+    case OP_PUTSTATIC:
+      adjust_depth (code, -slots);
+      break;
+    case OP_GETFIELD:
+      adjust_depth (code, slots - 1);
+      break;
+    default:
+      abort ();
+    }
+}
+
+void
+classfile_invoke (classfile_code_ty *code, int opcode,
+                  const char *class_name, const char *name,
+                  const char *descriptor)
+{
+  const char *p = descriptor + 1;
+  int delta = 0;
+
+  while (*p != ')')
+    delta -= descriptor_slots (&p);
+  p++;
+  delta += descriptor_slots (&p);
+  if (opcode != OP_INVOKESTATIC)
+    delta--;
+
+  buffer_u1 (&code->bytes, opcode);
+  buffer_u2 (&code->bytes,
+             pool_member_ref (code->cf, CONSTANT_Methodref, class_name, name,
+                              descriptor));
+  adjust_depth (code, delta);
+}
+
+void
+classfile_type (classfile_code_ty *code, int opcode, const char *class_name)
+{
+  buffer_u1 (&code->bytes, opcode);
+  buffer_u2 (&code->bytes, pool_class (code->cf, class_name));
+  if (opcode == OP_NEW)
+    adjust_depth (code, 1);
+}
+
+void
+classfile_newarray (classfile_code_ty *code, int element_type)
+{
+  buffer_u1 (&code->bytes, OP_NEWARRAY);
+  buffer_u1 (&code->bytes, element_type);
+}
+
+classfile_label_ty
+classfile_new_label (classfile_code_ty *code)
+{
+  if (code->nlabels == code->labels_allocated)
+    {
+      code->labels_allocated = 2 * code->labels_allocated + 8;
+      code->labels =
+        (struct label *)
+        xrealloc (code->labels, code->labels_allocated * sizeof (struct label));
+    }
+  code->labels[code->nlabels].position = (size_t)(-1);
+  code->labels[code->nlabels].depth = -1;
+  return code->nlabels++;
+}
+
+/* Record that the stack depth at LABEL is the current depth.  */
+static void
+set_label_depth (classfile_code_ty *code, classfile_label_ty label)
+{
+  struct label *lp = &code->labels[label];
+
+  if (lp->depth < 0)
+    lp->depth = code->depth;
+  else if (lp->depth != code->depth)
+    abort ();
+}
+
+void
+classfile_jump (classfile_code_ty *code, int opcode, classfile_label_ty label)
+{
+  if (code->nfixups == code->fixups_allocated)
+    {
+      code->fixups_allocated = 2 * code->fixups_allocated + 8;
+      code->fixups =
+        (struct fixup *)
+        xrealloc (code->fixups, code->fixups_allocated * sizeof (struct fixup));
+    }
+  code->fixups[code->nfixups].pc = code->bytes.length;
+  code->fixups[code->nfixups].label = label;
+  code->nfixups++;
+
+  buffer_u1 (&code->bytes, opcode);
+  buffer_u2 (&code->bytes, 0);
+  if (opcode >= OP_IF_ICMPEQ && opcode <= OP_IF_ICMPLE)
+    adjust_depth (code, -2);
+  else if (opcode != OP_GOTO)
+    adjust_depth (code, -1);
+  set_label_depth (code, label);
+  if (opcode == OP_GOTO)
+    code->reachable = false;
+}
+
+void
+classfile_place_label (classfile_code_ty *code, classfile_label_ty label)
+{
+  struct label *lp = &code->labels[label];
+
+  if (lp->position != (size_t)(-1))
+    abort ();
+  lp->position = code->bytes.length;
+  if (code->reachable)
+    set_label_depth (code, label);
+  else
+    {
+      /* Only reachable through jumps.  */
+      code->depth = (lp->depth >= 0 ? lp->depth : 0);
+      code->reachable = true;
+    }
+}
+
+void
+classfile_append_code (classfile_code_ty *code, classfile_code_ty *source)
+{
+  if (source->nfixups > 0 || source->cf != code->cf)
+    abort ();
+  buffer_append (&code->bytes, source->bytes.data, source->bytes.length);
+  if (code->depth + source->max_depth > code->max_depth)
+    code->max_depth = code->depth + source->max_depth;
+  code->depth += source->depth;
+  if (source->max_locals > code->max_locals)
+    code->max_locals = source->max_locals;
+  classfile_code_free (source);
+}
@@ -0,0 +1,234 @@
+/* Writing Java class files.
+   Copyright (C) 2021 Free Software Foundation, Inc.
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>.  */
+
+#ifndef _JAVA_CLASSFILE_H
+#define _JAVA_CLASSFILE_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdio.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+
+/* This module builds Java class files of version 49.0 (Java 5), which the
+   Java virtual machines verify without a StackMapTable attribute.  It
+   supports classes with fields and methods, and methods with bytecode but
+   without exception handlers.
+   Class names are given with slash separators, such as
+   "java/lang/String".  Strings are given in UTF-8.  */
+
+/* Access flags.  */
+#define ACC_PUBLIC    0x0001
+#define ACC_PRIVATE   0x0002
+#define ACC_STATIC    0x0008
+#define ACC_FINAL     0x0010
+#define ACC_SUPER     0x0020
+
+/* The opcodes that this module supports.  */
+enum
+{
+  OP_ACONST_NULL = 0x01,
+  OP_LCONST_0 = 0x09,
+  OP_LCONST_1 = 0x0a,
+  OP_ILOAD = 0x15,
+  OP_LLOAD = 0x16,
+  OP_ALOAD = 0x19,
+  OP_IALOAD = 0x2e,
+  OP_AALOAD = 0x32,
+  OP_ISTORE = 0x36,
+  OP_ASTORE = 0x3a,
+  OP_IASTORE = 0x4f,
+  OP_AASTORE = 0x53,
+  OP_DUP = 0x59,
+  OP_IADD = 0x60,
+  OP_LADD = 0x61,
+  OP_ISUB = 0x64,
+  OP_LSUB = 0x65,
+  OP_IMUL = 0x68,
+  OP_LMUL = 0x69,
+  OP_LDIV = 0x6d,
+  OP_IREM = 0x70,
+  OP_LREM = 0x71,
+  OP_ISHR = 0x7a,
+  OP_IAND = 0x7e,
+  OP_LCMP = 0x94,
+  OP_IFEQ = 0x99,
+  OP_IFNE = 0x9a,
+  OP_IFLT = 0x9b,
+  OP_IFGE = 0x9c,
+  OP_IFGT = 0x9d,
+  OP_IFLE = 0x9e,
+  OP_IF_ICMPEQ = 0x9f,
+  OP_IF_ICMPNE = 0xa0,
+  OP_IF_ICMPLT = 0xa1,
+  OP_IF_ICMPGE = 0xa2,
+  OP_IF_ICMPGT = 0xa3,
+  OP_IF_ICMPLE = 0xa4,
+  OP_GOTO = 0xa7,
+  OP_LRETURN = 0xad,
+  OP_ARETURN = 0xb0,
+  OP_RETURN = 0xb1,
+  OP_GETSTATIC = 0xb2,
+  OP_PUTSTATIC = 0xb3,
+  OP_GETFIELD = 0xb4,
+  OP_INVOKEVIRTUAL = 0xb6,
+  OP_INVOKESPECIAL = 0xb7,
+  OP_INVOKESTATIC = 0xb8,
+  OP_NEW = 0xbb,
+  OP_NEWARRAY = 0xbc,
+  OP_ANEWARRAY = 0xbd,
+  OP_CHECKCAST = 0xc0,
+  OP_INSTANCEOF = 0xc1,
+  OP_IFNULL = 0xc6,
+  OP_IFNONNULL = 0xc7
+};
+
+/* The element type of OP_NEWARRAY for int[].  */
+#define T_INT 10
+
+/* A class file under construction.  */
+typedef struct classfile classfile_ty;
+
+/* The bytecode of a method under construction.  */
+typedef struct classfile_code classfile_code_ty;
+
+/* A position in the bytecode of a method, that can be the target of jumps
+   before it is placed.  */
+typedef size_t classfile_label_ty;
+
+
+/* Create a class CLASS_NAME, with the superclass SUPER_NAME, that is
+   public.  */
+extern classfile_ty *
+       classfile_create (const char *class_name, const char *super_name);
+
+/* Free a class.  */
+extern void
+       classfile_free (classfile_ty *cf);
+
+/* Add an interface that the class implements.  */
+extern void
+       classfile_add_interface (classfile_ty *cf, const char *interface_name);
+
+/* Add a field.  */
+extern void
+       classfile_add_field (classfile_ty *cf, unsigned int access_flags,
+                            const char *name, const char *descriptor);
+
+/* Start the bytecode of a method whose parameters and local variables take
+   MAX_LOCALS slots, including 'this' for an instance method.  */
+extern classfile_code_ty *
+       classfile_code_create (classfile_ty *cf, unsigned int max_locals);
+
+/* Return the length of the bytecode so far.  */
+extern size_t
+       classfile_code_length (const classfile_code_ty *code);
+
+/* Add a method with the bytecode CODE, and free CODE.  */
+extern void
+       classfile_add_method (classfile_ty *cf, unsigned int access_flags,
+                             const char *name, const char *descriptor,
+                             classfile_code_ty *code);
+
+/* Return NULL if the class can be written, or a message that says which
+   limit of the class file format it exceeds.  */
+extern const char *
+       classfile_error (const classfile_ty *cf);
+
+/* Return the contents of the class file, freshly allocated, and store its
+   length in *LENGTHP.  */
+extern char *
+       classfile_contents (const classfile_ty *cf, size_t *lengthp);
+
+/* Write the class file to STREAM.  */
+extern void
+       classfile_write (const classfile_ty *cf, FILE *stream);
+
+
+/* Instructions.  */
+
+/* Emit an instruction without operands.  */
+extern void
+       classfile_op (classfile_code_ty *code, int opcode);
+
+/* Emit an instruction that pushes an int, long or String constant.  */
+extern void
+       classfile_push_int (classfile_code_ty *code, int value);
+extern void
+       classfile_push_long (classfile_code_ty *code, long long value);
+extern void
+       classfile_push_string (classfile_code_ty *code, const char *str);
+
+/* Emit a load or store of a local variable, or an iinc.  */
+extern void
+       classfile_local (classfile_code_ty *code, int opcode,
+                        unsigned int index);
+extern void
+       classfile_iinc (classfile_code_ty *code, unsigned int index,
+                       int delta);
+
+/* Emit a field access.  */
+extern void
+       classfile_field (classfile_code_ty *code, int opcode,
+                        const char *class_name, const char *name,
+                        const char *descriptor);
+
+/* Emit a method invocation.  */
+extern void
+       classfile_invoke (classfile_code_ty *code, int opcode,
+                         const char *class_name, const char *name,
+                         const char *descriptor);
+
+/* Emit OP_NEW, OP_ANEWARRAY, OP_CHECKCAST or OP_INSTANCEOF.  For the last
+   two, CLASS_NAME may also be an array descriptor, such as
+   "[Ljava/lang/String;".  */
+extern void
+       classfile_type (classfile_code_ty *code, int opcode,
+                       const char *class_name);
+
+/* Emit OP_NEWARRAY.  */
+extern void
+       classfile_newarray (classfile_code_ty *code, int element_type);
+
+/* Create a label.  */
+extern classfile_label_ty
+       classfile_new_label (classfile_code_ty *code);
+
+/* Emit a jump to LABEL: OP_GOTO, an OP_IF* or an OP_IF_ICMP*.  */
+extern void
+       classfile_jump (classfile_code_ty *code, int opcode,
+                       classfile_label_ty label);
+
+/* Place LABEL at the current position.  */
+extern void
+       classfile_place_label (classfile_code_ty *code,
+                              classfile_label_ty label);
+
+/* Append the bytecode of SOURCE, which contains no jumps, to CODE, and
+   free SOURCE.  */
+extern void
+       classfile_append_code (classfile_code_ty *code,
+                              classfile_code_ty *source);
+
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* _JAVA_CLASSFILE_H */
@@ -0,0 +1,1081 @@
+/* Writing Java jar files.
+   Copyright (C) 2021 Free Software Foundation, Inc.
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>.  */
+
+#ifdef HAVE_CONFIG_H
+# include <config.h>
+#endif
+
+/* Specification.  */
+#include "java-jar.h"
+
+#include <dirent.h>
+#include <errno.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include "error.h"
+#include "mem-hash-map.h"
+#include "xvasprintf.h"
+#include "concat-filename.h"
+#include "fwriteerror.h"
+#include "read-file.h"
+#include "xalloc.h"
+#include "gettext.h"
+
+#define _(str) gettext (str)
+
+
+/* The signatures of the records of a ZIP file.  */
+#define LOCAL_HEADER_SIGNATURE  0x04034b50
+#define CENTRAL_HEADER_SIGNATURE 0x02014b50
+#define END_SIGNATURE           0x06054b50
+
+/* The sizes of the fixed parts of these records.  */
+#define LOCAL_HEADER_SIZE   30
+#define CENTRAL_HEADER_SIZE 46
+#define END_SIZE            22
+
+/* The general purpose flags that are kept when an entry is copied: the
+   encryption and compression options, and the UTF-8 encoding of the name.
+   A data descriptor is not kept, because the sizes and the CRC are written
+   into the local header.  */
+#define KEPT_FLAGS  0x0807
+/* The flag that says that the name is UTF-8 encoded.  */
+#define FLAG_UTF8   0x0800
+
+/* The name of the manifest.  */
+#define MANIFEST_NAME "META-INF/MANIFEST.MF"
+
+/* An entry of a jar file.  */
+struct jar_entry
+{
+  char *name;
+  unsigned int flags;
+  unsigned int method;
+  /* The time stamp in MS-DOS format, or -1 for an entry that was added or
+     replaced.  */
+  long dos_time;
+  uint32_t crc;
+  uint32_t compressed_size;
+  uint32_t size;
+  uint32_t external_attributes;
+  /* The data, as stored in the file.  */
+  const unsigned char *data;
+  /* The data, if owned by the entry.  */
+  char *own_data;
+};
+
+struct java_jar
+{
+  /* The contents of the existing jar file, or NULL.  */
+  char *contents;
+  /* The entries, and a map from their names to their indices.  */
+  struct jar_entry *entries;
+  size_t nentries;
+  size_t nentries_allocated;
+  hash_table name_map;
+};
+
+
+/* Reading and writing little-endian numbers.  */
+
+static unsigned int
+get_u2 (const unsigned char *p)
+{
+  return p[0] | ((unsigned int) p[1] << 8);
+}
+
+static uint32_t
+get_u4 (const unsigned char *p)
+{
+  return p[0] | ((uint32_t) p[1] << 8) | ((uint32_t) p[2] << 16)
+         | ((uint32_t) p[3] << 24);
+}
+
+static void
+put_u2 (unsigned char *p, unsigned int value)
+{
+  p[0] = value & 0xff;
+  p[1] = (value >> 8) & 0xff;
+}
+
+static void
+put_u4 (unsigned char *p, uint32_t value)
+{
+  p[0] = value & 0xff;
+  p[1] = (value >> 8) & 0xff;
+  p[2] = (value >> 16) & 0xff;
+  p[3] = (value >> 24) & 0xff;
+}
+
+
+/* Compute the CRC-32 of a ZIP file entry.  */
+static uint32_t
+compute_crc32 (const unsigned char *data, size_t length)
+{
+  static uint32_t table[256];
+  static bool table_initialized;
+  uint32_t crc;
+  size_t i;
+
+  if (!table_initialized)
+    {
+      unsigned int n;
+
+      for (n = 0; n < 256; n++)
+        {
+          uint32_t c = n;
+          int k;
+
+          for (k = 0; k < 8; k++)
+            c = (c & 1 ? 0xedb88320 ^ (c >> 1) : c >> 1);
+          table[n] = c;
+        }
+      table_initialized = true;
+    }
+
+  crc = 0xffffffff;
+  for (i = 0; i < length; i++)
+    crc = table[(crc ^ data[i]) & 0xff] ^ (crc >> 8);
+  return crc ^ 0xffffffff;
+}
+
+
+/* Decompression of the entries that the jar tool creates, which use the
+   "deflate" method of RFC 1951.  Only small entries, such as the index of
+   the catalogs, are read, therefore the Huffman codes are decoded bit by
+   bit, without tables.  */
+
+/* The maximum length of a Huffman code, and the numbers of symbols.  */
+#define MAXBITS     15
+#define MAXLCODES   286
+#define MAXDCODES   30
+#define FIXLCODES   288
+
+struct inflate_state
+{
+  /* The compressed data.  */
+  const unsigned char *in;
+  size_t in_length;
+  size_t in_pos;
+  /* The bits that were read from the input but not yet used.  */
+  uint32_t bitbuf;
+  int bitcnt;
+  /* The decompressed data.  */
+  unsigned char *out;
+  size_t out_length;
+  size_t out_pos;
+  /* Set when the input ends too early.  */
+  bool eof;
+};
+
+/* A canonical Huffman code: the number of codes of each length, and the
+   symbols ordered by code.  */
+struct huffman
+{
+  unsigned short count[MAXBITS + 1];
+  unsigned short symbol[FIXLCODES];
+};
+
+/* Return the next NBITS bits of the input, least significant bit first.  */
+static unsigned int
+inflate_bits (struct inflate_state *s, int nbits)
+{
+  uint32_t value = s->bitbuf;
+
+  while (s->bitcnt < nbits)
+    {
+      if (s->in_pos == s->in_length)
+        {
+          s->eof = true;
+          return 0;
+        }
+      value |= (uint32_t) s->in[s->in_pos++] << s->bitcnt;
+      s->bitcnt += 8;
+    }
+  s->bitbuf = value >> nbits;
+  s->bitcnt -= nbits;
+  return value & (((uint32_t) 1 << nbits) - 1);
+}
+
+/* Build the Huffman code H for the code lengths LENGTH[0..N-1].  Return 0
+   if ok, or -1 if the lengths describe more codes than there can be.  An
+   incomplete code is accepted; the codes that it lacks are not decoded.  */
+static int
+huffman_construct (struct huffman *h, const unsigned short *length, int n)
+{
+  unsigned short offs[MAXBITS + 1];
+  int left;
+  int len;
+  int symbol;
+
+  for (len = 0; len <= MAXBITS; len++)
+    h->count[len] = 0;
+  for (symbol = 0; symbol < n; symbol++)
+    h->count[length[symbol]]++;
+
+  left = 1;
+  for (len = 1; len <= MAXBITS; len++)
+    {
+      left <<= 1;
+      left -= h->count[len];
+      if (left < 0)
+        return -1;
+    }
+
+  offs[1] = 0;
+  for (len = 1; len < MAXBITS; len++)
+    offs[len + 1] = offs[len] + h->count[len];
+  for (symbol = 0; symbol < n; symbol++)
+    if (length[symbol] != 0)
+      h->symbol[offs[length[symbol]]++] = symbol;
+  return 0;
+}
+
+/* Decode a symbol with the Huffman code H.  Return -1 for a code that H
+   lacks.  */
+static int
+huffman_decode (struct inflate_state *s, const struct huffman *h)
+{
+  int code = 0;
+  int first = 0;
+  int index = 0;
+  int len;
+
+  for (len = 1; len <= MAXBITS; len++)
+    {
+      int count;
+
+      code |= inflate_bits (s, 1);
+      count = h->count[len];
+      if (code - count < first)
+        return h->symbol[index + (code - first)];
+      index += count;
+      first += count;
+      first <<= 1;
+      code <<= 1;
+    }
+  return -1;
+}
+
+/* Decode the literals and the length/distance pairs of a block, with the
+   codes LENCODE and DISTCODE, until the end of the block.  Return 0 if ok,
+   -1 if the data is invalid.  */
+static int
+inflate_codes (struct inflate_state *s,
+               const struct huffman *lencode, const struct huffman *distcode)
+{
+  static const unsigned short length_base[29] =
+    {
+      3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+      35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+  static const unsigned char length_extra[29] =
+    {
+      0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+      3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+  static const unsigned short distance_base[30] =
+    {
+      1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+      257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+      8193, 12289, 16385, 24577
+    };
+  static const unsigned char distance_extra[30] =
+    {
+      0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+      7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+  for (;;)
+    {
+      int symbol = huffman_decode (s, lencode);
+
+      if (symbol < 0 || s->eof)
+        return -1;
+      if (symbol < 256)
+        {
+          /* A literal.  */
+          if (s->out_pos == s->out_length)
+            return -1;
+          s->out[s->out_pos++] = symbol;
+        }
+      else if (symbol == 256)
+        /* The end of the block.  */
+        return 0;
+      else
+        {
+          /* A length and a distance: a copy of earlier output.  */
+          size_t length;
+          size_t distance;
+
+          symbol -= 257;
+          if (symbol >= 29)
+            return -1;
+          length = length_base[symbol]
+                   + inflate_bits (s, length_extra[symbol]);
+          symbol = huffman_decode (s, distcode);
+          if (symbol < 0 || symbol >= 30)
+            return -1;
+          distance = distance_base[symbol]
+                     + inflate_bits (s, distance_extra[symbol]);
+          if (s->eof || distance > s->out_pos
+              || length > s->out_length - s->out_pos)
+            return -1;
+          for (; length > 0; length--, s->out_pos++)
+            s->out[s->out_pos] = s->out[s->out_pos - distance];
+        }
+    }
+}
+
+/* Decode a block without compression.  */
+static int
+inflate_stored (struct inflate_state *s)
+{
+  size_t length;
+
+  /* The block starts at a byte boundary.  */
+  s->bitbuf = 0;
+  s->bitcnt = 0;
+  if (s->in_length - s->in_pos < 4)
+    return -1;
+  length = get_u2 (s->in + s->in_pos);
+  if (get_u2 (s->in + s->in_pos + 2) != (~length & 0xffff))
+    return -1;
+  s->in_pos += 4;
+  if (length > s->in_length - s->in_pos
+      || length > s->out_length - s->out_pos)
+    return -1;
+  memcpy (s->out + s->out_pos, s->in + s->in_pos, length);
+  s->in_pos += length;
+  s->out_pos += length;
+  return 0;
+}
+
+/* Decode a block with the fixed Huffman codes.  */
+static int
+inflate_fixed (struct inflate_state *s)
+{
+  static struct huffman lencode;
+  static struct huffman distcode;
+  static bool initialized;
+
+  if (!initialized)
+    {
+      unsigned short lengths[FIXLCODES];
+      int symbol;
+
+      for (symbol = 0; symbol < 144; symbol++)
+        lengths[symbol] = 8;
+      for (; symbol < 256; symbol++)
+        lengths[symbol] = 9;
+      for (; symbol < 280; symbol++)
+        lengths[symbol] = 7;
+      for (; symbol < FIXLCODES; symbol++)
+        lengths[symbol] = 8;
+      huffman_construct (&lencode, lengths, FIXLCODES);
+      for (symbol = 0; symbol < MAXDCODES; symbol++)
+        lengths[symbol] = 5;
+      huffman_construct (&distcode, lengths, MAXDCODES);
+      initialized = true;
+    }
+  return inflate_codes (s, &lencode, &distcode);
+}
+
+/* Decode a block with Huffman codes that are described at its start.  */
+static int
+inflate_dynamic (struct inflate_state *s)
+{
+  /* The order of the code lengths of the code length code.  */
+  static const unsigned char order[19] =
+    { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+  unsigned short lengths[MAXLCODES + MAXDCODES];
+  struct huffman lencode;
+  struct huffman distcode;
+  int nlen;
+  int ndist;
+  int ncode;
+  int index;
+
+  nlen = inflate_bits (s, 5) + 257;
+  ndist = inflate_bits (s, 5) + 1;
+  ncode = inflate_bits (s, 4) + 4;
+  if (nlen > MAXLCODES || ndist > MAXDCODES)
+    return -1;
+
+  /* The code length code, which encodes the lengths of the two codes.  */
+  for (index = 0; index < ncode; index++)
+    lengths[order[index]] = inflate_bits (s, 3);
+  for (; index < 19; index++)
+    lengths[order[index]] = 0;
+  if (s->eof || huffman_construct (&lencode, lengths, 19) < 0)
+    return -1;
+
+  index = 0;
+  while (index < nlen + ndist)
+    {
+      int symbol = huffman_decode (s, &lencode);
+      unsigned int len;
+      int repeat;
+
+      if (symbol < 0 || s->eof)
+        return -1;
+      if (symbol < 16)
+        {
+          lengths[index++] = symbol;
+          continue;
+        }
+      if (symbol == 16)
+        {
+          /* Repeat the previous length 3 to 6 times.  */
+          if (index == 0)
+            return -1;
+          len = lengths[index - 1];
+          repeat = 3 + inflate_bits (s, 2);
+        }
+      else if (symbol == 17)
+        {
+          /* Repeat a zero length 3 to 10 times.  */
+          len = 0;
+          repeat = 3 + inflate_bits (s, 3);
+        }
+      else
+        {
+          /* Repeat a zero length 11 to 138 times.  */
+          len = 0;
+          repeat = 11 + inflate_bits (s, 7);
+        }
+      if (index + repeat > nlen + ndist)
+        return -1;
+      for (; repeat > 0; repeat--)
+        lengths[index++] = len;
+    }
+
+  /* The end of block code must be present.  */
+  if (lengths[256] == 0)
+    return -1;
+  if (huffman_construct (&lencode, lengths, nlen) < 0
+      || huffman_construct (&distcode, lengths + nlen, ndist) < 0)
+    return -1;
+  return inflate_codes (s, &lencode, &distcode);
+}
+
+/* Decompress the LENGTH bytes at DATA into the OUT_LENGTH bytes at OUT.
+   Return 0 if ok, -1 if the data is invalid or does not decompress to
+   exactly OUT_LENGTH bytes.  */
+static int
+inflate_entry (const unsigned char *data, size_t length,
+               unsigned char *out, size_t out_length)
+{
+  struct inflate_state s;
+  unsigned int last;
+
+  s.in = data;
+  s.in_length = length;
+  s.in_pos = 0;
+  s.bitbuf = 0;
+  s.bitcnt = 0;
+  s.out = out;
+  s.out_length = out_length;
+  s.out_pos = 0;
+  s.eof = false;
+
+  do
+    {
+      int ret;
+
+      last = inflate_bits (&s, 1);
+      switch (inflate_bits (&s, 2))
+        {
+        case 0:
+          ret = inflate_stored (&s);
+          break;
+        case 1:
+          ret = inflate_fixed (&s);
+          break;
+        case 2:
+          ret = inflate_dynamic (&s);
+          break;
+        default:
+          ret = -1;
+          break;
+        }
+      if (ret < 0 || s.eof)
+        return -1;
+    }
+  while (!last);
+  return (s.out_pos == out_length ? 0 : -1);
+}
+
+
+/* Return the entry NAME, or NULL.  */
+static struct jar_entry *
+find_entry (java_jar_ty *jar, const char *name)
+{
+  void *found;
+
+  if (hash_find_entry (&jar->name_map, name, strlen (name), &found) == 0)
+    return &jar->entries[(uintptr_t) found];
+  return NULL;
+}
+
+/* Add a new entry NAME, and return it.  */
+static struct jar_entry *
+new_entry (java_jar_ty *jar, const char *name)
+{
+  struct jar_entry *ep;
+
+  if (jar->nentries == jar->nentries_allocated)
+    {
+      jar->nentries_allocated = 2 * jar->nentries_allocated + 10;
+      jar->entries =
+        (struct jar_entry *)
+        xrealloc (jar->entries,
+                  jar->nentries_allocated * sizeof (struct jar_entry));
+    }
+  hash_insert_entry (&jar->name_map, name, strlen (name),
+                     (void *) (uintptr_t) jar->nentries);
+  ep = &jar->entries[jar->nentries++];
+  ep->name = xstrdup (name);
+  ep->own_data = NULL;
+  return ep;
+}
+
+/* Read the entries of the ZIP file in JAR->contents, of length LENGTH.
+   Return 0 if ok, nonzero after an error message.  */
+static int
+read_entries (java_jar_ty *jar, const char *file_name, size_t length)
+{
+  const unsigned char *contents = (const unsigned char *) jar->contents;
+  const unsigned char *end;
+  const unsigned char *p;
+  size_t count;
+  uint32_t directory_size;
+  uint32_t directory_offset;
+  size_t i;
+
+  /* Find the end of central directory record.  It is at the end of the
+     file, followed by a comment of at most 65535 bytes.  */
+  end = NULL;
+  if (length >= END_SIZE)
+    {
+      size_t pos = length - END_SIZE;
+
+      for (;;)
+        {
+          if (get_u4 (contents + pos) == END_SIGNATURE
+              && pos + END_SIZE + get_u2 (contents + pos + 20) == length)
+            {
+              end = contents + pos;
+              break;
+            }
+          if (pos == 0 || pos + 0xffff == length - END_SIZE)
+            break;
+          pos--;
+        }
+    }
+  if (end == NULL)
+    {
+      error (0, 0, _("%s is not a jar file"), file_name);
+      return 1;
+    }
+
+  count = get_u2 (end + 10);
+  directory_size = get_u4 (end + 12);
+  directory_offset = get_u4 (end + 16);
+  if (get_u2 (end + 4) != 0 || get_u2 (end + 6) != 0
+      || get_u2 (end + 8) != count)
+    {
+      error (0, 0, _("%s: jar files on several disks are not supported"),
+             file_name);
+      return 1;
+    }
+  if (count == 0xffff || directory_size == 0xffffffff
+      || directory_offset == 0xffffffff)
+    {
+      error (0, 0, _("%s: the ZIP64 format is not supported"), file_name);
+      return 1;
+    }
+  if (directory_offset > (size_t) (end - contents)
+      || directory_size > (size_t) (end - contents) - directory_offset)
+    goto corrupt;
+
+  p = contents + directory_offset;
+  for (i = 0; i < count; i++)
+    {
+      unsigned int name_length;
+      unsigned int extra_length;
+      unsigned int comment_length;
+      uint32_t local_offset;
+      const unsigned char *local;
+      size_t data_offset;
+      struct jar_entry *ep;
+      char *name;
+
+      if (end - p < CENTRAL_HEADER_SIZE
+          || get_u4 (p) != CENTRAL_HEADER_SIGNATURE)
+        goto corrupt;
+      name_length = get_u2 (p + 28);
+      extra_length = get_u2 (p + 30);
+      comment_length = get_u2 (p + 32);
+      if ((size_t) (end - p)
+          < CENTRAL_HEADER_SIZE + name_length + extra_length + comment_length)
+        goto corrupt;
+
+      name = (char *) xmalloc (name_length + 1);
+      memcpy (name, p + CENTRAL_HEADER_SIZE, name_length);
+      name[name_length] = '\0';
+      ep = new_entry (jar, name);
+      free (name);
+      ep->flags = get_u2 (p + 8) & KEPT_FLAGS;
+      ep->method = get_u2 (p + 10);
+      ep->dos_time = (long) get_u2 (p + 12) | ((long) get_u2 (p + 14) << 16);
+      ep->crc = get_u4 (p + 16);
+      ep->compressed_size = get_u4 (p + 20);
+      ep->size = get_u4 (p + 24);
+      ep->external_attributes = get_u4 (p + 38);
+      local_offset = get_u4 (p + 42);
+      if (ep->compressed_size == 0xffffffff || ep->size == 0xffffffff
+          || local_offset == 0xffffffff)
+        {
+          error (0, 0, _("%s: the ZIP64 format is not supported"), file_name);
+          return 1;
+        }
+
+      /* The data follows the local header, whose extra field may differ
+         from the one in the central directory.  */
+      if (local_offset > directory_offset
+          || directory_offset - local_offset < LOCAL_HEADER_SIZE)
+        goto corrupt;
+      local = contents + local_offset;
+      if (get_u4 (local) != LOCAL_HEADER_SIGNATURE)
+        goto corrupt;
+      data_offset = (size_t) local_offset + LOCAL_HEADER_SIZE
+                    + get_u2 (local + 26) + get_u2 (local + 28);
+      if (data_offset > directory_offset
+          || ep->compressed_size > directory_offset - data_offset)
+        goto corrupt;
+      ep->data = contents + data_offset;
+
+      p += CENTRAL_HEADER_SIZE + name_length + extra_length + comment_length;
+    }
+  return 0;
+
+ corrupt:
+  error (0, 0, _("%s is not a valid jar file"), file_name);
+  return 1;
+}
+
+java_jar_ty *
+java_jar_open (const char *file_name)
+{
+  java_jar_ty *jar = XMALLOC (java_jar_ty);
+  struct stat statbuf;
+
+  jar->contents = NULL;
+  jar->entries = NULL;
+  jar->nentries = 0;
+  jar->nentries_allocated = 0;
+  hash_init (&jar->name_map, 100);
+
+  if (stat (file_name, &statbuf) < 0)
+    {
+      if (errno == ENOENT)
+        return jar;
+      error (0, errno, _("error while opening \"%s\" for reading"), file_name);
+      java_jar_free (jar);
+      return NULL;
+    }
+  else
+    {
+      size_t length;
+
+      jar->contents = read_file (file_name, RF_BINARY, &length);
+      if (jar->contents == NULL)
+        {
+          error (0, errno, _("error while reading \"%s\""), file_name);
+          java_jar_free (jar);
+          return NULL;
+        }
+      if (read_entries (jar, file_name, length))
+        {
+          java_jar_free (jar);
+          return NULL;
+        }
+      return jar;
+    }
+}
+
+int
+java_jar_get_entry (java_jar_ty *jar, const char *name,
+                    char **datap, size_t *lengthp)
+{
+  struct jar_entry *ep = find_entry (jar, name);
+
+  unsigned char *data;
+
+  if (ep == NULL)
+    return 1;
+  if ((ep->method != 0 && ep->method != 8) || (ep->flags & 1) != 0)
+    {
+      error (0, 0, _("cannot read the compressed jar entry %s"), name);
+      return -1;
+    }
+  data = (unsigned char *) xmalloc (ep->size > 0 ? ep->size : 1);
+  if (ep->method == 0)
+    {
+      if (ep->compressed_size != ep->size)
+        goto corrupt;
+      memcpy (data, ep->data, ep->size);
+    }
+  else if (inflate_entry (ep->data, ep->compressed_size, data, ep->size) < 0)
+    goto corrupt;
+  if (compute_crc32 (data, ep->size) != ep->crc)
+    goto corrupt;
+  *datap = (char *) data;
+  *lengthp = ep->size;
+  return 0;
+
+ corrupt:
+  error (0, 0, _("the jar entry %s is corrupt"), name);
+  free (data);
+  return -1;
+}
+
+void
+java_jar_put_entry (java_jar_ty *jar, const char *name,
+                    const char *data, size_t length)
+{
+  struct jar_entry *ep = find_entry (jar, name);
+
+  if (ep == NULL)
+    ep = new_entry (jar, name);
+  else
+    free (ep->own_data);
+  ep->flags = FLAG_UTF8;
+  ep->method = 0;
+  ep->dos_time = -1;
+  ep->own_data = (char *) xmalloc (length > 0 ? length : 1);
+  memcpy (ep->own_data, data, length);
+  ep->data = (const unsigned char *) ep->own_data;
+  ep->crc = compute_crc32 (ep->data, length);
+  ep->compressed_size = length;
+  ep->size = length;
+  ep->external_attributes = 0;
+}
+
+/* Add the files in DIRECTORY and its subdirectories, with the entry names
+   PREFIX followed by their relative file names.  */
+static int
+add_directory (java_jar_ty *jar, const char *directory, const char *prefix,
+               bool remove)
+{
+  DIR *dirp;
+  int retval;
+
+  dirp = opendir (directory);
+  if (dirp == NULL)
+    {
+      error (0, errno, _("error while reading \"%s\""), directory);
+      return 1;
+    }
+
+  retval = 0;
+  for (;;)
+    {
+      struct dirent *dp;
+      const char *name;
+      char *file_name;
+      char *entry_name;
+      struct stat statbuf;
+
+      errno = 0;
+      dp = readdir (dirp);
+      if (dp == NULL)
+        {
+          if (errno != 0)
+            {
+              error (0, errno, _("error while reading \"%s\""), directory);
+              retval = 1;
+            }
+          break;
+        }
+      name = dp->d_name;
+      if (strcmp (name, ".") == 0 || strcmp (name, "..") == 0)
+        continue;
+
+      file_name = xconcatenated_filename (directory, name, NULL);
+      entry_name = xasprintf ("%s%s", prefix, name);
+      if (stat (file_name, &statbuf) < 0)
+        {
+          error (0, errno, _("error while opening \"%s\" for reading"),
+                 file_name);
+          retval = 1;
+        }
+      else if (S_ISDIR (statbuf.st_mode))
+        {
+          char *subprefix = xasprintf ("%s/", entry_name);
+
+          if (add_directory (jar, file_name, subprefix, remove))
+            retval = 1;
+          else if (remove && rmdir (file_name) < 0)
+            {
+              error (0, errno, _("cannot remove directory \"%s\""), file_name);
+              retval = 1;
+            }
+          free (subprefix);
+        }
+      else
+        {
+          size_t length;
+          char *data = read_file (file_name, RF_BINARY, &length);
+
+          if (data == NULL)
+            {
+              error (0, errno, _("error while reading \"%s\""), file_name);
+              retval = 1;
+            }
+          else
+            {
+              java_jar_put_entry (jar, entry_name, data, length);
+              free (data);
+              if (remove)
+                unlink (file_name);
+            }
+        }
+      free (entry_name);
+      free (file_name);
+    }
+
+  if (closedir (dirp))
+    {
+      error (0, errno, _("error while reading \"%s\""), directory);
+      retval = 1;
+    }
+  return retval;
+}
+
+int
+java_jar_add_directory (java_jar_ty *jar, const char *directory, bool remove)
+{
+  return add_directory (jar, directory, "", remove);
+}
+
+/* The position of an entry in the jar file: the manifest and its directory
+   first, then the other entries.  */
+static int
+entry_rank (const struct jar_entry *ep)
+{
+  if (strcmp (ep->name, "META-INF/") == 0)
+    return 0;
+  if (strcmp (ep->name, MANIFEST_NAME) == 0)
+    return 1;
+  return 2;
+}
+
+static int
+compare_entries (const void *p1, const void *p2)
+{
+  const struct jar_entry *ep1 = (const struct jar_entry *) p1;
+  const struct jar_entry *ep2 = (const struct jar_entry *) p2;
+  int rank1 = entry_rank (ep1);
+  int rank2 = entry_rank (ep2);
+
+  if (rank1 != rank2)
+    return rank1 - rank2;
+  return strcmp (ep1->name, ep2->name);
+}
+
+/* Convert TIMESTAMP to the MS-DOS format of ZIP files, in UTC, so that
+   the result does not depend on the time zone.  */
+static long
+dos_time_of (time_t timestamp)
+{
+  struct tm *tm = gmtime (&timestamp);
+
+  if (tm == NULL || tm->tm_year < 80)
+    /* 1980-01-01 00:00:00, the earliest time that the format supports.  */
+    return (long) ((1 << 5) | 1) << 16;
+  if (tm->tm_year > 207)
+    /* 2107-12-31 23:59:58, the latest time that the format supports.  */
+    return ((long) ((127 << 9) | (12 << 5) | 31) << 16)
+           | ((23 << 11) | (59 << 5) | 29);
+  return ((long) (((tm->tm_year - 80) << 9) | ((tm->tm_mon + 1) << 5)
+                  | tm->tm_mday) << 16)
+         | ((tm->tm_hour << 11) | (tm->tm_min << 5) | (tm->tm_sec / 2));
+}
+
+int
+java_jar_write (java_jar_ty *jar, const char *file_name, time_t timestamp)
+{
+  long dos_time = dos_time_of (timestamp);
+  uint32_t *offsets;
+  uint32_t offset;
+  uint32_t directory_offset;
+  char *tmp_file_name;
+  FILE *fp;
+  size_t i;
+
+  if (find_entry (jar, MANIFEST_NAME) == NULL)
+    {
+      static const char manifest[] = "Manifest-Version: 1.0\r\n\r\n";
+
+      java_jar_put_entry (jar, MANIFEST_NAME, manifest, sizeof manifest - 1);
+    }
+  /* This invalidates the indices in JAR->name_map.  Afterwards, only
+     java_jar_free may be called.  */
+  qsort (jar->entries, jar->nentries, sizeof (struct jar_entry),
+         compare_entries);
+
+  tmp_file_name = xasprintf ("%s.tmp", file_name);
+  fp = fopen (tmp_file_name, "wb");
+  if (fp == NULL)
+    {
+      error (0, errno, _("failed to create \"%s\""), tmp_file_name);
+      free (tmp_file_name);
+      return 1;
+    }
+
+  /* The local headers and the data.  */
+  offsets = XNMALLOC (jar->nentries, uint32_t);
+  offset = 0;
+  for (i = 0; i < jar->nentries; i++)
+    {
+      const struct jar_entry *ep = &jar->entries[i];
+      long t = (ep->dos_time >= 0 ? ep->dos_time : dos_time);
+      size_t name_length = strlen (ep->name);
+      unsigned char header[LOCAL_HEADER_SIZE];
+
+      if (name_length > 0xffff
+          || offset + (uint64_t) LOCAL_HEADER_SIZE + name_length
+             + ep->compressed_size >= 0xffffffff)
+        goto too_large;
+      offsets[i] = offset;
+      put_u4 (header, LOCAL_HEADER_SIGNATURE);
+      put_u2 (header + 4, ep->method == 0 ? 10 : 20);
+      put_u2 (header + 6, ep->flags);
+      put_u2 (header + 8, ep->method);
+      put_u2 (header + 10, t & 0xffff);
+      put_u2 (header + 12, (t >> 16) & 0xffff);
+      put_u4 (header + 14, ep->crc);
+      put_u4 (header + 18, ep->compressed_size);
+      put_u4 (header + 22, ep->size);
+      put_u2 (header + 26, name_length);
+      put_u2 (header + 28, 0);
+      fwrite (header, 1, LOCAL_HEADER_SIZE, fp);
+      fwrite (ep->name, 1, name_length, fp);
+      fwrite (ep->data, 1, ep->compressed_size, fp);
+      offset += LOCAL_HEADER_SIZE + name_length + ep->compressed_size;
+    }
+
+  /* The central directory.  */
+  directory_offset = offset;
+  if (jar->nentries >= 0xffff)
+    goto too_large;
+  for (i = 0; i < jar->nentries; i++)
+    {
+      const struct jar_entry *ep = &jar->entries[i];
+      long t = (ep->dos_time >= 0 ? ep->dos_time : dos_time);
+      size_t name_length = strlen (ep->name);
+      unsigned char header[CENTRAL_HEADER_SIZE];
+
+      if (offset + (uint64_t) CENTRAL_HEADER_SIZE + name_length + END_SIZE
+          >= 0xffffffff)
+        goto too_large;
+      put_u4 (header, CENTRAL_HEADER_SIGNATURE);
+      put_u2 (header + 4, 20);
+      put_u2 (header + 6, ep->method == 0 ? 10 : 20);
+      put_u2 (header + 8, ep->flags);
+      put_u2 (header + 10, ep->method);
+      put_u2 (header + 12, t & 0xffff);
+      put_u2 (header + 14, (t >> 16) & 0xffff);
+      put_u4 (header + 16, ep->crc);
+      put_u4 (header + 20, ep->compressed_size);
+      put_u4 (header + 24, ep->size);
+      put_u2 (header + 28, name_length);
+      put_u2 (header + 30, 0);
+      put_u2 (header + 32, 0);
+      put_u2 (header + 34, 0);
+      put_u2 (header + 36, 0);
+      put_u4 (header + 38, ep->external_attributes);
+      put_u4 (header + 42, offsets[i]);
+      fwrite (header, 1, CENTRAL_HEADER_SIZE, fp);
+      fwrite (ep->name, 1, name_length, fp);
+      offset += CENTRAL_HEADER_SIZE + name_length;
+    }
+
+  /* The end of central directory record.  */
+  {
+    unsigned char record[END_SIZE];
+
+    put_u4 (record, END_SIGNATURE);
+    put_u2 (record + 4, 0);
+    put_u2 (record + 6, 0);
+    put_u2 (record + 8, jar->nentries);
+    put_u2 (record + 10, jar->nentries);
+    put_u4 (record + 12, offset - directory_offset);
+    put_u4 (record + 16, directory_offset);
+    put_u2 (record + 20, 0);
+    fwrite (record, 1, END_SIZE, fp);
+  }
+  free (offsets);
+
+  if (fwriteerror (fp))
+    {
+      error (0, errno, _("error while writing \"%s\" file"), tmp_file_name);
+      unlink (tmp_file_name);
+      free (tmp_file_name);
+      return 1;
+    }
+  if (rename (tmp_file_name, file_name) < 0)
+    {
+      error (0, errno, _("failed to create \"%s\""), file_name);
+      unlink (tmp_file_name);
+      free (tmp_file_name);
+      return 1;
+    }
+  free (tmp_file_name);
+  return 0;
+
+ too_large:
+  error (0, 0, _("%s: too large for a jar file without the ZIP64 format"),
+         file_name);
+  free (offsets);
+  fclose (fp);
+  unlink (tmp_file_name);
+  free (tmp_file_name);
+  return 1;
+}
+
+void
+java_jar_free (java_jar_ty *jar)
+{
+  size_t i;
+
+  for (i = 0; i < jar->nentries; i++)
+    {
+      free (jar->entries[i].own_data);
+      free (jar->entries[i].name);
+    }
+  free (jar->entries);
+  hash_destroy (&jar->name_map);
+  free (jar->contents);
+  free (jar);
+}
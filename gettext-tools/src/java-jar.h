@@ -0,0 +1,88 @@
+/* Writing Java jar files.
+   Copyright (C) 2021 Free Software Foundation, Inc.
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <https://www.gnu.org/licenses/>.  */
+
+#ifndef _JAVA_JAR_H
+#define _JAVA_JAR_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <time.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+
+/* This module creates jar files, or updates existing ones.  The entries
+   that it adds are stored without compression, which the Java class
+   loaders accept, and which needs no compression library.  The entries
+   of an existing jar file are copied as they are, compressed or not, and
+   can be read if they are stored or compressed with the "deflate" method,
+   as the jar tool does.
+   The ZIP64 extensions, for jar files larger than 4 GB or with more than
+   65535 entries, are not supported.  */
+
+/* A jar file under construction.  */
+typedef struct java_jar java_jar_ty;
+
+/* Read the jar file FILE_NAME, for an update, or start a new, empty jar
+   file if it does not exist.  Return NULL after an error message.  */
+extern java_jar_ty *
+       java_jar_open (const char *file_name);
+
+/* Look up the entry NAME, with slash separators.  Return 1 if there is no
+   such entry, or 0 after storing a freshly allocated copy of its contents,
+   decompressed, in *DATAP and *LENGTHP, or -1 after an error message if the
+   entry is encrypted, uses another compression method, or is corrupt.  */
+extern int
+       java_jar_get_entry (java_jar_ty *jar, const char *name,
+                           char **datap, size_t *lengthp);
+
+/* Add the entry NAME, with slash separators, with the contents DATA of
+   length LENGTH, or replace the entry of the same name.  */
+extern void
+       java_jar_put_entry (java_jar_ty *jar, const char *name,
+                           const char *data, size_t length);
+
+/* Add the files in DIRECTORY and its subdirectories, whose entry names are
+   their file names relative to DIRECTORY, or replace the entries of the
+   same names.  If REMOVE, remove the files and the subdirectories after
+   reading them.  Return 0 if ok, nonzero after an error message.  */
+extern int
+       java_jar_add_directory (java_jar_ty *jar, const char *directory,
+                               bool remove);
+
+/* Write the jar file to FILE_NAME, replacing it in a single step.  The
+   manifest comes first, as the Java tools expect, and the other entries
+   follow in the order of their names, so that the result does not depend
+   on the order in which they were added.  The entries that were added or
+   replaced get the time stamp TIMESTAMP; the others keep theirs.  If the
+   jar file has no manifest, a minimal one is added.
+   Return 0 if ok, nonzero after an error message.  */
+extern int
+       java_jar_write (java_jar_ty *jar, const char *file_name,
+                       time_t timestamp);
+
+/* Free a jar file.  */
+extern void
+       java_jar_free (java_jar_ty *jar);
+
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* _JAVA_JAR_H */
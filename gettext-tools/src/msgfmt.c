@@ -40,9 +40,11 @@
 #include "progname.h"
 #include "relocatable.h"
 #include "basename-lgpl.h"
+#include "c-ctype.h"
 #include "xerror.h"
 #include "xvasprintf.h"
 #include "xalloc.h"
+#include "xmemdup0.h"
 #include "msgfmt.h"
 #include "write-mo.h"
 #include "write-java.h"
@@ -88,6 +90,15 @@ static const char *output_file_name;
 /* Java mode output file specification.  */
 static bool java_mode;
 static bool assume_java2;
+static bool java_interface;
+static bool java_perfect_hash;
+static unsigned int java_shard_size;
+static bool java_strings;
+static bool java_catalog_index;
+static bool java_pack;
+static bool java_batch;
+static bool java_bytecode;
+static const char *java_jar_file_name;
 static const char *java_resource_name;
 static const char *java_locale_name;
 static const char *java_class_directory;
@@ -195,6 +206,15 @@ static const struct option long_options[] =
   { "help", no_argument, NULL, 'h' },
   { "java", no_argument, NULL, 'j' },
   { "java2", no_argument, NULL, CHAR_MAX + 5 },
+  { "java-batch", no_argument, NULL, CHAR_MAX + 23 },
+  { "java-bytecode", no_argument, NULL, CHAR_MAX + 24 },
+  { "java-catalog-index", no_argument, NULL, CHAR_MAX + 21 },
+  { "java-interface", no_argument, NULL, CHAR_MAX + 17 },
+  { "java-jar", required_argument, NULL, CHAR_MAX + 25 },
+  { "java-pack", no_argument, NULL, CHAR_MAX + 22 },
+  { "java-perfect-hash", no_argument, NULL, CHAR_MAX + 18 },
+  { "java-shard-size", required_argument, NULL, CHAR_MAX + 19 },
+  { "java-strings", no_argument, NULL, CHAR_MAX + 20 },
   { "keyword", required_argument, NULL, 'k' },
   { "language", required_argument, NULL, 'L' },
   { "locale", required_argument, NULL, 'l' },
@@ -222,6 +242,8 @@ static const struct option long_options[] =
 _GL_NORETURN_FUNC static void usage (int status);
 static const char *add_mo_suffix (const char *);
 static struct msg_domain *new_domain (const char *name, const char *file_name);
+static char *java_input_locale_name (const char *file_name,
+                                     const char *option);
 static bool is_nonobsolete (const message_ty *mp);
 static void read_catalog_file_msgfmt (char *filename,
                                       catalog_input_format_ty input_syntax);
@@ -246,6 +268,7 @@ main (int argc, char *argv[])
   int arg_i;
   const char *canon_encoding;
   struct msg_domain *domain;
+  java_jar_output_ty *java_jar = NULL;
 
   /* Set default value for global variables.  */
   alignment = DEFAULT_OUTPUT_ALIGNMENT;
@@ -428,6 +451,56 @@ main (int argc, char *argv[])
         desktop_template_name = optarg;
         xml_template_name = optarg;
         break;
+      case CHAR_MAX + 17: /* --java-interface */
+        java_mode = true;
+        assume_java2 = true;
+        java_interface = true;
+        break;
+      case CHAR_MAX + 18: /* --java-perfect-hash */
+        java_mode = true;
+        assume_java2 = true;
+        java_perfect_hash = true;
+        break;
+      case CHAR_MAX + 19: /* --java-shard-size=NUMBER */
+        {
+          char *endp;
+          unsigned long new_shard_size = strtoul (optarg, &endp, 10);
+
+          if (endp == optarg || *endp != '\0' || new_shard_size == 0
+              || new_shard_size > UINT_MAX)
+            error (EXIT_FAILURE, 0, _("invalid shard size: %s"), optarg);
+          java_mode = true;
+          assume_java2 = true;
+          java_shard_size = new_shard_size;
+        }
+        break;
+      case CHAR_MAX + 20: /* --java-strings */
+        java_mode = true;
+        assume_java2 = true;
+        java_strings = true;
+        break;
+      case CHAR_MAX + 21: /* --java-catalog-index */
+        java_mode = true;
+        java_catalog_index = true;
+        break;
+      case CHAR_MAX + 22: /* --java-pack */
+        java_mode = true;
+        assume_java2 = true;
+        java_pack = true;
+        break;
+      case CHAR_MAX + 23: /* --java-batch */
+        java_mode = true;
+        java_batch = true;
+        break;
+      case CHAR_MAX + 24: /* --java-bytecode */
+        java_mode = true;
+        assume_java2 = true;
+        java_bytecode = true;
+        break;
+      case CHAR_MAX + 25: /* --java-jar=FILE */
+        java_mode = true;
+        java_jar_file_name = optarg;
+        break;
       default:
         usage (EXIT_FAILURE);
         break;
@@ -509,13 +582,64 @@ There is NO WARRANTY, to the extent permitted by law.\n\
           error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
                  "--java", "--output-file");
         }
-      if (java_class_directory == NULL)
+      if (java_jar_file_name != NULL)
+        {
+          if (java_class_directory != NULL)
+            error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+                   "--java-jar", "-d");
+          if (java_output_source)
+            error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+                   "--java-jar", "--source");
+        }
+      else if (java_class_directory == NULL)
         {
           error (EXIT_SUCCESS, 0,
                  _("%s requires a \"-d directory\" specification"),
                  "--java");
           usage (EXIT_FAILURE);
         }
+      if (java_strings && java_perfect_hash)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-strings", "--java-perfect-hash");
+      if (java_strings && java_shard_size > 0)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-strings", "--java-shard-size");
+      if (java_pack && java_locale_name != NULL)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-pack", "--locale");
+      if (java_pack && java_strings)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-pack", "--java-strings");
+      if (java_pack && java_shard_size > 0)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-pack", "--java-shard-size");
+      if (java_pack && java_interface)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-pack", "--java-interface");
+      if (java_pack && java_catalog_index)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-pack", "--java-catalog-index");
+      if (java_batch && java_locale_name != NULL)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-batch", "--locale");
+      if (java_batch && java_pack)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-batch", "--java-pack");
+      if (java_bytecode && java_output_source)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-bytecode", "--source");
+      if (java_bytecode && java_perfect_hash)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-bytecode", "--java-perfect-hash");
+      if (java_bytecode && java_shard_size > 0)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-bytecode", "--java-shard-size");
+      if (java_bytecode && java_strings)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-bytecode", "--java-strings");
+      if (java_bytecode && java_pack)
+        error (EXIT_FAILURE, 0, _("%s and %s are mutually exclusive"),
+               "--java-bytecode", "--java-pack");
     }
   else if (csharp_mode)
     {
@@ -738,6 +862,22 @@ There is NO WARRANTY, to the extent permitted by law.\n\
       if (output_file_name == NULL)
         current_domain = NULL;
 
+      /* With --java-pack or --java-batch, each input file contains the
+         messages of a locale, and the name of the locale is the base name
+         of the file.  */
+      if (java_pack || java_batch)
+        {
+          char *locale_name =
+            java_input_locale_name (argv[arg_i],
+                                    java_pack ? "--java-pack" : "--java-batch");
+
+          current_domain = new_domain (locale_name, NULL);
+          /* Several input files for the same locale go into the same
+             domain, which keeps the name from the first file.  */
+          if (current_domain->domain_name != locale_name)
+            free (locale_name);
+        }
+
       /* And process the input file.  */
       read_catalog_file_msgfmt (argv[arg_i], input_syntax);
     }
@@ -777,15 +917,65 @@ There is NO WARRANTY, to the extent permitted by law.\n\
       }
   }
 
+  /* With --java-jar, the classes are written into the jar file.  */
+  if (java_jar_file_name != NULL)
+    {
+      java_jar = java_jar_output_begin (java_jar_file_name);
+      if (java_jar == NULL)
+        exit (EXIT_FAILURE);
+    }
+
   /* Now write out all domains.  */
+  if (java_pack || java_batch)
+    {
+      /* With --java-pack, all domains go into a single class.  With
+         --java-batch, each domain goes into a class of its own, and the
+         classes are compiled together.  */
+      size_t nlocales = 0;
+      message_list_ty **mlps;
+      const char **locale_names;
+
+      for (domain = domain_list; domain != NULL; domain = domain->next)
+        nlocales++;
+      mlps = XNMALLOC (nlocales, message_list_ty *);
+      locale_names = XNMALLOC (nlocales, const char *);
+      nlocales = 0;
+      for (domain = domain_list; domain != NULL; domain = domain->next)
+        {
+          mlps[nlocales] = domain->mlp;
+          locale_names[nlocales] = domain->domain_name;
+          nlocales++;
+        }
+      if (java_pack
+          ? msgdomain_write_java_pack (mlps, locale_names, nlocales,
+                                       canon_encoding, java_resource_name,
+                                       java_class_directory, java_jar,
+                                       java_perfect_hash, java_output_source)
+          : msgdomain_write_java_batch (mlps, locale_names, nlocales,
+                                        canon_encoding, java_resource_name,
+                                        java_class_directory, java_jar,
+                                        assume_java2, java_interface,
+                                        java_perfect_hash, java_shard_size,
+                                        java_strings, java_catalog_index,
+                                        java_bytecode, java_output_source))
+        exit_status = EXIT_FAILURE;
+      free (locale_names);
+      free (mlps);
+    }
   for (domain = domain_list; domain != NULL; domain = domain->next)
     {
       if (java_mode)
         {
-          if (msgdomain_write_java (domain->mlp, canon_encoding,
-                                    java_resource_name, java_locale_name,
-                                    java_class_directory, assume_java2,
-                                    java_output_source))
+          /* With --java-pack or --java-batch, the domains have already
+             been written.  */
+          if (!(java_pack || java_batch)
+              && msgdomain_write_java (domain->mlp, canon_encoding,
+                                       java_resource_name, java_locale_name,
+                                       java_class_directory, java_jar,
+                                       assume_java2, java_interface,
+                                       java_perfect_hash, java_shard_size,
+                                       java_strings, java_catalog_index,
+                                       java_bytecode, java_output_source))
             exit_status = EXIT_FAILURE;
         }
       else if (csharp_mode)
@@ -846,6 +1036,10 @@ There is NO WARRANTY, to the extent permitted by law.\n\
       message_list_free (domain->mlp, 0);
     }
 
+  if (java_jar != NULL
+      && java_jar_output_end (java_jar, exit_status == EXIT_SUCCESS))
+    exit_status = EXIT_FAILURE;
+
   /* Print statistics if requested.  */
   if (verbose || do_statistics)
     {
@@ -931,6 +1125,31 @@ Operation mode:\n"));
       printf (_("\
       --java2                 like --java, and assume Java2 (JDK 1.2 or higher)\n"));
       printf (_("\
+      --java-interface        like --java2, and implement the interface\n\
+                                gnu.gettext.GettextCatalog from libintl.jar\n"));
+      printf (_("\
+      --java-perfect-hash     like --java2, and use a minimal perfect hash\n\
+                                function for the lookup\n"));
+      printf (_("\
+      --java-shard-size=NUMBER  like --java2, and split the messages into\n\
+                                nested classes of about NUMBER messages each\n"));
+      printf (_("\
+      --java-strings          like --java2, and store the strings in a\n\
+                                separate file next to the class file\n"));
+      printf (_("\
+      --java-catalog-index    with --java or --java2, add the class to the\n\
+                                list of catalogs of the resource\n"));
+      printf (_("\
+      --java-pack             like --java2, and put the messages of all input\n\
+                                files, one per locale, into a single class\n"));
+      printf (_("\
+      --java-batch            with --java or --java2, create a class for each\n\
+                                input file, one per locale, and compile them\n\
+                                together\n"));
+      printf (_("\
+      --java-bytecode         like --java2, and write the class files\n\
+                                directly, without a Java compiler\n"));
+      printf (_("\
       --csharp                C# mode: generate a .NET .dll file\n"));
       printf (_("\
       --csharp-resources      C# resources mode: generate a .NET .resources file\n"));
@@ -963,9 +1182,13 @@ Output file location in Java mode:\n"));
       printf (_("\
   -d DIRECTORY                base directory of classes directory hierarchy\n"));
       printf (_("\
+      --java-jar=FILE         write the classes into the jar file FILE,\n\
+                                instead of a directory\n"));
+      printf (_("\
 The class name is determined by appending the locale name to the resource name,\n\
-separated with an underscore.  The -d option is mandatory.  The class is\n\
-written under the specified directory.\n\
+separated with an underscore.  The -d or --java-jar option is mandatory.  The\n\
+class is written under the specified directory, or into the jar file, which\n\
+is created or updated.\n\
 "));
       printf ("\n");
       printf (_("\
@@ -1129,6 +1352,28 @@ new_domain (const char *name, const char *file_name)
 }
 
 
+/* Return the locale name for the input file FILE_NAME with the option
+   OPTION: its base name without suffix, such as "pt_BR" for
+   "po/pt_BR.po".  The result is freshly allocated.  */
+static char *
+java_input_locale_name (const char *file_name, const char *option)
+{
+  const char *base = last_component (file_name);
+  const char *dot = strrchr (base, '.');
+  size_t len = (dot != NULL ? dot - base : strlen (base));
+  size_t i;
+
+  for (i = 0; i < len; i++)
+    if (!(c_isalnum (base[i]) || base[i] == '_'))
+      break;
+  if (len == 0 || i < len)
+    error (EXIT_FAILURE, 0,
+           _("cannot determine the locale name of \"%s\" for %s"),
+           file_name, option);
+  return xmemdup0 (base, len);
+}
+
+
 static bool
 is_nonobsolete (const message_ty *mp)
 {
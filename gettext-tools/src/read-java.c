@@ -1,5 +1,5 @@
 /* Reading Java ResourceBundles.
-   Copyright (C) 2001-2003, 2006-2008, 2010-2011, 2017, 2019-2020 Free Software
+   Copyright (C) 2001-2003, 2006-2008, 2010-2011, 2017, 2019-2021 Free Software
    Foundation, Inc.
    Written by Bruno Haible <haible@clisp.cons.org>, 2001.
 
@@ -92,6 +92,8 @@ msgdomain_read_java (const char *resource_name, const char *locale_name)
 {
   const char *class_name = "gnu.gettext.DumpResource";
   const char *gettextjar;
+  const char *libintljar;
+  const char *classpaths[2];
   const char *args[3];
   struct locals locals;
 
@@ -100,6 +102,12 @@ msgdomain_read_java (const char *resource_name, const char *locale_name)
   gettextjar = getenv ("GETTEXTJAR");
   if (gettextjar == NULL || gettextjar[0] == '\0')
     gettextjar = relocate (GETTEXTJAR);
+  /* Classes created by "msgfmt --java-interface" need libintl.jar.  */
+  libintljar = getenv ("LIBINTLJAR");
+  if (libintljar == NULL || libintljar[0] == '\0')
+    libintljar = relocate (LIBINTLJAR);
+  classpaths[0] = gettextjar;
+  classpaths[1] = libintljar;
 
   /* Assign a default value to the resource name.  */
   if (resource_name == NULL)
@@ -118,7 +126,7 @@ msgdomain_read_java (const char *resource_name, const char *locale_name)
   /* Dump the resource and retrieve the resulting output.
      Here we use the user's CLASSPATH, not a minimal one, so that the
      resource can be found.  */
-  if (execute_java_class (class_name, &gettextjar, 1, false, NULL,
+  if (execute_java_class (class_name, classpaths, 2, false, NULL,
                           args,
                           verbose, false,
                           execute_and_read_po_output, &locals))
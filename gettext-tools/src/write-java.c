@@ -1,5 +1,5 @@
 /* Writing Java ResourceBundles.
-   Copyright (C) 2001-2003, 2005-2010, 2014, 2016, 2018-2020 Free Software Foundation, Inc.
+   Copyright (C) 2001-2003, 2005-2010, 2014, 2016, 2018-2021 Free Software Foundation, Inc.
    Written by Bruno Haible <haible@clisp.cons.org>, 2001.
 
    This program is free software: you can redistribute it and/or modify
@@ -26,11 +26,13 @@
 #include <errno.h>
 #include <limits.h>
 #include <stdbool.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <stdio.h>
 #include <string.h>
 
 #include <sys/stat.h>
+#include <unistd.h>
 #if !defined S_ISDIR && defined S_IFDIR
 # define S_ISDIR(mode) (((mode) & S_IFMT) == S_IFDIR)
 #endif
@@ -59,6 +61,8 @@
 #include "xerror.h"
 #include "xvasprintf.h"
 #include "javacomp.h"
+#include "java-classfile.h"
+#include "java-jar.h"
 #include "message.h"
 #include "msgfmt.h"
 #include "msgl-iconv.h"
@@ -70,7 +74,10 @@
 #include "minmax.h"
 #include "concat-filename.h"
 #include "fwriteerror.h"
+#include "read-file.h"
 #include "clean-temp.h"
+#include "relocatable.h"
+#include "str-list.h"
 #include "unistr.h"
 #include "gettext.h"
 
@@ -166,18 +173,228 @@ msgid_hashcode (const char *msgctxt, const char *msgid)
 }
 
 
+/* The cost of looking up a key that sits at position STEP of its probe
+   sequence: a big penalty for the additional division, and a small penalty
+   for each loop round.  */
+#define PROBE_COST(step) ((step) == 0 ? 0 : 2 + (step))
+
+/* Insert the item J into a hash table of size HASHSIZE for the given hash
+   codes.  SLOTS[idx] is 1 + the number of the item at index idx, or 0 if
+   the entry idx is free.  STEPS[j] is the position of item j in its probe
+   sequence.
+   This uses Brent's variation of double hashing: when the probe sequence of
+   item J is long, an item that sits early in that sequence may instead be
+   moved further along its own probe sequence, if that makes the total
+   lookup cost smaller.  Since no entry becomes free, all lookups continue
+   to work.
+   Return the increase of the sum of the lookup costs of all items, or
+   UINT_MAX if the item cannot be inserted: if there is a collision and
+   HASHSIZE is even, or if the probe sequence of item J is fully
+   occupied.  */
+static unsigned int
+insert_hashcode (const unsigned int *hashcodes, unsigned int hashsize,
+                 unsigned int *slots, unsigned int *steps, unsigned int j)
+{
+#define BRENT_LIMIT 16  /* can be tweaked */
+  unsigned int idx0 = hashcodes[j] % hashsize;
+  unsigned int incr;
+  unsigned int idx;
+  unsigned int s;
+  unsigned int best_cost;
+  unsigned int best_i;
+  unsigned int best_m;
+  unsigned int best_pos;
+  unsigned int best_target;
+  unsigned int pos;
+  unsigned int i;
+
+  if (slots[idx0] == 0)
+    {
+      slots[idx0] = j + 1;
+      steps[j] = 0;
+      return 0;
+    }
+
+  /* Collision.  Cannot deal with it if hashsize is even.  */
+  if ((hashsize % 2) == 0)
+    return UINT_MAX;
+
+  /* Find the first free entry in the probe sequence of item J.  */
+  incr = 1 + (hashcodes[j] % (hashsize - 2));
+  idx = idx0;
+  s = 0;
+  do
+    {
+      s++;
+      idx += incr;
+      if (idx >= hashsize)
+        idx -= hashsize;
+      if (idx == idx0)
+        /* Searching for a hole, we performed a whole round across the
+           table.  This happens particularly frequently if
+           gcd(hashsize,incr) > 1.  */
+        return UINT_MAX;
+    }
+  while (slots[idx] != 0);
+
+  /* Look for a cheaper alternative: put item J at position i < s of its
+     probe sequence, and move the item k found there by m positions along
+     its own probe sequence.  */
+  best_cost = PROBE_COST (s);
+  best_i = s;
+  best_m = 0;
+  best_pos = 0;
+  best_target = idx;
+  pos = idx0;
+  for (i = 0; i < s && i < BRENT_LIMIT && PROBE_COST (i) < best_cost; i++)
+    {
+      unsigned int k = slots[pos] - 1;
+      unsigned int k_incr = 1 + (hashcodes[k] % (hashsize - 2));
+      unsigned int target = pos;
+      unsigned int m;
+
+      for (m = 1; m <= BRENT_LIMIT; m++)
+        {
+          unsigned int cost =
+            PROBE_COST (i) + PROBE_COST (steps[k] + m) - PROBE_COST (steps[k]);
+
+          if (cost >= best_cost)
+            break;
+          target += k_incr;
+          if (target >= hashsize)
+            target -= hashsize;
+          if (target == pos)
+            break;
+          if (slots[target] == 0)
+            {
+              best_cost = cost;
+              best_i = i;
+              best_m = m;
+              best_pos = pos;
+              best_target = target;
+              break;
+            }
+        }
+
+      pos += incr;
+      if (pos >= hashsize)
+        pos -= hashsize;
+    }
+
+  if (best_m > 0)
+    {
+      unsigned int k = slots[best_pos] - 1;
+
+      slots[best_target] = k + 1;
+      steps[k] += best_m;
+      best_target = best_pos;
+    }
+  slots[best_target] = j + 1;
+  steps[j] = best_i;
+
+  return best_cost;
+}
+
+/* Fill the hash table SLOTS of size HASHSIZE with the given N hash codes,
+   and return the score of this hash table, or UINT_MAX if the lookup
+   function cannot work with this size or if the score would be >= BOUND.
+   The score depends on the size of the table -- the smaller the better --
+   and the number of collision lookups, i.e. total number of times that
+   1 + (hashcode % (hashsize - 2)) is added to the index during lookup.  If
+   there are collisions, only odd hashsize values are allowed.
+   SLOTS and STEPS are as in insert_hashcode.  */
+static unsigned int
+compute_hashsize_score (const unsigned int *hashcodes, unsigned int n,
+                        unsigned int hashsize, unsigned int bound,
+                        unsigned int *slots, unsigned int *steps)
+{
+#define XXS 3  /* can be tweaked */
+  /* The score is XXS * collision_score + hashsize.  Give up as soon as
+     collision_score reaches this limit.  */
+  unsigned int limit;
+  unsigned int score;
+  unsigned int j;
+
+  if (hashsize >= bound)
+    return UINT_MAX;
+  limit = (bound - hashsize + XXS - 1) / XXS;
+
+  memset (slots, 0, hashsize * sizeof (unsigned int));
+
+  score = 0;
+  for (j = 0; j < n; j++)
+    {
+      unsigned int cost = insert_hashcode (hashcodes, hashsize, slots, steps, j);
+
+      if (cost == UINT_MAX)
+        return UINT_MAX;
+      score += cost;
+      /* Most hash sizes are worse than the best one found so far.
+         Recognizing this early makes the search much faster.  */
+      if (score >= limit)
+        return UINT_MAX;
+    }
+
+  /* Big hashsize also gives a penalty.  */
+  score = XXS * score + hashsize;
+
+  /* If for any incr between 1 and hashsize - 2, an whole round
+     (idx0, idx0 + incr, ...) is occupied, and the lookup function
+     must deal with collisions, then some inputs would lead to
+     an endless loop in the lookup function.  */
+  if (score > hashsize)
+    {
+      unsigned int incr;
+
+      /* Since the set { idx0, idx0 + incr, ... } depends only on idx0
+         and gcd(hashsize,incr), we only need to conside incr that
+         divides hashsize.  */
+      for (incr = 1; incr <= hashsize / 2; incr++)
+        if ((hashsize % incr) == 0)
+          {
+            unsigned int idx0;
+
+            for (idx0 = 0; idx0 < incr; idx0++)
+              {
+                bool full = true;
+                unsigned int idx;
+
+                for (idx = idx0; idx < hashsize; idx += incr)
+                  if (slots[idx] == 0)
+                    {
+                      full = false;
+                      break;
+                    }
+                if (full)
+                  /* A whole round is occupied.  */
+                  return UINT_MAX;
+              }
+          }
+    }
+
+  return score;
+}
+
 /* Compute a good hash table size for the given set of msgids.  */
 static unsigned int
 compute_hashsize (message_list_ty *mlp, bool *collisionp)
 {
-  /* This is an O(n^2) algorithm, but should be sufficient because few
-     programs have more than 1000 messages in a single domain.  */
+  /* Try numbers between n and XXN*n.  For up to XXL messages, try all of
+     them.  For more messages, try only XXC of them, spread evenly across
+     the range: trying all would be an O(n^2) algorithm, which takes
+     minutes for 100000 messages.  Since so many messages always lead to
+     collisions, and compute_hashsize_score rejects even sizes when there
+     are collisions, try only odd sizes then.  */
 #define XXN 3  /* can be tweaked */
-#define XXS 3  /* can be tweaked */
+#define XXL 2000  /* can be tweaked */
+#define XXC 1024  /* can be tweaked */
   unsigned int n = mlp->nitems;
   unsigned int *hashcodes =
     (unsigned int *) xmalloca (n * sizeof (unsigned int));
-  unsigned int hashsize;
+  unsigned int *slots = XNMALLOC (XXN * n, unsigned int);
+  unsigned int *steps = XNMALLOC (n, unsigned int);
+  unsigned int count;
+  unsigned int k;
   unsigned int best_hashsize;
   unsigned int best_score;
   size_t j;
@@ -185,16 +402,16 @@ compute_hashsize (message_list_ty *mlp, bool *collisionp)
   for (j = 0; j < n; j++)
     hashcodes[j] = msgid_hashcode (mlp->item[j]->msgctxt, mlp->item[j]->msgid);
 
-  /* Try all numbers between n and 3*n.  The score depends on the size of the
-     table -- the smaller the better -- and the number of collision lookups,
-     i.e. total number of times that 1 + (hashcode % (hashsize - 2))
-     is added to the index during lookup.  If there are collisions, only odd
-     hashsize values are allowed.  */
+  count = (n <= XXL ? (XXN - 1) * n + 1 : XXC);
   best_hashsize = 0;
   best_score = UINT_MAX;
-  for (hashsize = n; hashsize <= XXN * n; hashsize++)
+  for (k = 0; k < count; k++)
     {
-      char *bitmap;
+      unsigned int hashsize =
+        (n <= XXL
+         ? n + k
+         : (n + (unsigned int) ((unsigned long long) k * (XXN - 1) * n / (XXC - 1)))
+           | 1);
       unsigned int score;
 
       /* Premature end of the loop if all future scores are known to be
@@ -203,87 +420,9 @@ compute_hashsize (message_list_ty *mlp, bool *collisionp)
       if (hashsize >= best_score)
         break;
 
-      bitmap = XNMALLOC (hashsize, char);
-      memset (bitmap, 0, hashsize);
-
-      score = 0;
-      for (j = 0; j < n; j++)
-        {
-          unsigned int idx = hashcodes[j] % hashsize;
-
-          if (bitmap[idx] != 0)
-            {
-              /* Collision.  Cannot deal with it if hashsize is even.  */
-              if ((hashsize % 2) == 0)
-                /* Try next hashsize.  */
-                goto bad_hashsize;
-              else
-                {
-                  unsigned int idx0 = idx;
-                  unsigned int incr = 1 + (hashcodes[j] % (hashsize - 2));
-                  score += 2;   /* Big penalty for the additional division */
-                  do
-                    {
-                      score++;  /* Small penalty for each loop round */
-                      idx += incr;
-                      if (idx >= hashsize)
-                        idx -= hashsize;
-                      if (idx == idx0)
-                        /* Searching for a hole, we performed a whole round
-                           across the table.  This happens particularly
-                           frequently if gcd(hashsize,incr) > 1.  Try next
-                           hashsize.  */
-                        goto bad_hashsize;
-                    }
-                  while (bitmap[idx] != 0);
-                }
-            }
-          bitmap[idx] = 1;
-        }
-
-      /* Big hashsize also gives a penalty.  */
-      score = XXS * score + hashsize;
-
-      /* If for any incr between 1 and hashsize - 2, an whole round
-         (idx0, idx0 + incr, ...) is occupied, and the lookup function
-         must deal with collisions, then some inputs would lead to
-         an endless loop in the lookup function.  */
-      if (score > hashsize)
-        {
-          unsigned int incr;
-
-          /* Since the set { idx0, idx0 + incr, ... } depends only on idx0
-             and gcd(hashsize,incr), we only need to conside incr that
-             divides hashsize.  */
-          for (incr = 1; incr <= hashsize / 2; incr++)
-            if ((hashsize % incr) == 0)
-              {
-                unsigned int idx0;
-
-                for (idx0 = 0; idx0 < incr; idx0++)
-                  {
-                    bool full = true;
-                    unsigned int idx;
-
-                    for (idx = idx0; idx < hashsize; idx += incr)
-                      if (bitmap[idx] == 0)
-                        {
-                          full = false;
-                          break;
-                        }
-                    if (full)
-                      /* A whole round is occupied.  */
-                      goto bad_hashsize;
-                  }
-              }
-        }
-
-      if (false)
-        bad_hashsize:
-        score = UINT_MAX;
-
-      free (bitmap);
-
+      score =
+        compute_hashsize_score (hashcodes, n, hashsize, best_score,
+                                slots, steps);
       if (score < best_score)
         {
           best_score = score;
@@ -293,6 +432,8 @@ compute_hashsize (message_list_ty *mlp, bool *collisionp)
   if (best_hashsize == 0 || best_score < best_hashsize)
     abort ();
 
+  free (steps);
+  free (slots);
   freea (hashcodes);
 
   /* There are collisions if and only if best_score > best_hashsize.  */
@@ -301,6 +442,240 @@ compute_hashsize (message_list_ty *mlp, bool *collisionp)
 }
 
 
+/* A minimal perfect hash function for a set of n hash codes, built with
+   the "hash, displace, and compress" method: a hash code is mapped to one
+   of nbuckets buckets.  Every bucket has a displacement d, which selects
+   the hash function that maps the hash codes of the bucket to positions in
+   the range 0..n-1.  The displacements are chosen such that the n hash
+   codes land in n distinct positions.  Thus a lookup - successful or not -
+   needs a single comparison with a table entry.
+   The hash code is first scrambled with a seed, so that an unlucky set of
+   hash codes can be retried with a different seed.  */
+struct perfect_hash
+{
+  uint32_t seed;
+  unsigned int nbuckets;
+  unsigned int *displacements;
+  unsigned int max_displacement;
+};
+
+/* The average number of hash codes per bucket.  */
+#define PERFECT_HASH_BUCKET_SIZE 4
+
+/* The number of seeds to try before giving up.  */
+#define PERFECT_HASH_SEEDS 16
+
+/* Scrambles the bits of a 32-bit value.  This is the finalizer of
+   MurmurHash3.  The Java code emitted by write_perfect_hash_mix computes
+   the same function.  */
+static uint32_t
+perfect_hash_mix (uint32_t h)
+{
+  h ^= h >> 16;
+  h *= 0x85ebca6bU;
+  h ^= h >> 13;
+  h *= 0xc2b2ae35U;
+  h ^= h >> 16;
+  return h;
+}
+
+/* Returns the scrambled hash code for a hash code.  */
+static uint32_t
+perfect_hash_scramble (const struct perfect_hash *ph, unsigned int hashcode)
+{
+  return perfect_hash_mix ((uint32_t) hashcode ^ ph->seed);
+}
+
+/* Returns the bucket of a scrambled hash code.  */
+static unsigned int
+perfect_hash_bucket (const struct perfect_hash *ph, uint32_t h)
+{
+  return ((uint64_t) h * ph->nbuckets) >> 32;
+}
+
+/* Returns the position of a scrambled hash code in the table of size n,
+   for the displacement d.  */
+static unsigned int
+perfect_hash_displace (uint32_t h, unsigned int d, unsigned int n)
+{
+  h = perfect_hash_mix (h + (d + 1) * 0x9e3779b9U);
+  return ((uint64_t) h * n) >> 32;
+}
+
+/* Returns the position of a hash code in the table of size n.  */
+static unsigned int
+perfect_hash_position (const struct perfect_hash *ph, unsigned int n,
+                       unsigned int hashcode)
+{
+  uint32_t h = perfect_hash_scramble (ph, hashcode);
+
+  return
+    perfect_hash_displace (h, ph->displacements[perfect_hash_bucket (ph, h)],
+                           n);
+}
+
+static int
+compare_hashcode (const void *pval1, const void *pval2)
+{
+  unsigned int h1 = *(const unsigned int *) pval1;
+  unsigned int h2 = *(const unsigned int *) pval2;
+
+  return (h1 > h2) - (h1 < h2);
+}
+
+/* Compute a minimal perfect hash function for the given set of msgids.
+   Return false if there is none, because two msgids have the same hash
+   code, or because no seed led to a solution.  */
+static bool
+compute_perfect_hash (message_list_ty *mlp, struct perfect_hash *ph)
+{
+  unsigned int n = mlp->nitems;
+  unsigned int nbuckets =
+    (n + PERFECT_HASH_BUCKET_SIZE - 1) / PERFECT_HASH_BUCKET_SIZE;
+  /* When the table is nearly full, a bucket with a single hash code needs
+     n tries on average.  Give up at a much larger number of tries.  */
+  unsigned int max_tries = (n < 0x1000000 ? 16 * n + 1024 : UINT_MAX);
+  unsigned int *hashcodes = XNMALLOC (n, unsigned int);
+  uint32_t *scrambled = XNMALLOC (n, uint32_t);
+  unsigned int *buckets = XNMALLOC (n, unsigned int);
+  /* The items, sorted by bucket: the items of bucket b are
+     items[bucket_start[b]] ... items[bucket_start[b + 1] - 1].  */
+  unsigned int *items = XNMALLOC (n, unsigned int);
+  unsigned int *bucket_start = XNMALLOC (nbuckets + 1, unsigned int);
+  /* The buckets, sorted by decreasing size.  */
+  unsigned int *order = XNMALLOC (nbuckets, unsigned int);
+  unsigned int *displacements = XNMALLOC (nbuckets, unsigned int);
+  unsigned int *positions = XNMALLOC (n, unsigned int);
+  char *occupied = XNMALLOC (n, char);
+  unsigned int attempt;
+  bool found = false;
+  size_t j;
+
+  for (j = 0; j < n; j++)
+    hashcodes[j] = msgid_hashcode (mlp->item[j]->msgctxt, mlp->item[j]->msgid);
+
+  /* Messages with the same hash code cannot be separated.  */
+  memcpy (items, hashcodes, n * sizeof (unsigned int));
+  qsort (items, n, sizeof (unsigned int), compare_hashcode);
+  for (j = 1; j < n; j++)
+    if (items[j - 1] == items[j])
+      goto done;
+
+  ph->nbuckets = nbuckets;
+  for (attempt = 0; attempt < PERFECT_HASH_SEEDS && !found; attempt++)
+    {
+      unsigned int max_size;
+      unsigned int b;
+      unsigned int k;
+
+      ph->seed = attempt * 0x9e3779b9U;
+      ph->max_displacement = 0;
+
+      /* Distribute the items into the buckets.  */
+      memset (bucket_start, 0, (nbuckets + 1) * sizeof (unsigned int));
+      for (j = 0; j < n; j++)
+        {
+          scrambled[j] = perfect_hash_scramble (ph, hashcodes[j]);
+          buckets[j] = perfect_hash_bucket (ph, scrambled[j]);
+          bucket_start[buckets[j] + 1]++;
+        }
+      max_size = 0;
+      for (b = 0; b < nbuckets; b++)
+        {
+          if (max_size < bucket_start[b + 1])
+            max_size = bucket_start[b + 1];
+          bucket_start[b + 1] += bucket_start[b];
+        }
+      {
+        unsigned int *fill = XNMALLOC (nbuckets, unsigned int);
+
+        memcpy (fill, bucket_start, nbuckets * sizeof (unsigned int));
+        for (j = 0; j < n; j++)
+          items[fill[buckets[j]]++] = j;
+        free (fill);
+      }
+
+      /* Sort the buckets by decreasing size.  Placing the large buckets
+         first, while the table is mostly empty, keeps the search short.  */
+      k = 0;
+      {
+        unsigned int size;
+
+        for (size = max_size + 1; size-- > 0; )
+          for (b = 0; b < nbuckets; b++)
+            if (bucket_start[b + 1] - bucket_start[b] == size)
+              order[k++] = b;
+      }
+
+      /* Choose the displacements.  */
+      memset (occupied, 0, n);
+      found = true;
+      for (k = 0; k < nbuckets; k++)
+        {
+          unsigned int start;
+          unsigned int end;
+          unsigned int d;
+
+          b = order[k];
+          start = bucket_start[b];
+          end = bucket_start[b + 1];
+          displacements[b] = 0;
+          if (start == end)
+            continue;
+          for (d = 0; d < max_tries; d++)
+            {
+              unsigned int i;
+
+              for (i = start; i < end; i++)
+                {
+                  unsigned int idx = perfect_hash_displace (scrambled[items[i]], d, n);
+                  unsigned int i2;
+
+                  if (occupied[idx])
+                    break;
+                  /* Two items of the same bucket must not land in the same
+                     position either.  */
+                  for (i2 = start; i2 < i; i2++)
+                    if (positions[i2] == idx)
+                      break;
+                  if (i2 < i)
+                    break;
+                  positions[i] = idx;
+                }
+              if (i == end)
+                break;
+            }
+          if (d == max_tries)
+            {
+              /* No displacement works.  Try the next seed.  */
+              found = false;
+              break;
+            }
+          displacements[b] = d;
+          if (ph->max_displacement < d)
+            ph->max_displacement = d;
+          for (j = start; j < end; j++)
+            occupied[positions[j]] = 1;
+        }
+    }
+
+ done:
+  free (occupied);
+  free (positions);
+  free (order);
+  free (bucket_start);
+  free (items);
+  free (buckets);
+  free (scrambled);
+  free (hashcodes);
+  if (found)
+    ph->displacements = displacements;
+  else
+    free (displacements);
+  return found;
+}
+
+
 struct table_item { unsigned int index; message_ty *mp; };
 
 static int
@@ -311,42 +686,54 @@ compare_index (const void *pval1, const void *pval2)
 }
 
 /* Compute the list of messages and table indices, sorted according to the
-   indices.  */
+   indices.  If PH is non-NULL, the indices are given by the perfect hash
+   function PH, and hashsize must be equal to the number of messages.  */
 static struct table_item *
-compute_table_items (message_list_ty *mlp, unsigned int hashsize)
+compute_table_items (message_list_ty *mlp, unsigned int hashsize,
+                     const struct perfect_hash *ph)
 {
   unsigned int n = mlp->nitems;
   struct table_item *arr = XNMALLOC (n, struct table_item);
-  char *bitmap;
-  size_t j;
+  unsigned int j;
 
-  bitmap = XNMALLOC (hashsize, char);
-  memset (bitmap, 0, hashsize);
+  if (ph != NULL)
+    for (j = 0; j < n; j++)
+      {
+        unsigned int hashcode =
+          msgid_hashcode (mlp->item[j]->msgctxt, mlp->item[j]->msgid);
 
-  for (j = 0; j < n; j++)
+        arr[j].index = perfect_hash_position (ph, hashsize, hashcode);
+        arr[j].mp = mlp->item[j];
+      }
+  else
     {
-      unsigned int hashcode =
-        msgid_hashcode (mlp->item[j]->msgctxt, mlp->item[j]->msgid);
-      unsigned int idx = hashcode % hashsize;
+      /* Fill the table in the same way as compute_hashsize did.  */
+      unsigned int *hashcodes = XNMALLOC (n, unsigned int);
+      unsigned int *slots = XCALLOC (hashsize, unsigned int);
+      unsigned int *steps = XNMALLOC (n, unsigned int);
+      unsigned int idx;
 
-      if (bitmap[idx] != 0)
-        {
-          unsigned int incr = 1 + (hashcode % (hashsize - 2));
-          do
-            {
-              idx += incr;
-              if (idx >= hashsize)
-                idx -= hashsize;
-            }
-          while (bitmap[idx] != 0);
-        }
-      bitmap[idx] = 1;
+      for (j = 0; j < n; j++)
+        hashcodes[j] =
+          msgid_hashcode (mlp->item[j]->msgctxt, mlp->item[j]->msgid);
+      for (j = 0; j < n; j++)
+        if (insert_hashcode (hashcodes, hashsize, slots, steps, j)
+            == UINT_MAX)
+          abort ();
 
-      arr[j].index = idx;
-      arr[j].mp = mlp->item[j];
-    }
+      j = 0;
+      for (idx = 0; idx < hashsize; idx++)
+        if (slots[idx] != 0)
+          {
+            arr[j].index = idx;
+            arr[j].mp = mlp->item[slots[idx] - 1];
+            j++;
+          }
 
-  free (bitmap);
+      free (steps);
+      free (slots);
+      free (hashcodes);
+    }
 
   qsort (arr, n, sizeof (arr[0]), compare_index);
 
@@ -354,11 +741,33 @@ compute_table_items (message_list_ty *mlp, unsigned int hashsize)
 }
 
 
+/* Write a UTF-16 code unit, as part of a string literal in Java Unicode
+   notation, to the given stream.  */
+static void
+write_java_char (FILE *stream, unsigned int c)
+{
+  static const char hexdigit[] = "0123456789abcdef";
+
+  if (c == 0x000a)
+    fprintf (stream, "\\n");
+  else if (c == 0x000d)
+    fprintf (stream, "\\r");
+  else if (c == 0x0022)
+    fprintf (stream, "\\\"");
+  else if (c == 0x005c)
+    fprintf (stream, "\\\\");
+  else if (c >= 0x0020 && c < 0x007f)
+    fprintf (stream, "%c", (int) c);
+  else
+    fprintf (stream, "\\u%c%c%c%c",
+             hexdigit[(c >> 12) & 0x0f], hexdigit[(c >> 8) & 0x0f],
+             hexdigit[(c >> 4) & 0x0f], hexdigit[c & 0x0f]);
+}
+
 /* Write a string in Java Unicode notation to the given stream.  */
 static void
 write_java_string (FILE *stream, const char *str)
 {
-  static const char hexdigit[] = "0123456789abcdef";
   const char *str_limit = str + strlen (str);
 
   fprintf (stream, "\"");
@@ -367,34 +776,15 @@ write_java_string (FILE *stream, const char *str)
       ucs4_t uc;
       str += u8_mbtouc (&uc, (const unsigned char *) str, str_limit - str);
       if (uc < 0x10000)
-        {
-          /* Single UCS-2 'char'.  */
-          if (uc == 0x000a)
-            fprintf (stream, "\\n");
-          else if (uc == 0x000d)
-            fprintf (stream, "\\r");
-          else if (uc == 0x0022)
-            fprintf (stream, "\\\"");
-          else if (uc == 0x005c)
-            fprintf (stream, "\\\\");
-          else if (uc >= 0x0020 && uc < 0x007f)
-            fprintf (stream, "%c", (int) uc);
-          else
-            fprintf (stream, "\\u%c%c%c%c",
-                     hexdigit[(uc >> 12) & 0x0f], hexdigit[(uc >> 8) & 0x0f],
-                     hexdigit[(uc >> 4) & 0x0f], hexdigit[uc & 0x0f]);
-        }
+        /* Single UCS-2 'char'.  */
+        write_java_char (stream, uc);
       else
         {
           /* UTF-16 surrogate: two 'char's.  */
           ucs4_t uc1 = 0xd800 + ((uc - 0x10000) >> 10);
           ucs4_t uc2 = 0xdc00 + ((uc - 0x10000) & 0x3ff);
-          fprintf (stream, "\\u%c%c%c%c",
-                   hexdigit[(uc1 >> 12) & 0x0f], hexdigit[(uc1 >> 8) & 0x0f],
-                   hexdigit[(uc1 >> 4) & 0x0f], hexdigit[uc1 & 0x0f]);
-          fprintf (stream, "\\u%c%c%c%c",
-                   hexdigit[(uc2 >> 12) & 0x0f], hexdigit[(uc2 >> 8) & 0x0f],
-                   hexdigit[(uc2 >> 4) & 0x0f], hexdigit[uc2 & 0x0f]);
+          write_java_char (stream, uc1);
+          write_java_char (stream, uc2);
         }
     }
   fprintf (stream, "\"");
@@ -462,41 +852,126 @@ write_java_msgstr (FILE *stream, message_ty *mp)
 }
 
 
+/* Writes Java statements that scramble the bits of the int variable 'h',
+   like perfect_hash_mix does.  */
+static void
+write_perfect_hash_mix (FILE *stream)
+{
+  fprintf (stream, "    h ^= h >>> 16;\n");
+  fprintf (stream, "    h *= 0x85ebca6b;\n");
+  fprintf (stream, "    h ^= h >>> 13;\n");
+  fprintf (stream, "    h *= 0xc2b2ae35;\n");
+  fprintf (stream, "    h ^= h >>> 16;\n");
+}
+
+/* Write the code that computes hash_val, the hash code of the key mod 2^31.
+   The key is msgid, or msgctxt + "\u0004" + msgid if WITH_CONTEXT.  */
+static void
+write_hash_code (FILE *stream, bool with_context)
+{
+  if (with_context)
+    {
+      /* hashCode(s + t) = hashCode(s) * 31^length(t) + hashCode(t).  */
+      fprintf (stream, "    int hash_val = 31 * msgctxt.hashCode() + %d;\n",
+               MSGCTXT_SEPARATOR);
+      fprintf (stream, "    for (int e = msgid.length(), f = 31; e != 0; e >>= 1, f *= f)\n");
+      fprintf (stream, "      if ((e & 1) != 0)\n");
+      fprintf (stream, "        hash_val *= f;\n");
+      fprintf (stream, "    hash_val = (hash_val + msgid.hashCode()) & 0x7fffffff;\n");
+    }
+  else
+    fprintf (stream, "    int hash_val = msgid.hashCode() & 0x7fffffff;\n");
+}
+
+/* Writes the statement that returns the value at position 'idx' of the
+   table, or the position itself if RETURN_INDEX, if the key at this position
+   matches.  The hash codes are compared first, so that the key String is
+   looked at only if they are equal.  */
+static void
+write_probe_code (FILE *stream, const char *indent, bool with_context,
+                  bool return_index)
+{
+  const char *result = (return_index ? "idx" : "values[idx]");
+
+  if (with_context)
+    {
+      fprintf (stream, "%sif (hashes[idx] == hash_val) {\n", indent);
+      fprintf (stream, "%s  java.lang.String found = keys[idx];\n", indent);
+      fprintf (stream, "%s  if (found.length() == key_len"
+                       " && found.charAt(msgctxt_len) == '\\u0004'"
+                       " && found.startsWith(msgctxt) && found.endsWith(msgid))\n",
+               indent);
+      fprintf (stream, "%s    return %s;\n", indent, result);
+      fprintf (stream, "%s}\n", indent);
+    }
+  else
+    {
+      fprintf (stream, "%sif (hashes[idx] == hash_val && msgid.equals(keys[idx]))\n",
+               indent);
+      fprintf (stream, "%s  return %s;\n", indent, result);
+    }
+}
+
 /* Writes the body of the function which returns the local value for a key
-   named 'msgid'.  */
+   named 'msgid', or - if WITH_CONTEXT is true - for a key that consists of
+   'msgctxt', the context separator, and 'msgid'.  In the latter case, the
+   key is neither built nor hashed as a whole: its hash code is computed from
+   the hash codes of 'msgctxt' and 'msgid', which the String objects cache,
+   and the table entries are compared piece by piece.
+   If COMPUTE_HASH is false, the hash code of the key is passed in the
+   'hash_val' parameter.
+   If RETURN_INDEX is true, the function returns the position of the key in
+   the table, or -1, instead of the value.  */
 static void
-write_lookup_code (FILE *stream, unsigned int hashsize, bool collisions)
+write_lookup_code (FILE *stream, unsigned int hashsize, bool collisions,
+                   const struct perfect_hash *ph, bool with_context,
+                   bool compute_hash, bool return_index)
 {
-  fprintf (stream, "    int hash_val = msgid.hashCode() & 0x7fffffff;\n");
-  fprintf (stream, "    int idx = (hash_val %% %d) << 1;\n", hashsize);
+  const char *not_found = (return_index ? "-1" : "null");
+
+  if (with_context)
+    {
+      fprintf (stream, "    int msgctxt_len = msgctxt.length();\n");
+      fprintf (stream, "    int key_len = msgctxt_len + 1 + msgid.length();\n");
+    }
+  if (compute_hash)
+    write_hash_code (stream, with_context);
+  if (ph != NULL)
+    {
+      /* The table is full, and every key has its own position.  */
+      fprintf (stream, "    int h = hash_val ^ 0x%08x;\n", (unsigned int) ph->seed);
+      write_perfect_hash_mix (stream);
+      fprintf (stream, "    h += (displacements[(int) (((h & 0xffffffffL) * %uL) >>> 32)] + 1) * 0x9e3779b9;\n",
+               ph->nbuckets);
+      write_perfect_hash_mix (stream);
+      fprintf (stream, "    int idx = (int) (((h & 0xffffffffL) * %uL) >>> 32);\n",
+               hashsize);
+      write_probe_code (stream, "    ", with_context, return_index);
+      fprintf (stream, "    return %s;\n", not_found);
+      return;
+    }
+  fprintf (stream, "    int idx = hash_val %% %d;\n", hashsize);
   if (collisions)
     {
-      fprintf (stream, "    {\n");
-      fprintf (stream, "      java.lang.Object found = table[idx];\n");
-      fprintf (stream, "      if (found == null)\n");
-      fprintf (stream, "        return null;\n");
-      fprintf (stream, "      if (msgid.equals(found))\n");
-      fprintf (stream, "        return table[idx + 1];\n");
-      fprintf (stream, "    }\n");
-      fprintf (stream, "    int incr = ((hash_val %% %d) + 1) << 1;\n",
-               hashsize - 2);
+      /* A free position has the hash code -1, which is different from
+         every hash_val.  */
+      write_probe_code (stream, "    ", with_context, return_index);
+      fprintf (stream, "    if (hashes[idx] < 0)\n");
+      fprintf (stream, "      return %s;\n", not_found);
+      fprintf (stream, "    int incr = (hash_val %% %d) + 1;\n", hashsize - 2);
       fprintf (stream, "    for (;;) {\n");
       fprintf (stream, "      idx += incr;\n");
-      fprintf (stream, "      if (idx >= %d)\n", 2 * hashsize);
-      fprintf (stream, "        idx -= %d;\n", 2 * hashsize);
-      fprintf (stream, "      java.lang.Object found = table[idx];\n");
-      fprintf (stream, "      if (found == null)\n");
-      fprintf (stream, "        return null;\n");
-      fprintf (stream, "      if (msgid.equals(found))\n");
-      fprintf (stream, "        return table[idx + 1];\n");
+      fprintf (stream, "      if (idx >= %d)\n", hashsize);
+      fprintf (stream, "        idx -= %d;\n", hashsize);
+      write_probe_code (stream, "      ", with_context, return_index);
+      fprintf (stream, "      if (hashes[idx] < 0)\n");
+      fprintf (stream, "        return %s;\n", not_found);
       fprintf (stream, "    }\n");
     }
   else
     {
-      fprintf (stream, "    java.lang.Object found = table[idx];\n");
-      fprintf (stream, "    if (found != null && msgid.equals(found))\n");
-      fprintf (stream, "      return table[idx + 1];\n");
-      fprintf (stream, "    return null;\n");
+      write_probe_code (stream, "    ", with_context, return_index);
+      fprintf (stream, "    return %s;\n", not_found);
     }
 }
 
@@ -747,183 +1222,928 @@ write_java2_init_statements (FILE *stream, message_list_ty *mlp,
     {
       const struct table_item *ti = &table_items[j];
 
-      fprintf (stream, "    t[%d] = ", 2 * ti->index);
+      fprintf (stream, "    k[%d] = ", ti->index);
       write_java_msgid (stream, ti->mp);
       fprintf (stream, ";\n");
-      fprintf (stream, "    t[%d] = ", 2 * ti->index + 1);
+      fprintf (stream, "    v[%d] = ", ti->index);
       write_java_msgstr (stream, ti->mp);
       fprintf (stream, ";\n");
     }
 }
 
 
-/* Write the Java code for the ResourceBundle subclass to the given stream.
-   Note that we use fully qualified class names and no "import" statements,
-   because applications can have their own classes called X.Y.ResourceBundle
-   or X.Y.String.  */
+/* A hash table of messages, for the Java 2 case.  */
+struct java2_table
+{
+  unsigned int hashsize;
+  bool collisions;
+  struct perfect_hash perfect_hash_storage;
+  const struct perfect_hash *ph;
+  /* The messages, sorted according to their index in the table.  */
+  struct table_item *items;
+};
+
+/* Write the declaration and the initialization code of the 'displacements'
+   field of the perfect hash function PH, and free them.  They are encoded in
+   string literals, one char per displacement, or two if some displacement
+   is larger than 0xffff, because an array initializer takes several bytes of
+   bytecode per element.  Each literal must fit in the constant pool, i.e.
+   take at most 65535 bytes in modified UTF-8.  */
 static void
-write_java_code (FILE *stream, const char *class_name, message_list_ty *mlp,
-                 bool assume_java2)
+write_java2_displacements (FILE *stream, const struct perfect_hash *ph)
 {
-  const char *last_dot;
-  unsigned int plurals;
-  size_t j;
-
-  fprintf (stream,
-           "/* Automatically generated by GNU msgfmt.  Do not modify!  */\n");
-  last_dot = strrchr (class_name, '.');
-  if (last_dot != NULL)
+  const unsigned int max_per_literal = 8000;
+  bool wide = (ph->max_displacement > 0xffff);
+  unsigned int b;
+
+  fprintf (stream, "  private static final int[] displacements = new int[%u];\n",
+           ph->nbuckets);
+  fprintf (stream, "  private static void init_displacements (java.lang.String s, int start) {\n");
+  if (wide)
     {
-      fprintf (stream, "package ");
-      fwrite (class_name, 1, last_dot - class_name, stream);
-      fprintf (stream, ";\npublic class %s", last_dot + 1);
+      fprintf (stream, "    for (int i = 0; i < s.length(); i += 2)\n");
+      fprintf (stream, "      displacements[start + (i >> 1)] = (s.charAt(i) << 16) | s.charAt(i + 1);\n");
     }
   else
-    fprintf (stream, "public class %s", class_name);
-  fprintf (stream, " extends java.util.ResourceBundle {\n");
-
-  /* Determine whether there are plural messages.  */
-  plurals = 0;
-  for (j = 0; j < mlp->nitems; j++)
-    if (mlp->item[j]->msgid_plural != NULL)
-      plurals++;
-
-  if (assume_java2)
     {
-      unsigned int hashsize;
-      bool collisions;
-      struct table_item *table_items;
-      const char *table_eltype;
-
-      /* Determine the hash table size and whether it leads to collisions.  */
-      hashsize = compute_hashsize (mlp, &collisions);
+      fprintf (stream, "    for (int i = 0; i < s.length(); i++)\n");
+      fprintf (stream, "      displacements[start + i] = s.charAt(i);\n");
+    }
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  static {\n");
+  for (b = 0; b < ph->nbuckets; b++)
+    {
+      unsigned int d = ph->displacements[b];
+
+      if ((b % max_per_literal) == 0)
+        fprintf (stream, "    init_displacements(\"");
+      if (wide)
+        write_java_char (stream, d >> 16);
+      write_java_char (stream, d & 0xffff);
+      if ((b % max_per_literal) == max_per_literal - 1
+          || b == ph->nbuckets - 1)
+        fprintf (stream, "\", %u);\n", b - (b % max_per_literal));
+    }
+  fprintf (stream, "  }\n");
+  free (ph->displacements);
+}
 
-      /* Determines which indices in the table contain a message.  The others
-         are null.  */
-      table_items = compute_table_items (mlp, hashsize);
+/* Compute the hash table for the messages in MLP.  Write the declaration and
+   the initialization code of the 'hashes', 'keys' and 'values' fields, and
+   of the 'displacements' field if the table uses a perfect hash function.  */
+static void
+write_java2_table (FILE *stream, message_list_ty *mlp,
+                   const char *table_eltype, const char *table_modifiers,
+                   bool perfect_hash, struct java2_table *tp)
+{
+  if (perfect_hash && compute_perfect_hash (mlp, &tp->perfect_hash_storage))
+    {
+      /* The table is full and has no collisions.  */
+      tp->ph = &tp->perfect_hash_storage;
+      tp->hashsize = mlp->nitems;
+      tp->collisions = false;
+    }
+  else
+    {
+      /* Determine the hash table size and whether it leads to
+         collisions.  */
+      tp->ph = NULL;
+      tp->hashsize = compute_hashsize (mlp, &tp->collisions);
+    }
 
-      /* Emit the table of pairs (msgid, msgstr).  If there are plurals,
-         it is of type Object[], otherwise of type String[].  We use a static
-         code block because that makes less code:  The Java compilers also
-         generate code for the 'null' entries, which is dumb.  */
-      table_eltype = (plurals ? "java.lang.Object" : "java.lang.String");
-      fprintf (stream, "  private static final %s[] table;\n", table_eltype);
+  /* Determines which indices in the table contain a message.  The others
+     are null.  */
+  tp->items = compute_table_items (mlp, tp->hashsize, tp->ph);
+
+  /* Emit the table as three parallel arrays: the hash codes of the keys,
+     the keys (msgid), and the values (msgstr).  A lookup compares the hash
+     codes first, so that it rarely needs to look at a key that does not
+     match, and never looks at a value in this case.  The values array is of
+     type Object[] if there are plurals, otherwise of type String[].  We use
+     a static code block because that makes less code:  The Java compilers
+     also generate code for the 'null' entries, which is dumb.  */
+  fprintf (stream, "  %s int[] hashes;\n", table_modifiers);
+  fprintf (stream, "  %s java.lang.String[] keys;\n", table_modifiers);
+  fprintf (stream, "  %s %s[] values;\n", table_modifiers, table_eltype);
+  {
+    /* With the Sun javac compiler, each assignment takes 5 to 8 bytes
+       of bytecode, therefore for each message, up to 16 bytes are needed.
+       Since the bytecode of every method, including the <clinit> method
+       that contains the static initializers, is limited to 64 KB, only ca,
+       65536 / 16 = 4096 messages can be initialized in a single method.
+       Account for other Java compilers and for plurals by limiting it to
+       1000.  */
+    const size_t max_items_per_method = 1000;
+
+    if (mlp->nitems > max_items_per_method)
       {
-        /* With the Sun javac compiler, each assignment takes 5 to 8 bytes
-           of bytecode, therefore for each message, up to 16 bytes are needed.
-           Since the bytecode of every method, including the <clinit> method
-           that contains the static initializers, is limited to 64 KB, only ca,
-           65536 / 16 = 4096 messages can be initialized in a single method.
-           Account for other Java compilers and for plurals by limiting it to
-           1000.  */
-        const size_t max_items_per_method = 1000;
+        unsigned int k;
+        size_t start_j;
+        size_t end_j;
 
-        if (mlp->nitems > max_items_per_method)
+        for (k = 0, start_j = 0, end_j = start_j + max_items_per_method;
+             start_j < mlp->nitems;
+             k++, start_j = end_j, end_j = start_j + max_items_per_method)
           {
-            unsigned int k;
-            size_t start_j;
-            size_t end_j;
-
-            for (k = 0, start_j = 0, end_j = start_j + max_items_per_method;
-                 start_j < mlp->nitems;
-                 k++, start_j = end_j, end_j = start_j + max_items_per_method)
-              {
-                fprintf (stream, "  static void clinit_part_%u (%s[] t) {\n",
-                         k, table_eltype);
-                write_java2_init_statements (stream, mlp, table_items,
-                                             start_j, MIN (end_j, mlp->nitems));
-                fprintf (stream, "  }\n");
-              }
+            fprintf (stream, "  static void clinit_part_%u (java.lang.String[] k, %s[] v) {\n",
+                     k, table_eltype);
+            write_java2_init_statements (stream, mlp, tp->items,
+                                         start_j, MIN (end_j, mlp->nitems));
+            fprintf (stream, "  }\n");
           }
-        fprintf (stream, "  static {\n");
-        fprintf (stream, "    %s[] t = new %s[%d];\n", table_eltype,
-                 table_eltype, 2 * hashsize);
-        if (mlp->nitems > max_items_per_method)
-          {
-            unsigned int k;
-            size_t start_j;
+      }
+    fprintf (stream, "  static {\n");
+    fprintf (stream, "    java.lang.String[] k = new java.lang.String[%d];\n",
+             tp->hashsize);
+    fprintf (stream, "    %s[] v = new %s[%d];\n", table_eltype,
+             table_eltype, tp->hashsize);
+    if (mlp->nitems > max_items_per_method)
+      {
+        unsigned int k;
+        size_t start_j;
 
-            for (k = 0, start_j = 0;
-                 start_j < mlp->nitems;
-                 k++, start_j += max_items_per_method)
-              fprintf (stream, "    clinit_part_%u(t);\n", k);
+        for (k = 0, start_j = 0;
+             start_j < mlp->nitems;
+             k++, start_j += max_items_per_method)
+          fprintf (stream, "    clinit_part_%u(k, v);\n", k);
+      }
+    else
+      write_java2_init_statements (stream, mlp, tp->items, 0, mlp->nitems);
+    /* The hash codes are computed here, not stored in the class file,
+       because every int constant would take an entry in the constant
+       pool.  */
+    fprintf (stream, "    int[] h = new int[%d];\n", tp->hashsize);
+    fprintf (stream, "    for (int i = 0; i < %d; i++)\n", tp->hashsize);
+    fprintf (stream, "      h[i] = (k[i] != null ? k[i].hashCode() & 0x7fffffff : -1);\n");
+    fprintf (stream, "    hashes = h;\n");
+    fprintf (stream, "    keys = k;\n");
+    fprintf (stream, "    values = v;\n");
+    fprintf (stream, "  }\n");
+  }
+
+  if (tp->ph != NULL)
+    write_java2_displacements (stream, tp->ph);
+}
+
+/* Write a statement that returns the msgid_plural strings of the messages
+   in the hash table TP, in the order of the table.  */
+static void
+write_java2_msgid_plurals (FILE *stream, message_list_ty *mlp,
+                           const struct java2_table *tp)
+{
+  bool first;
+  size_t j;
+
+  fprintf (stream, "    return new java.lang.String[] { ");
+  first = true;
+  for (j = 0; j < mlp->nitems; j++)
+    {
+      const struct table_item *ti = &tp->items[j];
+      if (ti->mp->msgid_plural != NULL)
+        {
+          if (!first)
+            fprintf (stream, ", ");
+          write_java_string (stream, ti->mp->msgid_plural);
+          first = false;
+        }
+    }
+  fprintf (stream, " };\n");
+}
+
+
+/* Return the shard that contains the messages with the given hash code,
+   when the table is split into NSHARDS shards.  The hash code is first
+   multiplied with 2^32 / phi, because the hash codes of similar strings,
+   such as "message 1" and "message 2", are close to each other.  The shards
+   partition the range of the result into intervals of equal length.  */
+static unsigned int
+shard_of_hashcode (unsigned int hashcode, unsigned int nshards)
+{
+  uint32_t h = (uint32_t) hashcode * (uint32_t) 0x9e3779b9;
+
+  return (unsigned int) (((uint64_t) h * nshards) >> 32);
+}
+
+/* Write the Java code that computes the shard, corresponding to
+   shard_of_hashcode.  */
+static void
+write_shard_code (FILE *stream, unsigned int nshards)
+{
+  fprintf (stream, "    switch ((int) (((hash_val * 0x9e3779b9) & 0xffffffffL) * %uL >>> 32)) {\n",
+           nshards);
+}
+
+/* Write the Java code for the Java 2 case when the messages are split into
+   NSHARDS shards, according to their hash code.  Every shard is a nested
+   class with its own hash table.  Since a class has its own constant pool,
+   limited to 65535 entries, this allows for more messages than fit in a
+   single class.  And since the JVM loads and initializes a class only when
+   it is first used, a program pays only for the shards that its lookups
+   touch.  */
+static void
+write_java2_sharded_code (FILE *stream, message_list_ty *mlp,
+                          unsigned int nshards, const char *table_eltype,
+                          bool plurals, bool contexts, bool perfect_hash)
+{
+  message_list_ty **shards = XNMALLOC (nshards, message_list_ty *);
+  unsigned int nonempty;
+  unsigned int k;
+  size_t j;
+
+  for (k = 0; k < nshards; k++)
+    shards[k] = message_list_alloc (false);
+  for (j = 0; j < mlp->nitems; j++)
+    {
+      message_ty *mp = mlp->item[j];
+      unsigned int hashcode = msgid_hashcode (mp->msgctxt, mp->msgid);
+
+      message_list_append (shards[shard_of_hashcode (hashcode, nshards)], mp);
+    }
+
+  /* Emit the shard classes.  Empty shards are omitted.  */
+  for (k = 0; k < nshards; k++)
+    if (shards[k]->nitems > 0)
+      {
+        struct java2_table t;
+
+        fprintf (stream, "  private static final class Shard%u {\n", k);
+        write_java2_table (stream, shards[k], table_eltype, "static final",
+                           perfect_hash, &t);
+        fprintf (stream, "  static java.lang.Object lookup (java.lang.String msgid, int hash_val) {\n");
+        write_lookup_code (stream, t.hashsize, t.collisions, t.ph, false,
+                           false, false);
+        fprintf (stream, "  }\n");
+        if (contexts)
+          {
+            fprintf (stream, "  static java.lang.Object lookup (java.lang.String msgctxt, java.lang.String msgid, int hash_val) {\n");
+            write_lookup_code (stream, t.hashsize, t.collisions, t.ph, true,
+                               false, false);
+            fprintf (stream, "  }\n");
+          }
+        if (plurals)
+          {
+            fprintf (stream, "  static java.lang.String[] get_msgid_plural_table () {\n");
+            write_java2_msgid_plurals (stream, shards[k], &t);
+            fprintf (stream, "  }\n");
           }
-        else
-          write_java2_init_statements (stream, mlp, table_items,
-                                       0, mlp->nitems);
-        fprintf (stream, "    table = t;\n");
         fprintf (stream, "  }\n");
+        free (t.items);
       }
 
-      /* Emit the msgid_plural strings.  Only used by msgunfmt.  */
-      if (plurals)
+  /* Emit the msgid_plural strings.  Only used by msgunfmt.  */
+  if (plurals)
+    {
+      fprintf (stream, "  public static final java.lang.String[] get_msgid_plural_table () {\n");
+      fprintf (stream, "    java.lang.String[][] parts = new java.lang.String[][] { ");
+      for (k = 0; k < nshards; k++)
+        if (shards[k]->nitems > 0)
+          fprintf (stream, "Shard%u.get_msgid_plural_table(), ", k);
+      fprintf (stream, "};\n");
+      fprintf (stream, "    int n = 0;\n");
+      fprintf (stream, "    for (int i = 0; i < parts.length; i++)\n");
+      fprintf (stream, "      n += parts[i].length;\n");
+      fprintf (stream, "    java.lang.String[] result = new java.lang.String[n];\n");
+      fprintf (stream, "    n = 0;\n");
+      fprintf (stream, "    for (int i = 0; i < parts.length; i++) {\n");
+      fprintf (stream, "      java.lang.System.arraycopy(parts[i], 0, result, n, parts[i].length);\n");
+      fprintf (stream, "      n += parts[i].length;\n");
+      fprintf (stream, "    }\n");
+      fprintf (stream, "    return result;\n");
+      fprintf (stream, "  }\n");
+    }
+
+  /* Emit the lookup functions.  They determine the shard and delegate to
+     it.  */
+  fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
+  write_hash_code (stream, false);
+  write_shard_code (stream, nshards);
+  for (k = 0; k < nshards; k++)
+    if (shards[k]->nitems > 0)
+      fprintf (stream, "      case %u: return Shard%u.lookup(msgid, hash_val);\n",
+               k, k);
+  fprintf (stream, "      default: return null;\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "  }\n");
+
+  fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgctxt, java.lang.String msgid) {\n");
+  if (contexts)
+    {
+      write_hash_code (stream, true);
+      write_shard_code (stream, nshards);
+      for (k = 0; k < nshards; k++)
+        if (shards[k]->nitems > 0)
+          fprintf (stream, "      case %u: return Shard%u.lookup(msgctxt, msgid, hash_val);\n",
+                   k, k);
+      fprintf (stream, "      default: return null;\n");
+      fprintf (stream, "    }\n");
+    }
+  else
+    fprintf (stream, "    return null;\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the handleGetObject function.  It is declared abstract in
+     ResourceBundle.  It implements a local version of gettext.  */
+  fprintf (stream, "  public java.lang.Object handleGetObject (java.lang.String msgid) throws java.util.MissingResourceException {\n");
+  if (plurals)
+    {
+      fprintf (stream, "    java.lang.Object value = lookup(msgid);\n");
+      fprintf (stream, "    return (value instanceof java.lang.String[] ? ((java.lang.String[])value)[0] : value);\n");
+    }
+  else
+    fprintf (stream, "    return lookup(msgid);\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the getKeys function.  It is declared abstract in ResourceBundle.
+     It enumerates the keys of the non-empty shards one after the other,
+     which is the order of get_msgid_plural_table.  */
+  fprintf (stream, "  static java.lang.String[] shard_keys (int i) {\n");
+  fprintf (stream, "    switch (i) {\n");
+  nonempty = 0;
+  for (k = 0; k < nshards; k++)
+    if (shards[k]->nitems > 0)
+      fprintf (stream, "      case %u: return Shard%u.keys;\n", nonempty++, k);
+  fprintf (stream, "      default: return null;\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  public java.util.Enumeration getKeys () {\n");
+  fprintf (stream, "    return\n");
+  fprintf (stream, "      new java.util.Enumeration() {\n");
+  fprintf (stream, "        private int shard = 0;\n");
+  fprintf (stream, "        private java.lang.String[] keys = shard_keys(0);\n");
+  fprintf (stream, "        private int idx = 0;\n");
+  fprintf (stream, "        { skip(); }\n");
+  fprintf (stream, "        private void skip () {\n");
+  fprintf (stream, "          for (;;) {\n");
+  fprintf (stream, "            while (idx < keys.length && keys[idx] == null) idx++;\n");
+  fprintf (stream, "            if (idx < keys.length || ++shard == %u) break;\n",
+           nonempty);
+  fprintf (stream, "            keys = shard_keys(shard);\n");
+  fprintf (stream, "            idx = 0;\n");
+  fprintf (stream, "          }\n");
+  fprintf (stream, "        }\n");
+  fprintf (stream, "        public boolean hasMoreElements () {\n");
+  fprintf (stream, "          return (shard < %u);\n", nonempty);
+  fprintf (stream, "        }\n");
+  fprintf (stream, "        public java.lang.Object nextElement () {\n");
+  fprintf (stream, "          java.lang.Object key = keys[idx];\n");
+  fprintf (stream, "          idx++;\n");
+  fprintf (stream, "          skip();\n");
+  fprintf (stream, "          return key;\n");
+  fprintf (stream, "        }\n");
+  fprintf (stream, "      };\n");
+  fprintf (stream, "  }\n");
+
+  for (k = 0; k < nshards; k++)
+    message_list_free (shards[k], 2);
+  free (shards);
+}
+
+
+/* The magic number at the beginning of a strings file: "GJS1".  */
+#define STRINGS_FILE_MAGIC 0x474a5331
+
+/* Write a 32-bit integer in big-endian byte order, as read by
+   java.io.DataInputStream.readInt.  */
+static void
+write_u32 (FILE *stream, uint32_t value)
+{
+  putc ((value >> 24) & 0xff, stream);
+  putc ((value >> 16) & 0xff, stream);
+  putc ((value >> 8) & 0xff, stream);
+  putc (value & 0xff, stream);
+}
+
+/* Return the number of plural forms of a message with plural forms.  */
+static unsigned int
+msgstr_forms (const message_ty *mp)
+{
+  unsigned int n = 0;
+  const char *p;
+
+  for (p = mp->msgstr; p < mp->msgstr + mp->msgstr_len; p += strlen (p) + 1)
+    n++;
+  return n;
+}
+
+/* Write the strings file for the messages in the hash table TP of size
+   HASHSIZE.  Its contents, all integers being in big-endian byte order:
+     - The magic number STRINGS_FILE_MAGIC.
+     - The table size HASHSIZE, the number DATALEN of integers of the
+       records, and the number POOLLEN of bytes of the string pool.
+     - HASHSIZE integers: the hash code of the key at each index of the
+       table, or -1 if the entry is free.
+     - HASHSIZE integers: the position of the record of each entry in the
+       records.
+     - DATALEN integers: the records.  A record consists of the start and
+       end of the key in the string pool, the number of plural forms n, or 0
+       if the message has no plural forms, and then the start and end of the
+       msgstr if n = 0, or else the start and end of the msgid_plural and of
+       the n plural forms.
+     - POOLLEN bytes: the string pool, with all keys and values in UTF-8,
+       without terminators.  A key with context consists of the msgctxt,
+       the context separator, and the msgid.  */
+static void
+write_strings_file (FILE *stream, message_list_ty *mlp,
+                    const struct java2_table *tp)
+{
+  unsigned int n = mlp->nitems;
+  uint32_t datalen;
+  uint32_t poollen;
+  uint32_t *records;
+  size_t j;
+
+  /* Compute the position of every record.  */
+  records = XCALLOC (tp->hashsize, uint32_t);
+  datalen = 0;
+  for (j = 0; j < n; j++)
+    {
+      const message_ty *mp = tp->items[j].mp;
+
+      records[tp->items[j].index] = datalen;
+      datalen += 5;
+      if (mp->msgid_plural != NULL)
+        datalen += 2 * msgstr_forms (mp);
+    }
+
+  poollen = 0;
+  for (j = 0; j < n; j++)
+    {
+      const message_ty *mp = tp->items[j].mp;
+
+      poollen += (mp->msgctxt != NULL ? strlen (mp->msgctxt) + 1 : 0)
+                 + strlen (mp->msgid);
+      if (mp->msgid_plural != NULL)
+        poollen += strlen (mp->msgid_plural) + mp->msgstr_len - msgstr_forms (mp);
+      else
+        poollen += mp->msgstr_len - 1;
+    }
+
+  write_u32 (stream, STRINGS_FILE_MAGIC);
+  write_u32 (stream, tp->hashsize);
+  write_u32 (stream, datalen);
+  write_u32 (stream, poollen);
+
+  /* The hash codes.  */
+  {
+    unsigned int idx;
+
+    j = 0;
+    for (idx = 0; idx < tp->hashsize; idx++)
+      if (j < n && tp->items[j].index == idx)
         {
-          bool first;
-          fprintf (stream, "  public static final java.lang.String[] get_msgid_plural_table () {\n");
-          fprintf (stream, "    return new java.lang.String[] { ");
-          first = true;
-          for (j = 0; j < mlp->nitems; j++)
-            {
-              struct table_item *ti = &table_items[j];
-              if (ti->mp->msgid_plural != NULL)
-                {
-                  if (!first)
-                    fprintf (stream, ", ");
-                  write_java_string (stream, ti->mp->msgid_plural);
-                  first = false;
-                }
-            }
-          fprintf (stream, " };\n");
-          fprintf (stream, "  }\n");
+          const message_ty *mp = tp->items[j].mp;
+
+          write_u32 (stream, msgid_hashcode (mp->msgctxt, mp->msgid));
+          j++;
         }
+      else
+        write_u32 (stream, (uint32_t) -1);
 
-      if (plurals)
+    for (idx = 0; idx < tp->hashsize; idx++)
+      write_u32 (stream, records[idx]);
+  }
+
+  /* The records.  */
+  {
+    uint32_t pos = 0;
+
+    for (j = 0; j < n; j++)
+      {
+        const message_ty *mp = tp->items[j].mp;
+        uint32_t key_len =
+          (mp->msgctxt != NULL ? strlen (mp->msgctxt) + 1 : 0)
+          + strlen (mp->msgid);
+
+        write_u32 (stream, pos);
+        pos += key_len;
+        write_u32 (stream, pos);
+        if (mp->msgid_plural != NULL)
+          {
+            const char *p;
+
+            write_u32 (stream, msgstr_forms (mp));
+            write_u32 (stream, pos);
+            pos += strlen (mp->msgid_plural);
+            write_u32 (stream, pos);
+            for (p = mp->msgstr;
+                 p < mp->msgstr + mp->msgstr_len;
+                 p += strlen (p) + 1)
+              {
+                write_u32 (stream, pos);
+                pos += strlen (p);
+                write_u32 (stream, pos);
+              }
+          }
+        else
+          {
+            write_u32 (stream, 0);
+            write_u32 (stream, pos);
+            pos += strlen (mp->msgstr);
+            write_u32 (stream, pos);
+          }
+      }
+    if (pos != poollen)
+      abort ();
+  }
+
+  /* The string pool.  */
+  for (j = 0; j < n; j++)
+    {
+      const message_ty *mp = tp->items[j].mp;
+
+      if (mp->msgctxt != NULL)
         {
-          /* Emit the lookup function.  It is a common subroutine for
-             handleGetObject and ngettext.  */
-          fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
-          write_lookup_code (stream, hashsize, collisions);
-          fprintf (stream, "  }\n");
+          fputs (mp->msgctxt, stream);
+          putc (MSGCTXT_SEPARATOR, stream);
         }
-
-      /* Emit the handleGetObject function.  It is declared abstract in
-         ResourceBundle.  It implements a local version of gettext.  */
-      fprintf (stream, "  public java.lang.Object handleGetObject (java.lang.String msgid) throws java.util.MissingResourceException {\n");
-      if (plurals)
+      fputs (mp->msgid, stream);
+      if (mp->msgid_plural != NULL)
         {
-          fprintf (stream, "    java.lang.Object value = lookup(msgid);\n");
-          fprintf (stream, "    return (value instanceof java.lang.String[] ? ((java.lang.String[])value)[0] : value);\n");
+          const char *p;
+
+          fputs (mp->msgid_plural, stream);
+          for (p = mp->msgstr;
+               p < mp->msgstr + mp->msgstr_len;
+               p += strlen (p) + 1)
+            fputs (p, stream);
         }
       else
-        write_lookup_code (stream, hashsize, collisions);
-      fprintf (stream, "  }\n");
+        fputs (mp->msgstr, stream);
+    }
 
-      /* Emit the getKeys function.  It is declared abstract in ResourceBundle.
-         The inner class is not avoidable.  */
-      fprintf (stream, "  public java.util.Enumeration getKeys () {\n");
-      fprintf (stream, "    return\n");
-      fprintf (stream, "      new java.util.Enumeration() {\n");
-      fprintf (stream, "        private int idx = 0;\n");
-      fprintf (stream, "        { while (idx < %d && table[idx] == null) idx += 2; }\n",
-               2 * hashsize);
-      fprintf (stream, "        public boolean hasMoreElements () {\n");
-      fprintf (stream, "          return (idx < %d);\n", 2 * hashsize);
-      fprintf (stream, "        }\n");
-      fprintf (stream, "        public java.lang.Object nextElement () {\n");
-      fprintf (stream, "          java.lang.Object key = table[idx];\n");
-      fprintf (stream, "          do idx += 2; while (idx < %d && table[idx] == null);\n",
-               2 * hashsize);
-      fprintf (stream, "          return key;\n");
-      fprintf (stream, "        }\n");
-      fprintf (stream, "      };\n");
+  free (records);
+}
+
+/* Write the body of a lookup function for the strings file case.  */
+static void
+write_strings_lookup_code (FILE *stream, const struct java2_table *tp,
+                           bool with_context)
+{
+  const char *matches =
+    (with_context ? "matches(msgctxt, msgid, idx)" : "matches(null, msgid, idx)");
+
+  write_hash_code (stream, with_context);
+  fprintf (stream, "    int idx = hash_val %% %d;\n", tp->hashsize);
+  if (tp->collisions)
+    {
+      fprintf (stream, "    int incr = 0;\n");
+      fprintf (stream, "    for (;;) {\n");
+      fprintf (stream, "      int h = hashes[idx];\n");
+      fprintf (stream, "      if (h < 0)\n");
+      fprintf (stream, "        return null;\n");
+      fprintf (stream, "      if (h == hash_val && %s)\n", matches);
+      fprintf (stream, "        return value(idx);\n");
+      fprintf (stream, "      if (incr == 0)\n");
+      fprintf (stream, "        incr = (hash_val %% %d) + 1;\n",
+               tp->hashsize - 2);
+      fprintf (stream, "      idx += incr;\n");
+      fprintf (stream, "      if (idx >= %d)\n", tp->hashsize);
+      fprintf (stream, "        idx -= %d;\n", tp->hashsize);
+      fprintf (stream, "    }\n");
+    }
+  else
+    {
+      fprintf (stream, "    if (hashes[idx] == hash_val && %s)\n", matches);
+      fprintf (stream, "      return value(idx);\n");
+      fprintf (stream, "    return null;\n");
+    }
+}
+
+/* Write the Java code for the Java 2 case when the strings are stored in a
+   separate strings file, written to STRINGS_STREAM.  The class reads this
+   file when it is initialized, and creates the String objects of a message
+   only when the message is first looked up.  Until then, the strings take
+   only the memory of their UTF-8 encoding, and the lookup compares the
+   UTF-8 bytes directly with the requested key.  */
+static void
+write_java2_strings_code (FILE *stream, FILE *strings_stream,
+                          const char *class_name, message_list_ty *mlp,
+                          unsigned int plurals, bool contexts)
+{
+  const char *last_dot = strrchr (class_name, '.');
+  const char *simple_name = (last_dot != NULL ? last_dot + 1 : class_name);
+  struct java2_table t;
+
+  t.ph = NULL;
+  t.hashsize = compute_hashsize (mlp, &t.collisions);
+  t.items = compute_table_items (mlp, t.hashsize, NULL);
+
+  write_strings_file (strings_stream, mlp, &t);
+
+  /* Emit the fields and the code that reads the strings file.  */
+  fprintf (stream, "  private static final int[] hashes;\n");
+  fprintf (stream, "  private static final int[] records;\n");
+  fprintf (stream, "  private static final int[] data;\n");
+  fprintf (stream, "  private static final byte[] pool;\n");
+  fprintf (stream, "  private static final java.util.concurrent.atomic.AtomicReferenceArray<java.lang.Object> values;\n");
+  fprintf (stream, "  private static final java.nio.charset.Charset UTF8 = java.nio.charset.Charset.forName(\"UTF-8\");\n");
+  fprintf (stream, "  private static int[] read_ints (byte[] b, int start, int n) {\n");
+  fprintf (stream, "    int[] result = new int[n];\n");
+  fprintf (stream, "    for (int i = 0, j = start; i < n; i++, j += 4)\n");
+  fprintf (stream, "      result[i] = (b[j] << 24) | ((b[j + 1] & 0xff) << 16) | ((b[j + 2] & 0xff) << 8) | (b[j + 3] & 0xff);\n");
+  fprintf (stream, "    return result;\n");
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  static {\n");
+  fprintf (stream, "    try {\n");
+  fprintf (stream, "      java.io.InputStream stream = %s.class.getResourceAsStream(\"%s.strings\");\n",
+           simple_name, simple_name);
+  fprintf (stream, "      if (stream == null)\n");
+  fprintf (stream, "        throw new java.io.FileNotFoundException(\"%s.strings\");\n",
+           simple_name);
+  fprintf (stream, "      java.io.DataInputStream in = new java.io.DataInputStream(stream);\n");
+  fprintf (stream, "      try {\n");
+  fprintf (stream, "        if (in.readInt() != 0x%08x)\n", STRINGS_FILE_MAGIC);
+  fprintf (stream, "          throw new java.io.IOException(\"bad magic number\");\n");
+  fprintf (stream, "        int hashsize = in.readInt();\n");
+  fprintf (stream, "        int datalen = in.readInt();\n");
+  fprintf (stream, "        int poollen = in.readInt();\n");
+  fprintf (stream, "        byte[] b = new byte[4 * (2 * hashsize + datalen)];\n");
+  fprintf (stream, "        in.readFully(b);\n");
+  fprintf (stream, "        hashes = read_ints(b, 0, hashsize);\n");
+  fprintf (stream, "        records = read_ints(b, 4 * hashsize, hashsize);\n");
+  fprintf (stream, "        data = read_ints(b, 8 * hashsize, datalen);\n");
+  fprintf (stream, "        pool = new byte[poollen];\n");
+  fprintf (stream, "        in.readFully(pool);\n");
+  fprintf (stream, "        values = new java.util.concurrent.atomic.AtomicReferenceArray<java.lang.Object>(hashsize);\n");
+  fprintf (stream, "      } finally {\n");
+  fprintf (stream, "        in.close();\n");
+  fprintf (stream, "      }\n");
+  fprintf (stream, "    } catch (java.io.IOException e) {\n");
+  fprintf (stream, "      throw new java.util.MissingResourceException(e.toString(), \"%s\", \"\");\n",
+           simple_name);
+  fprintf (stream, "    }\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the function that compares a part of the UTF-8 encoded pool with
+     a String.  */
+  fprintf (stream, "  private static int match (java.lang.String s, int p, int end) {\n");
+  fprintf (stream, "    int n = s.length();\n");
+  fprintf (stream, "    for (int i = 0; i < n; i++) {\n");
+  fprintf (stream, "      if (p >= end)\n");
+  fprintf (stream, "        return -1;\n");
+  fprintf (stream, "      int c = pool[p] & 0xff;\n");
+  fprintf (stream, "      if (c < 0x80)\n");
+  fprintf (stream, "        p += 1;\n");
+  fprintf (stream, "      else if (c < 0xe0) {\n");
+  fprintf (stream, "        c = ((c & 0x1f) << 6) | (pool[p + 1] & 0x3f);\n");
+  fprintf (stream, "        p += 2;\n");
+  fprintf (stream, "      } else if (c < 0xf0) {\n");
+  fprintf (stream, "        c = ((c & 0x0f) << 12) | ((pool[p + 1] & 0x3f) << 6) | (pool[p + 2] & 0x3f);\n");
+  fprintf (stream, "        p += 3;\n");
+  fprintf (stream, "      } else {\n");
+  fprintf (stream, "        c = ((c & 0x07) << 18) | ((pool[p + 1] & 0x3f) << 12) | ((pool[p + 2] & 0x3f) << 6) | (pool[p + 3] & 0x3f);\n");
+  fprintf (stream, "        p += 4;\n");
+  fprintf (stream, "        if (i + 1 == n || s.charAt(i) != (char) (0xd7c0 + (c >> 10)))\n");
+  fprintf (stream, "          return -1;\n");
+  fprintf (stream, "        c = 0xdc00 + (c & 0x3ff);\n");
+  fprintf (stream, "        i++;\n");
+  fprintf (stream, "      }\n");
+  fprintf (stream, "      if (s.charAt(i) != c)\n");
+  fprintf (stream, "        return -1;\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "    return p;\n");
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  private static boolean matches (java.lang.String msgctxt, java.lang.String msgid, int idx) {\n");
+  fprintf (stream, "    int r = records[idx];\n");
+  fprintf (stream, "    int p = data[r];\n");
+  fprintf (stream, "    int end = data[r + 1];\n");
+  fprintf (stream, "    if (msgctxt != null) {\n");
+  fprintf (stream, "      p = match(msgctxt, p, end);\n");
+  fprintf (stream, "      if (p < 0 || p == end || pool[p] != %d)\n",
+           MSGCTXT_SEPARATOR);
+  fprintf (stream, "        return false;\n");
+  fprintf (stream, "      p++;\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "    return match(msgid, p, end) == end;\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the function that creates the value of an entry.  */
+  fprintf (stream, "  private static java.lang.String string (int start, int end) {\n");
+  fprintf (stream, "    return new java.lang.String(pool, start, end - start, UTF8);\n");
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  private static java.lang.Object value (int idx) {\n");
+  fprintf (stream, "    java.lang.Object value = values.get(idx);\n");
+  fprintf (stream, "    if (value == null) {\n");
+  fprintf (stream, "      int r = records[idx];\n");
+  fprintf (stream, "      int n = data[r + 2];\n");
+  fprintf (stream, "      if (n == 0)\n");
+  fprintf (stream, "        value = string(data[r + 3], data[r + 4]);\n");
+  fprintf (stream, "      else {\n");
+  fprintf (stream, "        java.lang.String[] forms = new java.lang.String[n];\n");
+  fprintf (stream, "        for (int i = 0; i < n; i++)\n");
+  fprintf (stream, "          forms[i] = string(data[r + 5 + 2 * i], data[r + 6 + 2 * i]);\n");
+  fprintf (stream, "        value = forms;\n");
+  fprintf (stream, "      }\n");
+  fprintf (stream, "      values.set(idx, value);\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "    return value;\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the msgid_plural strings.  Only used by msgunfmt.  */
+  if (plurals)
+    {
+      fprintf (stream, "  public static final java.lang.String[] get_msgid_plural_table () {\n");
+      fprintf (stream, "    java.lang.String[] result = new java.lang.String[%u];\n",
+               plurals);
+      fprintf (stream, "    int n = 0;\n");
+      fprintf (stream, "    for (int idx = 0; idx < %d; idx++)\n", t.hashsize);
+      fprintf (stream, "      if (hashes[idx] >= 0 && data[records[idx] + 2] > 0)\n");
+      fprintf (stream, "        result[n++] = string(data[records[idx] + 3], data[records[idx] + 4]);\n");
+      fprintf (stream, "    return result;\n");
       fprintf (stream, "  }\n");
     }
+
+  /* Emit the lookup functions.  */
+  fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
+  write_strings_lookup_code (stream, &t, false);
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgctxt, java.lang.String msgid) {\n");
+  if (contexts)
+    write_strings_lookup_code (stream, &t, true);
+  else
+    fprintf (stream, "    return null;\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the handleGetObject function.  It is declared abstract in
+     ResourceBundle.  It implements a local version of gettext.  */
+  fprintf (stream, "  public java.lang.Object handleGetObject (java.lang.String msgid) throws java.util.MissingResourceException {\n");
+  if (plurals)
+    {
+      fprintf (stream, "    java.lang.Object value = lookup(msgid);\n");
+      fprintf (stream, "    return (value instanceof java.lang.String[] ? ((java.lang.String[])value)[0] : value);\n");
+    }
+  else
+    fprintf (stream, "    return lookup(msgid);\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the getKeys function.  It is declared abstract in ResourceBundle.
+     The keys are created on the fly.  */
+  fprintf (stream, "  public java.util.Enumeration getKeys () {\n");
+  fprintf (stream, "    return\n");
+  fprintf (stream, "      new java.util.Enumeration() {\n");
+  fprintf (stream, "        private int idx = 0;\n");
+  fprintf (stream, "        { while (idx < %d && hashes[idx] < 0) idx++; }\n",
+           t.hashsize);
+  fprintf (stream, "        public boolean hasMoreElements () {\n");
+  fprintf (stream, "          return (idx < %d);\n", t.hashsize);
+  fprintf (stream, "        }\n");
+  fprintf (stream, "        public java.lang.Object nextElement () {\n");
+  fprintf (stream, "          int r = records[idx];\n");
+  fprintf (stream, "          do idx++; while (idx < %d && hashes[idx] < 0);\n",
+           t.hashsize);
+  fprintf (stream, "          return string(data[r], data[r + 1]);\n");
+  fprintf (stream, "        }\n");
+  fprintf (stream, "      };\n");
+  fprintf (stream, "  }\n");
+
+  free (t.items);
+}
+
+
+/* Write the Java code for the ResourceBundle subclass to the given stream.
+   Note that we use fully qualified class names and no "import" statements,
+   because applications can have their own classes called X.Y.ResourceBundle
+   or X.Y.String.
+   If STRINGS_STREAM is non-NULL, the strings are written to it instead of
+   being embedded in the Java code.  */
+static void
+write_java_code (FILE *stream, const char *class_name, message_list_ty *mlp,
+                 bool assume_java2, bool java_interface, bool perfect_hash,
+                 unsigned int shard_size, FILE *strings_stream)
+{
+  const char *last_dot;
+  unsigned int plurals;
+  bool contexts;
+  size_t j;
+
+  fprintf (stream,
+           "/* Automatically generated by GNU msgfmt.  Do not modify!  */\n");
+  last_dot = strrchr (class_name, '.');
+  if (last_dot != NULL)
+    {
+      fprintf (stream, "package ");
+      fwrite (class_name, 1, last_dot - class_name, stream);
+      fprintf (stream, ";\npublic class %s", last_dot + 1);
+    }
+  else
+    fprintf (stream, "public class %s", class_name);
+  fprintf (stream, " extends java.util.ResourceBundle");
+  if (java_interface)
+    fprintf (stream, " implements gnu.gettext.GettextCatalog");
+  fprintf (stream, " {\n");
+
+  /* Determine whether there are plural messages and messages with context.  */
+  plurals = 0;
+  contexts = false;
+  for (j = 0; j < mlp->nitems; j++)
+    {
+      if (mlp->item[j]->msgid_plural != NULL)
+        plurals++;
+      if (mlp->item[j]->msgctxt != NULL)
+        contexts = true;
+    }
+
+  if (assume_java2)
+    {
+      const char *table_eltype =
+        (plurals ? "java.lang.Object" : "java.lang.String");
+      unsigned int nshards =
+        (shard_size > 0 ? (mlp->nitems + shard_size - 1) / shard_size : 1);
+
+      if (strings_stream != NULL)
+        write_java2_strings_code (stream, strings_stream, class_name, mlp,
+                                  plurals, contexts);
+      else if (nshards > 1)
+        write_java2_sharded_code (stream, mlp, nshards, table_eltype,
+                                  plurals, contexts, perfect_hash);
+      else
+        {
+          struct java2_table t;
+
+          write_java2_table (stream, mlp, table_eltype, "private static final",
+                             perfect_hash, &t);
+
+          /* Emit the msgid_plural strings.  Only used by msgunfmt.  */
+          if (plurals)
+            {
+              fprintf (stream, "  public static final java.lang.String[] get_msgid_plural_table () {\n");
+              write_java2_msgid_plurals (stream, mlp, &t);
+              fprintf (stream, "  }\n");
+            }
+
+          if (plurals || java_interface)
+            {
+              /* Emit the lookup function.  It is a common subroutine for
+                 handleGetObject and ngettext.  */
+              fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
+              write_lookup_code (stream, t.hashsize, t.collisions, t.ph,
+                                 false, true, false);
+              fprintf (stream, "  }\n");
+            }
+
+          /* Emit the lookup function for a key with context.  It is a common
+             subroutine for pgettext and npgettext.  */
+          fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgctxt, java.lang.String msgid) {\n");
+          if (contexts)
+            write_lookup_code (stream, t.hashsize, t.collisions, t.ph,
+                               true, true, false);
+          else
+            fprintf (stream, "    return null;\n");
+          fprintf (stream, "  }\n");
+
+          /* Emit the handleGetObject function.  It is declared abstract in
+             ResourceBundle.  It implements a local version of gettext.  */
+          fprintf (stream, "  public java.lang.Object handleGetObject (java.lang.String msgid) throws java.util.MissingResourceException {\n");
+          if (plurals)
+            {
+              fprintf (stream, "    java.lang.Object value = lookup(msgid);\n");
+              fprintf (stream, "    return (value instanceof java.lang.String[] ? ((java.lang.String[])value)[0] : value);\n");
+            }
+          else if (java_interface)
+            fprintf (stream, "    return lookup(msgid);\n");
+          else
+            write_lookup_code (stream, t.hashsize, t.collisions, t.ph,
+                               false, true, false);
+          fprintf (stream, "  }\n");
+
+          /* Emit the getKeys function.  It is declared abstract in
+             ResourceBundle.  The inner class is not avoidable.  */
+          fprintf (stream, "  public java.util.Enumeration getKeys () {\n");
+          fprintf (stream, "    return\n");
+          fprintf (stream, "      new java.util.Enumeration() {\n");
+          fprintf (stream, "        private int idx = 0;\n");
+          fprintf (stream, "        { while (idx < %d && keys[idx] == null) idx++; }\n",
+                   t.hashsize);
+          fprintf (stream, "        public boolean hasMoreElements () {\n");
+          fprintf (stream, "          return (idx < %d);\n", t.hashsize);
+          fprintf (stream, "        }\n");
+          fprintf (stream, "        public java.lang.Object nextElement () {\n");
+          fprintf (stream, "          java.lang.Object key = keys[idx];\n");
+          fprintf (stream, "          do idx++; while (idx < %d && keys[idx] == null);\n",
+                   t.hashsize);
+          fprintf (stream, "          return key;\n");
+          fprintf (stream, "        }\n");
+          fprintf (stream, "      };\n");
+          fprintf (stream, "  }\n");
+
+          free (t.items);
+        }
+    }
   else
     {
       /* Java 1.1.x uses a different hash function.  If compatibility with
          this Java version is required, the hash table must be built at run time,
-         not at compile time.  */
-      fprintf (stream, "  private static final java.util.Hashtable table;\n");
+         not at compile time.
+         A java.util.Hashtable takes a lock at each lookup, which is a
+         bottleneck when many threads translate messages at the same time.
+         Therefore the Hashtable is only used during class initialization,
+         to collect the messages, and is then converted to an open addressing
+         hash table with linear probing, in two arrays that are not modified
+         afterwards and can be read without locking.  Its size is a power of
+         2, at least twice the number of messages, so that it always contains
+         a free slot.  */
+      fprintf (stream, "  private static final java.lang.String[] keys;\n");
+      fprintf (stream, "  private static final java.lang.Object[] values;\n");
       {
         /* With the Sun javac compiler, each 'put' call takes 9 to 11 bytes
            of bytecode, therefore for each message, up to 11 bytes are needed.
@@ -965,7 +2185,19 @@ write_java_code (FILE *stream, const char *class_name, message_list_ty *mlp,
           }
         else
           write_java1_init_statements (stream, mlp, 0, mlp->nitems);
-        fprintf (stream, "    table = t;\n");
+        fprintf (stream, "    int size = 1;\n");
+        fprintf (stream, "    while (size < 2 * t.size()) size <<= 1;\n");
+        fprintf (stream, "    java.lang.String[] k = new java.lang.String[size];\n");
+        fprintf (stream, "    java.lang.Object[] v = new java.lang.Object[size];\n");
+        fprintf (stream, "    for (java.util.Enumeration e = t.keys(); e.hasMoreElements(); ) {\n");
+        fprintf (stream, "      java.lang.String key = (java.lang.String) e.nextElement();\n");
+        fprintf (stream, "      int idx = key.hashCode() & (size - 1);\n");
+        fprintf (stream, "      while (k[idx] != null) idx = (idx + 1) & (size - 1);\n");
+        fprintf (stream, "      k[idx] = key;\n");
+        fprintf (stream, "      v[idx] = t.get(key);\n");
+        fprintf (stream, "    }\n");
+        fprintf (stream, "    keys = k;\n");
+        fprintf (stream, "    values = v;\n");
         fprintf (stream, "  }\n");
       }
 
@@ -987,103 +2219,1580 @@ write_java_code (FILE *stream, const char *class_name, message_list_ty *mlp,
           fprintf (stream, "  }\n");
         }
 
-      if (plurals)
-        {
-          /* Emit the lookup function.  It is a common subroutine for
-             handleGetObject and ngettext.  */
-          fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
-          fprintf (stream, "    return table.get(msgid);\n");
-          fprintf (stream, "  }\n");
-        }
-
-      /* Emit the handleGetObject function.  It is declared abstract in
-         ResourceBundle.  It implements a local version of gettext.  */
+      /* Emit the lookup function.  It is a common subroutine for
+         handleGetObject and ngettext.  */
+      fprintf (stream, "  public java.lang.Object lookup (java.lang.String msgid) {\n");
+      fprintf (stream, "    int mask = keys.length - 1;\n");
+      fprintf (stream, "    int idx = msgid.hashCode() & mask;\n");
+      fprintf (stream, "    for (;;) {\n");
+      fprintf (stream, "      java.lang.String key = keys[idx];\n");
+      fprintf (stream, "      if (key == null)\n");
+      fprintf (stream, "        return null;\n");
+      fprintf (stream, "      if (msgid.equals(key))\n");
+      fprintf (stream, "        return values[idx];\n");
+      fprintf (stream, "      idx = (idx + 1) & mask;\n");
+      fprintf (stream, "    }\n");
+      fprintf (stream, "  }\n");
+
+      /* Emit the handleGetObject function.  It is declared abstract in
+         ResourceBundle.  It implements a local version of gettext.  */
       fprintf (stream, "  public java.lang.Object handleGetObject (java.lang.String msgid) throws java.util.MissingResourceException {\n");
       if (plurals)
         {
-          fprintf (stream, "    java.lang.Object value = table.get(msgid);\n");
+          fprintf (stream, "    java.lang.Object value = lookup(msgid);\n");
           fprintf (stream, "    return (value instanceof java.lang.String[] ? ((java.lang.String[])value)[0] : value);\n");
         }
       else
-        fprintf (stream, "    return table.get(msgid);\n");
+        fprintf (stream, "    return lookup(msgid);\n");
       fprintf (stream, "  }\n");
 
       /* Emit the getKeys function.  It is declared abstract in
-         ResourceBundle.  */
+         ResourceBundle.  The inner class is not avoidable.  */
       fprintf (stream, "  public java.util.Enumeration getKeys () {\n");
-      fprintf (stream, "    return table.keys();\n");
+      fprintf (stream, "    return\n");
+      fprintf (stream, "      new java.util.Enumeration() {\n");
+      fprintf (stream, "        private int idx = 0;\n");
+      fprintf (stream, "        { while (idx < keys.length && keys[idx] == null) idx++; }\n");
+      fprintf (stream, "        public boolean hasMoreElements () {\n");
+      fprintf (stream, "          return (idx < keys.length);\n");
+      fprintf (stream, "        }\n");
+      fprintf (stream, "        public java.lang.Object nextElement () {\n");
+      fprintf (stream, "          java.lang.Object key = keys[idx];\n");
+      fprintf (stream, "          do idx++; while (idx < keys.length && keys[idx] == null);\n");
+      fprintf (stream, "          return key;\n");
+      fprintf (stream, "        }\n");
+      fprintf (stream, "      };\n");
       fprintf (stream, "  }\n");
     }
 
-  /* Emit the pluralEval function.  It is a subroutine for ngettext.  */
-  if (plurals)
+  /* Emit the pluralEval function.  It is a subroutine for ngettext.  */
+  if (plurals)
+    {
+      message_ty *header_entry;
+      const struct expression *plural;
+      unsigned long int nplurals;
+
+      header_entry = message_list_search (mlp, NULL, "");
+      extract_plural_expression (header_entry ? header_entry->msgstr : NULL,
+                                 &plural, &nplurals);
+
+      fprintf (stream, "  public static long pluralEval (long n) {\n");
+      fprintf (stream, "    return ");
+      write_java_expression (stream, plural, false);
+      fprintf (stream, ";\n");
+      fprintf (stream, "  }\n");
+    }
+
+  /* Emit the pluralIndex function.  It is the non-static variant of
+     pluralEval, for the GettextCatalog interface.  */
+  if (java_interface)
+    {
+      fprintf (stream, "  public long pluralIndex (long n) {\n");
+      fprintf (stream, "    return %s;\n", plurals ? "pluralEval(n)" : "0");
+      fprintf (stream, "  }\n");
+    }
+
+  /* Emit the getParent function.  It is a subroutine for ngettext.  */
+  fprintf (stream, "  public java.util.ResourceBundle getParent () {\n");
+  fprintf (stream, "    return parent;\n");
+  fprintf (stream, "  }\n");
+
+  fprintf (stream, "}\n");
+}
+
+
+/* The messages of several locales, for a catalog pack.  */
+struct java_pack
+{
+  /* The messages of each locale.  */
+  message_list_ty **mlps;
+  /* The locale names, with underscore separators.  */
+  const char * const *locale_names;
+  size_t nlocales;
+  /* One message per key, from any locale.  */
+  message_list_ty *keys;
+  bool perfect_hash;
+};
+
+/* Write the Java code for a catalog pack, a subclass of
+   gnu.gettext.CatalogPack, to the given stream.  The keys are stored in a
+   single hash table.  The values of each locale are stored in an array, at
+   the same positions as the keys, in a nested class, so that the JVM loads
+   them only when a lookup in this locale needs them.  */
+static void
+write_java_pack_code (FILE *stream, const char *class_name,
+                      FILE *strings_stream, void *data)
+{
+  const struct java_pack *pack = (const struct java_pack *) data;
+  message_list_ty *keys = pack->keys;
+  /* With the Sun javac compiler, each assignment takes 5 to 8 bytes of
+     bytecode.  See write_java2_table.  */
+  const size_t max_items_per_method = 1000;
+  struct java2_table t;
+  bool contexts;
+  const char *last_dot;
+  size_t i;
+  size_t j;
+
+  fprintf (stream,
+           "/* Automatically generated by GNU msgfmt.  Do not modify!  */\n");
+  last_dot = strrchr (class_name, '.');
+  if (last_dot != NULL)
+    {
+      fprintf (stream, "package ");
+      fwrite (class_name, 1, last_dot - class_name, stream);
+      fprintf (stream, ";\npublic class %s", last_dot + 1);
+    }
+  else
+    fprintf (stream, "public class %s", class_name);
+  fprintf (stream, " extends gnu.gettext.CatalogPack {\n");
+
+  contexts = false;
+  for (j = 0; j < keys->nitems; j++)
+    if (keys->item[j]->msgctxt != NULL)
+      contexts = true;
+
+  /* Compute the hash table of the keys, like write_java2_table does.  */
+  if (pack->perfect_hash
+      && compute_perfect_hash (keys, &t.perfect_hash_storage))
+    {
+      t.ph = &t.perfect_hash_storage;
+      t.hashsize = keys->nitems;
+      t.collisions = false;
+    }
+  else
+    {
+      t.ph = NULL;
+      t.hashsize = compute_hashsize (keys, &t.collisions);
+    }
+  t.items = compute_table_items (keys, t.hashsize, t.ph);
+
+  /* Emit the keys and their hash codes.  */
+  fprintf (stream, "  private static final int[] hashes;\n");
+  fprintf (stream, "  private static final java.lang.String[] keys;\n");
+  if (keys->nitems > max_items_per_method)
+    for (i = 0, j = 0; j < keys->nitems; i++, j += max_items_per_method)
+      {
+        size_t end_j = MIN (j + max_items_per_method, keys->nitems);
+        size_t jj;
+
+        fprintf (stream, "  static void clinit_part_%u (java.lang.String[] k) {\n",
+                 (unsigned int) i);
+        for (jj = j; jj < end_j; jj++)
+          {
+            fprintf (stream, "    k[%d] = ", t.items[jj].index);
+            write_java_msgid (stream, t.items[jj].mp);
+            fprintf (stream, ";\n");
+          }
+        fprintf (stream, "  }\n");
+      }
+  fprintf (stream, "  static {\n");
+  fprintf (stream, "    java.lang.String[] k = new java.lang.String[%d];\n",
+           t.hashsize);
+  if (keys->nitems > max_items_per_method)
+    for (i = 0, j = 0; j < keys->nitems; i++, j += max_items_per_method)
+      fprintf (stream, "    clinit_part_%u(k);\n", (unsigned int) i);
+  else
+    for (j = 0; j < keys->nitems; j++)
+      {
+        fprintf (stream, "    k[%d] = ", t.items[j].index);
+        write_java_msgid (stream, t.items[j].mp);
+        fprintf (stream, ";\n");
+      }
+  fprintf (stream, "    int[] h = new int[%d];\n", t.hashsize);
+  fprintf (stream, "    for (int i = 0; i < %d; i++)\n", t.hashsize);
+  fprintf (stream, "      h[i] = (k[i] != null ? k[i].hashCode() & 0x7fffffff : -1);\n");
+  fprintf (stream, "    hashes = h;\n");
+  fprintf (stream, "    keys = k;\n");
+  fprintf (stream, "  }\n");
+  if (t.ph != NULL)
+    write_java2_displacements (stream, t.ph);
+
+  /* Emit the values of each locale.  */
+  for (i = 0; i < pack->nlocales; i++)
+    {
+      message_list_ty *mlp = pack->mlps[i];
+      /* The positions of the messages of this locale in the table.  */
+      struct table_item *items = XNMALLOC (keys->nitems, struct table_item);
+      size_t nitems = 0;
+      size_t k;
+
+      for (j = 0; j < keys->nitems; j++)
+        {
+          message_ty *mp =
+            message_list_search (mlp, t.items[j].mp->msgctxt,
+                                 t.items[j].mp->msgid);
+
+          if (mp != NULL)
+            {
+              items[nitems].index = t.items[j].index;
+              items[nitems].mp = mp;
+              nitems++;
+            }
+        }
+
+      fprintf (stream, "  static final class Column%u {\n", (unsigned int) i);
+      fprintf (stream, "    static final java.lang.Object[] values;\n");
+      if (nitems > max_items_per_method)
+        for (k = 0, j = 0; j < nitems; k++, j += max_items_per_method)
+          {
+            size_t end_j = MIN (j + max_items_per_method, nitems);
+            size_t jj;
+
+            fprintf (stream, "    static void clinit_part_%u (java.lang.Object[] v) {\n",
+                     (unsigned int) k);
+            for (jj = j; jj < end_j; jj++)
+              {
+                fprintf (stream, "      v[%d] = ", items[jj].index);
+                write_java_msgstr (stream, items[jj].mp);
+                fprintf (stream, ";\n");
+              }
+            fprintf (stream, "    }\n");
+          }
+      fprintf (stream, "    static {\n");
+      fprintf (stream, "      java.lang.Object[] v = new java.lang.Object[%d];\n",
+               t.hashsize);
+      if (nitems > max_items_per_method)
+        for (k = 0, j = 0; j < nitems; k++, j += max_items_per_method)
+          fprintf (stream, "      clinit_part_%u(v);\n", (unsigned int) k);
+      else
+        for (j = 0; j < nitems; j++)
+          {
+            fprintf (stream, "      v[%d] = ", items[j].index);
+            write_java_msgstr (stream, items[j].mp);
+            fprintf (stream, ";\n");
+          }
+      fprintf (stream, "      values = v;\n");
+      fprintf (stream, "    }\n");
+      fprintf (stream, "  }\n");
+
+      free (items);
+    }
+
+  /* Emit the locale names.  */
+  fprintf (stream, "  private static final java.lang.String[] localeNames = { ");
+  for (i = 0; i < pack->nlocales; i++)
+    {
+      if (i > 0)
+        fprintf (stream, ", ");
+      write_java_string (stream, pack->locale_names[i]);
+    }
+  fprintf (stream, " };\n");
+  fprintf (stream, "  protected java.lang.String[] getLocaleNameTable () {\n");
+  fprintf (stream, "    return localeNames;\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the lookup functions.  */
+  fprintf (stream, "  public int indexOf (java.lang.String msgid) {\n");
+  write_lookup_code (stream, t.hashsize, t.collisions, t.ph, false, true,
+                     true);
+  fprintf (stream, "  }\n");
+  fprintf (stream, "  public int indexOf (java.lang.String msgctxt, java.lang.String msgid) {\n");
+  if (contexts)
+    write_lookup_code (stream, t.hashsize, t.collisions, t.ph, true, true,
+                       true);
+  else
+    fprintf (stream, "    return -1;\n");
+  fprintf (stream, "  }\n");
+
+  fprintf (stream, "  protected java.lang.String[] getKeyTable () {\n");
+  fprintf (stream, "    return keys;\n");
+  fprintf (stream, "  }\n");
+
+  fprintf (stream, "  protected java.lang.Object[] getValueTable (int column) {\n");
+  fprintf (stream, "    switch (column) {\n");
+  for (i = 0; i < pack->nlocales; i++)
+    fprintf (stream, "      case %u: return Column%u.values;\n",
+             (unsigned int) i, (unsigned int) i);
+  fprintf (stream, "      default: throw new java.lang.IndexOutOfBoundsException();\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "  }\n");
+
+  /* Emit the plural expressions.  */
+  fprintf (stream, "  protected long pluralIndex (int column, long n) {\n");
+  fprintf (stream, "    switch (column) {\n");
+  for (i = 0; i < pack->nlocales; i++)
+    {
+      message_ty *header_entry;
+      const struct expression *plural;
+      unsigned long int nplurals;
+
+      header_entry = message_list_search (pack->mlps[i], NULL, "");
+      extract_plural_expression (header_entry ? header_entry->msgstr : NULL,
+                                 &plural, &nplurals);
+
+      fprintf (stream, "      case %u: return ", (unsigned int) i);
+      write_java_expression (stream, plural, false);
+      fprintf (stream, ";\n");
+    }
+  fprintf (stream, "      default: throw new java.lang.IndexOutOfBoundsException();\n");
+  fprintf (stream, "    }\n");
+  fprintf (stream, "  }\n");
+
+  fprintf (stream, "}\n");
+
+  free (t.items);
+}
+
+
+/* Direct emission of class files, without a Java compiler.  The bytecode
+   is the one that a Java compiler creates from the code that
+   write_java_code writes for the Java 2 case, without perfect hash
+   function, shards or strings file, except that getKeys returns the
+   elements of a java.util.Vector instead of an anonymous inner class.  */
+
+/* The descriptors of the types that the generated code uses.  */
+#define DESC_STRING "Ljava/lang/String;"
+#define DESC_STRING_ARRAY "[Ljava/lang/String;"
+#define DESC_OBJECT "Ljava/lang/Object;"
+#define DESC_OBJECT_ARRAY "[Ljava/lang/Object;"
+
+/* The local variables of the lookup code.  */
+struct lookup_locals
+{
+  unsigned int msgctxt;
+  unsigned int msgid;
+  unsigned int msgctxt_len;
+  unsigned int key_len;
+  unsigned int hash_val;
+  unsigned int e;
+  unsigned int f;
+  unsigned int idx;
+  unsigned int incr;
+  unsigned int found;
+};
+
+/* The class being emitted.  */
+struct java_bytecode_class
+{
+  classfile_ty *cf;
+  /* The class name, with slash separators.  */
+  const char *name;
+  /* The descriptor of the 'values' field.  */
+  const char *values_desc;
+};
+
+/* Emit the bytecode of write_probe_code, with RETURN_INDEX = false.  If the
+   key at position 'idx' does not match, it continues at the label
+   NOT_FOUND.  */
+static void
+emit_probe_code (const struct java_bytecode_class *cp, classfile_code_ty *code,
+                 const struct lookup_locals *lv, bool with_context,
+                 classfile_label_ty not_found)
+{
+  classfile_field (code, OP_GETSTATIC, cp->name, "hashes", "[I");
+  classfile_local (code, OP_ILOAD, lv->idx);
+  classfile_op (code, OP_IALOAD);
+  classfile_local (code, OP_ILOAD, lv->hash_val);
+  classfile_jump (code, OP_IF_ICMPNE, not_found);
+  if (with_context)
+    {
+      classfile_field (code, OP_GETSTATIC, cp->name, "keys",
+                       DESC_STRING_ARRAY);
+      classfile_local (code, OP_ILOAD, lv->idx);
+      classfile_op (code, OP_AALOAD);
+      classfile_local (code, OP_ASTORE, lv->found);
+      /* found.length() == key_len */
+      classfile_local (code, OP_ALOAD, lv->found);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "length", "()I");
+      classfile_local (code, OP_ILOAD, lv->key_len);
+      classfile_jump (code, OP_IF_ICMPNE, not_found);
+      /* found.charAt(msgctxt_len) == '\u0004' */
+      classfile_local (code, OP_ALOAD, lv->found);
+      classfile_local (code, OP_ILOAD, lv->msgctxt_len);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "charAt", "(I)C");
+      classfile_push_int (code, MSGCTXT_SEPARATOR);
+      classfile_jump (code, OP_IF_ICMPNE, not_found);
+      /* found.startsWith(msgctxt) */
+      classfile_local (code, OP_ALOAD, lv->found);
+      classfile_local (code, OP_ALOAD, lv->msgctxt);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "startsWith", "(" DESC_STRING ")Z");
+      classfile_jump (code, OP_IFEQ, not_found);
+      /* found.endsWith(msgid) */
+      classfile_local (code, OP_ALOAD, lv->found);
+      classfile_local (code, OP_ALOAD, lv->msgid);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "endsWith", "(" DESC_STRING ")Z");
+      classfile_jump (code, OP_IFEQ, not_found);
+    }
+  else
+    {
+      /* msgid.equals(keys[idx]) */
+      classfile_local (code, OP_ALOAD, lv->msgid);
+      classfile_field (code, OP_GETSTATIC, cp->name, "keys",
+                       DESC_STRING_ARRAY);
+      classfile_local (code, OP_ILOAD, lv->idx);
+      classfile_op (code, OP_AALOAD);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "equals", "(" DESC_OBJECT ")Z");
+      classfile_jump (code, OP_IFEQ, not_found);
+    }
+  classfile_field (code, OP_GETSTATIC, cp->name, "values", cp->values_desc);
+  classfile_local (code, OP_ILOAD, lv->idx);
+  classfile_op (code, OP_AALOAD);
+  classfile_op (code, OP_ARETURN);
+}
+
+/* Emit the bytecode of write_lookup_code, without perfect hash function,
+   with COMPUTE_HASH = true and RETURN_INDEX = false, in an instance method
+   whose parameters are msgid, or msgctxt and msgid if WITH_CONTEXT.  */
+static void
+emit_lookup_code (const struct java_bytecode_class *cp,
+                  classfile_code_ty *code, unsigned int hashsize,
+                  bool collisions, bool with_context)
+{
+  struct lookup_locals lv;
+  classfile_label_ty not_found;
+
+  if (with_context)
+    {
+      lv.msgctxt = 1;
+      lv.msgid = 2;
+      lv.msgctxt_len = 3;
+      lv.key_len = 4;
+      lv.hash_val = 5;
+      lv.e = 6;
+      lv.f = 7;
+      lv.idx = 8;
+      lv.incr = 9;
+      lv.found = 10;
+
+      /* int msgctxt_len = msgctxt.length(); */
+      classfile_local (code, OP_ALOAD, lv.msgctxt);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "length", "()I");
+      classfile_local (code, OP_ISTORE, lv.msgctxt_len);
+      /* int key_len = msgctxt_len + 1 + msgid.length(); */
+      classfile_local (code, OP_ILOAD, lv.msgctxt_len);
+      classfile_push_int (code, 1);
+      classfile_op (code, OP_IADD);
+      classfile_local (code, OP_ALOAD, lv.msgid);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "length", "()I");
+      classfile_op (code, OP_IADD);
+      classfile_local (code, OP_ISTORE, lv.key_len);
+      /* int hash_val = 31 * msgctxt.hashCode() + MSGCTXT_SEPARATOR; */
+      classfile_push_int (code, 31);
+      classfile_local (code, OP_ALOAD, lv.msgctxt);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "hashCode", "()I");
+      classfile_op (code, OP_IMUL);
+      classfile_push_int (code, MSGCTXT_SEPARATOR);
+      classfile_op (code, OP_IADD);
+      classfile_local (code, OP_ISTORE, lv.hash_val);
+      /* for (int e = msgid.length(), f = 31; e != 0; e >>= 1, f *= f)
+           if ((e & 1) != 0)
+             hash_val *= f;  */
+      {
+        classfile_label_ty loop = classfile_new_label (code);
+        classfile_label_ty skip = classfile_new_label (code);
+        classfile_label_ty done = classfile_new_label (code);
+
+        classfile_local (code, OP_ALOAD, lv.msgid);
+        classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                          "length", "()I");
+        classfile_local (code, OP_ISTORE, lv.e);
+        classfile_push_int (code, 31);
+        classfile_local (code, OP_ISTORE, lv.f);
+        classfile_place_label (code, loop);
+        classfile_local (code, OP_ILOAD, lv.e);
+        classfile_jump (code, OP_IFEQ, done);
+        classfile_local (code, OP_ILOAD, lv.e);
+        classfile_push_int (code, 1);
+        classfile_op (code, OP_IAND);
+        classfile_jump (code, OP_IFEQ, skip);
+        classfile_local (code, OP_ILOAD, lv.hash_val);
+        classfile_local (code, OP_ILOAD, lv.f);
+        classfile_op (code, OP_IMUL);
+        classfile_local (code, OP_ISTORE, lv.hash_val);
+        classfile_place_label (code, skip);
+        classfile_local (code, OP_ILOAD, lv.e);
+        classfile_push_int (code, 1);
+        classfile_op (code, OP_ISHR);
+        classfile_local (code, OP_ISTORE, lv.e);
+        classfile_local (code, OP_ILOAD, lv.f);
+        classfile_local (code, OP_ILOAD, lv.f);
+        classfile_op (code, OP_IMUL);
+        classfile_local (code, OP_ISTORE, lv.f);
+        classfile_jump (code, OP_GOTO, loop);
+        classfile_place_label (code, done);
+      }
+      /* hash_val = (hash_val + msgid.hashCode()) & 0x7fffffff; */
+      classfile_local (code, OP_ILOAD, lv.hash_val);
+      classfile_local (code, OP_ALOAD, lv.msgid);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "hashCode", "()I");
+      classfile_op (code, OP_IADD);
+      classfile_push_int (code, 0x7fffffff);
+      classfile_op (code, OP_IAND);
+      classfile_local (code, OP_ISTORE, lv.hash_val);
+    }
+  else
+    {
+      lv.msgctxt = 0;
+      lv.msgid = 1;
+      lv.msgctxt_len = 0;
+      lv.key_len = 0;
+      lv.hash_val = 2;
+      lv.e = 0;
+      lv.f = 0;
+      lv.idx = 3;
+      lv.incr = 4;
+      lv.found = 0;
+
+      /* int hash_val = msgid.hashCode() & 0x7fffffff; */
+      classfile_local (code, OP_ALOAD, lv.msgid);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                        "hashCode", "()I");
+      classfile_push_int (code, 0x7fffffff);
+      classfile_op (code, OP_IAND);
+      classfile_local (code, OP_ISTORE, lv.hash_val);
+    }
+
+  /* int idx = hash_val % hashsize; */
+  classfile_local (code, OP_ILOAD, lv.hash_val);
+  classfile_push_int (code, hashsize);
+  classfile_op (code, OP_IREM);
+  classfile_local (code, OP_ISTORE, lv.idx);
+
+  not_found = classfile_new_label (code);
+  emit_probe_code (cp, code, &lv, with_context, not_found);
+  classfile_place_label (code, not_found);
+  if (collisions)
+    {
+      classfile_label_ty more = classfile_new_label (code);
+      classfile_label_ty loop = classfile_new_label (code);
+      classfile_label_ty inside = classfile_new_label (code);
+      classfile_label_ty next = classfile_new_label (code);
+
+      /* if (hashes[idx] < 0) return null; */
+      classfile_field (code, OP_GETSTATIC, cp->name, "hashes", "[I");
+      classfile_local (code, OP_ILOAD, lv.idx);
+      classfile_op (code, OP_IALOAD);
+      classfile_jump (code, OP_IFGE, more);
+      classfile_op (code, OP_ACONST_NULL);
+      classfile_op (code, OP_ARETURN);
+      classfile_place_label (code, more);
+      /* int incr = (hash_val % (hashsize - 2)) + 1; */
+      classfile_local (code, OP_ILOAD, lv.hash_val);
+      classfile_push_int (code, hashsize - 2);
+      classfile_op (code, OP_IREM);
+      classfile_push_int (code, 1);
+      classfile_op (code, OP_IADD);
+      classfile_local (code, OP_ISTORE, lv.incr);
+      classfile_place_label (code, loop);
+      /* idx += incr; if (idx >= hashsize) idx -= hashsize; */
+      classfile_local (code, OP_ILOAD, lv.idx);
+      classfile_local (code, OP_ILOAD, lv.incr);
+      classfile_op (code, OP_IADD);
+      classfile_local (code, OP_ISTORE, lv.idx);
+      classfile_local (code, OP_ILOAD, lv.idx);
+      classfile_push_int (code, hashsize);
+      classfile_jump (code, OP_IF_ICMPLT, inside);
+      classfile_local (code, OP_ILOAD, lv.idx);
+      classfile_push_int (code, hashsize);
+      classfile_op (code, OP_ISUB);
+      classfile_local (code, OP_ISTORE, lv.idx);
+      classfile_place_label (code, inside);
+      emit_probe_code (cp, code, &lv, with_context, next);
+      classfile_place_label (code, next);
+      /* if (hashes[idx] < 0) return null; */
+      classfile_field (code, OP_GETSTATIC, cp->name, "hashes", "[I");
+      classfile_local (code, OP_ILOAD, lv.idx);
+      classfile_op (code, OP_IALOAD);
+      classfile_jump (code, OP_IFGE, loop);
+    }
+  classfile_op (code, OP_ACONST_NULL);
+  classfile_op (code, OP_ARETURN);
+}
+
+static void emit_plural_value (classfile_code_ty *code,
+                               const struct expression *exp);
+
+/* Emit the bytecode of write_java_expression, with AS_BOOLEAN = true, as a
+   jump to LABEL if the value of the expression is JUMP_IF.  */
+static void
+emit_plural_condition (classfile_code_ty *code, const struct expression *exp,
+                       bool jump_if, classfile_label_ty label)
+{
+  int opcode;
+
+  switch (exp->operation)
+    {
+    case num:
+      if ((exp->val.num != 0) == jump_if)
+        classfile_jump (code, OP_GOTO, label);
+      return;
+    case lnot:
+      emit_plural_condition (code, exp->val.args[0], !jump_if, label);
+      return;
+    case less_than:
+      opcode = (jump_if ? OP_IFLT : OP_IFGE);
+      break;
+    case greater_than:
+      opcode = (jump_if ? OP_IFGT : OP_IFLE);
+      break;
+    case less_or_equal:
+      opcode = (jump_if ? OP_IFLE : OP_IFGT);
+      break;
+    case greater_or_equal:
+      opcode = (jump_if ? OP_IFGE : OP_IFLT);
+      break;
+    case equal:
+      opcode = (jump_if ? OP_IFEQ : OP_IFNE);
+      break;
+    case not_equal:
+      opcode = (jump_if ? OP_IFNE : OP_IFEQ);
+      break;
+    case land:
+    case lor:
+      if (jump_if == (exp->operation == lor))
+        {
+          emit_plural_condition (code, exp->val.args[0], jump_if, label);
+          emit_plural_condition (code, exp->val.args[1], jump_if, label);
+        }
+      else
+        {
+          /* The result is decided by the second operand, unless the first
+             one decides it in the other way.  */
+          classfile_label_ty skip = classfile_new_label (code);
+
+          emit_plural_condition (code, exp->val.args[0], !jump_if, skip);
+          emit_plural_condition (code, exp->val.args[1], jump_if, label);
+          classfile_place_label (code, skip);
+        }
+      return;
+    case qmop:
+      if (is_expression_boolean (exp->val.args[1])
+          && is_expression_boolean (exp->val.args[2]))
+        {
+          classfile_label_ty other = classfile_new_label (code);
+          classfile_label_ty done = classfile_new_label (code);
+
+          emit_plural_condition (code, exp->val.args[0], false, other);
+          emit_plural_condition (code, exp->val.args[1], jump_if, label);
+          classfile_jump (code, OP_GOTO, done);
+          classfile_place_label (code, other);
+          emit_plural_condition (code, exp->val.args[2], jump_if, label);
+          classfile_place_label (code, done);
+          return;
+        }
+      FALLTHROUGH;
+    case var:
+    case mult:
+    case divide:
+    case module:
+    case plus:
+    case minus:
+      /* (exp != 0) */
+      emit_plural_value (code, exp);
+      classfile_op (code, OP_LCONST_0);
+      classfile_op (code, OP_LCMP);
+      classfile_jump (code, jump_if ? OP_IFNE : OP_IFEQ, label);
+      return;
+    default:
+      abort ();
+    }
+
+  /* A comparison.  */
+  emit_plural_value (code, exp->val.args[0]);
+  emit_plural_value (code, exp->val.args[1]);
+  classfile_op (code, OP_LCMP);
+  classfile_jump (code, opcode, label);
+}
+
+/* Emit the bytecode of write_java_expression, with AS_BOOLEAN = false, in a
+   static method whose parameter is the long 'n'.  */
+static void
+emit_plural_value (classfile_code_ty *code, const struct expression *exp)
+{
+  int opcode;
+
+  switch (exp->operation)
+    {
+    case var:
+      classfile_local (code, OP_LLOAD, 0);
+      return;
+    case num:
+      classfile_push_long (code, exp->val.num);
+      return;
+    case mult:
+      opcode = OP_LMUL;
+      break;
+    case divide:
+      opcode = OP_LDIV;
+      break;
+    case module:
+      opcode = OP_LREM;
+      break;
+    case plus:
+      opcode = OP_LADD;
+      break;
+    case minus:
+      opcode = OP_LSUB;
+      break;
+    case qmop:
+      {
+        classfile_label_ty other = classfile_new_label (code);
+        classfile_label_ty done = classfile_new_label (code);
+
+        emit_plural_condition (code, exp->val.args[0], false, other);
+        emit_plural_value (code, exp->val.args[1]);
+        classfile_jump (code, OP_GOTO, done);
+        classfile_place_label (code, other);
+        emit_plural_value (code, exp->val.args[2]);
+        classfile_place_label (code, done);
+      }
+      return;
+    case lnot:
+    case less_than:
+    case greater_than:
+    case less_or_equal:
+    case greater_or_equal:
+    case equal:
+    case not_equal:
+    case land:
+    case lor:
+      /* (exp ? 1 : 0) */
+      {
+        classfile_label_ty other = classfile_new_label (code);
+        classfile_label_ty done = classfile_new_label (code);
+
+        emit_plural_condition (code, exp, false, other);
+        classfile_op (code, OP_LCONST_1);
+        classfile_jump (code, OP_GOTO, done);
+        classfile_place_label (code, other);
+        classfile_op (code, OP_LCONST_0);
+        classfile_place_label (code, done);
+      }
+      return;
+    default:
+      abort ();
+    }
+
+  /* An arithmetic operation.  */
+  emit_plural_value (code, exp->val.args[0]);
+  emit_plural_value (code, exp->val.args[1]);
+  classfile_op (code, opcode);
+}
+
+/* Emit the bytecode of write_java2_init_statements, in a method whose local
+   variables 0 and 1 are the arrays 'k' and 'v'.  */
+static void
+emit_java2_init_statement (classfile_code_ty *code,
+                           const struct table_item *ti)
+{
+  message_ty *mp = ti->mp;
+
+  /* k[index] = msgid; */
+  classfile_local (code, OP_ALOAD, 0);
+  classfile_push_int (code, ti->index);
+  if (mp->msgctxt != NULL)
+    {
+      char *combined =
+        xasprintf ("%s%c%s", mp->msgctxt, MSGCTXT_SEPARATOR, mp->msgid);
+      classfile_push_string (code, combined);
+      free (combined);
+    }
+  else
+    classfile_push_string (code, mp->msgid);
+  classfile_op (code, OP_AASTORE);
+
+  /* v[index] = msgstr; */
+  classfile_local (code, OP_ALOAD, 1);
+  classfile_push_int (code, ti->index);
+  if (mp->msgid_plural != NULL)
+    {
+      const char *p;
+      int i;
+
+      classfile_push_int (code, msgstr_forms (mp));
+      classfile_type (code, OP_ANEWARRAY, "java/lang/String");
+      for (p = mp->msgstr, i = 0;
+           p < mp->msgstr + mp->msgstr_len;
+           p += strlen (p) + 1, i++)
+        {
+          classfile_op (code, OP_DUP);
+          classfile_push_int (code, i);
+          classfile_push_string (code, p);
+          classfile_op (code, OP_AASTORE);
+        }
+    }
+  else
+    {
+      if (mp->msgstr_len != strlen (mp->msgstr) + 1)
+        abort ();
+      classfile_push_string (code, mp->msgstr);
+    }
+  classfile_op (code, OP_AASTORE);
+}
+
+/* Build the class file of the class CLASS_NAME (with dot separators) for the
+   messages in MLP, like write_java_code does for the Java 2 case.  */
+static classfile_ty *
+java2_classfile (const char *class_name, message_list_ty *mlp,
+                 bool java_interface)
+{
+  /* Like in write_java2_table, the initialization of the table is split
+     into parts of at most 1000 messages.  Here we also know the size of the
+     bytecode, and stay clear of the limit of 64 KB per method.  */
+  const size_t max_items_per_method = 1000;
+  const size_t max_code_per_method = 60000;
+  struct java_bytecode_class c;
+  char *name;
+  char *p;
+  unsigned int plurals;
+  bool contexts;
+  unsigned int hashsize;
+  bool collisions;
+  struct table_item *items;
+  classfile_code_ty **parts;
+  size_t nparts;
+  size_t items_in_part;
+  classfile_code_ty *code;
+  size_t j;
+
+  name = xstrdup (class_name);
+  for (p = name; *p != '\0'; p++)
+    if (*p == '.')
+      *p = '/';
+
+  plurals = 0;
+  contexts = false;
+  for (j = 0; j < mlp->nitems; j++)
+    {
+      if (mlp->item[j]->msgid_plural != NULL)
+        plurals++;
+      if (mlp->item[j]->msgctxt != NULL)
+        contexts = true;
+    }
+
+  c.cf = classfile_create (name, "java/util/ResourceBundle");
+  c.name = name;
+  c.values_desc = (plurals ? DESC_OBJECT_ARRAY : DESC_STRING_ARRAY);
+  if (java_interface)
+    classfile_add_interface (c.cf, "gnu/gettext/GettextCatalog");
+
+  hashsize = compute_hashsize (mlp, &collisions);
+  items = compute_table_items (mlp, hashsize, NULL);
+
+  classfile_add_field (c.cf, ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
+                       "hashes", "[I");
+  classfile_add_field (c.cf, ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
+                       "keys", DESC_STRING_ARRAY);
+  classfile_add_field (c.cf, ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
+                       "values", c.values_desc);
+
+  /* The statements that fill the arrays 'k' and 'v', in parts.  */
+  parts = NULL;
+  nparts = 0;
+  code = NULL;
+  items_in_part = 0;
+  for (j = 0; j < mlp->nitems; j++)
+    {
+      if (code == NULL
+          || items_in_part == max_items_per_method
+          || classfile_code_length (code) >= max_code_per_method)
+        {
+          code = classfile_code_create (c.cf, 2);
+          parts =
+            (classfile_code_ty **)
+            xrealloc (parts, (nparts + 1) * sizeof (classfile_code_ty *));
+          parts[nparts++] = code;
+          items_in_part = 0;
+        }
+      emit_java2_init_statement (code, &items[j]);
+      items_in_part++;
+    }
+
+  /* The static initializer.  */
+  code = classfile_code_create (c.cf, 4);
+  classfile_push_int (code, hashsize);
+  classfile_type (code, OP_ANEWARRAY, "java/lang/String");
+  classfile_local (code, OP_ASTORE, 0);
+  classfile_push_int (code, hashsize);
+  classfile_type (code, OP_ANEWARRAY,
+                  plurals ? "java/lang/Object" : "java/lang/String");
+  classfile_local (code, OP_ASTORE, 1);
+  if (nparts == 1)
+    classfile_append_code (code, parts[0]);
+  else
+    {
+      char *part_desc =
+        xasprintf ("(" DESC_STRING_ARRAY "%s)V", c.values_desc);
+      size_t k;
+
+      for (k = 0; k < nparts; k++)
+        {
+          char *part_name = xasprintf ("clinit_part_%lu", (unsigned long) k);
+
+          classfile_op (parts[k], OP_RETURN);
+          classfile_add_method (c.cf, ACC_STATIC, part_name, part_desc,
+                                parts[k]);
+          classfile_local (code, OP_ALOAD, 0);
+          classfile_local (code, OP_ALOAD, 1);
+          classfile_invoke (code, OP_INVOKESTATIC, name, part_name,
+                            part_desc);
+          free (part_name);
+        }
+      free (part_desc);
+    }
+  free (parts);
+  /* int[] h = new int[hashsize];
+     for (int i = 0; i < hashsize; i++)
+       h[i] = (k[i] != null ? k[i].hashCode() & 0x7fffffff : -1);  */
+  {
+    classfile_label_ty loop = classfile_new_label (code);
+    classfile_label_ty done = classfile_new_label (code);
+    classfile_label_ty null_key = classfile_new_label (code);
+    classfile_label_ty store = classfile_new_label (code);
+
+    classfile_push_int (code, hashsize);
+    classfile_newarray (code, T_INT);
+    classfile_local (code, OP_ASTORE, 2);
+    classfile_push_int (code, 0);
+    classfile_local (code, OP_ISTORE, 3);
+    classfile_place_label (code, loop);
+    classfile_local (code, OP_ILOAD, 3);
+    classfile_push_int (code, hashsize);
+    classfile_jump (code, OP_IF_ICMPGE, done);
+    classfile_local (code, OP_ALOAD, 2);
+    classfile_local (code, OP_ILOAD, 3);
+    classfile_local (code, OP_ALOAD, 0);
+    classfile_local (code, OP_ILOAD, 3);
+    classfile_op (code, OP_AALOAD);
+    classfile_jump (code, OP_IFNULL, null_key);
+    classfile_local (code, OP_ALOAD, 0);
+    classfile_local (code, OP_ILOAD, 3);
+    classfile_op (code, OP_AALOAD);
+    classfile_invoke (code, OP_INVOKEVIRTUAL, "java/lang/String",
+                      "hashCode", "()I");
+    classfile_push_int (code, 0x7fffffff);
+    classfile_op (code, OP_IAND);
+    classfile_jump (code, OP_GOTO, store);
+    classfile_place_label (code, null_key);
+    classfile_push_int (code, -1);
+    classfile_place_label (code, store);
+    classfile_op (code, OP_IASTORE);
+    classfile_iinc (code, 3, 1);
+    classfile_jump (code, OP_GOTO, loop);
+    classfile_place_label (code, done);
+  }
+  classfile_local (code, OP_ALOAD, 2);
+  classfile_field (code, OP_PUTSTATIC, name, "hashes", "[I");
+  classfile_local (code, OP_ALOAD, 0);
+  classfile_field (code, OP_PUTSTATIC, name, "keys", DESC_STRING_ARRAY);
+  classfile_local (code, OP_ALOAD, 1);
+  classfile_field (code, OP_PUTSTATIC, name, "values", c.values_desc);
+  classfile_op (code, OP_RETURN);
+  classfile_add_method (c.cf, ACC_STATIC, "<clinit>", "()V", code);
+
+  /* The constructor.  */
+  code = classfile_code_create (c.cf, 1);
+  classfile_local (code, OP_ALOAD, 0);
+  classfile_invoke (code, OP_INVOKESPECIAL, "java/util/ResourceBundle",
+                    "<init>", "()V");
+  classfile_op (code, OP_RETURN);
+  classfile_add_method (c.cf, ACC_PUBLIC, "<init>", "()V", code);
+
+  /* The msgid_plural strings.  Only used by msgunfmt.  */
+  if (plurals)
+    {
+      unsigned int i;
+
+      code = classfile_code_create (c.cf, 0);
+      classfile_push_int (code, plurals);
+      classfile_type (code, OP_ANEWARRAY, "java/lang/String");
+      for (j = 0, i = 0; j < mlp->nitems; j++)
+        if (items[j].mp->msgid_plural != NULL)
+          {
+            classfile_op (code, OP_DUP);
+            classfile_push_int (code, i++);
+            classfile_push_string (code, items[j].mp->msgid_plural);
+            classfile_op (code, OP_AASTORE);
+          }
+      classfile_op (code, OP_ARETURN);
+      classfile_add_method (c.cf, ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
+                            "get_msgid_plural_table",
+                            "()" DESC_STRING_ARRAY, code);
+    }
+
+  /* The lookup functions.  */
+  if (plurals || java_interface)
+    {
+      code = classfile_code_create (c.cf, 2);
+      emit_lookup_code (&c, code, hashsize, collisions, false);
+      classfile_add_method (c.cf, ACC_PUBLIC, "lookup",
+                            "(" DESC_STRING ")" DESC_OBJECT, code);
+    }
+  code = classfile_code_create (c.cf, 3);
+  if (contexts)
+    emit_lookup_code (&c, code, hashsize, collisions, true);
+  else
+    {
+      classfile_op (code, OP_ACONST_NULL);
+      classfile_op (code, OP_ARETURN);
+    }
+  classfile_add_method (c.cf, ACC_PUBLIC, "lookup",
+                        "(" DESC_STRING DESC_STRING ")" DESC_OBJECT, code);
+
+  /* The handleGetObject function.  */
+  code = classfile_code_create (c.cf, 2);
+  if (plurals)
+    {
+      /* Object value = lookup(msgid);
+         return (value instanceof String[] ? ((String[])value)[0] : value);  */
+      classfile_label_ty single = classfile_new_label (code);
+
+      classfile_local (code, OP_ALOAD, 0);
+      classfile_local (code, OP_ALOAD, 1);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, name, "lookup",
+                        "(" DESC_STRING ")" DESC_OBJECT);
+      classfile_local (code, OP_ASTORE, 2);
+      classfile_local (code, OP_ALOAD, 2);
+      classfile_type (code, OP_INSTANCEOF, DESC_STRING_ARRAY);
+      classfile_jump (code, OP_IFEQ, single);
+      classfile_local (code, OP_ALOAD, 2);
+      classfile_type (code, OP_CHECKCAST, DESC_STRING_ARRAY);
+      classfile_push_int (code, 0);
+      classfile_op (code, OP_AALOAD);
+      classfile_op (code, OP_ARETURN);
+      classfile_place_label (code, single);
+      classfile_local (code, OP_ALOAD, 2);
+      classfile_op (code, OP_ARETURN);
+    }
+  else if (java_interface)
+    {
+      classfile_local (code, OP_ALOAD, 0);
+      classfile_local (code, OP_ALOAD, 1);
+      classfile_invoke (code, OP_INVOKEVIRTUAL, name, "lookup",
+                        "(" DESC_STRING ")" DESC_OBJECT);
+      classfile_op (code, OP_ARETURN);
+    }
+  else
+    emit_lookup_code (&c, code, hashsize, collisions, false);
+  classfile_add_method (c.cf, ACC_PUBLIC, "handleGetObject",
+                        "(" DESC_STRING ")" DESC_OBJECT, code);
+
+  /* The getKeys function.
+     java.util.Vector result = new java.util.Vector();
+     for (int i = 0; i < hashsize; i++)
+       if (keys[i] != null)
+         result.addElement(keys[i]);
+     return result.elements();  */
+  code = classfile_code_create (c.cf, 1);
+  {
+    classfile_label_ty loop = classfile_new_label (code);
+    classfile_label_ty next = classfile_new_label (code);
+    classfile_label_ty done = classfile_new_label (code);
+
+    classfile_type (code, OP_NEW, "java/util/Vector");
+    classfile_op (code, OP_DUP);
+    classfile_invoke (code, OP_INVOKESPECIAL, "java/util/Vector",
+                      "<init>", "()V");
+    classfile_local (code, OP_ASTORE, 1);
+    classfile_push_int (code, 0);
+    classfile_local (code, OP_ISTORE, 2);
+    classfile_place_label (code, loop);
+    classfile_local (code, OP_ILOAD, 2);
+    classfile_push_int (code, hashsize);
+    classfile_jump (code, OP_IF_ICMPGE, done);
+    classfile_field (code, OP_GETSTATIC, name, "keys", DESC_STRING_ARRAY);
+    classfile_local (code, OP_ILOAD, 2);
+    classfile_op (code, OP_AALOAD);
+    classfile_jump (code, OP_IFNULL, next);
+    classfile_local (code, OP_ALOAD, 1);
+    classfile_field (code, OP_GETSTATIC, name, "keys", DESC_STRING_ARRAY);
+    classfile_local (code, OP_ILOAD, 2);
+    classfile_op (code, OP_AALOAD);
+    classfile_invoke (code, OP_INVOKEVIRTUAL, "java/util/Vector",
+                      "addElement", "(" DESC_OBJECT ")V");
+    classfile_place_label (code, next);
+    classfile_iinc (code, 2, 1);
+    classfile_jump (code, OP_GOTO, loop);
+    classfile_place_label (code, done);
+    classfile_local (code, OP_ALOAD, 1);
+    classfile_invoke (code, OP_INVOKEVIRTUAL, "java/util/Vector",
+                      "elements", "()Ljava/util/Enumeration;");
+    classfile_op (code, OP_ARETURN);
+  }
+  classfile_add_method (c.cf, ACC_PUBLIC, "getKeys",
+                        "()Ljava/util/Enumeration;", code);
+
+  /* The pluralEval function.  */
+  if (plurals)
+    {
+      message_ty *header_entry;
+      const struct expression *plural;
+      unsigned long int nplurals;
+
+      header_entry = message_list_search (mlp, NULL, "");
+      extract_plural_expression (header_entry ? header_entry->msgstr : NULL,
+                                 &plural, &nplurals);
+
+      code = classfile_code_create (c.cf, 2);
+      emit_plural_value (code, plural);
+      classfile_op (code, OP_LRETURN);
+      classfile_add_method (c.cf, ACC_PUBLIC | ACC_STATIC, "pluralEval",
+                            "(J)J", code);
+    }
+
+  /* The pluralIndex function.  */
+  if (java_interface)
+    {
+      code = classfile_code_create (c.cf, 3);
+      if (plurals)
+        {
+          classfile_local (code, OP_LLOAD, 1);
+          classfile_invoke (code, OP_INVOKESTATIC, name, "pluralEval",
+                            "(J)J");
+        }
+      else
+        classfile_op (code, OP_LCONST_0);
+      classfile_op (code, OP_LRETURN);
+      classfile_add_method (c.cf, ACC_PUBLIC, "pluralIndex", "(J)J", code);
+    }
+
+  /* The getParent function.  */
+  code = classfile_code_create (c.cf, 1);
+  classfile_local (code, OP_ALOAD, 0);
+  classfile_field (code, OP_GETFIELD, "java/util/ResourceBundle", "parent",
+                   "Ljava/util/ResourceBundle;");
+  classfile_op (code, OP_ARETURN);
+  classfile_add_method (c.cf, ACC_PUBLIC, "getParent",
+                        "()Ljava/util/ResourceBundle;", code);
+
+  free (items);
+  free (name);
+  return c.cf;
+}
+
+
+/* Create the package directories of the class CLASS_NAME (with dot
+   separators) in DIRECTORY, as needed.  Return the file name of the class
+   relative to DIRECTORY, with slash separators and without suffix, or NULL
+   after an error message.  */
+static char *
+create_package_directories (const char *directory, const char *class_name)
+{
+  char *relative = xstrdup (class_name);
+  char *q;
+
+  for (q = relative; (q = strchr (q, '.')) != NULL; q++)
+    {
+      char *dir;
+
+      *q = '\0';
+      dir = xconcatenated_filename (directory, relative, NULL);
+      if (mkdir (dir, S_IRUSR | S_IWUSR | S_IXUSR) < 0 && errno != EEXIST)
+        {
+          error (0, errno, _("failed to create \"%s\""), dir);
+          free (dir);
+          free (relative);
+          return NULL;
+        }
+      free (dir);
+      *q = '/';
+    }
+  return relative;
+}
+
+/* Create the strings file for the class CLASS_NAME (with dot separators) in
+   DIRECTORY, next to the class file, creating the package directories as
+   needed.  Return the file name, or NULL after an error message.  */
+static char *
+create_strings_file (const char *directory, const char *class_name,
+                     FILE **fpp)
+{
+  char *relative = create_package_directories (directory, class_name);
+  char *file_name;
+
+  if (relative == NULL)
+    return NULL;
+  file_name = xconcatenated_filename (directory, relative, ".strings");
+  free (relative);
+
+  *fpp = fopen (file_name, "wb");
+  if (*fpp == NULL)
+    {
+      error (0, errno, _("failed to create \"%s\""), file_name);
+      free (file_name);
+      return NULL;
+    }
+  return file_name;
+}
+
+
+static int
+compare_strings (const void *p1, const void *p2)
+{
+  return strcmp (*(const char * const *) p1, *(const char * const *) p2);
+}
+
+/* Return the new contents of the index of the catalogs of the resource
+   RESOURCE_NAME, freshly allocated, with the classes listed in OLD_DATA of
+   length OLD_LENGTH, the existing index, and the classes CLASS_NAMES (with
+   dot separators).  The index is a text file next to the class files, with
+   the suffix ".catalogs", that lists the class names, one per line, in
+   sorted order.  gnu.gettext.CatalogIndexControl reads it, so that
+   ResourceBundle.getBundle does not search for classes that don't exist.
+   Store the length in *LENGTHP.  */
+static char *
+catalog_index_contents (const char *resource_name,
+                        const char *old_data, size_t old_length,
+                        const string_list_ty *class_names, size_t *lengthp)
+{
+  const char *old_end = old_data + old_length;
+  string_list_ty classes;
+  char *header;
+  char *contents;
+  size_t length;
+  size_t i;
+
+  string_list_init (&classes);
+
+  /* Take the classes of the existing index.  */
+  while (old_data < old_end)
+    {
+      const char *newline =
+        (const char *) memchr (old_data, '\n', old_end - old_data);
+      const char *line_end = (newline != NULL ? newline : old_end);
+      const char *p = line_end;
+
+      /* Remove trailing whitespace.  */
+      while (p > old_data && (p[-1] == ' ' || p[-1] == '\t' || p[-1] == '\r'))
+        p--;
+      if (!(p == old_data || *old_data == '#'))
+        string_list_append_unique_desc (&classes, old_data, p - old_data);
+      old_data = (newline != NULL ? newline + 1 : old_end);
+    }
+
+  for (i = 0; i < class_names->nitems; i++)
+    string_list_append_unique (&classes, class_names->item[i]);
+  qsort (classes.item, classes.nitems, sizeof (classes.item[0]),
+         compare_strings);
+
+  header = xasprintf ("# Catalogs of the resource %s, created by msgfmt.\n",
+                      resource_name);
+  length = strlen (header);
+  for (i = 0; i < classes.nitems; i++)
+    length += strlen (classes.item[i]) + 1;
+  contents = (char *) xmalloc (length);
+  length = strlen (header);
+  memcpy (contents, header, length);
+  for (i = 0; i < classes.nitems; i++)
+    {
+      size_t n = strlen (classes.item[i]);
+
+      memcpy (contents + length, classes.item[i], n);
+      contents[length + n] = '\n';
+      length += n + 1;
+    }
+
+  free (header);
+  string_list_destroy (&classes);
+  *lengthp = length;
+  return contents;
+}
+
+/* Add the classes CLASS_NAMES (with dot separators) to the index of the
+   catalogs of the resource RESOURCE_NAME in DIRECTORY.
+   Return 0 if ok, nonzero after an error message.  */
+static int
+update_catalog_index (const char *directory, const char *resource_name,
+                      const string_list_ty *class_names)
+{
+  char *relative;
+  char *file_name;
+  char *tmp_file_name;
+  char *old_data;
+  size_t old_length;
+  char *contents;
+  size_t length;
+  FILE *fp;
+  int retval;
+
+  relative = create_package_directories (directory, resource_name);
+  if (relative == NULL)
+    return 1;
+  file_name = xconcatenated_filename (directory, relative, ".catalogs");
+  free (relative);
+
+  /* Read the existing index, if any.  */
+  old_data = read_file (file_name, RF_BINARY, &old_length);
+  contents =
+    catalog_index_contents (resource_name,
+                            old_data, (old_data != NULL ? old_length : 0),
+                            class_names, &length);
+  free (old_data);
+
+  /* Write the new index to a temporary file, and replace the old one with
+     it, so that a program never sees an incomplete index.  */
+  retval = 1;
+  tmp_file_name = xasprintf ("%s.tmp", file_name);
+  fp = fopen (tmp_file_name, "w");
+  if (fp == NULL)
+    {
+      error (0, errno, _("failed to create \"%s\""), tmp_file_name);
+      goto done;
+    }
+  fwrite (contents, 1, length, fp);
+  if (fwriteerror (fp))
+    {
+      error (0, errno, _("error while writing \"%s\" file"), tmp_file_name);
+      unlink (tmp_file_name);
+      goto done;
+    }
+  if (rename (tmp_file_name, file_name) < 0)
+    {
+      error (0, errno, _("failed to create \"%s\""), file_name);
+      unlink (tmp_file_name);
+      goto done;
+    }
+  retval = 0;
+
+ done:
+  free (tmp_file_name);
+  free (contents);
+  free (file_name);
+  return retval;
+}
+
+
+/* Writing the classes into a jar file.  */
+
+struct java_jar_output
+{
+  const char *jar_file_name;
+  /* The temporary directory into which the Java compiler writes the
+     classes, or NULL if it was not needed so far.  */
+  struct temp_dir *tmpdir;
+  /* The contents of the jar file.  */
+  java_jar_ty *jar;
+};
+
+java_jar_output_ty *
+java_jar_output_begin (const char *jar_file_name)
+{
+  java_jar_output_ty *jop = XMALLOC (java_jar_output_ty);
+
+  jop->jar_file_name = jar_file_name;
+  jop->tmpdir = NULL;
+  jop->jar = java_jar_open (jar_file_name);
+  if (jop->jar == NULL)
+    {
+      free (jop);
+      return NULL;
+    }
+  return jop;
+}
+
+/* Return the directory into which the Java compiler writes the classes
+   that go into the jar file, creating it the first time.
+   Return NULL after an error message.  */
+static const char *
+java_jar_output_directory (java_jar_output_ty *jop)
+{
+  if (jop->tmpdir == NULL)
+    {
+      jop->tmpdir = create_temp_dir ("msg", NULL, false);
+      if (jop->tmpdir == NULL)
+        return NULL;
+    }
+  return jop->tmpdir->dir_name;
+}
+
+/* Return the name of the jar entry of the class CLASS_NAME (with dot
+   separators) with the suffix SUFFIX, freshly allocated.  */
+static char *
+java_jar_entry_name (const char *class_name, const char *suffix)
+{
+  char *entry_name = xasprintf ("%s%s", class_name, suffix);
+  size_t n = strlen (class_name);
+  size_t i;
+
+  for (i = 0; i < n; i++)
+    if (entry_name[i] == '.')
+      entry_name[i] = '/';
+  return entry_name;
+}
+
+/* Add the class file of the class CLASS_NAME (with dot separators), with
+   the contents DATA of length LENGTH, to the jar file.  */
+static void
+java_jar_output_class (java_jar_output_ty *jop, const char *class_name,
+                       const char *data, size_t length)
+{
+  char *entry_name = java_jar_entry_name (class_name, ".class");
+
+  java_jar_put_entry (jop->jar, entry_name, data, length);
+  free (entry_name);
+}
+
+/* Add the classes CLASS_NAMES (with dot separators) to the index of the
+   catalogs of the resource RESOURCE_NAME in the jar file, like
+   update_catalog_index.  Return 0 if ok, nonzero after an error message.  */
+static int
+java_jar_output_catalog_index (java_jar_output_ty *jop,
+                               const char *resource_name,
+                               const string_list_ty *class_names)
+{
+  char *entry_name = java_jar_entry_name (resource_name, ".catalogs");
+  char *old_data;
+  size_t old_length;
+  char *contents;
+  size_t length;
+  int ret;
+
+  ret = java_jar_get_entry (jop->jar, entry_name, &old_data, &old_length);
+  if (ret < 0)
     {
-      message_ty *header_entry;
-      const struct expression *plural;
-      unsigned long int nplurals;
+      free (entry_name);
+      return 1;
+    }
+  if (ret > 0)
+    {
+      old_data = NULL;
+      old_length = 0;
+    }
+  contents = catalog_index_contents (resource_name, old_data, old_length,
+                                     class_names, &length);
+  java_jar_put_entry (jop->jar, entry_name, contents, length);
+  free (contents);
+  free (old_data);
+  free (entry_name);
+  return 0;
+}
 
-      header_entry = message_list_search (mlp, NULL, "");
-      extract_plural_expression (header_entry ? header_entry->msgstr : NULL,
-                                 &plural, &nplurals);
+/* Return the time stamp of the entries of the jar file.  Support for
+   "reproducible builds": It is the value of the environment variable
+   SOURCE_DATE_EPOCH, if set, otherwise a fixed time, so that it does not
+   vary between builds in the same conditions.  */
+static time_t
+java_jar_timestamp (void)
+{
+  const char *value = getenv ("SOURCE_DATE_EPOCH");
 
-      fprintf (stream, "  public static long pluralEval (long n) {\n");
-      fprintf (stream, "    return ");
-      write_java_expression (stream, plural, false);
-      fprintf (stream, ";\n");
-      fprintf (stream, "  }\n");
+  if (value != NULL && value[0] != '\0')
+    {
+      char *endp;
+      unsigned long long seconds;
+
+      errno = 0;
+      seconds = strtoull (value, &endp, 10);
+      if (*endp == '\0' && errno == 0 && seconds == (time_t) seconds)
+        return (time_t) seconds;
     }
+  /* 1980-01-01 00:00:00 UTC, the earliest time of the jar file format.  */
+  return 315532800;
+}
 
-  /* Emit the getParent function.  It is a subroutine for ngettext.  */
-  fprintf (stream, "  public java.util.ResourceBundle getParent () {\n");
-  fprintf (stream, "    return parent;\n");
-  fprintf (stream, "  }\n");
+int
+java_jar_output_end (java_jar_output_ty *jop, bool write)
+{
+  int retval = 0;
 
-  fprintf (stream, "}\n");
+  /* Take the files out of the temporary directory, also when they are not
+     needed, so that it can be removed.  */
+  if (jop->tmpdir != NULL)
+    {
+      if (java_jar_add_directory (jop->jar, jop->tmpdir->dir_name, true))
+        retval = 1;
+      cleanup_temp_dir (jop->tmpdir);
+    }
+  if (write && retval == 0
+      && java_jar_write (jop->jar, jop->jar_file_name, java_jar_timestamp ()))
+    retval = 1;
+
+  java_jar_free (jop->jar);
+  free (jop);
+  return retval;
 }
 
 
-int
-msgdomain_write_java (message_list_ty *mlp, const char *canon_encoding,
-                      const char *resource_name, const char *locale_name,
-                      const char *directory,
-                      bool assume_java2,
-                      bool output_source)
+/* A function that writes the Java code of the class CLASS_NAME to STREAM.
+   If STRINGS_STREAM is non-NULL, the strings are written to it instead of
+   being embedded in the Java code.  DATA describes the messages.  */
+typedef void (*java_code_writer_ty) (FILE *stream, const char *class_name,
+                                     FILE *strings_stream, void *data);
+
+/* A batch of Java classes of the same resource, whose sources are written
+   into the same directory and compiled together, so that the Java compiler
+   is started only once.  */
+struct java_batch
 {
-  int retval;
+  const char *resource_name;
+  const char *directory;
+  /* The jar file into which the classes go, or NULL.  */
+  java_jar_output_ty *jar;
+  bool needs_libintl;
+  bool catalog_index;
+  bool output_source;
+  /* The temporary directory of the sources, or NULL if OUTPUT_SOURCE.  */
   struct temp_dir *tmpdir;
+  /* The package directories of the sources.  */
   int ndots;
-  char *class_name;
   char **subdirs;
-  char *java_file_name;
-  FILE *java_file;
-  const char *java_sources[1];
+  /* The directory of the sources, and the last component of
+     RESOURCE_NAME.  */
+  const char *last_dir;
+  const char *base_name;
+  /* The Java files written so far.  */
+  string_list_ty java_files;
+  /* The strings files written so far.  */
+  string_list_ty strings_files;
+  /* The names of the classes written so far.  */
+  string_list_ty class_names;
+};
+
+/* Start a batch of classes for the resource RESOURCE_NAME, that are
+   compiled into DIRECTORY, or, if OUTPUT_SOURCE, whose Java sources are
+   stored in DIRECTORY.  If JAR is non-NULL, the classes go into this jar
+   file instead of DIRECTORY.  If NEEDS_LIBINTL, the classes use classes
+   from libintl.jar.  If CATALOG_INDEX, the classes are added to the index
+   of the catalogs of the resource.  If BYTECODE, the classes are instead
+   written directly into DIRECTORY or JAR, through java_batch_add_classfile.
+   Return 0 if ok, nonzero after an error message.  */
+static int
+java_batch_begin (struct java_batch *bp,
+                  const char *resource_name, const char *directory,
+                  java_jar_output_ty *jar,
+                  bool needs_libintl, bool catalog_index, bool bytecode,
+                  bool output_source)
+{
   const char *source_dir_name;
+  int ndots;
 
-  /* If no entry for this resource/domain, don't even create the file.  */
-  if (mlp->nitems == 0)
-    return 0;
-
-  retval = 1;
-
-  /* Convert the messages to Unicode.  */
-  iconv_message_list (mlp, canon_encoding, po_charset_utf8, NULL);
-
-  /* Support for "reproducible builds": Delete information that may vary
-     between builds in the same conditions.  */
-  message_list_delete_header_field (mlp, "POT-Creation-Date:");
+  /* The Java compiler writes the classes into a temporary directory, from
+     where they go into the jar file.  The class files that are written
+     directly go into the jar file from memory.  */
+  if (jar != NULL)
+    {
+      if (bytecode)
+        directory = NULL;
+      else
+        {
+          directory = java_jar_output_directory (jar);
+          if (directory == NULL)
+            return 1;
+        }
+    }
 
-  if (output_source)
+  if (output_source || bytecode)
     {
-      tmpdir = NULL;
+      bp->tmpdir = NULL;
       source_dir_name = directory;
     }
   else
     {
-      /* Create a temporary directory where we can put the Java file.  */
-      tmpdir = create_temp_dir ("msg", NULL, false);
-      if (tmpdir == NULL)
-        goto quit1;
-      source_dir_name = tmpdir->dir_name;
+      /* Create a temporary directory where we can put the Java files.  */
+      bp->tmpdir = create_temp_dir ("msg", NULL, false);
+      if (bp->tmpdir == NULL)
+        return 1;
+      source_dir_name = bp->tmpdir->dir_name;
     }
 
   /* Assign a default value to the resource name.  */
@@ -1095,15 +3804,24 @@ msgdomain_write_java (message_list_ty *mlp, const char *canon_encoding,
   if (ndots < 0)
     {
       error (0, 0, _("not a valid Java class name: %s"), resource_name);
-      goto quit2;
+      if (bp->tmpdir != NULL)
+        cleanup_temp_dir (bp->tmpdir);
+      return 1;
     }
 
-  if (locale_name != NULL)
-    class_name = xasprintf ("%s_%s", resource_name, locale_name);
-  else
-    class_name = xstrdup (resource_name);
+  bp->resource_name = resource_name;
+  bp->directory = directory;
+  bp->jar = jar;
+  bp->needs_libintl = needs_libintl;
+  bp->catalog_index = catalog_index;
+  bp->output_source = output_source;
+  /* With BYTECODE, there are no sources, and no package directories are
+     needed for them.  */
+  if (bytecode)
+    ndots = 0;
+  bp->ndots = ndots;
+  bp->subdirs = (ndots > 0 ? XNMALLOC (ndots, char *) : NULL);
 
-  subdirs = (ndots > 0 ? (char **) xmalloca (ndots * sizeof (char *)) : NULL);
   {
     const char *p;
     const char *last_dir;
@@ -1118,123 +3836,520 @@ msgdomain_write_java (message_list_ty *mlp, const char *canon_encoding,
         char *part = (char *) xmalloca (n + 1);
         memcpy (part, p, n);
         part[n] = '\0';
-        subdirs[i] = xconcatenated_filename (last_dir, part, NULL);
+        bp->subdirs[i] = xconcatenated_filename (last_dir, part, NULL);
         freea (part);
-        last_dir = subdirs[i];
+        last_dir = bp->subdirs[i];
         p = q + 1;
       }
-
-    if (locale_name != NULL)
-      {
-        char *suffix = xasprintf ("_%s.java", locale_name);
-        java_file_name = xconcatenated_filename (last_dir, p, suffix);
-        free (suffix);
-      }
-    else
-      java_file_name = xconcatenated_filename (last_dir, p, ".java");
+    bp->last_dir = last_dir;
+    bp->base_name = p;
   }
 
-  /* If OUTPUT_SOURCE, write the Java file in DIRECTORY and return.  */
-  if (output_source)
+  /* Create the subdirectories.  In the temporary directory, this is needed
+     because some older Java compilers verify that the source of class A.B.C
+     really sits in a directory whose name ends in /A/B.  */
+  if (!bytecode)
     {
       int i;
 
       for (i = 0; i < ndots; i++)
         {
-          if (mkdir (subdirs[i], S_IRUSR | S_IWUSR | S_IXUSR) < 0)
+          if (bp->tmpdir != NULL)
+            register_temp_subdir (bp->tmpdir, bp->subdirs[i]);
+          if (mkdir (bp->subdirs[i], S_IRUSR | S_IWUSR | S_IXUSR) < 0)
             {
-              error (0, errno, _("failed to create \"%s\""), subdirs[i]);
-              goto quit3;
+              error (0, errno, _("failed to create \"%s\""),
+                     bp->subdirs[i]);
+              if (bp->tmpdir != NULL)
+                unregister_temp_subdir (bp->tmpdir, bp->subdirs[i]);
+              for (i = 0; i < ndots; i++)
+                free (bp->subdirs[i]);
+              free (bp->subdirs);
+              if (bp->tmpdir != NULL)
+                cleanup_temp_dir (bp->tmpdir);
+              return 1;
             }
         }
+    }
 
-      java_file = fopen (java_file_name, "w");
-      if (java_file == NULL)
-        {
-          error (0, errno, _("failed to create \"%s\""), java_file_name);
-          goto quit3;
-        }
+  string_list_init (&bp->java_files);
+  string_list_init (&bp->strings_files);
+  string_list_init (&bp->class_names);
+  return 0;
+}
 
-      write_java_code (java_file, class_name, mlp, assume_java2);
+/* Write the Java source of the class for the locale LOCALE_NAME (or NULL)
+   through WRITE_CODE, and add it to the batch.
+   Return 0 if ok, nonzero after an error message.  */
+static int
+java_batch_add (struct java_batch *bp, const char *locale_name,
+                bool separate_strings,
+                java_code_writer_ty write_code, void *data)
+{
+  int retval;
+  char *class_name;
+  char *java_file_name;
+  FILE *java_file;
+  char *strings_file_name;
+  FILE *strings_file;
 
-      if (fwriteerror (java_file))
-        {
-          error (0, errno, _("error while writing \"%s\" file"),
-                 java_file_name);
-          goto quit3;
-        }
+  retval = 1;
+  strings_file_name = NULL;
+  strings_file = NULL;
 
-      retval = 0;
-      goto quit3;
+  if (locale_name != NULL)
+    {
+      char *suffix = xasprintf ("_%s.java", locale_name);
+      class_name = xasprintf ("%s_%s", bp->resource_name, locale_name);
+      java_file_name =
+        xconcatenated_filename (bp->last_dir, bp->base_name, suffix);
+      free (suffix);
+    }
+  else
+    {
+      class_name = xstrdup (bp->resource_name);
+      java_file_name =
+        xconcatenated_filename (bp->last_dir, bp->base_name, ".java");
     }
 
-  /* Create the subdirectories.  This is needed because some older Java
-     compilers verify that the source of class A.B.C really sits in a
-     directory whose name ends in /A/B.  */
-  {
-    int i;
-
-    for (i = 0; i < ndots; i++)
-      {
-        register_temp_subdir (tmpdir, subdirs[i]);
-        if (mkdir (subdirs[i], S_IRUSR | S_IWUSR | S_IXUSR) < 0)
-          {
-            error (0, errno, _("failed to create \"%s\""), subdirs[i]);
-            unregister_temp_subdir (tmpdir, subdirs[i]);
-            goto quit3;
-          }
-      }
-  }
+  /* Create the strings file.  It goes directly into the output
+     directory.  */
+  if (separate_strings)
+    {
+      strings_file_name =
+        create_strings_file (bp->directory, class_name, &strings_file);
+      if (strings_file_name == NULL)
+        goto quit;
+    }
 
   /* Create the Java file.  */
-  register_temp_file (tmpdir, java_file_name);
-  java_file = fopen_temp (java_file_name, "w", false);
+  if (bp->tmpdir != NULL)
+    {
+      register_temp_file (bp->tmpdir, java_file_name);
+      java_file = fopen_temp (java_file_name, "w", false);
+    }
+  else
+    java_file = fopen (java_file_name, "w");
   if (java_file == NULL)
     {
       error (0, errno, _("failed to create \"%s\""), java_file_name);
-      unregister_temp_file (tmpdir, java_file_name);
-      goto quit3;
+      if (bp->tmpdir != NULL)
+        unregister_temp_file (bp->tmpdir, java_file_name);
+      goto quit;
     }
 
-  write_java_code (java_file, class_name, mlp, assume_java2);
+  write_code (java_file, class_name, strings_file, data);
 
-  if (fwriteerror_temp (java_file))
+  if (bp->tmpdir != NULL
+      ? fwriteerror_temp (java_file)
+      : fwriteerror (java_file))
     {
       error (0, errno, _("error while writing \"%s\" file"), java_file_name);
-      goto quit3;
+      goto quit;
+    }
+  if (strings_file != NULL)
+    {
+      FILE *fp = strings_file;
+
+      strings_file = NULL;
+      if (fwriteerror (fp))
+        {
+          error (0, errno, _("error while writing \"%s\" file"),
+                 strings_file_name);
+          goto quit;
+        }
     }
 
-  /* Compile the Java file to a .class file.
-     directory must be non-NULL, because when the -d option is omitted, the
-     Java compilers create the class files in the source file's directory -
-     which is in a temporary directory in our case.  */
-  java_sources[0] = java_file_name;
-  if (compile_java_class (java_sources, 1, NULL, 0, "1.5", "1.6", directory,
-                          true, false, true, verbose > 0))
+  string_list_append (&bp->java_files, java_file_name);
+  if (strings_file_name != NULL)
+    string_list_append (&bp->strings_files, strings_file_name);
+  string_list_append (&bp->class_names, class_name);
+  retval = 0;
+
+ quit:
+  if (strings_file_name != NULL)
     {
-      if (!verbose)
-        error (0, 0,
-               _("compilation of Java class failed, please try --verbose or set $JAVAC"));
-      else
-        error (0, 0,
-               _("compilation of Java class failed, please try to set $JAVAC"));
-      goto quit3;
+      if (strings_file != NULL)
+        fclose (strings_file);
+      if (retval != 0)
+        unlink (strings_file_name);
+      free (strings_file_name);
+    }
+  free (java_file_name);
+  free (class_name);
+  return retval;
+}
+
+/* Write the class file of the class for the locale LOCALE_NAME (or NULL)
+   with the messages in MLP directly into the output directory or jar file,
+   and add it to the batch.  Return 0 if ok, nonzero after an error
+   message.  */
+static int
+java_batch_add_classfile (struct java_batch *bp, const char *locale_name,
+                          message_list_ty *mlp, bool java_interface)
+{
+  int retval;
+  char *class_name;
+  char *class_file_name;
+  classfile_ty *cf;
+  const char *problem;
+
+  if (locale_name != NULL)
+    class_name = xasprintf ("%s_%s", bp->resource_name, locale_name);
+  else
+    class_name = xstrdup (bp->resource_name);
+
+  if (bp->jar != NULL)
+    class_file_name = NULL;
+  else
+    {
+      char *relative = create_package_directories (bp->directory, class_name);
+
+      if (relative == NULL)
+        {
+          free (class_name);
+          return 1;
+        }
+      class_file_name =
+        xconcatenated_filename (bp->directory, relative, ".class");
+      free (relative);
+    }
+
+  retval = 1;
+  cf = java2_classfile (class_name, mlp, java_interface);
+  problem = classfile_error (cf);
+  if (problem != NULL)
+    {
+      error (0, 0, _("cannot create the class %s: %s"), class_name, problem);
+      goto quit;
+    }
+
+  if (bp->jar != NULL)
+    {
+      size_t length;
+      char *contents = classfile_contents (cf, &length);
+
+      java_jar_output_class (bp->jar, class_name, contents, length);
+      free (contents);
+    }
+  else
+    {
+      FILE *class_file = fopen (class_file_name, "wb");
+
+      if (class_file == NULL)
+        {
+          error (0, errno, _("failed to create \"%s\""), class_file_name);
+          goto quit;
+        }
+      classfile_write (cf, class_file);
+      if (fwriteerror (class_file))
+        {
+          error (0, errno, _("error while writing \"%s\" file"),
+                 class_file_name);
+          unlink (class_file_name);
+          goto quit;
+        }
     }
 
+  string_list_append (&bp->class_names, class_name);
   retval = 0;
 
- quit3:
-  {
-    int i;
-    free (java_file_name);
-    for (i = 0; i < ndots; i++)
-      free (subdirs[i]);
-  }
-  freea (subdirs);
+ quit:
+  classfile_free (cf);
+  free (class_file_name);
   free (class_name);
- quit2:
-  if (tmpdir != NULL)
-    cleanup_temp_dir (tmpdir);
- quit1:
+  return retval;
+}
+
+/* Compile the Java sources of the batch into the output directory, unless
+   they are the output, update the index of the catalogs, and free the
+   batch.  Return 0 if ok, nonzero after an error message.  */
+static int
+java_batch_end (struct java_batch *bp)
+{
+  int retval = 0;
+  size_t j;
+  int i;
+
+  if (!bp->output_source && bp->java_files.nitems > 0)
+    {
+      const char *libintljar;
+      const char *classpaths[1];
+      unsigned int classpaths_count;
+
+      /* Compile the Java files to .class files, with a single run of the
+         Java compiler.
+         directory must be non-NULL, because when the -d option is omitted,
+         the Java compilers create the class files in the source file's
+         directory - which is in a temporary directory in our case.  */
+      if (bp->needs_libintl)
+        {
+          /* The classes use classes from libintl.jar.  Make it
+             possible to override the libintl.jar location.  This is
+             necessary for running the testsuite before "make install".  */
+          libintljar = getenv ("LIBINTLJAR");
+          if (libintljar == NULL || libintljar[0] == '\0')
+            libintljar = relocate (LIBINTLJAR);
+          classpaths[0] = libintljar;
+          classpaths_count = 1;
+        }
+      else
+        classpaths_count = 0;
+      if (compile_java_class (bp->java_files.item, bp->java_files.nitems,
+                              classpaths, classpaths_count,
+                              "1.5", "1.6", bp->directory,
+                              true, false, true, verbose > 0))
+        {
+          if (!verbose)
+            error (0, 0,
+                   _("compilation of Java class failed, please try --verbose or set $JAVAC"));
+          else
+            error (0, 0,
+                   _("compilation of Java class failed, please try to set $JAVAC"));
+          for (j = 0; j < bp->strings_files.nitems; j++)
+            unlink (bp->strings_files.item[j]);
+          retval = 1;
+        }
+    }
+
+  if (retval == 0 && bp->catalog_index && bp->class_names.nitems > 0
+      && (bp->jar != NULL
+          ? java_jar_output_catalog_index (bp->jar, bp->resource_name,
+                                           &bp->class_names)
+          : update_catalog_index (bp->directory, bp->resource_name,
+                                  &bp->class_names)))
+    retval = 1;
+
+  string_list_destroy (&bp->class_names);
+  string_list_destroy (&bp->strings_files);
+  string_list_destroy (&bp->java_files);
+  for (i = 0; i < bp->ndots; i++)
+    free (bp->subdirs[i]);
+  free (bp->subdirs);
+  if (bp->tmpdir != NULL)
+    cleanup_temp_dir (bp->tmpdir);
+  return retval;
+}
+
+/* Write the Java class for the resource RESOURCE_NAME and the locale
+   LOCALE_NAME (or NULL) through WRITE_CODE, and compile it into DIRECTORY,
+   or into JAR if it is non-NULL, or, if OUTPUT_SOURCE, store the Java
+   source in DIRECTORY.  If NEEDS_LIBINTL, the class uses classes from
+   libintl.jar.
+   Return 0 if ok, nonzero on error.  */
+static int
+write_java_class (const char *resource_name, const char *locale_name,
+                  const char *directory, java_jar_output_ty *jar,
+                  bool separate_strings,
+                  bool needs_libintl,
+                  bool catalog_index,
+                  bool output_source,
+                  java_code_writer_ty write_code, void *data)
+{
+  struct java_batch batch;
+  int retval;
+
+  if (java_batch_begin (&batch, resource_name, directory, jar, needs_libintl,
+                        catalog_index, false, output_source))
+    return 1;
+  retval = java_batch_add (&batch, locale_name, separate_strings,
+                           write_code, data);
+  if (java_batch_end (&batch))
+    retval = 1;
+  return retval;
+}
+
+
+/* The arguments of write_java_code, for write_java_class.  */
+struct java_code_args
+{
+  message_list_ty *mlp;
+  bool assume_java2;
+  bool java_interface;
+  bool perfect_hash;
+  unsigned int shard_size;
+};
+
+static void
+write_java_code_with_args (FILE *stream, const char *class_name,
+                           FILE *strings_stream, void *data)
+{
+  const struct java_code_args *args = (const struct java_code_args *) data;
+
+  write_java_code (stream, class_name, args->mlp, args->assume_java2,
+                   args->java_interface, args->perfect_hash,
+                   args->shard_size, strings_stream);
+}
+
+int
+msgdomain_write_java (message_list_ty *mlp, const char *canon_encoding,
+                      const char *resource_name, const char *locale_name,
+                      const char *directory,
+                      java_jar_output_ty *jar,
+                      bool assume_java2,
+                      bool java_interface,
+                      bool perfect_hash,
+                      unsigned int shard_size,
+                      bool separate_strings,
+                      bool catalog_index,
+                      bool bytecode,
+                      bool output_source)
+{
+  struct java_code_args args;
+
+  /* If no entry for this resource/domain, don't even create the file.  */
+  if (mlp->nitems == 0)
+    return 0;
+
+  /* Convert the messages to Unicode.  */
+  iconv_message_list (mlp, canon_encoding, po_charset_utf8, NULL);
+
+  /* Support for "reproducible builds": Delete information that may vary
+     between builds in the same conditions.  */
+  message_list_delete_header_field (mlp, "POT-Creation-Date:");
+
+  if (bytecode)
+    {
+      struct java_batch batch;
+      int retval;
+
+      if (java_batch_begin (&batch, resource_name, directory, jar,
+                            java_interface, catalog_index, true, false))
+        return 1;
+      retval = java_batch_add_classfile (&batch, locale_name, mlp,
+                                         java_interface);
+      if (java_batch_end (&batch))
+        retval = 1;
+      return retval;
+    }
+
+  args.mlp = mlp;
+  args.assume_java2 = assume_java2;
+  args.java_interface = java_interface;
+  args.perfect_hash = perfect_hash;
+  args.shard_size = shard_size;
+  return write_java_class (resource_name, locale_name, directory, jar,
+                           separate_strings, java_interface, catalog_index,
+                           output_source, write_java_code_with_args, &args);
+}
+
+int
+msgdomain_write_java_batch (message_list_ty **mlps,
+                            const char * const *locale_names,
+                            size_t nlocales,
+                            const char *canon_encoding,
+                            const char *resource_name,
+                            const char *directory,
+                            java_jar_output_ty *jar,
+                            bool assume_java2,
+                            bool java_interface,
+                            bool perfect_hash,
+                            unsigned int shard_size,
+                            bool separate_strings,
+                            bool catalog_index,
+                            bool bytecode,
+                            bool output_source)
+{
+  struct java_batch batch;
+  size_t i;
+  int retval;
+
+  if (java_batch_begin (&batch, resource_name, directory, jar,
+                        java_interface, catalog_index, bytecode,
+                        output_source))
+    return 1;
+
+  retval = 0;
+  for (i = 0; i < nlocales; i++)
+    {
+      message_list_ty *mlp = mlps[i];
+      struct java_code_args args;
+
+      /* If no entry for this locale, don't even create the file.  */
+      if (mlp->nitems == 0)
+        continue;
+
+      /* Convert the messages to Unicode.  */
+      iconv_message_list (mlp, canon_encoding, po_charset_utf8, NULL);
+
+      /* Support for "reproducible builds": Delete information that may vary
+         between builds in the same conditions.  */
+      message_list_delete_header_field (mlp, "POT-Creation-Date:");
+
+      if (bytecode)
+        {
+          if (java_batch_add_classfile (&batch, locale_names[i], mlp,
+                                        java_interface))
+            retval = 1;
+          continue;
+        }
+
+      args.mlp = mlp;
+      args.assume_java2 = assume_java2;
+      args.java_interface = java_interface;
+      args.perfect_hash = perfect_hash;
+      args.shard_size = shard_size;
+      if (java_batch_add (&batch, locale_names[i], separate_strings,
+                          write_java_code_with_args, &args))
+        retval = 1;
+    }
+
+  if (java_batch_end (&batch))
+    retval = 1;
+  return retval;
+}
+
+int
+msgdomain_write_java_pack (message_list_ty **mlps,
+                           const char * const *locale_names,
+                           size_t nlocales,
+                           const char *canon_encoding,
+                           const char *resource_name,
+                           const char *directory,
+                           java_jar_output_ty *jar,
+                           bool perfect_hash,
+                           bool output_source)
+{
+  struct java_pack pack;
+  size_t i;
+  size_t j;
+  int retval;
+
+  pack.mlps = mlps;
+  pack.locale_names = locale_names;
+  pack.nlocales = nlocales;
+  pack.keys = message_list_alloc (true);
+  pack.perfect_hash = perfect_hash;
+
+  for (i = 0; i < nlocales; i++)
+    {
+      message_list_ty *mlp = mlps[i];
+
+      /* Convert the messages to Unicode.  */
+      iconv_message_list (mlp, canon_encoding, po_charset_utf8, NULL);
+
+      /* Support for "reproducible builds": Delete information that may vary
+         between builds in the same conditions.  */
+      message_list_delete_header_field (mlp, "POT-Creation-Date:");
+
+      /* Collect the keys.  */
+      for (j = 0; j < mlp->nitems; j++)
+        {
+          message_ty *mp = mlp->item[j];
+
+          if (message_list_search (pack.keys, mp->msgctxt, mp->msgid) == NULL)
+            message_list_append (pack.keys, mp);
+        }
+    }
+
+  /* If there are no messages, don't even create the file.  */
+  if (pack.keys->nitems == 0)
+    retval = 0;
+  else
+    retval = write_java_class (resource_name, NULL, directory, jar, false,
+                               true, false, output_source,
+                               write_java_pack_code, &pack);
+
+  message_list_free (pack.keys, 1);
   return retval;
 }
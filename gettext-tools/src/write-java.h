@@ -1,5 +1,5 @@
 /* Writing Java ResourceBundles.
-   Copyright (C) 2001-2003, 2014 Free Software Foundation, Inc.
+   Copyright (C) 2001-2003, 2014, 2021 Free Software Foundation, Inc.
    Written by Bruno Haible <haible@clisp.cons.org>, 2001.
 
    This program is free software: you can redistribute it and/or modify
@@ -22,10 +22,28 @@
 
 #include "message.h"
 
+/* Writing the classes into a jar file, instead of a directory.  */
+typedef struct java_jar_output java_jar_output_ty;
+
 /* Write a Java ResourceBundle class file.  mlp is a list containing the
    messages to be output.  resource_name is the name of the resource
    (with dot separators), locale_name is the locale name (with underscore
    separators) or NULL, directory is the base directory.
+   If jar is non-NULL, the class is written into this jar file instead of
+   directory.
+   If java_interface is true, the class implements the interface
+   gnu.gettext.GettextCatalog from libintl.jar.
+   If perfect_hash is true, the lookup uses a minimal perfect hash function,
+   if one can be found.
+   If shard_size is nonzero, the messages are split by hash code into nested
+   classes of about shard_size messages each, which are loaded on demand.
+   If separate_strings is true, the strings are stored in a file next to the
+   class file, with the same name and the suffix ".strings".
+   If catalog_index is true, the class name is added to the index of the
+   catalogs of the resource, a file with the suffix ".catalogs".
+   If bytecode is true, the class file is written directly, without a Java
+   compiler.  This requires assume_java2, and is not supported together
+   with perfect_hash, shard_size, separate_strings or output_source.
    Return 0 if ok, nonzero on error.  */
 extern int
        msgdomain_write_java (message_list_ty *mlp,
@@ -33,7 +51,75 @@ extern int
                              const char *resource_name,
                              const char *locale_name,
                              const char *directory,
+                             java_jar_output_ty *jar,
                              bool assume_java2,
+                             bool java_interface,
+                             bool perfect_hash,
+                             unsigned int shard_size,
+                             bool separate_strings,
+                             bool catalog_index,
+                             bool bytecode,
                              bool output_source);
 
+/* Write the Java ResourceBundle classes of several locales of the same
+   resource, and compile them with a single run of the Java compiler (or,
+   if bytecode is true, write their class files directly):
+   mlps[i] is the list of messages of the locale locale_names[i] (with
+   underscore separators) or, if locale_names[i] is NULL, of the base
+   class, for 0 <= i < nlocales.  The classes are the same as those that
+   msgdomain_write_java creates for each locale, with the same options.
+   Return 0 if ok, nonzero on error.  */
+extern int
+       msgdomain_write_java_batch (message_list_ty **mlps,
+                                   const char * const *locale_names,
+                                   size_t nlocales,
+                                   const char *canon_encoding,
+                                   const char *resource_name,
+                                   const char *directory,
+                                   java_jar_output_ty *jar,
+                                   bool assume_java2,
+                                   bool java_interface,
+                                   bool perfect_hash,
+                                   unsigned int shard_size,
+                                   bool separate_strings,
+                                   bool catalog_index,
+                                   bool bytecode,
+                                   bool output_source);
+
+/* Write a catalog pack, a Java class that extends gnu.gettext.CatalogPack
+   and contains the messages of several locales: mlps[i] is the list of
+   messages of the locale locale_names[i] (with underscore separators), for
+   0 <= i < nlocales.  resource_name is the class name (with dot separators),
+   directory is the base directory, or jar, if non-NULL, the jar file.
+   If perfect_hash is true, the lookup uses a minimal perfect hash function,
+   if one can be found.
+   Return 0 if ok, nonzero on error.  */
+extern int
+       msgdomain_write_java_pack (message_list_ty **mlps,
+                                  const char * const *locale_names,
+                                  size_t nlocales,
+                                  const char *canon_encoding,
+                                  const char *resource_name,
+                                  const char *directory,
+                                  java_jar_output_ty *jar,
+                                  bool perfect_hash,
+                                  bool output_source);
+
+/* Prepare writing classes into the jar file jar_file_name, which is
+   created or updated, through the functions above.  The class files that
+   are written directly go into it from memory; the classes that the Java
+   compiler creates go through a temporary directory.
+   Return NULL after an error message.  */
+extern java_jar_output_ty *
+       java_jar_output_begin (const char *jar_file_name);
+
+/* Move the files from the temporary directory, if any, into the jar file,
+   and, if write is true, write the jar file.  Its entries are in the order
+   of their names, and the new ones have the time stamp given by the
+   environment variable SOURCE_DATE_EPOCH, or a fixed time stamp if it is
+   not set.
+   Return 0 if ok, nonzero on error.  */
+extern int
+       java_jar_output_end (java_jar_output_ty *jop, bool write);
+
 #endif /* _WRITE_JAVA_H */
@@ -113,6 +113,10 @@ init_keywords ()
       x_java_keyword ("GettextResource.ngettext:2,3");     /* static method */
       x_java_keyword ("GettextResource.pgettext:2c,3");    /* static method */
       x_java_keyword ("GettextResource.npgettext:2c,3,4"); /* static method */
+      x_java_keyword ("GettextResource.format:2");         /* static method */
+      x_java_keyword ("GettextResource.nformat:2,3");      /* static method */
+      x_java_keyword ("GettextResource.pformat:2c,3");     /* static method */
+      x_java_keyword ("GettextResource.npformat:2c,3,4");  /* static method */
       x_java_keyword ("gettext");
       x_java_keyword ("ngettext:1,2");
       x_java_keyword ("pgettext:1c,2");
@@ -137,6 +141,12 @@ init_flag_table_java ()
   xgettext_record_flag ("GettextResource.npgettext:3:pass-java-printf-format");
   xgettext_record_flag ("GettextResource.npgettext:4:pass-java-format");
   xgettext_record_flag ("GettextResource.npgettext:4:pass-java-printf-format");
+  xgettext_record_flag ("GettextResource.format:2:java-format");
+  xgettext_record_flag ("GettextResource.nformat:2:java-format");
+  xgettext_record_flag ("GettextResource.nformat:3:java-format");
+  xgettext_record_flag ("GettextResource.pformat:3:java-format");
+  xgettext_record_flag ("GettextResource.npformat:3:java-format");
+  xgettext_record_flag ("GettextResource.npformat:4:java-format");
   xgettext_record_flag ("gettext:1:pass-java-format");
   xgettext_record_flag ("gettext:1:pass-java-printf-format");
   xgettext_record_flag ("ngettext:1:pass-java-format");
@@ -154,6 +164,8 @@ init_flag_table_java ()
   xgettext_record_flag ("MessageFormat:1:java-format");
   xgettext_record_flag ("MessageFormat.format:1:java-format");
   xgettext_record_flag ("String.format:1:java-printf-format");
+  xgettext_record_flag ("PrintfFormat:1:java-printf-format");
+  xgettext_record_flag ("PrintfFormat.getInstance:1:java-printf-format");
   xgettext_record_flag ("printf:1:java-printf-format"); /* PrintStream.printf */
 }
 